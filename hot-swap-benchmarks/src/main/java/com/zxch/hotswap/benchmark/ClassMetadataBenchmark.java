@@ -0,0 +1,101 @@
+package com.zxch.hotswap.benchmark;
+
+import com.zxch.hotswap.util.ClassMetadata;
+import com.zxch.hotswap.util.Fingerprints;
+import com.zxch.hotswap.util.HotSwapUtils;
+import net.bytebuddy.jar.asm.ClassReader;
+import net.bytebuddy.jar.asm.ClassVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 常量池扫描与 ASM ClassReader 读取类名/元数据的对比
+ * <p>
+ * 使用 {@code -prof gc} 可以同时对比每次操作的内存分配
+ *
+ * @author zhangxun
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassMetadataBenchmark {
+
+    /**
+     * 常量池大小不同的类：小（几 KB）、中、大（几十 KB）
+     */
+    @Param({"com.zxch.hotswap.HotSwapResult", "java.util.concurrent.ConcurrentHashMap", "java.lang.Character"})
+    public String className;
+
+    private byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        try (InputStream in = ClassLoader.getSystemResourceAsStream(className.replace('.', '/') + ".class")) {
+            if (in == null) {
+                throw new IllegalStateException("Class file not found: " + className);
+            }
+            bytes = in.readAllBytes();
+        }
+    }
+
+    @Benchmark
+    public String readClassNameByClassReader() {
+        return new ClassReader(bytes).getClassName().replace('/', '.');
+    }
+
+    @Benchmark
+    public String readClassNameByScanner() {
+        return HotSwapUtils.readClassName(bytes);
+    }
+
+    /**
+     * 改造前的流程：ClassReader 读取类名、父类和 nest 信息，再单独计算指纹
+     */
+    @Benchmark
+    public void readMetadataByClassReader(Blackhole blackhole) {
+        ClassReader classReader = new ClassReader(bytes);
+        classReader.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                blackhole.consume(name.replace('/', '.'));
+                blackhole.consume(superName);
+                blackhole.consume(version);
+            }
+
+            @Override
+            public void visitNestHost(String nestHost) {
+                blackhole.consume(nestHost);
+            }
+
+            @Override
+            public void visitNestMember(String nestMember) {
+                blackhole.consume(nestMember);
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        blackhole.consume(Fingerprints.hash64(bytes));
+    }
+
+    @Benchmark
+    public ClassMetadata readMetadataByScanner() {
+        return ClassMetadata.parse(bytes);
+    }
+}
@@ -0,0 +1,111 @@
+package com.zxch.hotswap.benchmark;
+
+import net.bytebuddy.jar.asm.ClassWriter;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * 生成指定大小、可以互相重定义的测试类
+ * <p>
+ * 同一个类的不同版本结构完全相同，只有 {@code variant()} 的返回值不同，
+ * 因此可以反复重定义，且每个版本的指纹都不同，不会被跳过。
+ * 生成的类实现 {@link IntUnaryOperator}，{@code applyAsInt} 很小、会被 JIT 编译，
+ * 可以作为业务线程的负载观察重定义带来的反优化；填充方法只用于撑大类文件，不会被调用
+ *
+ * @author zhangxun
+ */
+final class GeneratedClasses {
+
+    /**
+     * 每个填充方法的最大指令数，保证方法体不超过 64 KB
+     */
+    private static final int MAX_REPEATS_PER_METHOD = 8000;
+
+    /**
+     * 每次重复的指令：iload_0, iconst_1, iadd, istore_0
+     */
+    private static final int BYTES_PER_REPEAT = 4;
+
+    private static final int BASE_SIZE = 400;
+
+    private GeneratedClasses() {
+    }
+
+    /**
+     * 生成类字节码
+     *
+     * @param className  类名（com.example.MyClass 格式）
+     * @param targetSize 目标大小（字节），实际大小与之相差不超过几百字节
+     * @param variant    版本号
+     * @return class 文件字节码
+     */
+    static byte[] generate(String className, int targetSize, int variant) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V11, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, className.replace('.', '/'), null,
+                "java/lang/Object", new String[]{"java/util/function/IntUnaryOperator"});
+
+        MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        MethodVisitor variantMethod = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "variant", "()I", null, null);
+        variantMethod.visitCode();
+        variantMethod.visitIntInsn(Opcodes.SIPUSH, variant);
+        variantMethod.visitInsn(Opcodes.IRETURN);
+        variantMethod.visitMaxs(0, 0);
+        variantMethod.visitEnd();
+
+        MethodVisitor apply = writer.visitMethod(Opcodes.ACC_PUBLIC, "applyAsInt", "(I)I", null, null);
+        apply.visitCode();
+        apply.visitVarInsn(Opcodes.ILOAD, 1);
+        apply.visitIntInsn(Opcodes.BIPUSH, 31);
+        apply.visitInsn(Opcodes.IMUL);
+        apply.visitMethodInsn(Opcodes.INVOKESTATIC, className.replace('.', '/'), "variant", "()I", false);
+        apply.visitInsn(Opcodes.IADD);
+        apply.visitInsn(Opcodes.IRETURN);
+        apply.visitMaxs(0, 0);
+        apply.visitEnd();
+
+        int repeats = Math.max(0, targetSize - BASE_SIZE) / BYTES_PER_REPEAT;
+        for (int i = 0; repeats > 0; i++) {
+            int count = Math.min(repeats, MAX_REPEATS_PER_METHOD);
+            repeats -= count;
+
+            MethodVisitor filler = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "filler" + i, "(I)I", null, null);
+            filler.visitCode();
+            for (int j = 0; j < count; j++) {
+                filler.visitVarInsn(Opcodes.ILOAD, 0);
+                filler.visitInsn(Opcodes.ICONST_1);
+                filler.visitInsn(Opcodes.IADD);
+                filler.visitVarInsn(Opcodes.ISTORE, 0);
+            }
+            filler.visitVarInsn(Opcodes.ILOAD, 0);
+            filler.visitInsn(Opcodes.IRETURN);
+            filler.visitMaxs(0, 0);
+            filler.visitEnd();
+        }
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    /**
+     * 加载生成的类，每个测试使用独立的 ClassLoader，互不干扰
+     */
+    static final class Loader extends ClassLoader {
+
+        Loader() {
+            super(GeneratedClasses.class.getClassLoader());
+        }
+
+        Class<?> define(String className, byte[] bytes) {
+            return defineClass(className, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.zxch.hotswap.benchmark;
+
+import com.zxch.hotswap.IHotSwapProvider;
+import com.zxch.hotswap.provider.ByteArrayHotSwapProvider;
+import com.zxch.hotswap.util.ClassMetadata;
+import com.zxch.hotswap.util.HotSwapUtils;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * 热加载对业务线程尾延迟的影响
+ * <p>
+ * N 个工作线程持续调用生成类的方法并记录每次调用的延迟，分为三个阶段：
+ * <ol>
+ *     <li>before：没有热加载，作为基线</li>
+ *     <li>during：按固定间隔反复整批热加载工作线程正在调用的类</li>
+ *     <li>after：停止热加载，观察延迟恢复</li>
+ * </ol>
+ * 报告每个阶段的延迟分位数，以及最后一次热加载结束后窗口 p99 回到基线所需的时间。
+ * <p>
+ * 参数（均为 --key=value 格式，可省略）：
+ * <pre>
+ *   --workers=4                    工作线程数
+ *   --shapes=1x1,100x10,500x10     每个场景的“单个类大小(KB)x批量大小”
+ *   --phaseMillis=5000             每个阶段的时长
+ *   --warmupMillis=3000            开始记录前的预热时长
+ *   --swapIntervalMillis=500       during 阶段两次热加载之间的间隔
+ *   --windowMillis=10              统计恢复时间使用的窗口长度
+ *   --stableWindows=10             连续多少个窗口回到基线才算恢复
+ *   --tolerance=0.5                窗口 p99 不超过基线 p99 的 (1 + tolerance) 倍即视为回到基线
+ * </pre>
+ *
+ * @author zhangxun
+ */
+public final class LatencyHarness {
+
+    private static final String[] PHASES = {"before", "during", "after"};
+
+    private static final int BEFORE = 0;
+    private static final int DURING = 1;
+    private static final int AFTER = 2;
+
+    private int workers = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    private List<String> shapes = Arrays.asList("1x1", "100x10", "500x10");
+    private long phaseMillis = 5000;
+    private long warmupMillis = 3000;
+    private long swapIntervalMillis = 500;
+    private long windowMillis = 10;
+    private int stableWindows = 10;
+    private double tolerance = 0.5;
+
+    private LatencyHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LatencyHarness harness = new LatencyHarness();
+        for (String arg : args) {
+            harness.parse(arg);
+        }
+
+        for (int i = 0; i < harness.shapes.size(); i++) {
+            harness.run(i, harness.shapes.get(i));
+        }
+    }
+
+    private void parse(String arg) {
+        int separator = arg.indexOf('=');
+        if (!arg.startsWith("--") || separator < 0) {
+            throw new IllegalArgumentException("Expected --key=value but was: " + arg);
+        }
+
+        String key = arg.substring(2, separator);
+        String value = arg.substring(separator + 1);
+        switch (key) {
+            case "workers":
+                workers = Integer.parseInt(value);
+                break;
+            case "shapes":
+                shapes = Arrays.asList(value.split(","));
+                break;
+            case "phaseMillis":
+                phaseMillis = Long.parseLong(value);
+                break;
+            case "warmupMillis":
+                warmupMillis = Long.parseLong(value);
+                break;
+            case "swapIntervalMillis":
+                swapIntervalMillis = Long.parseLong(value);
+                break;
+            case "windowMillis":
+                windowMillis = Long.parseLong(value);
+                break;
+            case "stableWindows":
+                stableWindows = Integer.parseInt(value);
+                break;
+            case "tolerance":
+                tolerance = Double.parseDouble(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: " + key);
+        }
+    }
+
+    private void run(int scenario, String shape) throws Exception {
+        String[] parts = shape.split("x");
+        int classSizeKb = Integer.parseInt(parts[0]);
+        int batchSize = Integer.parseInt(parts[1]);
+
+        // 准备两个版本交替热加载
+        GeneratedClasses.Loader loader = new GeneratedClasses.Loader();
+        IntUnaryOperator[] targets = new IntUnaryOperator[batchSize];
+        IHotSwapProvider[][] providers = new IHotSwapProvider[2][batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            String className = "bench.LatencyTarget" + scenario + "_" + i;
+            for (int v = 0; v < 2; v++) {
+                byte[] bytes = GeneratedClasses.generate(className, classSizeKb * 1024, v);
+                providers[v][i] = new ByteArrayHotSwapProvider(bytes, ClassMetadata.parse(bytes));
+            }
+            byte[] initial = ((ByteArrayHotSwapProvider) providers[0][i]).getClassBytes();
+            targets[i] = (IntUnaryOperator) loader.define(className, initial).getDeclaredConstructor().newInstance();
+        }
+
+        // 先热加载一次初始版本，把 agent 安装、已加载类索引等一次性开销排除在测量之外
+        if (!HotSwapUtils.hotswapClassesAtomically(providers[0])) {
+            throw new IllegalStateException("Hot swap failed for shape " + shape);
+        }
+
+        Recorder recorder = new Recorder(3);
+        Worker[] workerThreads = new Worker[workers];
+        for (int i = 0; i < workers; i++) {
+            workerThreads[i] = new Worker("latency-worker-" + i, targets, recorder, i);
+            workerThreads[i].start();
+        }
+
+        // 预热完成后再开始记录，避免把 JIT 编译计入基线
+        Thread.sleep(warmupMillis);
+        recorder.reset();
+
+        Sampler sampler = new Sampler(recorder);
+        sampler.start();
+
+        Thread.sleep(phaseMillis);
+
+        sampler.phase = DURING;
+        long duringEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(phaseMillis);
+        Histogram swapTimes = new Histogram(3);
+        long lastSwapEnd = 0;
+        int version = 0;
+        while (System.nanoTime() < duringEnd) {
+            version = 1 - version;
+            long start = System.nanoTime();
+            if (!HotSwapUtils.hotswapClassesAtomically(providers[version])) {
+                throw new IllegalStateException("Hot swap failed for shape " + shape);
+            }
+            lastSwapEnd = System.nanoTime();
+            swapTimes.recordValue(lastSwapEnd - start);
+            Thread.sleep(swapIntervalMillis);
+        }
+
+        sampler.phase = AFTER;
+        Thread.sleep(phaseMillis);
+
+        sampler.running = false;
+        sampler.join();
+        for (Worker worker : workerThreads) {
+            worker.running = false;
+            worker.join();
+        }
+
+        report(shape, sampler, swapTimes, lastSwapEnd);
+    }
+
+    private void report(String shape, Sampler sampler, Histogram swapTimes, long lastSwapEnd) {
+        System.out.printf(Locale.ROOT, "%nShape %s (KB x batch), %d worker(s), %d swap(s), swap time p50 %.2f ms, max %.2f ms%n",
+                shape, workers, swapTimes.getTotalCount(), swapTimes.getValueAtPercentile(50) / 1e6, swapTimes.getMaxValue() / 1e6);
+        System.out.printf(Locale.ROOT, "%-8s %12s %10s %10s %10s %10s %12s%n",
+                "phase", "calls", "p50(us)", "p90(us)", "p99(us)", "p99.9(us)", "max(us)");
+        for (int i = 0; i < PHASES.length; i++) {
+            Histogram histogram = sampler.phases[i];
+            System.out.printf(Locale.ROOT, "%-8s %12d %10.2f %10.2f %10.2f %10.2f %12.2f%n",
+                    PHASES[i], histogram.getTotalCount(),
+                    histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(90) / 1e3,
+                    histogram.getValueAtPercentile(99) / 1e3, histogram.getValueAtPercentile(99.9) / 1e3,
+                    histogram.getMaxValue() / 1e3);
+        }
+
+        long baseline = sampler.phases[BEFORE].getValueAtPercentile(99);
+        long threshold = (long) (baseline * (1 + tolerance));
+        long recovery = recoveryNanos(sampler.windows, lastSwapEnd, threshold);
+        if (recovery < 0) {
+            System.out.printf(Locale.ROOT, "Recovery: not recovered within the after phase (threshold p99 %.2f us)%n",
+                    threshold / 1e3);
+        } else {
+            System.out.printf(Locale.ROOT, "Recovery: %.1f ms after the last swap (%d consecutive %d ms windows with p99 <= %.2f us)%n",
+                    recovery / 1e6, stableWindows, windowMillis, threshold / 1e3);
+        }
+    }
+
+    /**
+     * 最后一次热加载结束后，连续 stableWindows 个窗口的 p99 都不超过阈值时，第一个窗口的开始时间即为恢复时间
+     *
+     * @return 恢复耗时（纳秒），没有恢复时返回 -1
+     */
+    private long recoveryNanos(List<Window> windows, long lastSwapEnd, long threshold) {
+        int stable = 0;
+        for (int i = 0; i < windows.size(); i++) {
+            Window window = windows.get(i);
+            if (window.endNanos <= lastSwapEnd) {
+                continue;
+            }
+            if (window.p99 <= threshold) {
+                stable++;
+                if (stable == stableWindows) {
+                    Window first = windows.get(i - stableWindows + 1);
+                    return Math.max(0, first.startNanos - lastSwapEnd);
+                }
+            } else {
+                stable = 0;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 业务线程：轮流调用所有被热加载的类
+     */
+    private static final class Worker extends Thread {
+
+        private final IntUnaryOperator[] targets;
+
+        private final Recorder recorder;
+
+        private volatile boolean running = true;
+
+        private volatile int sink;
+
+        private int next;
+
+        private Worker(String name, IntUnaryOperator[] targets, Recorder recorder, int offset) {
+            super(name);
+            this.targets = targets;
+            this.recorder = recorder;
+            this.next = offset % targets.length;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int value = 0;
+            while (running) {
+                IntUnaryOperator target = targets[next];
+                next = next + 1 == targets.length ? 0 : next + 1;
+
+                long start = System.nanoTime();
+                value += target.applyAsInt(value);
+                recorder.recordValue(System.nanoTime() - start);
+            }
+            sink = value;
+        }
+    }
+
+    /**
+     * 按窗口收集延迟，同时累加到当前阶段
+     */
+    private final class Sampler extends Thread {
+
+        private final Recorder recorder;
+
+        private final Histogram[] phases = {new Histogram(3), new Histogram(3), new Histogram(3)};
+
+        private final List<Window> windows = new ArrayList<>();
+
+        private volatile int phase = BEFORE;
+
+        private volatile boolean running = true;
+
+        private Sampler(Recorder recorder) {
+            super("latency-sampler");
+            this.recorder = recorder;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            Histogram interval = null;
+            long windowStart = System.nanoTime();
+            while (running) {
+                try {
+                    Thread.sleep(windowMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                interval = recorder.getIntervalHistogram(interval);
+                long windowEnd = System.nanoTime();
+                phases[phase].add(interval);
+                if (interval.getTotalCount() > 0) {
+                    windows.add(new Window(windowStart, windowEnd, interval.getValueAtPercentile(99)));
+                }
+                windowStart = windowEnd;
+            }
+        }
+    }
+
+    private static final class Window {
+
+        private final long startNanos;
+
+        private final long endNanos;
+
+        private final long p99;
+
+        private Window(long startNanos, long endNanos, long p99) {
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+            this.p99 = p99;
+        }
+    }
+}
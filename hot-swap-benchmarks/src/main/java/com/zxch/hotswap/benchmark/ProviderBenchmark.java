@@ -0,0 +1,59 @@
+package com.zxch.hotswap.benchmark;
+
+import com.zxch.hotswap.provider.DefaultHotSwapProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DefaultHotSwapProvider#getClassBytes()} 读取本地 class 文件的耗时
+ *
+ * @author zhangxun
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProviderBenchmark {
+
+    @Param({"1", "10", "100", "500"})
+    public int classSizeKb;
+
+    private Path classFile;
+
+    private DefaultHotSwapProvider provider;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        classFile = Files.createTempFile("hotswap-bench-", ".class");
+        Files.write(classFile, GeneratedClasses.generate("bench.ProviderTarget", classSizeKb * 1024, 1));
+        provider = new DefaultHotSwapProvider(classFile.toFile());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(classFile);
+    }
+
+    @Benchmark
+    public byte[] getClassBytes() {
+        return provider.getClassBytes();
+    }
+}
@@ -0,0 +1,136 @@
+package com.zxch.hotswap.benchmark;
+
+import com.zxch.hotswap.IHotSwapProvider;
+import com.zxch.hotswap.provider.ByteArrayHotSwapProvider;
+import com.zxch.hotswap.util.ClassMetadata;
+import com.zxch.hotswap.util.HotSwapUtils;
+import net.bytebuddy.agent.ByteBuddyAgent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 逐个重定义与一次 redefineClasses 整批重定义的对比
+ * <p>
+ * {@code shape} 参数格式为“单个类大小(KB)x批量大小”，没有使用类大小和批量大小的全组合，
+ * 是为了避免 500 KB x 500 这样总量过大的组合；需要其他组合时通过 {@code -p shape=...} 指定
+ *
+ * @author zhangxun
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djdk.attach.allowAttachSelf=true")
+public class RedefineBenchmark {
+
+    @Param({"1x1", "1x10", "1x100", "1x500", "10x1", "10x100", "10x500", "100x1", "100x10", "100x100", "500x1", "500x10"})
+    public String shape;
+
+    private Instrumentation instrumentation;
+
+    private Class<?>[] classes;
+
+    /**
+     * 两个版本交替重定义，下标为 [版本][类]
+     */
+    private byte[][][] bytes;
+
+    private ClassMetadata[][] metadata;
+
+    private IHotSwapProvider[][] providers;
+
+    private ClassDefinition[][] definitions;
+
+    private int current;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] parts = shape.split("x");
+        int classSize = Integer.parseInt(parts[0]) * 1024;
+        int batchSize = Integer.parseInt(parts[1]);
+
+        instrumentation = ByteBuddyAgent.install();
+        classes = new Class<?>[batchSize];
+        bytes = new byte[2][batchSize][];
+        metadata = new ClassMetadata[2][batchSize];
+        providers = new IHotSwapProvider[2][batchSize];
+        definitions = new ClassDefinition[2][batchSize];
+
+        GeneratedClasses.Loader loader = new GeneratedClasses.Loader();
+        for (int i = 0; i < batchSize; i++) {
+            String className = "bench.RedefineTarget" + i;
+            for (int v = 0; v < 2; v++) {
+                bytes[v][i] = GeneratedClasses.generate(className, classSize, v);
+                metadata[v][i] = ClassMetadata.parse(bytes[v][i]);
+                providers[v][i] = new ByteArrayHotSwapProvider(bytes[v][i], metadata[v][i]);
+            }
+            classes[i] = loader.define(className, bytes[0][i]);
+            for (int v = 0; v < 2; v++) {
+                definitions[v][i] = new ClassDefinition(classes[i], bytes[v][i]);
+            }
+        }
+    }
+
+    /**
+     * 每次迭代后确认最后一次重定义确实生效
+     */
+    @TearDown(Level.Iteration)
+    public void verify() throws ReflectiveOperationException {
+        int expected = current;
+        int actual = (int) classes[classes.length - 1].getMethod("variant").invoke(null);
+        if (actual != expected) {
+            throw new IllegalStateException("Expected variant " + expected + " but was " + actual);
+        }
+    }
+
+    private int next() {
+        current = 1 - current;
+        return current;
+    }
+
+    /**
+     * 直接调用 Instrumentation 整批重定义，作为基线
+     */
+    @Benchmark
+    public void redefineClassesRaw() throws Exception {
+        instrumentation.redefineClasses(definitions[next()]);
+    }
+
+    /**
+     * 逐个类调用 {@link HotSwapUtils#hotswapClass(byte[], ClassMetadata)}，每个类一次停顿
+     */
+    @Benchmark
+    public void hotswapEachClass() {
+        int v = next();
+        for (int i = 0; i < classes.length; i++) {
+            HotSwapUtils.hotswapClass(bytes[v][i], metadata[v][i]);
+        }
+    }
+
+    /**
+     * {@link HotSwapUtils#hotswapClassesAtomically(IHotSwapProvider...)} 整批一次停顿
+     */
+    @Benchmark
+    public boolean hotswapBatch() {
+        if (!HotSwapUtils.hotswapClassesAtomically(providers[next()])) {
+            throw new IllegalStateException("Batch hot swap failed");
+        }
+        return true;
+    }
+}
@@ -0,0 +1,129 @@
+package com.zxch.hotswap.benchmark;
+
+import com.zxch.hotswap.util.HotSwapUtils;
+import com.zxch.hotswap.zk.ZkHotSwapConfig;
+import com.zxch.hotswap.zk.ZkHotSwapListener;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ZkHotSwapListener} 处理节点更新事件的吞吐量
+ * <p>
+ * 直接调用 {@link ZkHotSwapListener#childEvent}，不需要 ZooKeeper 服务端。
+ * {@code payload=unchanged} 时节点数据与已应用的字节码相同，只测量分发、排队、解析和指纹比对；
+ * {@code payload=changed} 时每个事件都会触发一次重定义
+ *
+ * @author zhangxun
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djdk.attach.allowAttachSelf=true")
+public class ZkListenerBenchmark {
+
+    private static final int EVENTS = 1000;
+
+    private static final int CLASS_SIZE = 4 * 1024;
+
+    @Param({"1", "100"})
+    public int classCount;
+
+    @Param({"unchanged", "changed"})
+    public String payload;
+
+    /**
+     * 下标为 [版本][类]
+     */
+    private TreeCacheEvent[][] events;
+
+    private ZkHotSwapListener listener;
+
+    private ZkHotSwapListener debouncedListener;
+
+    private boolean changed;
+
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        changed = "changed".equals(payload);
+        events = new TreeCacheEvent[2][classCount];
+
+        GeneratedClasses.Loader loader = new GeneratedClasses.Loader();
+        for (int i = 0; i < classCount; i++) {
+            String className = "bench.ZkTarget" + i;
+            for (int v = 0; v < 2; v++) {
+                byte[] bytes = GeneratedClasses.generate(className, CLASS_SIZE, v);
+                events[v][i] = new TreeCacheEvent(TreeCacheEvent.Type.NODE_UPDATED,
+                        new ChildData("/hotswap/" + className, null, bytes));
+                if (v == 0) {
+                    loader.define(className, bytes);
+                    // 登记已应用的指纹，unchanged 模式下后续事件都会被跳过
+                    HotSwapUtils.hotswapClass(bytes);
+                }
+            }
+        }
+
+        listener = new ZkHotSwapListener(true, Collections.emptyList(), null, new ZkHotSwapConfig());
+        debouncedListener = new ZkHotSwapListener(true, Collections.emptyList(), null,
+                new ZkHotSwapConfig().setDebounceMillis(20));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        listener.close();
+        debouncedListener.close();
+    }
+
+    private TreeCacheEvent nextEvent() {
+        int index = (int) (sequence % classCount);
+        int version = changed ? (int) ((sequence / classCount + 1) % 2) : 0;
+        sequence++;
+        return events[version][index];
+    }
+
+    /**
+     * 每个事件单独热加载，等待全部热加载完成
+     */
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void dispatchAndApply() throws Exception {
+        long target = listener.getCompletedApplyCount() + EVENTS;
+        for (int i = 0; i < EVENTS; i++) {
+            listener.childEvent(null, nextEvent());
+        }
+        while (listener.getCompletedApplyCount() < target) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * 开启合并窗口时事件线程上的接收耗时，合并后的批量热加载在后台执行
+     */
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void ingestDebounced() throws Exception {
+        for (int i = 0; i < EVENTS; i++) {
+            debouncedListener.childEvent(null, nextEvent());
+        }
+    }
+}
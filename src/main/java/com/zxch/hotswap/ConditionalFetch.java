@@ -0,0 +1,67 @@
+package com.zxch.hotswap;
+
+/**
+ * 条件获取的结果，见 {@link IConditionalHotSwapProvider#getClassBytesIfChanged(String)}
+ *
+ * @author zhangxun
+ */
+public final class ConditionalFetch {
+
+    private final boolean changed;
+
+    private final byte[] bytes;
+
+    private final String token;
+
+    private ConditionalFetch(boolean changed, byte[] bytes, String token) {
+        this.changed = changed;
+        this.bytes = bytes;
+        this.token = token;
+    }
+
+    /**
+     * 来源与上次相同，没有读取字节码
+     *
+     * @param token 当前版本标识
+     */
+    public static ConditionalFetch unchanged(String token) {
+        if (token == null) {
+            throw new IllegalArgumentException("token cannot be null");
+        }
+        return new ConditionalFetch(false, null, token);
+    }
+
+    /**
+     * 来源已变化（或无法判断），已读取字节码
+     *
+     * @param bytes class 文件字节码，null 表示无法读取
+     * @param token 与字节码对应的版本标识，null 表示无法确定版本，下次仍会完整读取
+     */
+    public static ConditionalFetch changed(byte[] bytes, String token) {
+        return new ConditionalFetch(true, bytes, token);
+    }
+
+    public boolean isChanged() {
+        return changed;
+    }
+
+    /**
+     * @return 字节码，未变化或无法读取时为null
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return 版本标识，例如修改时间和大小、ETag 或内容指纹，可能为null
+     */
+    public String getToken() {
+        return token;
+    }
+
+    @Override
+    public String toString() {
+        return changed ? "ConditionalFetch[changed, " + (bytes == null ? "no bytes" : bytes.length + " bytes")
+                + ", token " + token + "]" : "ConditionalFetch[unchanged, token " + token + "]";
+    }
+}
@@ -0,0 +1,77 @@
+package com.zxch.hotswap;
+
+import com.zxch.hotswap.util.ClassMetadata;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 批量热加载提供者产出的一个类的字节码
+ * <p>
+ * 字节码是 {@link ByteBuffer} 中 position 到 limit 之间的内容，可以是堆内存、直接内存或内存映射文件的一段，
+ * 读取方不会修改它的 position 和 limit。
+ * 提供者可以在下一次 {@link java.util.Iterator#next()} 时复用同一块缓冲区，读取方会在此之前取走内容
+ *
+ * @author zhangxun
+ */
+public final class HotSwapPayload {
+
+    private final String className;
+
+    private final ByteBuffer content;
+
+    private final ClassMetadata metadata;
+
+    private HotSwapPayload(String className, ByteBuffer content, ClassMetadata metadata) {
+        if (content == null) {
+            throw new IllegalArgumentException("content cannot be null");
+        }
+        this.className = className;
+        this.content = content;
+        this.metadata = metadata;
+    }
+
+    /**
+     * @param className 类名（com.example.MyClass 格式），为null时从字节码中解析；不为null时必须与字节码一致
+     * @param content   class 文件字节码
+     */
+    public static HotSwapPayload of(String className, ByteBuffer content) {
+        return new HotSwapPayload(className, content, null);
+    }
+
+    /**
+     * 携带已解析的元数据，热加载时不再重复解析
+     *
+     * @param bytes    class 文件字节码，直接包装为缓冲区，批量热加载时会复制一份
+     * @param metadata 由 {@link ClassMetadata#parse(byte[])} 从同一份字节码解析得到的元数据（可为null）
+     */
+    public static HotSwapPayload of(byte[] bytes, ClassMetadata metadata) {
+        if (bytes == null) {
+            throw new IllegalArgumentException("bytes cannot be null");
+        }
+        return new HotSwapPayload(metadata == null ? null : metadata.getClassName(), ByteBuffer.wrap(bytes), metadata);
+    }
+
+    /**
+     * @return 声明的类名，没有声明时返回null
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    public ByteBuffer getContent() {
+        return content;
+    }
+
+    /**
+     * @return 已解析的元数据，没有时返回null
+     */
+    public ClassMetadata getMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public String toString() {
+        return "HotSwapPayload[" + className + ", " + content.remaining() + " bytes"
+                + (content.isDirect() ? ", direct]" : "]");
+    }
+}
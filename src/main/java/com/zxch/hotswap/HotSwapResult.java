@@ -0,0 +1,245 @@
+package com.zxch.hotswap;
+
+import com.zxch.hotswap.metrics.HotSwapPhase;
+import com.zxch.hotswap.util.Fingerprints;
+
+import java.util.Locale;
+
+/**
+ * 单个类的热加载结果
+ * <p>
+ * 除了成功与否和失败原因，还携带字节码大小、指纹、所在批次以及各阶段耗时，
+ * 同一次调用（一次单类热加载或一整批）中的所有结果共享同一个批次号，批次内共享的阶段（预检、重定义）耗时相同
+ *
+ * @author zhangxun
+ */
+public class HotSwapResult {
+
+    private static final HotSwapPhase[] PHASES = HotSwapPhase.values();
+
+    private final String className;
+
+    private final ClassLoader classLoader;
+
+    private final boolean success;
+
+    private final boolean skipped;
+
+    private final Throwable cause;
+
+    private final long batchId;
+
+    private final int bytes;
+
+    private final long fingerprint;
+
+    private final long[] phaseNanos;
+
+    private final long timestamp;
+
+    private HotSwapResult(Builder builder) {
+        this.className = builder.className;
+        this.classLoader = builder.classLoader;
+        this.success = builder.cause == null;
+        this.skipped = builder.skipped;
+        this.cause = builder.cause;
+        this.batchId = builder.batchId;
+        this.bytes = builder.bytes;
+        this.fingerprint = builder.fingerprint;
+        this.phaseNanos = builder.phaseNanos.clone();
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * 热加载成功
+     *
+     * @param className   类名
+     * @param classLoader 被重定义的类所在的 ClassLoader（null 表示 bootstrap）
+     */
+    public static HotSwapResult success(String className, ClassLoader classLoader) {
+        return builder(className).classLoader(classLoader).build();
+    }
+
+    /**
+     * 热加载失败
+     *
+     * @param className   类名（可能为null）
+     * @param classLoader 目标类所在的 ClassLoader（可能为null）
+     * @param cause       失败原因
+     */
+    public static HotSwapResult failure(String className, ClassLoader classLoader, Throwable cause) {
+        if (cause == null) {
+            throw new IllegalArgumentException("cause cannot be null");
+        }
+        return builder(className).classLoader(classLoader).cause(cause).build();
+    }
+
+    /**
+     * @param className 类名（可能为null）
+     */
+    public static Builder builder(String className) {
+        return new Builder(className);
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * @return 与上次应用的字节码相同而没有重定义（仍视为成功）
+     */
+    public boolean isSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @return 失败原因，成功时为null
+     */
+    public Throwable getCause() {
+        return cause;
+    }
+
+    /**
+     * @return 批次号，同一次调用产生的结果相同，0 表示不属于任何批次
+     */
+    public long getBatchId() {
+        return batchId;
+    }
+
+    /**
+     * @return 字节码大小，没有获取到字节码时为0
+     */
+    public int getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return 字节码指纹，见 {@link Fingerprints#hash64(byte[])}，没有获取到字节码时为0
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @param phase 阶段
+     * @return 该阶段耗时（纳秒），没有经过该阶段时为0
+     */
+    public long getPhaseNanos(HotSwapPhase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @return 各阶段耗时之和（纳秒）
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (long nanos : phaseNanos) {
+            total += nanos;
+        }
+        return total;
+    }
+
+    /**
+     * @return 结果产生的时间（毫秒时间戳）
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("HotSwapResult[").append(className)
+                .append(" @ ").append(classLoader == null ? "bootstrap" : classLoader);
+        if (batchId != 0) {
+            builder.append(", batch ").append(batchId);
+        }
+        if (bytes > 0) {
+            builder.append(", ").append(bytes).append(" bytes, ").append(Fingerprints.toHex(fingerprint));
+        }
+        for (HotSwapPhase phase : PHASES) {
+            long nanos = phaseNanos[phase.ordinal()];
+            if (nanos > 0) {
+                builder.append(", ").append(phase.name().toLowerCase(Locale.ROOT)).append(' ').append(nanos / 1000).append("us");
+            }
+        }
+        if (success) {
+            builder.append(skipped ? ", skipped]" : ", success]");
+        } else {
+            builder.append(", failure: ").append(cause).append(']');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 构建热加载结果，没有设置失败原因时为成功
+     */
+    public static final class Builder {
+
+        private final String className;
+
+        private ClassLoader classLoader;
+
+        private boolean skipped;
+
+        private Throwable cause;
+
+        private long batchId;
+
+        private int bytes;
+
+        private long fingerprint;
+
+        private final long[] phaseNanos = new long[PHASES.length];
+
+        private Builder(String className) {
+            this.className = className;
+        }
+
+        public Builder classLoader(ClassLoader classLoader) {
+            this.classLoader = classLoader;
+            return this;
+        }
+
+        public Builder skipped(boolean skipped) {
+            this.skipped = skipped;
+            return this;
+        }
+
+        public Builder cause(Throwable cause) {
+            this.cause = cause;
+            return this;
+        }
+
+        public Builder batchId(long batchId) {
+            this.batchId = batchId;
+            return this;
+        }
+
+        public Builder bytes(int bytes) {
+            this.bytes = bytes;
+            return this;
+        }
+
+        public Builder fingerprint(long fingerprint) {
+            this.fingerprint = fingerprint;
+            return this;
+        }
+
+        public Builder phaseNanos(HotSwapPhase phase, long nanos) {
+            phaseNanos[phase.ordinal()] = nanos;
+            return this;
+        }
+
+        public HotSwapResult build() {
+            return new HotSwapResult(this);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.zxch.hotswap;
+
+/**
+ * 支持条件获取的热加载提供者接口
+ * <p>
+ * 调用方保存上次成功热加载时的版本标识，下次触发时先交给提供者判断来源是否变化，
+ * 未变化时只需要一次很轻的检查（一次 stat、一次 HEAD 请求等），不读取、不解析、也不重定义。
+ * 版本标识的格式由提供者决定，调用方只做相等比较
+ *
+ * @author zhangxun
+ * @see com.zxch.hotswap.provider.CachingHotSwapProvider
+ */
+public interface IConditionalHotSwapProvider extends IHotSwapProvider {
+
+    /**
+     * 来源相对上次版本有变化时才读取字节码
+     *
+     * @param lastToken 上次成功热加载时的版本标识，第一次为null
+     * @return 未变化时返回 {@link ConditionalFetch#unchanged(String)}，否则返回读取到的字节码和新的版本标识
+     */
+    ConditionalFetch getClassBytesIfChanged(String lastToken);
+}
@@ -0,0 +1,21 @@
+package com.zxch.hotswap;
+
+/**
+ * 可以提供增量的热加载提供者接口
+ * <p>
+ * {@link #getClassBytes()} 可以返回相对某个基础版本的增量（见 {@link com.zxch.hotswap.util.ClassDelta}），
+ * 热加载时在最后一次应用的字节码上还原；最后一次应用的不是增量的基础版本（例如中间漏掉了一个版本、
+ * 进程重启过或者已应用字节码的存储被淘汰）时，改为调用 {@link #getFullClassBytes()} 读取完整的 class 文件
+ *
+ * @author zhangxun
+ * @see com.zxch.hotswap.provider.DeltaHotSwapProvider
+ */
+public interface IDeltaHotSwapProvider extends IHotSwapProvider {
+
+    /**
+     * 读取完整的 class 文件，增量无法还原时调用
+     *
+     * @return class 文件的字节码，返回null表示无法读取
+     */
+    byte[] getFullClassBytes();
+}
@@ -0,0 +1,31 @@
+package com.zxch.hotswap;
+
+import java.util.Iterator;
+
+/**
+ * 批量热加载提供者接口 - 以流的方式提供一批类的字节码
+ * <p>
+ * 与 {@link IHotSwapProvider} 每个类一个对象、一次返回完整的 {@code byte[]} 不同，
+ * 一个批量提供者就代表整批类，热加载时逐个拉取 {@link HotSwapPayload}：
+ * <ul>
+ * <li>提供者不需要事先把整批字节码都准备好，可以边读取（解压、下载）边产出</li>
+ * <li>字节码可以放在直接内存或内存映射文件中，并在两次 {@link Iterator#next()} 之间复用缓冲区</li>
+ * </ul>
+ * 已有的 {@link IHotSwapProvider} 可以通过 {@link com.zxch.hotswap.provider.HotSwapProviderBatchAdapter} 转换
+ *
+ * @author zhangxun
+ * @see com.zxch.hotswap.util.HotSwapUtils#hotswapClassesAtomically(IHotSwapCallback, IHotSwapBatchProvider)
+ */
+public interface IHotSwapBatchProvider {
+
+    /**
+     * 开始一次读取
+     * <p>
+     * 每次热加载调用一次，返回的迭代器只会被一个线程使用，如果实现了 {@link AutoCloseable}，读取结束后会被关闭。
+     * {@link Iterator#next()} 抛出异常表示这一个类读取失败，之后仍会继续读取；
+     * {@link Iterator#hasNext()} 抛出异常表示整个流无法继续读取
+     *
+     * @return 这一批类的字节码
+     */
+    Iterator<HotSwapPayload> openPayloads();
+}
@@ -0,0 +1,19 @@
+package com.zxch.hotswap;
+
+/**
+ * 热加载结果监听器
+ * <p>
+ * 注册到 {@link com.zxch.hotswap.event.HotSwapEventBus} 后，在监听器自己的线程中异步接收每个类的热加载结果，
+ * 执行耗时的操作（例如通过 HTTP 发送告警）不会阻塞热加载
+ *
+ * @author zhangxun
+ */
+public interface IHotSwapListener {
+
+    /**
+     * 收到一个类的热加载结果
+     *
+     * @param result 热加载结果
+     */
+    void onResult(HotSwapResult result);
+}
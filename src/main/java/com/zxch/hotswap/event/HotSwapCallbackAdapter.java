@@ -0,0 +1,48 @@
+package com.zxch.hotswap.event;
+
+import com.zxch.hotswap.HotSwapResult;
+import com.zxch.hotswap.IHotSwapCallback;
+import com.zxch.hotswap.IHotSwapListener;
+
+/**
+ * 把 {@link IHotSwapCallback} 适配为 {@link IHotSwapListener}
+ * <p>
+ * 成功（包括未变化而跳过）的结果调用 {@link IHotSwapCallback#onSuccess(String)}，
+ * 失败的结果调用 {@link IHotSwapCallback#onFailure(String, Throwable)} 并传入真实的失败原因
+ *
+ * @author zhangxun
+ */
+public final class HotSwapCallbackAdapter implements IHotSwapListener {
+
+    private final IHotSwapCallback callback;
+
+    public HotSwapCallbackAdapter(IHotSwapCallback callback) {
+        if (callback == null) {
+            throw new IllegalArgumentException("callback cannot be null");
+        }
+        this.callback = callback;
+    }
+
+    @Override
+    public void onResult(HotSwapResult result) {
+        if (result.isSuccess()) {
+            callback.onSuccess(result.getClassName());
+        } else {
+            callback.onFailure(result.getClassName(), result.getCause());
+        }
+    }
+
+    public IHotSwapCallback getCallback() {
+        return callback;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof HotSwapCallbackAdapter && callback.equals(((HotSwapCallbackAdapter) o).callback);
+    }
+
+    @Override
+    public int hashCode() {
+        return callback.hashCode();
+    }
+}
@@ -0,0 +1,258 @@
+package com.zxch.hotswap.event;
+
+import com.zxch.hotswap.HotSwapResult;
+import com.zxch.hotswap.IHotSwapCallback;
+import com.zxch.hotswap.IHotSwapListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热加载结果事件总线
+ * <p>
+ * 每次热加载（单个类或一整批）结束后，所有结果作为一个事件发布给已注册的监听器。
+ * 每个监听器有自己的有界队列和守护线程，发布只是入队，不会等待监听器执行：
+ * <ul>
+ * <li>慢监听器不会阻塞热加载，也不会影响其他监听器</li>
+ * <li>队列满时丢弃新事件并计数（{@link #getDroppedCount()}），热加载线程永远不会被阻塞</li>
+ * <li>同一个监听器按发布顺序接收结果，监听器抛出的异常只记录日志</li>
+ * </ul>
+ *
+ * @author zhangxun
+ */
+public final class HotSwapEventBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(HotSwapEventBus.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private static final long CLOSE_CHECK_MILLIS = 100L;
+
+    private static final HotSwapEventBus INSTANCE = new HotSwapEventBus();
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger threadCounter = new AtomicInteger();
+
+    private final LongAdder published = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private HotSwapEventBus() {
+    }
+
+    public static HotSwapEventBus getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 注册监听器，使用默认队列容量
+     *
+     * @see #addListener(IHotSwapListener, int)
+     */
+    public void addListener(IHotSwapListener listener) {
+        addListener(listener, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * 注册监听器，重复注册同一个监听器不会重复接收结果
+     *
+     * @param listener      监听器
+     * @param queueCapacity 最多积压的事件数量（每次热加载一个事件），超出时丢弃新事件
+     */
+    public synchronized void addListener(IHotSwapListener listener, int queueCapacity) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener cannot be null");
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity must be positive");
+        }
+        if (find(listener) != null) {
+            return;
+        }
+
+        Subscription subscription = new Subscription(listener, queueCapacity,
+                "hotswap-event-" + threadCounter.incrementAndGet());
+        subscriptions.add(subscription);
+        subscription.worker.start();
+    }
+
+    /**
+     * 以回调的形式注册监听器，见 {@link HotSwapCallbackAdapter}
+     */
+    public void addCallback(IHotSwapCallback callback) {
+        addListener(new HotSwapCallbackAdapter(callback));
+    }
+
+    /**
+     * 注销监听器，已入队的事件仍会交给监听器处理
+     *
+     * @return 监听器是否已注册
+     */
+    public synchronized boolean removeListener(IHotSwapListener listener) {
+        Subscription subscription = find(listener);
+        if (subscription == null) {
+            return false;
+        }
+        subscriptions.remove(subscription);
+        subscription.close();
+        return true;
+    }
+
+    public boolean removeCallback(IHotSwapCallback callback) {
+        return callback != null && removeListener(new HotSwapCallbackAdapter(callback));
+    }
+
+    /**
+     * 发布一次热加载的所有结果，只入队，不等待监听器
+     *
+     * @param results 热加载结果
+     */
+    public void publish(List<HotSwapResult> results) {
+        if (results.isEmpty() || subscriptions.isEmpty()) {
+            return;
+        }
+
+        // 调用方可能继续持有并修改结果列表，监听器拿到的是发布时的副本
+        List<HotSwapResult> event = Collections.unmodifiableList(new ArrayList<>(results));
+        published.add(event.size());
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.offer(event)) {
+                dropped.add(results.size());
+                logger.warn("Hot swap listener [{}] is falling behind, {} result(s) dropped",
+                        subscription.listener.getClass().getName(), results.size());
+            }
+        }
+    }
+
+    /**
+     * 等待所有已发布的事件被监听器处理完
+     *
+     * @param timeoutMillis 最长等待时间（毫秒）
+     * @return 超时前是否全部处理完
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Subscription subscription : subscriptions) {
+            synchronized (subscription) {
+                while (subscription.pending > 0) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(subscription, remaining);
+                }
+            }
+        }
+        return true;
+    }
+
+    public int getListenerCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * @return 已发布的结果数量（每个监听器各算一次之前）
+     */
+    public long getPublishedCount() {
+        return published.sum();
+    }
+
+    /**
+     * @return 因监听器队列已满而丢弃的结果数量
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private Subscription find(IHotSwapListener listener) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener.equals(listener)) {
+                return subscription;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 一个监听器的队列和投递线程
+     */
+    private static final class Subscription {
+
+        private final IHotSwapListener listener;
+
+        private final BlockingQueue<List<HotSwapResult>> queue;
+
+        private final Thread worker;
+
+        /**
+         * 已入队但还没有处理完的事件数量，由 this 保护
+         */
+        private int pending;
+
+        private volatile boolean closed;
+
+        private Subscription(IHotSwapListener listener, int queueCapacity, String threadName) {
+            this.listener = listener;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.worker = new Thread(this::runLoop, threadName);
+            this.worker.setDaemon(true);
+        }
+
+        private boolean offer(List<HotSwapResult> results) {
+            if (closed) {
+                return true;
+            }
+            synchronized (this) {
+                if (!queue.offer(results)) {
+                    return false;
+                }
+                pending++;
+            }
+            return true;
+        }
+
+        private void close() {
+            closed = true;
+        }
+
+        private void runLoop() {
+            while (true) {
+                List<HotSwapResult> results;
+                try {
+                    // 定期醒来检查是否已注销，不中断监听器正在执行的操作
+                    results = queue.poll(CLOSE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (results == null) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+
+                for (HotSwapResult result : results) {
+                    try {
+                        listener.onResult(result);
+                    } catch (Throwable t) {
+                        logger.error("Hot swap listener [{}] failed on {}", listener.getClass().getName(), result, t);
+                    }
+                }
+                synchronized (this) {
+                    pending--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
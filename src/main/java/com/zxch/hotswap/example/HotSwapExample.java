@@ -1,9 +1,13 @@
 package com.zxch.hotswap.example;
 
 
+import com.zxch.hotswap.HotSwapResult;
 import com.zxch.hotswap.IHotSwapCallback;
 import com.zxch.hotswap.IHotSwapProvider;
+import com.zxch.hotswap.event.HotSwapEventBus;
+import com.zxch.hotswap.metrics.HotSwapPhase;
 import com.zxch.hotswap.provider.DefaultHotSwapProvider;
+import com.zxch.hotswap.util.ClassVersionStore;
 import com.zxch.hotswap.util.HotSwapUtils;
 
 import java.io.File;
@@ -130,6 +134,16 @@ public class HotSwapExample {
         );
         
         System.out.println("批量热加载完成！");
+
+        // 批量原子热加载：一次 redefineClasses 完成整批，全部成功或全部不生效
+        boolean success = HotSwapUtils.hotswapClassesAtomically(
+            callback,
+            new DefaultHotSwapProvider("target/classes/com/example/Service1.class"),
+            new DefaultHotSwapProvider("target/classes/com/example/Service2.class"),
+            new DefaultHotSwapProvider("target/classes/com/example/Service3.class")
+        );
+
+        System.out.println("批量原子热加载" + (success ? "完成！" : "失败，所有类均未变更"));
     }
 
     /**
@@ -192,5 +206,48 @@ public class HotSwapExample {
 
         HotSwapUtils.hotswapClass(remoteProvider);
     }
-}
 
+    /**
+     * 示例7：订阅热加载结果（异步）
+     */
+    public static void example7_SubscribeResults() {
+        System.out.println("\n=== 示例7：订阅热加载结果 ===");
+
+        // 监听器在自己的线程中执行，发送告警等耗时操作不会阻塞热加载
+        HotSwapEventBus.getInstance().addListener(result -> {
+            if (!result.isSuccess()) {
+                System.err.println("批次 " + result.getBatchId() + " 热加载失败: " + result.getClassName()
+                        + " - " + result.getCause());
+            }
+        });
+
+        HotSwapResult result = HotSwapUtils.hotswapClass(
+                new DefaultHotSwapProvider("target/classes/com/example/MyClass.class"));
+        System.out.println("热加载" + (result.isSuccess() ? "成功" : "失败") + "，重定义耗时 "
+                + result.getPhaseNanos(HotSwapPhase.REDEFINE) / 1000 + " us");
+    }
+
+    /**
+     * 示例8：回滚
+     * 第一次热加载之前会自动捕获原始字节码，之后每次成功的热加载都会保留一个版本
+     */
+    public static void example8_Rollback() {
+        System.out.println("\n=== 示例8：回滚 ===");
+
+        // 每个类保留最近 10 个版本，堆内最多 8MB，超出部分溢出到磁盘
+        ClassVersionStore.getInstance()
+                .setMaxVersions(10)
+                .setMaxMemoryBytes(8L * 1024 * 1024);
+
+        HotSwapResult result = HotSwapUtils.hotswapClass(
+                new DefaultHotSwapProvider("target/classes/com/example/MyClass.class"));
+
+        // 回滚整个批次
+        for (HotSwapResult rolledBack : HotSwapUtils.rollback(result.getBatchId())) {
+            System.out.println("回滚" + (rolledBack.isSuccess() ? "成功" : "失败") + ": " + rolledBack.getClassName());
+        }
+
+        // 或者把单个类回滚到上一个版本
+        // HotSwapUtils.rollback("com.example.MyClass");
+    }
+}
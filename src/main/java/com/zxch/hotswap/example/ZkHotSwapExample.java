@@ -3,13 +3,20 @@ package com.zxch.hotswap.example;
 import com.zxch.hotswap.IHotSwapCallback;
 import com.zxch.hotswap.IHotSwapProvider;
 import com.zxch.hotswap.provider.DefaultHotSwapProvider;
+import com.zxch.hotswap.zk.ZkHotSwapConfig;
+import com.zxch.hotswap.zk.ZkHotSwapHandle;
 import com.zxch.hotswap.zk.ZkHotSwapListener;
+import com.zxch.hotswap.zk.ZkHotSwapPublisher;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.cache.CuratorCache;
 import org.apache.curator.framework.recipes.cache.TreeCache;
 import org.apache.curator.retry.ExponentialBackoffRetry;
 
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -62,7 +69,7 @@ public class ZkHotSwapExample {
         };
 
         // 创建并启动监听器（直接使用 ZK 节点的 data 作为字节码）
-        TreeCache cache = ZkHotSwapListener.createAndStart(
+        ZkHotSwapHandle<TreeCache, ZkHotSwapListener> handle = ZkHotSwapListener.startWatching(
                 client,
                 "/hotswap/classes",  // 监听的 ZK 路径
                 callback
@@ -75,7 +82,7 @@ public class ZkHotSwapExample {
         Thread.sleep(Long.MAX_VALUE);
 
         // 清理资源
-        cache.close();
+        handle.close();
         client.close();
     }
 
@@ -110,7 +117,7 @@ public class ZkHotSwapExample {
         };
 
         // 创建并启动监听器（使用自定义 Provider）
-        TreeCache cache = ZkHotSwapListener.createAndStart(
+        ZkHotSwapHandle<TreeCache, ZkHotSwapListener> handle = ZkHotSwapListener.startWatching(
                 client,
                 "/hotswap/trigger",  // 监听的 ZK 路径
                 provider,            // 自定义 Provider
@@ -125,7 +132,7 @@ public class ZkHotSwapExample {
         Thread.sleep(Long.MAX_VALUE);
 
         // 清理资源
-        cache.close();
+        handle.close();
         client.close();
     }
 
@@ -225,7 +232,7 @@ public class ZkHotSwapExample {
         };
 
         // ZK 节点变化时，从远程服务器获取字节码并热加载
-        TreeCache cache = ZkHotSwapListener.createAndStart(
+        ZkHotSwapHandle<TreeCache, ZkHotSwapListener> handle = ZkHotSwapListener.startWatching(
                 client,
                 "/hotswap/remote-trigger",
                 remoteProvider,
@@ -235,7 +242,7 @@ public class ZkHotSwapExample {
         System.out.println("远程 Provider 监听器已启动");
 
         Thread.sleep(Long.MAX_VALUE);
-        cache.close();
+        handle.close();
         client.close();
     }
 
@@ -294,7 +301,7 @@ public class ZkHotSwapExample {
         };
 
         // 创建并启动监听器（使用多个 Provider）
-        TreeCache cache = ZkHotSwapListener.createAndStart(
+        ZkHotSwapHandle<TreeCache, ZkHotSwapListener> handle = ZkHotSwapListener.startWatching(
                 client,
                 "/hotswap/multi-trigger",  // 监听的 ZK 路径
                 providers,                  // 多个 Provider
@@ -309,7 +316,7 @@ public class ZkHotSwapExample {
         Thread.sleep(Long.MAX_VALUE);
 
         // 清理资源
-        cache.close();
+        handle.close();
         client.close();
     }
 
@@ -370,5 +377,81 @@ public class ZkHotSwapExample {
         cache.close();
         client.close();
     }
-}
 
+    /**
+     * 示例7：合并窗口
+     * 发布工具短时间内连续写入多个节点时，窗口内的更新按类名合并，窗口结束后作为一批原子热加载
+     */
+    public static void example7_Debounce() throws Exception {
+        System.out.println("\n=== 示例7：合并窗口 ===");
+
+        CuratorFramework client = CuratorFrameworkFactory.builder()
+                .connectString("localhost:2181")
+                .sessionTimeoutMs(5000)
+                .retryPolicy(new ExponentialBackoffRetry(1000, 3))
+                .build();
+        client.start();
+
+        // 500ms 内的更新合并为一批
+        ZkHotSwapConfig config = new ZkHotSwapConfig().setDebounceMillis(500);
+        ZkHotSwapListener listener = new ZkHotSwapListener(true, Collections.emptyList(), null, config);
+        ZkHotSwapHandle<TreeCache, ZkHotSwapListener> handle = ZkHotSwapListener.startWatching(client, "/hotswap/classes", listener);
+
+        Thread.sleep(Long.MAX_VALUE);
+
+        System.out.println("收到更新: " + listener.getReceivedUpdateCount()
+                + "，合并掉: " + listener.getMergedUpdateCount()
+                + "，热加载批次: " + listener.getAppliedBatchCount());
+
+        // 清理资源
+        handle.close();
+        client.close();
+    }
+
+    /**
+     * 示例8：下发多类字节码包
+     * 发布端把一批类压缩成一个包写入监听路径，超过单个节点大小时自动分块，监听端校验后作为一批原子热加载
+     */
+    public static void example8_PublishBundle() throws Exception {
+        System.out.println("\n=== 示例8：下发多类字节码包 ===");
+
+        CuratorFramework client = CuratorFrameworkFactory.builder()
+                .connectString("localhost:2181")
+                .sessionTimeoutMs(5000)
+                .retryPolicy(new ExponentialBackoffRetry(1000, 3))
+                .build();
+        client.start();
+
+        List<byte[]> classes = Arrays.asList(
+                Files.readAllBytes(Paths.get("/path/to/MyClass.class")),
+                Files.readAllBytes(Paths.get("/path/to/MyClass$Inner.class")));
+        String bundlePath = ZkHotSwapPublisher.publish(client, "/hotswap/classes", classes);
+        System.out.println("已下发: " + bundlePath);
+
+        client.close();
+    }
+
+    /**
+     * 示例9：不缓存节点数据的监听
+     * 监听路径下有大量字节码节点时，只保留节点路径和版本，已经热加载过的字节码不会一直占用内存
+     */
+    public static void example9_LeanWatch() throws Exception {
+        System.out.println("\n=== 示例9：不缓存节点数据的监听 ===");
+
+        CuratorFramework client = CuratorFrameworkFactory.builder()
+                .connectString("localhost:2181")
+                .sessionTimeoutMs(5000)
+                .retryPolicy(new ExponentialBackoffRetry(1000, 3))
+                .build();
+        client.start();
+
+        ZkHotSwapListener listener = new ZkHotSwapListener(null);
+        ZkHotSwapHandle<CuratorCache, ZkHotSwapListener> handle = ZkHotSwapListener.startWatchingLean(client, "/hotswap/classes", listener);
+
+        Thread.sleep(Long.MAX_VALUE);
+
+        // 清理资源
+        handle.close();
+        client.close();
+    }
+}
@@ -0,0 +1,41 @@
+package com.zxch.hotswap.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 一次批量热加载（原子批量或分块），包含解析、查找目标类和重定义的全部耗时
+ *
+ * @author zhangxun
+ */
+@Name("com.zxch.hotswap.Batch")
+@Label("Hot Swap Batch")
+@Category({"Hot Swap"})
+@Description("A batch hot swap including preparation and all redefinitions")
+@StackTrace(false)
+public class HotSwapBatchEvent extends jdk.jfr.Event {
+
+    @Label("Class Name")
+    @Description("Classes in the batch, comma separated")
+    String className;
+
+    @Label("Class Count")
+    int classCount;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Chunks")
+    int chunks;
+
+    @Label("Success Count")
+    int successCount;
+
+    @Label("Failure Count")
+    int failureCount;
+}
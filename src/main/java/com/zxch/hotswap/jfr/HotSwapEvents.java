@@ -0,0 +1,215 @@
+package com.zxch.hotswap.jfr;
+
+import com.zxch.hotswap.HotSwapResult;
+import com.zxch.hotswap.util.ClassMetadata;
+import com.zxch.hotswap.util.Fingerprints;
+
+import java.lang.instrument.ClassDefinition;
+import java.util.List;
+
+/**
+ * 提交热加载 JFR 事件
+ * <p>
+ * 调用方通过 {@code beginXxx()} 创建并开始事件，这里只在 {@code shouldCommit()} 为 true 时才填充字段，
+ * 没有开启录制（或事件被禁用、低于阈值）时不会拼接字符串、计算指纹。
+ * <p>
+ * 运行时没有 {@code jdk.jfr} 模块（例如 jlink 裁剪过的镜像）时，{@code beginXxx()} 返回null，
+ * 各 {@code commitXxx()} 忽略null，调用方不会直接创建事件类，也就不会抛出 {@link NoClassDefFoundError}
+ *
+ * @author zhangxun
+ */
+public abstract class HotSwapEvents {
+
+    private static final String BOOTSTRAP = "bootstrap";
+
+    /**
+     * 第一次创建事件时才检查 JFR 是否可用
+     */
+    private static final class Jfr {
+
+        static final boolean AVAILABLE = isAvailable();
+
+        private static boolean isAvailable() {
+            try {
+                Class.forName("jdk.jfr.Event", false, HotSwapEvents.class.getClassLoader());
+                return true;
+            } catch (ClassNotFoundException | LinkageError e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return JFR 不可用时返回null
+     */
+    public static HotSwapFetchEvent beginFetch() {
+        if (!Jfr.AVAILABLE) {
+            return null;
+        }
+        HotSwapFetchEvent event = new HotSwapFetchEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * 结束获取阶段的计时，之后的解析不计入事件时长
+     */
+    public static void endFetch(HotSwapFetchEvent event) {
+        if (event != null) {
+            event.end();
+        }
+    }
+
+    /**
+     * @return JFR 不可用时返回null
+     */
+    public static HotSwapRedefineEvent beginRedefine() {
+        if (!Jfr.AVAILABLE) {
+            return null;
+        }
+        HotSwapRedefineEvent event = new HotSwapRedefineEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @return JFR 不可用时返回null
+     */
+    public static HotSwapBatchEvent beginBatch() {
+        if (!Jfr.AVAILABLE) {
+            return null;
+        }
+        HotSwapBatchEvent event = new HotSwapBatchEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @return JFR 不可用时返回null
+     */
+    public static ZkHotSwapTriggerEvent beginZkTrigger() {
+        if (!Jfr.AVAILABLE) {
+            return null;
+        }
+        ZkHotSwapTriggerEvent event = new ZkHotSwapTriggerEvent();
+        event.begin();
+        return event;
+    }
+
+    public static void commitFetch(HotSwapFetchEvent event, Object provider, byte[] bytes, ClassMetadata metadata,
+                                   Throwable failure) {
+        if (event == null || !event.shouldCommit()) {
+            return;
+        }
+
+        event.provider = provider == null ? null : provider.getClass().getName();
+        event.bytes = bytes == null ? 0 : bytes.length;
+        if (metadata != null) {
+            event.className = metadata.getClassName();
+            event.fingerprint = Fingerprints.toHex(metadata.getFingerprint());
+        }
+        event.success = failure == null;
+        event.failure = failure == null ? null : failure.toString();
+        event.commit();
+    }
+
+    public static void commitRedefine(HotSwapRedefineEvent event, ClassDefinition[] definitions, Throwable failure) {
+        if (event == null || !event.shouldCommit()) {
+            return;
+        }
+
+        StringBuilder classNames = new StringBuilder();
+        StringBuilder fingerprints = new StringBuilder();
+        String classLoader = null;
+        long bytes = 0;
+        for (ClassDefinition definition : definitions) {
+            if (classNames.length() > 0) {
+                classNames.append(',');
+                fingerprints.append(',');
+            }
+            Class<?> clazz = definition.getDefinitionClass();
+            byte[] classFile = definition.getDefinitionClassFile();
+            classNames.append(clazz.getName());
+            fingerprints.append(Fingerprints.toHex(Fingerprints.hash64(classFile)));
+            bytes += classFile.length;
+
+            String loader = loaderName(clazz.getClassLoader());
+            if (classLoader == null) {
+                classLoader = loader;
+            } else if (!classLoader.equals(loader)) {
+                classLoader = "multiple";
+            }
+        }
+
+        event.className = classNames.toString();
+        event.classCount = definitions.length;
+        event.classLoader = classLoader;
+        event.bytes = bytes;
+        event.fingerprint = fingerprints.toString();
+        event.success = failure == null;
+        event.failure = failure == null ? null : failure.toString();
+        event.commit();
+    }
+
+    public static void commitBatch(HotSwapBatchEvent event, List<HotSwapResult> results, long bytes, int chunks) {
+        if (event == null || !event.shouldCommit()) {
+            return;
+        }
+
+        StringBuilder classNames = new StringBuilder();
+        int successCount = 0;
+        for (HotSwapResult result : results) {
+            if (classNames.length() > 0) {
+                classNames.append(',');
+            }
+            classNames.append(result.getClassName());
+            if (result.isSuccess()) {
+                successCount++;
+            }
+        }
+
+        event.className = classNames.toString();
+        event.classCount = results.size();
+        event.bytes = bytes;
+        event.chunks = chunks;
+        event.successCount = successCount;
+        event.failureCount = results.size() - successCount;
+        event.commit();
+    }
+
+    /**
+     * @param metadata 本次热加载的类，Provider 模式下为空
+     */
+    public static void commitZkTrigger(ZkHotSwapTriggerEvent event, String path, String priority, int updateCount,
+                                       long queuedNanos, List<ClassMetadata> metadata) {
+        if (event == null || !event.shouldCommit()) {
+            return;
+        }
+
+        StringBuilder classNames = new StringBuilder();
+        StringBuilder fingerprints = new StringBuilder();
+        long bytes = 0;
+        for (ClassMetadata classMetadata : metadata) {
+            if (classNames.length() > 0) {
+                classNames.append(',');
+                fingerprints.append(',');
+            }
+            classNames.append(classMetadata.getClassName());
+            fingerprints.append(Fingerprints.toHex(classMetadata.getFingerprint()));
+            bytes += classMetadata.getLength();
+        }
+
+        event.path = path;
+        event.priority = priority;
+        event.updateCount = updateCount;
+        event.className = classNames.toString();
+        event.fingerprint = fingerprints.toString();
+        event.bytes = bytes;
+        event.queuedTime = queuedNanos;
+        event.commit();
+    }
+
+    private static String loaderName(ClassLoader loader) {
+        return loader == null ? BOOTSTRAP : loader.toString();
+    }
+}
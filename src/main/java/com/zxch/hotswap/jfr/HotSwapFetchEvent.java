@@ -0,0 +1,40 @@
+package com.zxch.hotswap.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 从 Provider 获取字节码，持续时间为 {@code getClassBytes()} 的耗时
+ *
+ * @author zhangxun
+ */
+@Name("com.zxch.hotswap.Fetch")
+@Label("Hot Swap Fetch")
+@Category({"Hot Swap"})
+@Description("Class bytes fetched from a hot swap provider")
+@StackTrace(false)
+public class HotSwapFetchEvent extends jdk.jfr.Event {
+
+    @Label("Provider")
+    String provider;
+
+    @Label("Class Name")
+    String className;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Fingerprint")
+    String fingerprint;
+
+    @Label("Success")
+    boolean success;
+
+    @Label("Failure")
+    String failure;
+}
@@ -0,0 +1,46 @@
+package com.zxch.hotswap.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 一次 redefineClasses 调用，持续时间即为重定义造成的停顿，
+ * 可以与同一时间段的 safepoint、反优化事件对照
+ *
+ * @author zhangxun
+ */
+@Name("com.zxch.hotswap.Redefine")
+@Label("Hot Swap Redefine")
+@Category({"Hot Swap"})
+@Description("One redefineClasses call, the duration is the redefinition pause")
+@StackTrace(false)
+public class HotSwapRedefineEvent extends jdk.jfr.Event {
+
+    @Label("Class Name")
+    @Description("Redefined classes, comma separated")
+    String className;
+
+    @Label("Class Count")
+    int classCount;
+
+    @Label("Class Loader")
+    String classLoader;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Fingerprint")
+    @Description("Fingerprints of the new class bytes, in the same order as the class names")
+    String fingerprint;
+
+    @Label("Success")
+    boolean success;
+
+    @Label("Failure")
+    String failure;
+}
@@ -0,0 +1,47 @@
+package com.zxch.hotswap.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * ZooKeeper 节点更新触发的一次热加载，持续时间为热加载执行器中的处理耗时
+ *
+ * @author zhangxun
+ */
+@Name("com.zxch.hotswap.ZkTrigger")
+@Label("ZooKeeper Hot Swap Trigger")
+@Category({"Hot Swap", "ZooKeeper"})
+@Description("A hot swap triggered by ZooKeeper node updates")
+@StackTrace(false)
+public class ZkHotSwapTriggerEvent extends jdk.jfr.Event {
+
+    @Label("Path")
+    String path;
+
+    @Label("Priority")
+    String priority;
+
+    @Label("Update Count")
+    @Description("Node updates applied together, more than one when coalesced")
+    int updateCount;
+
+    @Label("Class Name")
+    String className;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Fingerprint")
+    String fingerprint;
+
+    @Label("Queued Time")
+    @Description("Time between receiving the ZooKeeper event and starting the hot swap")
+    @Timespan(Timespan.NANOSECONDS)
+    long queuedTime;
+}
@@ -0,0 +1,298 @@
+package com.zxch.hotswap.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热加载指标登记表
+ * <p>
+ * 记录每个阶段的耗时直方图，以及成功、失败（按异常类型）、跳过、合并的数量和重定义的字节数。
+ * 记录方法在热加载路径上调用，只做 {@link LongAdder} 累加和预分配桶的原子自增，不分配内存。
+ * <p>
+ * 指标可以通过 {@link #registerMBean()} 发布到 JMX，也可以通过 {@link IHotSwapMetricsExporter} 定期导出
+ *
+ * @author zhangxun
+ */
+public final class HotSwapMetrics implements HotSwapMetricsMXBean {
+
+    public static final String OBJECT_NAME = "com.zxch.hotswap:type=HotSwapMetrics";
+
+    private static final Logger logger = LoggerFactory.getLogger(HotSwapMetrics.class);
+
+    private static final HotSwapPhase[] PHASES = HotSwapPhase.values();
+
+    private static final HotSwapMetrics INSTANCE = new HotSwapMetrics();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+
+    private final LongAdder successCount = new LongAdder();
+
+    private final LongAdder failureCount = new LongAdder();
+
+    private final LongAdder redefineCount = new LongAdder();
+
+    private final LongAdder bytesSwapped = new LongAdder();
+
+    private final LongAdder skippedCount = new LongAdder();
+
+    private final LongAdder mergedCount = new LongAdder();
+
+    private final ConcurrentHashMap<Class<?>, LongAdder> failuresByCause = new ConcurrentHashMap<>();
+
+    private final CopyOnWriteArrayList<IHotSwapMetricsExporter> exporters = new CopyOnWriteArrayList<>();
+
+    private ScheduledExecutorService exportScheduler;
+
+    private HotSwapMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public static HotSwapMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 记录某个阶段的耗时
+     *
+     * @param phase 阶段
+     * @param nanos 耗时（纳秒）
+     */
+    public void recordPhase(HotSwapPhase phase, long nanos) {
+        histograms[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * 记录一次成功的 redefineClasses 调用
+     *
+     * @param classCount 重定义的类数量
+     * @param totalBytes 字节码总量
+     */
+    public void recordRedefined(int classCount, long totalBytes) {
+        redefineCount.increment();
+        successCount.add(classCount);
+        bytesSwapped.add(totalBytes);
+    }
+
+    /**
+     * 记录与已应用版本相同而跳过的类
+     */
+    public void recordSkipped(int classCount) {
+        skippedCount.add(classCount);
+    }
+
+    /**
+     * 记录一次被合并掉的更新
+     */
+    public void recordMerged() {
+        mergedCount.increment();
+    }
+
+    /**
+     * 记录热加载失败的类
+     *
+     * @param cause      失败原因的异常类型
+     * @param classCount 失败的类数量
+     */
+    public void recordFailure(Class<? extends Throwable> cause, int classCount) {
+        failureCount.add(classCount);
+        LongAdder counter = failuresByCause.get(cause);
+        if (counter == null) {
+            // 每种异常类型只在第一次出现时分配
+            counter = failuresByCause.computeIfAbsent(cause, key -> new LongAdder());
+        }
+        counter.add(classCount);
+    }
+
+    /**
+     * @return 当前所有指标的快照
+     */
+    public HotSwapMetricsSnapshot snapshot() {
+        Map<HotSwapPhase, HotSwapPhaseStats> phases = new EnumMap<>(HotSwapPhase.class);
+        for (HotSwapPhase phase : PHASES) {
+            phases.put(phase, histograms[phase.ordinal()].snapshot(phase.name()));
+        }
+        return new HotSwapMetricsSnapshot(System.currentTimeMillis(), Collections.unmodifiableMap(phases),
+                successCount.sum(), failureCount.sum(), redefineCount.sum(), bytesSwapped.sum(),
+                skippedCount.sum(), mergedCount.sum(), getFailuresByCause());
+    }
+
+    @Override
+    public long getSuccessCount() {
+        return successCount.sum();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    @Override
+    public long getRedefineCount() {
+        return redefineCount.sum();
+    }
+
+    @Override
+    public long getBytesSwapped() {
+        return bytesSwapped.sum();
+    }
+
+    @Override
+    public long getSkippedCount() {
+        return skippedCount.sum();
+    }
+
+    @Override
+    public long getMergedCount() {
+        return mergedCount.sum();
+    }
+
+    @Override
+    public Map<String, Long> getFailuresByCause() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<Class<?>, LongAdder> entry : failuresByCause.entrySet()) {
+            result.put(entry.getKey().getName(), entry.getValue().sum());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public Map<String, HotSwapPhaseStats> getPhaseStats() {
+        Map<String, HotSwapPhaseStats> result = new LinkedHashMap<>();
+        for (HotSwapPhase phase : PHASES) {
+            result.put(phase.name(), histograms[phase.ordinal()].snapshot(phase.name()));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        successCount.reset();
+        failureCount.reset();
+        redefineCount.reset();
+        bytesSwapped.reset();
+        skippedCount.reset();
+        mergedCount.reset();
+        failuresByCause.clear();
+    }
+
+    /**
+     * 发布到平台 MBeanServer，重复调用不会重复注册
+     */
+    public void registerMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, new ObjectName(OBJECT_NAME));
+            logger.info("Hot swap metrics registered as MBean [{}]", OBJECT_NAME);
+        } catch (InstanceAlreadyExistsException e) {
+            logger.debug("Hot swap metrics MBean [{}] is already registered", OBJECT_NAME);
+        } catch (Exception e) {
+            logger.error("Failed to register hot swap metrics MBean [{}]", OBJECT_NAME, e);
+        }
+    }
+
+    public void unregisterMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (InstanceNotFoundException e) {
+            logger.debug("Hot swap metrics MBean [{}] is not registered", OBJECT_NAME);
+        } catch (MalformedObjectNameException | MBeanRegistrationException e) {
+            logger.error("Failed to unregister hot swap metrics MBean [{}]", OBJECT_NAME, e);
+        }
+    }
+
+    public void addExporter(IHotSwapMetricsExporter exporter) {
+        if (exporter == null) {
+            throw new IllegalArgumentException("exporter cannot be null");
+        }
+        exporters.addIfAbsent(exporter);
+    }
+
+    public void removeExporter(IHotSwapMetricsExporter exporter) {
+        exporters.remove(exporter);
+    }
+
+    /**
+     * 通过 {@link ServiceLoader} 加载并注册所有声明的导出实现
+     *
+     * @return 新加载的导出实现数量
+     */
+    public int loadExporters() {
+        int loaded = 0;
+        for (IHotSwapMetricsExporter exporter : ServiceLoader.load(IHotSwapMetricsExporter.class)) {
+            if (exporters.addIfAbsent(exporter)) {
+                loaded++;
+                logger.info("Hot swap metrics exporter [{}] loaded", exporter.getClass().getName());
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * 立即生成快照并交给所有导出实现
+     */
+    public void exportNow() {
+        if (exporters.isEmpty()) {
+            return;
+        }
+
+        HotSwapMetricsSnapshot snapshot = snapshot();
+        for (IHotSwapMetricsExporter exporter : exporters) {
+            try {
+                exporter.export(snapshot);
+            } catch (Exception e) {
+                logger.error("Hot swap metrics exporter [{}] failed", exporter.getClass().getName(), e);
+            }
+        }
+    }
+
+    /**
+     * 在后台线程中按固定周期导出，再次调用会替换之前的周期
+     *
+     * @param periodMillis 导出周期（毫秒）
+     */
+    public synchronized void startExporting(long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("periodMillis must be positive");
+        }
+
+        stopExporting();
+        exportScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hotswap-metrics-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        exportScheduler.scheduleAtFixedRate(this::exportNow, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopExporting() {
+        if (exportScheduler != null) {
+            exportScheduler.shutdown();
+            exportScheduler = null;
+        }
+    }
+}
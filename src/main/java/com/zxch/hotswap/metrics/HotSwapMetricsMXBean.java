@@ -0,0 +1,38 @@
+package com.zxch.hotswap.metrics;
+
+import java.util.Map;
+
+/**
+ * 热加载指标的 JMX 接口，对象名为 {@value HotSwapMetrics#OBJECT_NAME}
+ *
+ * @author zhangxun
+ */
+public interface HotSwapMetricsMXBean {
+
+    long getSuccessCount();
+
+    long getFailureCount();
+
+    long getRedefineCount();
+
+    long getBytesSwapped();
+
+    long getSkippedCount();
+
+    long getMergedCount();
+
+    /**
+     * @return 按异常类型统计的失败类数量
+     */
+    Map<String, Long> getFailuresByCause();
+
+    /**
+     * @return 以阶段名为键的耗时统计
+     */
+    Map<String, HotSwapPhaseStats> getPhaseStats();
+
+    /**
+     * 清空所有指标
+     */
+    void reset();
+}
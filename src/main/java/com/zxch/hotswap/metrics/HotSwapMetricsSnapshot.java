@@ -0,0 +1,114 @@
+package com.zxch.hotswap.metrics;
+
+import java.util.Map;
+
+/**
+ * 某一时刻的热加载指标，由 {@link HotSwapMetrics#snapshot()} 生成，交给 {@link IHotSwapMetricsExporter} 导出
+ *
+ * @author zhangxun
+ */
+public final class HotSwapMetricsSnapshot {
+
+    private final long timestampMillis;
+
+    private final Map<HotSwapPhase, HotSwapPhaseStats> phases;
+
+    private final long successCount;
+
+    private final long failureCount;
+
+    private final long redefineCount;
+
+    private final long bytesSwapped;
+
+    private final long skippedCount;
+
+    private final long mergedCount;
+
+    private final Map<String, Long> failuresByCause;
+
+    HotSwapMetricsSnapshot(long timestampMillis, Map<HotSwapPhase, HotSwapPhaseStats> phases, long successCount,
+                           long failureCount, long redefineCount, long bytesSwapped, long skippedCount, long mergedCount,
+                           Map<String, Long> failuresByCause) {
+        this.timestampMillis = timestampMillis;
+        this.phases = phases;
+        this.successCount = successCount;
+        this.failureCount = failureCount;
+        this.redefineCount = redefineCount;
+        this.bytesSwapped = bytesSwapped;
+        this.skippedCount = skippedCount;
+        this.mergedCount = mergedCount;
+        this.failuresByCause = failuresByCause;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    /**
+     * @return 每个阶段的耗时统计，不可修改
+     */
+    public Map<HotSwapPhase, HotSwapPhaseStats> getPhases() {
+        return phases;
+    }
+
+    public HotSwapPhaseStats getPhase(HotSwapPhase phase) {
+        return phases.get(phase);
+    }
+
+    /**
+     * @return 重定义成功的类数量
+     */
+    public long getSuccessCount() {
+        return successCount;
+    }
+
+    /**
+     * @return 热加载失败的类数量
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return redefineClasses 调用次数（停顿次数）
+     */
+    public long getRedefineCount() {
+        return redefineCount;
+    }
+
+    /**
+     * @return 重定义成功的字节码总量
+     */
+    public long getBytesSwapped() {
+        return bytesSwapped;
+    }
+
+    /**
+     * @return 与已应用版本相同而跳过的类数量
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * @return ZooKeeper 合并窗口内被合并掉的更新数量
+     */
+    public long getMergedCount() {
+        return mergedCount;
+    }
+
+    /**
+     * @return 按异常类型统计的失败类数量，不可修改
+     */
+    public Map<String, Long> getFailuresByCause() {
+        return failuresByCause;
+    }
+
+    @Override
+    public String toString() {
+        return "HotSwapMetrics[success=" + successCount + ", failure=" + failureCount + ", redefine=" + redefineCount
+                + ", bytes=" + bytesSwapped + ", skipped=" + skippedCount + ", merged=" + mergedCount
+                + ", failuresByCause=" + failuresByCause + ", phases=" + phases.values() + "]";
+    }
+}
@@ -0,0 +1,34 @@
+package com.zxch.hotswap.metrics;
+
+/**
+ * 热加载的各个阶段
+ *
+ * @author zhangxun
+ */
+public enum HotSwapPhase {
+
+    /**
+     * 从 Provider 获取字节码
+     */
+    FETCH,
+
+    /**
+     * 解析类名、指纹等元数据
+     */
+    PARSE,
+
+    /**
+     * 重定义兼容性预检
+     */
+    PREFLIGHT,
+
+    /**
+     * redefineClasses 调用（停顿）
+     */
+    REDEFINE,
+
+    /**
+     * 通知回调
+     */
+    CALLBACK
+}
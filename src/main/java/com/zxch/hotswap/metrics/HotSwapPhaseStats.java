@@ -0,0 +1,82 @@
+package com.zxch.hotswap.metrics;
+
+import javax.management.ConstructorParameters;
+
+/**
+ * 某个阶段的耗时统计，分位数为所在桶的上界（相对误差不超过 25%）
+ *
+ * @author zhangxun
+ */
+public final class HotSwapPhaseStats {
+
+    private final String phase;
+
+    private final long count;
+
+    private final long totalNanos;
+
+    private final long maxNanos;
+
+    private final long p50Nanos;
+
+    private final long p90Nanos;
+
+    private final long p99Nanos;
+
+    private final long p999Nanos;
+
+    @ConstructorParameters({"phase", "count", "totalNanos", "maxNanos", "p50Nanos", "p90Nanos", "p99Nanos", "p999Nanos"})
+    public HotSwapPhaseStats(String phase, long count, long totalNanos, long maxNanos,
+                             long p50Nanos, long p90Nanos, long p99Nanos, long p999Nanos) {
+        this.phase = phase;
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.p50Nanos = p50Nanos;
+        this.p90Nanos = p90Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP90Nanos() {
+        return p90Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getP999Nanos() {
+        return p999Nanos;
+    }
+
+    public long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    @Override
+    public String toString() {
+        return phase + "[count=" + count + ", mean=" + getMeanNanos() / 1000 + "us, p50=" + p50Nanos / 1000
+                + "us, p99=" + p99Nanos / 1000 + "us, max=" + maxNanos / 1000 + "us]";
+    }
+}
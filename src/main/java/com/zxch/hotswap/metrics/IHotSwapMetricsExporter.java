@@ -0,0 +1,20 @@
+package com.zxch.hotswap.metrics;
+
+/**
+ * 热加载指标导出接口
+ * <p>
+ * 通过 {@link HotSwapMetrics#addExporter(IHotSwapMetricsExporter)} 注册，
+ * 或在 {@code META-INF/services/com.zxch.hotswap.metrics.IHotSwapMetricsExporter} 中声明后由
+ * {@link HotSwapMetrics#loadExporters()} 加载，例如对接 Prometheus、Micrometer 或内部监控系统
+ *
+ * @author zhangxun
+ */
+public interface IHotSwapMetricsExporter {
+
+    /**
+     * 导出一次指标快照，在导出线程中调用，不应长时间阻塞
+     *
+     * @param snapshot 指标快照
+     */
+    void export(HotSwapMetricsSnapshot snapshot);
+}
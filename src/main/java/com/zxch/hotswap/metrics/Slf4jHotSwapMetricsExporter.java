@@ -0,0 +1,19 @@
+package com.zxch.hotswap.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 把指标快照输出到日志的导出实现
+ *
+ * @author zhangxun
+ */
+public class Slf4jHotSwapMetricsExporter implements IHotSwapMetricsExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(Slf4jHotSwapMetricsExporter.class);
+
+    @Override
+    public void export(HotSwapMetricsSnapshot snapshot) {
+        logger.info("{}", snapshot);
+    }
+}
@@ -0,0 +1,50 @@
+package com.zxch.hotswap.provider;
+
+import com.zxch.hotswap.IHotSwapProvider;
+import com.zxch.hotswap.util.ClassMetadata;
+
+/**
+ * 基于内存字节码的热加载提供者实现
+ * <p>
+ * 适用于字节码已经在内存中的场景，例如 ZK 节点数据、合并后的批量更新
+ *
+ * @author zhangxun
+ */
+public class ByteArrayHotSwapProvider implements IHotSwapProvider {
+
+    private final byte[] classBytes;
+
+    private final ClassMetadata metadata;
+
+    /**
+     * 构造函数
+     *
+     * @param classBytes class 文件的字节码
+     */
+    public ByteArrayHotSwapProvider(byte[] classBytes) {
+        this(classBytes, null);
+    }
+
+    /**
+     * 构造函数，携带已解析的元数据，热加载时不再重复解析
+     *
+     * @param classBytes class 文件的字节码
+     * @param metadata   由 {@link ClassMetadata#parse(byte[])} 从同一份字节码解析得到的元数据（可为null）
+     */
+    public ByteArrayHotSwapProvider(byte[] classBytes, ClassMetadata metadata) {
+        this.classBytes = classBytes;
+        this.metadata = metadata;
+    }
+
+    @Override
+    public byte[] getClassBytes() {
+        return classBytes;
+    }
+
+    /**
+     * @return 已解析的元数据，没有时返回null
+     */
+    public ClassMetadata getMetadata() {
+        return metadata;
+    }
+}
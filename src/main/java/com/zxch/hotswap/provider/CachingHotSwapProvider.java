@@ -0,0 +1,145 @@
+package com.zxch.hotswap.provider;
+
+import com.zxch.hotswap.ConditionalFetch;
+import com.zxch.hotswap.IConditionalHotSwapProvider;
+import com.zxch.hotswap.IHotSwapProvider;
+import com.zxch.hotswap.util.Fingerprints;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 为任意 {@link IHotSwapProvider} 增加条件获取能力的装饰器
+ * <p>
+ * 版本标识的来源：
+ * <ul>
+ * <li>{@link DefaultHotSwapProvider}：文件的修改时间和大小，来源未变化时只需要一次 stat</li>
+ * <li>指定了版本探测（例如 HTTP HEAD 返回的 ETag）：探测结果，未变化时不调用被装饰的提供者</li>
+ * <li>其他提供者：字节码的指纹和长度，仍然需要完整读取，但未变化时不再解析和重定义</li>
+ * </ul>
+ * 同时缓存最近一次读取的字节码，版本未变化时 {@link #getClassBytes()} 直接返回缓存，不再读取
+ *
+ * @author zhangxun
+ */
+public class CachingHotSwapProvider implements IConditionalHotSwapProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingHotSwapProvider.class);
+
+    private final IHotSwapProvider delegate;
+
+    private final Supplier<String> versionProbe;
+
+    /**
+     * 最近一次读取的字节码及其版本标识
+     */
+    private volatile Cached cached;
+
+    /**
+     * 构造函数，{@link DefaultHotSwapProvider} 使用文件修改时间和大小作为版本标识，其他提供者使用内容指纹
+     *
+     * @param delegate 被装饰的提供者
+     */
+    public CachingHotSwapProvider(IHotSwapProvider delegate) {
+        this(delegate, delegate instanceof DefaultHotSwapProvider
+                ? fileVersion(((DefaultHotSwapProvider) delegate).getClassFile()) : null);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param delegate     被装饰的提供者
+     * @param versionProbe 不读取字节码就能得到来源当前版本的探测（例如 ETag），返回null表示无法判断；
+     *                     为null时使用内容指纹
+     */
+    public CachingHotSwapProvider(IHotSwapProvider delegate, Supplier<String> versionProbe) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate cannot be null");
+        }
+        this.delegate = delegate;
+        this.versionProbe = versionProbe;
+    }
+
+    /**
+     * 以文件修改时间（纳秒精度，取决于文件系统）和大小作为版本标识
+     *
+     * @param classFile class 文件
+     * @return 版本探测，文件不存在或无法读取属性时返回null
+     */
+    public static Supplier<String> fileVersion(File classFile) {
+        if (classFile == null) {
+            throw new IllegalArgumentException("classFile cannot be null");
+        }
+        return () -> {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(classFile.toPath(), BasicFileAttributes.class);
+                return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS) + ":" + attributes.size();
+            } catch (IOException e) {
+                logger.debug("Unable to stat class file [{}]: {}", classFile, e.toString());
+                return null;
+            }
+        };
+    }
+
+    public IHotSwapProvider getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public byte[] getClassBytes() {
+        if (versionProbe == null) {
+            return delegate.getClassBytes();
+        }
+        String token = versionProbe.get();
+        Cached current = cached;
+        if (token != null && current != null && token.equals(current.token)) {
+            return current.bytes;
+        }
+        return read(token);
+    }
+
+    @Override
+    public ConditionalFetch getClassBytesIfChanged(String lastToken) {
+        if (versionProbe != null) {
+            // 先探测再读取：读取期间来源又变化时，下次探测到的版本不同，仍会再次读取
+            String token = versionProbe.get();
+            if (token != null && token.equals(lastToken)) {
+                return ConditionalFetch.unchanged(token);
+            }
+            return ConditionalFetch.changed(read(token), token);
+        }
+
+        byte[] bytes = delegate.getClassBytes();
+        if (bytes == null) {
+            return ConditionalFetch.changed(null, null);
+        }
+        String token = Fingerprints.toHex(Fingerprints.hash64(bytes)) + ":" + bytes.length;
+        if (token.equals(lastToken)) {
+            return ConditionalFetch.unchanged(token);
+        }
+        return ConditionalFetch.changed(bytes, token);
+    }
+
+    private byte[] read(String token) {
+        byte[] bytes = delegate.getClassBytes();
+        cached = bytes == null || token == null ? null : new Cached(token, bytes);
+        return bytes;
+    }
+
+    private static final class Cached {
+
+        private final String token;
+
+        private final byte[] bytes;
+
+        private Cached(String token, byte[] bytes) {
+            this.token = token;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -39,6 +39,10 @@ public class DefaultHotSwapProvider implements IHotSwapProvider {
         this.classFile = new File(classFilePath);
     }
 
+    public File getClassFile() {
+        return classFile;
+    }
+
     @Override
     public byte[] getClassBytes() {
         if (classFile == null || !classFile.exists()) {
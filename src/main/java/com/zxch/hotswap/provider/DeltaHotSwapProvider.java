@@ -0,0 +1,42 @@
+package com.zxch.hotswap.provider;
+
+import com.zxch.hotswap.IDeltaHotSwapProvider;
+import com.zxch.hotswap.IHotSwapProvider;
+
+/**
+ * 优先使用增量的热加载提供者实现
+ * <p>
+ * 先提供内存中的增量，基础版本不匹配时再从完整字节码的提供者读取
+ *
+ * @author zhangxun
+ */
+public class DeltaHotSwapProvider implements IDeltaHotSwapProvider {
+
+    private final byte[] delta;
+
+    private final IHotSwapProvider fullProvider;
+
+    /**
+     * 构造函数
+     *
+     * @param delta        增量数据，见 {@link com.zxch.hotswap.util.ClassDelta#diff(byte[], byte[])}
+     * @param fullProvider 完整 class 文件的提供者
+     */
+    public DeltaHotSwapProvider(byte[] delta, IHotSwapProvider fullProvider) {
+        if (delta == null || fullProvider == null) {
+            throw new IllegalArgumentException("delta and fullProvider cannot be null");
+        }
+        this.delta = delta;
+        this.fullProvider = fullProvider;
+    }
+
+    @Override
+    public byte[] getClassBytes() {
+        return delta;
+    }
+
+    @Override
+    public byte[] getFullClassBytes() {
+        return fullProvider.getClassBytes();
+    }
+}
@@ -0,0 +1,356 @@
+package com.zxch.hotswap.provider;
+
+import com.zxch.hotswap.IHotSwapCallback;
+import com.zxch.hotswap.IHotSwapProvider;
+import com.zxch.hotswap.util.ClassMetadata;
+import com.zxch.hotswap.util.HotSwapUtils;
+import com.zxch.hotswap.util.LoadedClassIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 监听 class 目录的热加载提供者
+ * <p>
+ * 基于 {@link WatchService} 递归监听 {@code target/classes} 这样的整棵目录树（包括之后新建的子目录），
+ * 不轮询、启动后也不再全量扫描：
+ * <ul>
+ * <li>编译器一次构建会连续写入很多文件，收到事件后等待一个静默窗口（窗口内没有新事件）再统一处理，
+ * 持续有事件时最多等待 {@value #MAX_DELAY_FACTOR} 个窗口</li>
+ * <li>只有内容与上次看到的不同（指纹比对）、且目标类已经加载的 class 文件才会交给处理器，
+ * 重新编译但内容不变的类和新增的类不会触发热加载</li>
+ * <li>每个窗口内的变更作为一批交给处理器，默认通过
+ * {@link HotSwapUtils#hotswapClassesAtomically(IHotSwapCallback, IHotSwapProvider...)} 原子热加载</li>
+ * <li>处理器正常返回后才记录这一批的新版本；处理器抛出异常时不记录，下次修改（即使内容相同）会重试。
+ * 尚未加载的类也不记录，加载之后再次修改仍会热加载</li>
+ * </ul>
+ * 启动时扫描一次目录树，记录现有 class 文件的指纹作为基线。
+ *
+ * @author zhangxun
+ */
+public class DirectoryWatchHotSwapProvider implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryWatchHotSwapProvider.class);
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    /**
+     * 持续有事件时，最多等待多少个静默窗口就处理一次
+     */
+    private static final int MAX_DELAY_FACTOR = 10;
+
+    private final Path root;
+
+    private final long debounceMillis;
+
+    private final Consumer<List<ByteArrayHotSwapProvider>> handler;
+
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    /**
+     * 每个 class 文件上次看到的版本（不保留字节码），只在监听线程中访问
+     */
+    private final Map<Path, ClassMetadata> versions = new HashMap<>();
+
+    private WatchService watchService;
+
+    private Thread worker;
+
+    private volatile boolean closed;
+
+    /**
+     * 构造函数，变更的类通过 {@link HotSwapUtils#hotswapClassesAtomically(IHotSwapCallback, IHotSwapProvider...)} 原子热加载，
+     * 热加载失败时这一批的版本不会被记录
+     *
+     * @param root           class 目录根路径
+     * @param debounceMillis 静默窗口（毫秒）
+     * @param callback       热加载回调（可为null）
+     */
+    public DirectoryWatchHotSwapProvider(Path root, long debounceMillis, IHotSwapCallback callback) {
+        this(root, debounceMillis, changed -> {
+            if (!HotSwapUtils.hotswapClassesAtomically(callback, changed.toArray(new IHotSwapProvider[0]))) {
+                throw new IllegalStateException("Atomic hot swap of " + changed.size() + " class(es) failed");
+            }
+        });
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param root           class 目录根路径
+     * @param debounceMillis 静默窗口（毫秒）
+     * @param handler        处理每一批变更的类，在监听线程中执行；抛出异常表示处理失败，这一批的版本不会被记录
+     */
+    public DirectoryWatchHotSwapProvider(Path root, long debounceMillis, Consumer<List<ByteArrayHotSwapProvider>> handler) {
+        if (root == null || !Files.isDirectory(root)) {
+            throw new IllegalArgumentException("root must be an existing directory: " + root);
+        }
+        if (debounceMillis < 0) {
+            throw new IllegalArgumentException("debounceMillis cannot be negative");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("handler cannot be null");
+        }
+        this.root = root.toAbsolutePath().normalize();
+        this.debounceMillis = debounceMillis;
+        this.handler = handler;
+    }
+
+    /**
+     * 注册整棵目录树、记录基线并启动监听线程
+     *
+     * @return this
+     * @throws IOException 无法创建 WatchService 或注册目录
+     */
+    public synchronized DirectoryWatchHotSwapProvider start() throws IOException {
+        if (worker != null) {
+            throw new IllegalStateException("Directory watcher is already started");
+        }
+        if (closed) {
+            throw new IllegalStateException("Directory watcher is closed");
+        }
+
+        watchService = root.getFileSystem().newWatchService();
+        register(root, null);
+        logger.info("Watching {} director(ies) under [{}], {} class file(s) in baseline",
+                directories.size(), root, versions.size());
+
+        worker = new Thread(this::runLoop, "hotswap-dir-watch");
+        worker.setDaemon(true);
+        worker.start();
+        return this;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close watch service of [{}]", root, e);
+            }
+        }
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * 递归注册目录
+     *
+     * @param dir     目录
+     * @param changed 不为null时，把目录中已有的 class 文件加入待处理（新建的目录可能在注册前就已经写入了文件）；
+     *                为null时只记录基线
+     */
+    private void register(Path dir, Set<Path> changed) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = d.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                directories.put(key, d);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (isClassFile(file)) {
+                    if (changed != null) {
+                        changed.add(file);
+                    } else {
+                        ByteArrayHotSwapProvider current = read(file);
+                        if (current != null) {
+                            versions.put(file, current.getMetadata());
+                        }
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // 遍历过程中被删除的文件或目录
+                logger.debug("Skip [{}] while registering: {}", file, e.toString());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void runLoop() {
+        Set<Path> pending = new LinkedHashSet<>();
+        long firstEvent = 0L;
+        long lastEvent = 0L;
+        try {
+            while (!closed) {
+                WatchKey key;
+                if (pending.isEmpty()) {
+                    key = watchService.take();
+                } else {
+                    long now = System.nanoTime();
+                    long quietDeadline = lastEvent + TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+                    long maxDeadline = firstEvent + TimeUnit.MILLISECONDS.toNanos(debounceMillis * MAX_DELAY_FACTOR);
+                    long wait = Math.min(quietDeadline, maxDeadline) - now;
+                    key = wait > 0 ? watchService.poll(wait, TimeUnit.NANOSECONDS) : null;
+                    if (key == null) {
+                        flush(pending);
+                        pending.clear();
+                        continue;
+                    }
+                }
+
+                if (pending.isEmpty()) {
+                    firstEvent = System.nanoTime();
+                }
+                lastEvent = System.nanoTime();
+                handleEvents(key, pending);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // close() 关闭了 WatchService
+        }
+        logger.info("Stopped watching [{}]", root);
+    }
+
+    private void handleEvents(WatchKey key, Set<Path> pending) {
+        Path dir = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            WatchEvent.Kind<?> kind = event.kind();
+            if (kind == StandardWatchEventKinds.OVERFLOW) {
+                // 事件丢失时只能重新比对整棵树，内容未变的类仍然会被过滤掉
+                logger.warn("Watch events overflowed under [{}], rescanning", root);
+                rescan(pending);
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+
+            Path path = dir.resolve((Path) event.context());
+            if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                // 已加载的类无法卸载，只忘记它的版本
+                versions.remove(path);
+                pending.remove(path);
+            } else if (kind == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    register(path, pending);
+                } catch (IOException e) {
+                    logger.error("Failed to watch new directory [{}]", path, e);
+                }
+            } else if (isClassFile(path)) {
+                pending.add(path);
+            }
+        }
+
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    private void rescan(Set<Path> pending) {
+        try {
+            register(root, pending);
+        } catch (IOException e) {
+            logger.error("Failed to rescan [{}]", root, e);
+        }
+    }
+
+    /**
+     * 读取待处理的 class 文件，把内容变化且已加载的类作为一批交给处理器，处理成功后才记录新版本
+     */
+    private void flush(Set<Path> pending) {
+        Map<Path, ByteArrayHotSwapProvider> changed = new LinkedHashMap<>();
+        for (Path path : pending) {
+            ClassMetadata previous = versions.get(path);
+            ByteArrayHotSwapProvider current = read(path);
+            if (current == null || isSameVersion(current.getMetadata(), previous)) {
+                continue;
+            }
+            String className = current.getMetadata().getClassName();
+            if (LoadedClassIndex.getInstance().findAll(className).isEmpty()) {
+                logger.debug("The class:[{}] is not loaded, skip it", className);
+                continue;
+            }
+            changed.put(path, current);
+        }
+        if (changed.isEmpty()) {
+            logger.debug("{} class file(s) touched under [{}], none changed", pending.size(), root);
+            return;
+        }
+
+        logger.info("{} class(es) changed under [{}] ({} file(s) touched)", changed.size(), root, pending.size());
+        try {
+            handler.accept(new ArrayList<>(changed.values()));
+        } catch (Exception e) {
+            logger.error("Failed to handle changed classes under [{}], will retry on next change", root, e);
+            return;
+        }
+        changed.forEach((path, current) -> versions.put(path, current.getMetadata()));
+    }
+
+    /**
+     * 读取 class 文件，不记录版本
+     *
+     * @return 当前内容，文件不存在或还没有写完（无法解析）时返回null
+     */
+    private ByteArrayHotSwapProvider read(Path path) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            versions.remove(path);
+            return null;
+        } catch (IOException e) {
+            logger.warn("Failed to read class file [{}]: {}", path, e.toString());
+            return null;
+        }
+
+        ClassMetadata metadata;
+        try {
+            metadata = ClassMetadata.parse(bytes);
+        } catch (IllegalArgumentException e) {
+            // 写入还没有完成，等待下一次修改事件
+            logger.debug("Class file [{}] is not complete yet: {}", path, e.getMessage());
+            return null;
+        }
+
+        return new ByteArrayHotSwapProvider(bytes, metadata);
+    }
+
+    private static boolean isSameVersion(ClassMetadata current, ClassMetadata previous) {
+        return previous != null && current.getFingerprint() == previous.getFingerprint()
+                && current.getLength() == previous.getLength();
+    }
+
+    private static boolean isClassFile(Path path) {
+        Path fileName = path.getFileName();
+        return fileName != null && fileName.toString().endsWith(CLASS_SUFFIX);
+    }
+}
@@ -0,0 +1,88 @@
+package com.zxch.hotswap.provider;
+
+import com.zxch.hotswap.HotSwapPayload;
+import com.zxch.hotswap.IHotSwapBatchProvider;
+import com.zxch.hotswap.IHotSwapProvider;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 把一组 {@link IHotSwapProvider} 适配为 {@link IHotSwapBatchProvider}
+ * <p>
+ * 每次 {@link Iterator#next()} 才调用下一个提供者获取字节码，字节码直接包装为缓冲区；
+ * 批量热加载会把每个缓冲区复制一份，所以提供者返回的字节码在这条路径上多复制一次；
+ * {@link ByteArrayHotSwapProvider} 携带的元数据会一并传递，不再重复解析
+ *
+ * @author zhangxun
+ */
+public class HotSwapProviderBatchAdapter implements IHotSwapBatchProvider {
+
+    private final List<IHotSwapProvider> providers;
+
+    /**
+     * 构造函数
+     *
+     * @param providers 字节码提供者列表，null 元素会被忽略
+     */
+    public HotSwapProviderBatchAdapter(IHotSwapProvider... providers) {
+        this(providers == null ? null : Arrays.asList(providers));
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param providers 字节码提供者列表，null 元素会被忽略
+     */
+    public HotSwapProviderBatchAdapter(List<? extends IHotSwapProvider> providers) {
+        if (providers == null) {
+            throw new IllegalArgumentException("providers cannot be null");
+        }
+        List<IHotSwapProvider> copy = new ArrayList<>(providers.size());
+        for (IHotSwapProvider provider : providers) {
+            if (provider != null) {
+                copy.add(provider);
+            }
+        }
+        this.providers = Collections.unmodifiableList(copy);
+    }
+
+    public List<IHotSwapProvider> getProviders() {
+        return providers;
+    }
+
+    @Override
+    public Iterator<HotSwapPayload> openPayloads() {
+        return new Iterator<HotSwapPayload>() {
+
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < providers.size();
+            }
+
+            @Override
+            public HotSwapPayload next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                // 先前进，提供者失败时后续的类仍然可以读取
+                IHotSwapProvider provider = providers.get(next++);
+                byte[] bytes = provider.getClassBytes();
+                if (bytes == null || bytes.length == 0) {
+                    throw new RuntimeException("Failed to get bytes from provider " + provider.getClass().getName());
+                }
+                if (provider instanceof ByteArrayHotSwapProvider) {
+                    return HotSwapPayload.of(bytes, ((ByteArrayHotSwapProvider) provider).getMetadata());
+                }
+                return HotSwapPayload.of(null, ByteBuffer.wrap(bytes));
+            }
+        };
+    }
+}
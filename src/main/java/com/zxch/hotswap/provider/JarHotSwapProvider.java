@@ -0,0 +1,366 @@
+package com.zxch.hotswap.provider;
+
+import com.zxch.hotswap.HotSwapPayload;
+import com.zxch.hotswap.IHotSwapBatchProvider;
+import com.zxch.hotswap.IHotSwapCallback;
+import com.zxch.hotswap.IHotSwapProvider;
+import com.zxch.hotswap.util.ClassFingerprint;
+import com.zxch.hotswap.util.ClassFingerprintRegistry;
+import com.zxch.hotswap.util.ClassMetadata;
+import com.zxch.hotswap.util.Fingerprints;
+import com.zxch.hotswap.util.HotSwapUtils;
+import com.zxch.hotswap.util.LoadedClassIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.jar.JarEntry;
+import java.util.zip.Inflater;
+
+/**
+ * 基于 jar 文件的热加载提供者
+ * <p>
+ * 从新构建的 jar 中找出与当前已加载版本不同的类，作为一批热加载，不需要解压 jar：
+ * <ol>
+ * <li>内存映射 jar 文件，只解析中央目录，得到每个 class 条目的 CRC 和大小</li>
+ * <li>并行地把每个条目与已加载类的 CRC 比对：热加载过的类使用 {@link ClassFingerprintRegistry} 中记录的 CRC，
+ * 从未热加载过的类使用它被加载时所在的 jar 条目的 CRC（同样只读中央目录）</li>
+ * <li>只解压 CRC 或大小不同的条目，直接从映射的内存中解压，不创建临时文件</li>
+ * </ol>
+ * 没有加载的类直接跳过；无法确定已加载版本的类（例如来自非 jar、非文件的 URL，或被多个 ClassLoader 加载）视为已变化，
+ * 交给热加载时的指纹比对去重。
+ * <p>
+ * 也可以作为 {@link IHotSwapBatchProvider} 逐个提供变化的类，见 {@link #openPayloads()}
+ *
+ * @author zhangxun
+ */
+public class JarHotSwapProvider implements IHotSwapBatchProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(JarHotSwapProvider.class);
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private static final String META_INF = "META-INF/";
+
+    private static final String MODULE_INFO = "module-info.class";
+
+    /**
+     * 每个并行任务至少处理的条目数量，条目较少时不拆分
+     */
+    private static final int MIN_ENTRIES_PER_TASK = 256;
+
+    private final Path jarPath;
+
+    private final String classPrefix;
+
+    /**
+     * 构造函数
+     *
+     * @param jarPath jar 文件路径
+     */
+    public JarHotSwapProvider(Path jarPath) {
+        this(jarPath, "");
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param jarPath     jar 文件路径
+     * @param classPrefix class 条目的路径前缀，例如 Spring Boot jar 中的 {@code BOOT-INF/classes/}，没有时为空字符串
+     */
+    public JarHotSwapProvider(Path jarPath, String classPrefix) {
+        if (jarPath == null) {
+            throw new IllegalArgumentException("jarPath cannot be null");
+        }
+        if (classPrefix == null) {
+            throw new IllegalArgumentException("classPrefix cannot be null");
+        }
+        this.jarPath = jarPath;
+        this.classPrefix = classPrefix;
+    }
+
+    public Path getJarPath() {
+        return jarPath;
+    }
+
+    /**
+     * 找出与已加载版本不同的类，使用 {@link ForkJoinPool#commonPool()} 并行比对
+     *
+     * @see #findChangedClasses(Executor)
+     */
+    public List<ByteArrayHotSwapProvider> findChangedClasses() throws IOException {
+        return findChangedClasses(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 找出与已加载版本不同的类
+     *
+     * @param executor 并行比对和解压使用的执行器
+     * @return 变化的类（已解析元数据），没有变化时返回空列表
+     * @throws IOException jar 文件无法读取或已损坏
+     */
+    public List<ByteArrayHotSwapProvider> findChangedClasses(Executor executor) throws IOException {
+        try (MappedJar jar = MappedJar.open(jarPath)) {
+            return inParallel(jar, executor, slice -> inflate(jar, changedEntries(slice)));
+        }
+    }
+
+    /**
+     * 以流的方式提供变化的类，使用 {@link ForkJoinPool#commonPool()} 并行比对
+     * <p>
+     * 打开时只比对不解压，之后每次 {@link Iterator#next()} 才读取一个类：
+     * 未压缩的条目直接返回映射内存的只读视图（直接内存，不复制），压缩的条目解压到新的数组。
+     * 返回的迭代器实现了 {@link AutoCloseable}，关闭时释放 jar 的映射；
+     * 已经返回过未压缩条目时，映射在这些条目的内容被回收后才释放，关闭之后读取仍然安全
+     *
+     * @throws UncheckedIOException jar 文件无法读取或已损坏
+     */
+    @Override
+    public Iterator<HotSwapPayload> openPayloads() {
+        MappedJar jar = null;
+        try {
+            jar = MappedJar.open(jarPath);
+            return new Payloads(jar, inParallel(jar, ForkJoinPool.commonPool(), this::changedEntries));
+        } catch (IOException | RuntimeException e) {
+            if (jar != null) {
+                jar.close();
+            }
+            throw e instanceof IOException ? new UncheckedIOException((IOException) e) : (RuntimeException) e;
+        }
+    }
+
+    /**
+     * 把变化的类作为一批原子热加载
+     *
+     * @param callback 热加载回调（可为null）
+     * @return 整批是否热加载成功，没有变化的类时返回true
+     * @throws IOException jar 文件无法读取或已损坏
+     * @see HotSwapUtils#hotswapClassesAtomically(IHotSwapCallback, IHotSwapProvider...)
+     */
+    public boolean hotswapChanged(IHotSwapCallback callback) throws IOException {
+        List<ByteArrayHotSwapProvider> changed = findChangedClasses();
+        if (changed.isEmpty()) {
+            logger.info("No class in [{}] differs from the loaded version", jarPath);
+            return true;
+        }
+        return HotSwapUtils.hotswapClassesAtomically(callback, changed.toArray(new IHotSwapProvider[0]));
+    }
+
+    /**
+     * 把所有 class 条目分成若干组并行处理
+     */
+    private <T> List<T> inParallel(MappedJar jar, Executor executor, Function<List<MappedJar.Entry>, List<T>> task)
+            throws IOException {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor cannot be null");
+        }
+
+        long start = System.nanoTime();
+        List<MappedJar.Entry> candidates = new ArrayList<>();
+        for (MappedJar.Entry entry : jar.entries()) {
+            if (isClassEntry(entry)) {
+                candidates.add(entry);
+            }
+        }
+
+        int tasks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                candidates.size() / MIN_ENTRIES_PER_TASK));
+        int perTask = (candidates.size() + tasks - 1) / tasks;
+        List<CompletableFuture<List<T>>> futures = new ArrayList<>(tasks);
+        for (int from = 0; from < candidates.size(); from += perTask) {
+            List<MappedJar.Entry> slice = candidates.subList(from, Math.min(candidates.size(), from + perTask));
+            futures.add(CompletableFuture.supplyAsync(() -> task.apply(slice), executor));
+        }
+
+        // 等所有任务结束后再返回或抛出异常，之后才能释放映射
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException ignored) {
+            // 下面按顺序取出第一个失败
+        }
+        List<T> changed = new ArrayList<>();
+        try {
+            for (CompletableFuture<List<T>> future : futures) {
+                changed.addAll(future.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+
+        logger.info("{} of {} class entry(ies) in [{}] changed, compared in {}ms", changed.size(), candidates.size(),
+                jarPath, (System.nanoTime() - start) / 1_000_000);
+        return changed;
+    }
+
+    private boolean isClassEntry(MappedJar.Entry entry) {
+        String name = entry.name;
+        return !entry.isDirectory()
+                && name.endsWith(CLASS_SUFFIX)
+                && name.startsWith(classPrefix)
+                && !name.startsWith(META_INF, classPrefix.length())
+                && !name.endsWith(MODULE_INFO);
+    }
+
+    /**
+     * 比对一组条目，只读取中央目录中的 CRC，不解压
+     */
+    private List<MappedJar.Entry> changedEntries(List<MappedJar.Entry> entries) {
+        List<MappedJar.Entry> changed = new ArrayList<>();
+        LoadedClassIndex index = LoadedClassIndex.getInstance();
+        for (MappedJar.Entry entry : entries) {
+            String className = className(entry);
+            Class<?> loaded = index.findPreferred(className);
+            if (loaded == null) {
+                // 被多个 ClassLoader 加载时无法确定比对的版本，视为已变化，由热加载报告无法确定目标
+                if (!index.findAll(className).isEmpty()) {
+                    changed.add(entry);
+                }
+            } else if (!isSameAsLoaded(entry, loaded, className, resourceName(entry))) {
+                changed.add(entry);
+            }
+        }
+        return changed.isEmpty() ? Collections.emptyList() : changed;
+    }
+
+    /**
+     * 解压一组条目并解析元数据，每个任务使用一个 {@link Inflater}
+     */
+    private static List<ByteArrayHotSwapProvider> inflate(MappedJar jar, List<MappedJar.Entry> entries) {
+        if (entries.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<ByteArrayHotSwapProvider> changed = new ArrayList<>(entries.size());
+        Inflater inflater = new Inflater(true);
+        try {
+            for (MappedJar.Entry entry : entries) {
+                byte[] bytes = jar.read(entry, inflater);
+                changed.add(new ByteArrayHotSwapProvider(bytes, ClassMetadata.parse(bytes)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            inflater.end();
+        }
+        return changed;
+    }
+
+    private String resourceName(MappedJar.Entry entry) {
+        return entry.name.substring(classPrefix.length());
+    }
+
+    private String className(MappedJar.Entry entry) {
+        String resourceName = resourceName(entry);
+        return resourceName.substring(0, resourceName.length() - CLASS_SUFFIX.length()).replace('/', '.');
+    }
+
+    private static boolean isSameAsLoaded(MappedJar.Entry entry, Class<?> loaded, String className, String resourceName) {
+        ClassFingerprint applied = ClassFingerprintRegistry.getInstance().get(loaded);
+        if (applied != null) {
+            return applied.getCrc32() != ClassFingerprint.UNKNOWN_CRC32
+                    && applied.getCrc32() == entry.crc && applied.getLength() == entry.size;
+        }
+
+        try {
+            return isSameAsResource(entry, loaded.getClassLoader(), resourceName);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Unable to find the loaded version of class:[{}], treat it as changed: {}", className, e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * 与类被加载时所在的资源比对，jar 中的资源只读取中央目录中的 CRC
+     */
+    private static boolean isSameAsResource(MappedJar.Entry entry, ClassLoader loader, String resourceName)
+            throws IOException {
+        URL url = loader == null ? ClassLoader.getSystemResource(resourceName) : loader.getResource(resourceName);
+        if (url == null) {
+            return false;
+        }
+
+        URLConnection connection = url.openConnection();
+        if (connection instanceof JarURLConnection) {
+            JarEntry loadedEntry = ((JarURLConnection) connection).getJarEntry();
+            return loadedEntry != null && loadedEntry.getCrc() == entry.crc && loadedEntry.getSize() == entry.size;
+        }
+        if ("file".equals(url.getProtocol())) {
+            Path file;
+            try {
+                file = Paths.get(url.toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException("Invalid class file URL: " + url, e);
+            }
+            return Files.size(file) == entry.size && Fingerprints.crc32(Files.readAllBytes(file)) == entry.crc;
+        }
+        // 其他协议无法确定已加载的版本
+        return false;
+    }
+
+    /**
+     * 逐个读取变化的条目，关闭时释放 {@link Inflater} 和 jar 的映射
+     */
+    private final class Payloads implements Iterator<HotSwapPayload>, AutoCloseable {
+
+        private final MappedJar jar;
+
+        private final Iterator<MappedJar.Entry> entries;
+
+        private Inflater inflater;
+
+        private Payloads(MappedJar jar, List<MappedJar.Entry> entries) {
+            this.jar = jar;
+            this.entries = entries.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return entries.hasNext();
+        }
+
+        @Override
+        public HotSwapPayload next() {
+            MappedJar.Entry entry = entries.next();
+            try {
+                if (entry.isStored()) {
+                    return HotSwapPayload.of(className(entry), jar.slice(entry));
+                }
+                if (inflater == null) {
+                    inflater = new Inflater(true);
+                }
+                return HotSwapPayload.of(className(entry), ByteBuffer.wrap(jar.read(entry, inflater)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (inflater != null) {
+                inflater.end();
+                inflater = null;
+            }
+            jar.close();
+        }
+    }
+}
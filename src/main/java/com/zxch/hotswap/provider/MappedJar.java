@@ -0,0 +1,402 @@
+package com.zxch.hotswap.provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * 内存映射的 jar（zip）文件
+ * <p>
+ * 只解析中央目录得到每个条目的名称、CRC 和大小，条目内容在需要时直接从映射的内存中读取或解压，
+ * 不创建临时文件，也不会解压整个文件。支持 zip64。
+ * <p>
+ * 读取方法可以被多个线程同时调用（每个线程使用自己的 {@link Inflater}）。
+ * 用完后调用 {@link #close()} 立即释放映射（Windows 上映射期间 jar 文件无法被替换或删除），关闭不能与读取同时进行。
+ * 调用过 {@link #slice(Entry)} 时，关闭不会立即释放映射：视图可能仍被持有，释放后访问会使 JVM 崩溃，
+ * 映射在所有视图都被回收后释放；运行时不支持立即释放时同样在回收时释放
+ *
+ * @author zhangxun
+ */
+final class MappedJar implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedJar.class);
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_EOCD_SIZE = 56;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int FLAG_ENCRYPTED = 1;
+
+    /**
+     * {@code sun.misc.Unsafe#invokeCleaner(ByteBuffer)}，不可用时为null
+     */
+    private static final Method INVOKE_CLEANER;
+
+    private static final Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("Unmapping is not supported, mapped jars are released when collected: {}", e.toString());
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    private final Path path;
+
+    private final ByteBuffer buffer;
+
+    private volatile boolean closed;
+
+    /**
+     * 是否返回过映射内存的视图，返回过时关闭不立即释放映射
+     */
+    private volatile boolean sliced;
+
+    private MappedJar(Path path, ByteBuffer buffer) {
+        this.path = path;
+        this.buffer = buffer;
+    }
+
+    /**
+     * 映射 jar 文件
+     *
+     * @throws IOException 文件无法读取或超过 2 GB
+     */
+    static MappedJar open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Jar file larger than 2 GB is not supported: " + path);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            // 通道关闭后映射仍然有效
+            return new MappedJar(path, mapped.order(ByteOrder.LITTLE_ENDIAN));
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * 释放映射，重复调用无效；返回过视图时只标记关闭，映射在视图被回收后释放
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        if (sliced) {
+            logger.debug("Entries of {} were sliced, the mapping is released when they are collected", path);
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("Failed to unmap {}, it is released when collected: {}", path, e.toString());
+        }
+    }
+
+    private void ensureOpen() throws ZipException {
+        if (closed) {
+            throw new ZipException("Mapped jar is closed: " + path);
+        }
+    }
+
+    /**
+     * 解析中央目录
+     *
+     * @return 所有条目（包括目录），顺序与中央目录一致
+     */
+    List<Entry> entries() throws ZipException {
+        ensureOpen();
+        int eocd = findEndOfCentralDirectory();
+        long count = u16(eocd + 10);
+        long centralSize = u32(eocd + 12);
+        long centralOffset = u32(eocd + 16);
+        if (count == 0xFFFF || centralSize == ZIP64_MAGIC || centralOffset == ZIP64_MAGIC) {
+            int locator = eocd - ZIP64_LOCATOR_SIZE;
+            if (locator >= 0 && buffer.getInt(locator) == ZIP64_LOCATOR_SIGNATURE) {
+                int zip64Eocd = checkedOffset(buffer.getLong(locator + 8), ZIP64_EOCD_SIZE);
+                if (buffer.getInt(zip64Eocd) != ZIP64_EOCD_SIGNATURE) {
+                    throw new ZipException("Invalid zip64 end of central directory in " + path);
+                }
+                count = buffer.getLong(zip64Eocd + 32);
+                centralOffset = buffer.getLong(zip64Eocd + 48);
+            }
+        }
+
+        List<Entry> entries = new ArrayList<>((int) Math.min(count, 1 << 16));
+        int position = checkedOffset(centralOffset);
+        for (long i = 0; i < count; i++) {
+            if (position + CENTRAL_HEADER_SIZE > buffer.limit() || buffer.getInt(position) != CENTRAL_SIGNATURE) {
+                throw new ZipException("Invalid central directory header at " + position + " in " + path);
+            }
+            int flags = u16(position + 8);
+            int method = u16(position + 10);
+            long crc = u32(position + 16);
+            long compressedSize = u32(position + 20);
+            long size = u32(position + 24);
+            int nameLength = u16(position + 28);
+            int extraLength = u16(position + 30);
+            int commentLength = u16(position + 32);
+            long localOffset = u32(position + 42);
+
+            int nameStart = position + CENTRAL_HEADER_SIZE;
+            checkedOffset(nameStart, nameLength + extraLength + commentLength);
+            String name = decode(nameStart, nameLength);
+            if (size == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC || localOffset == ZIP64_MAGIC) {
+                // zip64 扩展字段中只包含值为 0xFFFFFFFF 的字段，顺序固定
+                int extra = findExtra(nameStart + nameLength, extraLength, ZIP64_EXTRA_ID);
+                if (extra < 0) {
+                    throw new ZipException("Missing zip64 extra field for " + name + " in " + path);
+                }
+                int p = extra + 4;
+                if (p + u16(extra + 2) > nameStart + nameLength + extraLength) {
+                    throw new ZipException("Invalid zip64 extra field for " + name + " in " + path);
+                }
+                if (size == ZIP64_MAGIC) {
+                    size = buffer.getLong(p);
+                    p += 8;
+                }
+                if (compressedSize == ZIP64_MAGIC) {
+                    compressedSize = buffer.getLong(p);
+                    p += 8;
+                }
+                if (localOffset == ZIP64_MAGIC) {
+                    localOffset = buffer.getLong(p);
+                }
+            }
+
+            entries.add(new Entry(name, flags, method, crc, compressedSize, size, localOffset));
+            position = nameStart + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * 读取条目内容，校验 CRC
+     *
+     * @param entry    条目
+     * @param inflater 解压使用的 {@link Inflater}（nowrap），调用方负责复用和释放
+     * @return 条目内容
+     */
+    byte[] read(Entry entry, Inflater inflater) throws ZipException {
+        ensureOpen();
+        if ((entry.flags & FLAG_ENCRYPTED) != 0) {
+            throw new ZipException("Encrypted entry is not supported: " + entry.name);
+        }
+        if (entry.size > Integer.MAX_VALUE) {
+            throw new ZipException("Entry too large: " + entry.name);
+        }
+
+        int local = checkedOffset(entry.localOffset, LOCAL_HEADER_SIZE);
+        if (buffer.getInt(local) != LOCAL_SIGNATURE) {
+            throw new ZipException("Invalid local header for " + entry.name + " in " + path);
+        }
+        // 本地头中的扩展字段长度可能与中央目录不同
+        int dataStart = local + LOCAL_HEADER_SIZE + u16(local + 26) + u16(local + 28);
+        int dataEnd = checkedOffset(dataStart + entry.compressedSize);
+
+        byte[] bytes = new byte[(int) entry.size];
+        if (entry.method == STORED) {
+            ByteBuffer data = buffer.duplicate();
+            data.position(dataStart);
+            data.get(bytes, 0, Math.min(bytes.length, dataEnd - dataStart));
+        } else if (entry.method == DEFLATED) {
+            ByteBuffer data = buffer.duplicate();
+            data.limit(dataEnd).position(dataStart);
+            inflater.reset();
+            inflater.setInput(data);
+            int read = 0;
+            try {
+                while (read < bytes.length) {
+                    int n = inflater.inflate(bytes, read, bytes.length - read);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    read += n;
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Corrupt entry " + entry.name + " in " + path + ": " + e.getMessage());
+            }
+            if (read != bytes.length) {
+                throw new ZipException("Truncated entry " + entry.name + " in " + path);
+            }
+        } else {
+            throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        if (crc.getValue() != entry.crc) {
+            throw new ZipException("CRC mismatch for " + entry.name + " in " + path);
+        }
+        return bytes;
+    }
+
+    /**
+     * 未压缩条目内容在映射内存中的只读视图，不复制，校验 CRC
+     *
+     * @param entry 未压缩（STORED）的条目
+     * @return 条目内容，position 为0，limit 为条目大小，关闭后仍然可以读取，映射直到视图被回收才释放
+     */
+    ByteBuffer slice(Entry entry) throws ZipException {
+        ensureOpen();
+        if (!entry.isStored() || (entry.flags & FLAG_ENCRYPTED) != 0) {
+            throw new ZipException("Entry is not stored uncompressed: " + entry.name);
+        }
+        int local = checkedOffset(entry.localOffset, LOCAL_HEADER_SIZE);
+        if (buffer.getInt(local) != LOCAL_SIGNATURE) {
+            throw new ZipException("Invalid local header for " + entry.name + " in " + path);
+        }
+        int dataStart = local + LOCAL_HEADER_SIZE + u16(local + 26) + u16(local + 28);
+        int dataEnd = checkedOffset(dataStart + entry.size);
+
+        ByteBuffer data = buffer.duplicate();
+        data.limit(dataEnd).position(dataStart);
+        ByteBuffer slice = data.slice().asReadOnlyBuffer();
+        CRC32 crc = new CRC32();
+        crc.update(slice.duplicate());
+        if (crc.getValue() != entry.crc) {
+            throw new ZipException("CRC mismatch for " + entry.name + " in " + path);
+        }
+        sliced = true;
+        return slice;
+    }
+
+    private int findEndOfCentralDirectory() throws ZipException {
+        int limit = buffer.limit();
+        int stop = Math.max(0, limit - EOCD_SIZE - MAX_COMMENT_LENGTH);
+        for (int p = limit - EOCD_SIZE; p >= stop; p--) {
+            if (buffer.getInt(p) == EOCD_SIGNATURE && p + EOCD_SIZE + u16(p + 20) == limit) {
+                return p;
+            }
+        }
+        throw new ZipException("End of central directory not found, not a jar file: " + path);
+    }
+
+    private int findExtra(int start, int length, int id) {
+        int p = start;
+        int end = start + length;
+        while (p + 4 <= end) {
+            int size = u16(p + 2);
+            if (u16(p) == id) {
+                return p;
+            }
+            p += 4 + size;
+        }
+        return -1;
+    }
+
+    private String decode(int offset, int length) {
+        byte[] name = new byte[length];
+        ByteBuffer data = buffer.duplicate();
+        data.position(offset);
+        data.get(name);
+        // jar 工具总是使用 UTF-8 写入条目名
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private int checkedOffset(long offset) throws ZipException {
+        return checkedOffset(offset, 0);
+    }
+
+    /**
+     * @param length 从该位置开始需要读取的字节数
+     */
+    private int checkedOffset(long offset, int length) throws ZipException {
+        if (offset < 0 || offset > buffer.limit() - length) {
+            throw new ZipException("Offset " + offset + " out of range in " + path);
+        }
+        return (int) offset;
+    }
+
+    private int u16(int offset) {
+        return buffer.getShort(offset) & 0xFFFF;
+    }
+
+    private long u32(int offset) {
+        return buffer.getInt(offset) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * 中央目录中的一个条目
+     */
+    static final class Entry {
+
+        final String name;
+
+        final int flags;
+
+        final int method;
+
+        final long crc;
+
+        final long compressedSize;
+
+        final long size;
+
+        final long localOffset;
+
+        private Entry(String name, int flags, int method, long crc, long compressedSize, long size, long localOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localOffset = localOffset;
+        }
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        boolean isStored() {
+            return method == STORED;
+        }
+    }
+}
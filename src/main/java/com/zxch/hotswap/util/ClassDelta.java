@@ -0,0 +1,331 @@
+package com.zxch.hotswap.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 字节码增量（delta）
+ * <p>
+ * 热修复通常只改动一个方法中的几条指令，增量只携带相对基础版本的差异，按基础版本的指纹索引：
+ * 接收端只有在最后一次应用的字节码正是基础版本时才能还原，否则需要读取完整的 class 文件，
+ * 见 {@link ClassVersionStore#readCurrent(Class, long, int)} 和 {@link HotSwapUtils#applyDelta(byte[])}。
+ * <pre>
+ * 增量数据（大端）：
+ *   u4 magic "HSWD" | u1 version | u2 classNameLength | 类名（UTF-8）
+ *   | u8 baseFingerprint | u4 baseLength | u8 targetFingerprint | u4 targetLength | 指令...
+ * 指令：
+ *   u1 0 (COPY)   | varint offset | varint length        从基础版本复制
+ *   u1 1 (INSERT) | varint length | 数据                 插入新数据
+ * </pre>
+ * 还原后按目标版本的指纹和长度校验，不会把错误的字节码交给 JVM
+ *
+ * @author zhangxun
+ */
+public final class ClassDelta {
+
+    public static final int MAGIC = 0x48535744;
+
+    public static final int VERSION = 1;
+
+    private static final int OP_COPY = 0;
+
+    private static final int OP_INSERT = 1;
+
+    /**
+     * 匹配的最小长度，更短的相同片段直接插入，复制指令本身就要占几个字节
+     */
+    private static final int MIN_MATCH = 8;
+
+    private final String className;
+
+    private final long baseFingerprint;
+
+    private final int baseLength;
+
+    private final long targetFingerprint;
+
+    private final int targetLength;
+
+    private final byte[] data;
+
+    private final int opsOffset;
+
+    private ClassDelta(String className, long baseFingerprint, int baseLength, long targetFingerprint,
+                       int targetLength, byte[] data, int opsOffset) {
+        this.className = className;
+        this.baseFingerprint = baseFingerprint;
+        this.baseLength = baseLength;
+        this.targetFingerprint = targetFingerprint;
+        this.targetLength = targetLength;
+        this.data = data;
+        this.opsOffset = opsOffset;
+    }
+
+    /**
+     * 计算从基础版本到目标版本的增量
+     *
+     * @param base   基础版本的 class 文件字节码
+     * @param target 目标版本的 class 文件字节码，必须是同一个类
+     * @return 增量数据
+     */
+    public static byte[] diff(byte[] base, byte[] target) {
+        ClassMetadata baseMetadata = ClassMetadata.parse(base);
+        ClassMetadata targetMetadata = ClassMetadata.parse(target);
+        if (!baseMetadata.getClassName().equals(targetMetadata.getClassName())) {
+            throw new IllegalArgumentException("Cannot diff " + baseMetadata.getClassName() + " against "
+                    + targetMetadata.getClassName());
+        }
+
+        byte[] name = targetMetadata.getClassName().getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + target.length / 4);
+        ByteBuffer header = ByteBuffer.allocate(4 + 1 + 2 + name.length + 8 + 4 + 8 + 4)
+                .putInt(MAGIC)
+                .put((byte) VERSION)
+                .putShort((short) name.length)
+                .put(name)
+                .putLong(baseMetadata.getFingerprint())
+                .putInt(base.length)
+                .putLong(targetMetadata.getFingerprint())
+                .putInt(target.length);
+        out.write(header.array(), 0, header.position());
+
+        int[] index = index(base);
+        int pending = 0;
+        int i = 0;
+        while (i + MIN_MATCH <= target.length) {
+            int candidate = index.length == 0 ? -1 : index[slot(key(target, i), index.length)] - 1;
+            if (candidate < 0 || !regionMatches(base, candidate, target, i, MIN_MATCH)) {
+                i++;
+                continue;
+            }
+
+            int start = i;
+            int from = candidate;
+            // 向前扩展到还没有输出的插入数据中
+            while (start > pending && from > 0 && target[start - 1] == base[from - 1]) {
+                start--;
+                from--;
+            }
+            int end = i + MIN_MATCH;
+            int baseEnd = candidate + MIN_MATCH;
+            while (end < target.length && baseEnd < base.length && target[end] == base[baseEnd]) {
+                end++;
+                baseEnd++;
+            }
+
+            writeInsert(out, target, pending, start);
+            out.write(OP_COPY);
+            writeVarint(out, from);
+            writeVarint(out, end - start);
+            pending = end;
+            i = end;
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return 数据是否为增量（以 "HSWD" 开头）
+     */
+    public static boolean isDelta(byte[] data) {
+        return data != null && data.length >= 4 && ByteBuffer.wrap(data).getInt(0) == MAGIC;
+    }
+
+    /**
+     * 解析增量的头部，指令在还原时才校验
+     *
+     * @throws IllegalArgumentException 不是增量或格式错误
+     */
+    public static ClassDelta parse(byte[] data) {
+        if (!isDelta(data)) {
+            throw new IllegalArgumentException("Not a class delta");
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            buffer.position(4);
+            int version = buffer.get() & 0xFF;
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported class delta version: " + version);
+            }
+            byte[] name = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(name);
+            long baseFingerprint = buffer.getLong();
+            int baseLength = buffer.getInt();
+            long targetFingerprint = buffer.getLong();
+            int targetLength = buffer.getInt();
+            if (baseLength <= 0 || targetLength <= 0) {
+                throw new IllegalArgumentException("Invalid class delta lengths: " + baseLength + " -> " + targetLength);
+            }
+            return new ClassDelta(new String(name, StandardCharsets.UTF_8), baseFingerprint, baseLength,
+                    targetFingerprint, targetLength, data, buffer.position());
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated class delta header", e);
+        }
+    }
+
+    /**
+     * 在基础版本上还原目标版本
+     *
+     * @param base 基础版本的字节码
+     * @return 目标版本的字节码
+     * @throws IllegalStateException    基础版本不匹配
+     * @throws IllegalArgumentException 增量数据损坏或还原结果校验失败
+     */
+    public byte[] apply(byte[] base) {
+        if (!isBase(base)) {
+            throw new IllegalStateException("Delta of " + className + " expects base " + Fingerprints.toHex(baseFingerprint)
+                    + "(" + baseLength + " bytes)");
+        }
+
+        byte[] target = new byte[targetLength];
+        int written = 0;
+        int[] position = {opsOffset};
+        try {
+            while (position[0] < data.length) {
+                int op = data[position[0]++];
+                if (op == OP_COPY) {
+                    int from = readVarint(data, position);
+                    int length = readVarint(data, position);
+                    if (from > base.length - length || length > targetLength - written) {
+                        throw new IllegalArgumentException("Copy out of range in delta of " + className);
+                    }
+                    System.arraycopy(base, from, target, written, length);
+                    written += length;
+                } else if (op == OP_INSERT) {
+                    int length = readVarint(data, position);
+                    if (length > data.length - position[0] || length > targetLength - written) {
+                        throw new IllegalArgumentException("Insert out of range in delta of " + className);
+                    }
+                    System.arraycopy(data, position[0], target, written, length);
+                    position[0] += length;
+                    written += length;
+                } else {
+                    throw new IllegalArgumentException("Unknown op " + op + " in delta of " + className);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated delta of " + className, e);
+        }
+
+        if (written != targetLength || Fingerprints.hash64(target) != targetFingerprint) {
+            throw new IllegalArgumentException("Delta of " + className + " did not reproduce "
+                    + Fingerprints.toHex(targetFingerprint) + "(" + targetLength + " bytes)");
+        }
+        return target;
+    }
+
+    /**
+     * @return 给定字节码是否为该增量的基础版本
+     */
+    public boolean isBase(byte[] base) {
+        return base != null && base.length == baseLength && Fingerprints.hash64(base) == baseFingerprint;
+    }
+
+    /**
+     * @return 基础版本是否与给定版本相同
+     */
+    public boolean isBase(ClassFingerprint applied) {
+        return applied != null && applied.matches(baseFingerprint, baseLength);
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public long getBaseFingerprint() {
+        return baseFingerprint;
+    }
+
+    public int getBaseLength() {
+        return baseLength;
+    }
+
+    public long getTargetFingerprint() {
+        return targetFingerprint;
+    }
+
+    public int getTargetLength() {
+        return targetLength;
+    }
+
+    /**
+     * @return 增量数据的长度
+     */
+    public int getLength() {
+        return data.length;
+    }
+
+    @Override
+    public String toString() {
+        return className + "@" + Fingerprints.toHex(baseFingerprint) + "(" + baseLength + " bytes) -> "
+                + Fingerprints.toHex(targetFingerprint) + "(" + targetLength + " bytes), delta " + data.length + " bytes";
+    }
+
+    /**
+     * 基础版本中每个位置起的 {@value #MIN_MATCH} 字节的索引，冲突时保留靠前的位置，存放位置 + 1
+     */
+    private static int[] index(byte[] base) {
+        if (base.length < MIN_MATCH) {
+            return new int[0];
+        }
+        int[] index = new int[Integer.highestOneBit(base.length) << 1];
+        for (int i = base.length - MIN_MATCH; i >= 0; i--) {
+            index[slot(key(base, i), index.length)] = i + 1;
+        }
+        return index;
+    }
+
+    private static long key(byte[] bytes, int offset) {
+        long key = 0;
+        for (int i = 0; i < MIN_MATCH; i++) {
+            key = (key << 8) | (bytes[offset + i] & 0xFFL);
+        }
+        return key;
+    }
+
+    private static int slot(long key, int size) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & (size - 1);
+    }
+
+    private static boolean regionMatches(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        return aOffset + length <= a.length
+                && Arrays.equals(a, aOffset, aOffset + length, b, bOffset, bOffset + length);
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        if (to > from) {
+            out.write(OP_INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * 读取非负的 int 变长整数，最多 5 字节，第 5 字节只能携带剩下的 3 位
+     */
+    private static int readVarint(byte[] data, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = data[position[0]++];
+            if (shift == 28 && (b & 0x7F) > 0x07) {
+                throw new IllegalArgumentException("Varint out of range in class delta");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in class delta");
+    }
+}
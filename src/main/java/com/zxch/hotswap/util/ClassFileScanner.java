@@ -0,0 +1,278 @@
+package com.zxch.hotswap.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 直接扫描 class 文件常量池，读取类名、父类、nest 等元数据
+ * <p>
+ * 只记录常量池每一项的偏移量，不解析方法体、不构建任何 ASM 对象；
+ * 偏移量表和字符缓冲区按线程复用，除了返回的字符串外扫描过程不分配内存
+ *
+ * @author zhangxun
+ */
+abstract class ClassFileScanner {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final byte[] NEST_HOST = "NestHost".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NEST_MEMBERS = "NestMembers".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * 只读取类名
+     *
+     * @param bytes class 文件字节码
+     * @return 类名（com.example.MyClass 格式）
+     */
+    static String readClassName(byte[] bytes) {
+        try {
+            Scratch scratch = SCRATCH.get();
+            int header = scanConstantPool(bytes, scratch);
+            return readClass(bytes, scratch, u2(bytes, header + 2));
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed class file", e);
+        }
+    }
+
+    /**
+     * 读取完整的类元数据并计算指纹
+     *
+     * @param bytes class 文件字节码
+     * @return 类元数据
+     */
+    static ClassMetadata scan(byte[] bytes) {
+        try {
+            Scratch scratch = SCRATCH.get();
+            int p = scanConstantPool(bytes, scratch);
+            String className = readClass(bytes, scratch, u2(bytes, p + 2));
+            int superIndex = u2(bytes, p + 4);
+            String superClassName = superIndex == 0 ? null : readClass(bytes, scratch, superIndex);
+
+            p += 6;
+            p += 2 + 2 * u2(bytes, p);
+            p = skipMembers(bytes, p);
+            p = skipMembers(bytes, p);
+
+            String nestHostName = null;
+            List<String> nestMemberNames = Collections.emptyList();
+            int attributeCount = u2(bytes, p);
+            p += 2;
+            for (int i = 0; i < attributeCount; i++) {
+                int nameIndex = u2(bytes, p);
+                int length = u4(bytes, p + 2);
+                int data = p + 6;
+                if (utf8Equals(bytes, scratch, nameIndex, NEST_HOST)) {
+                    nestHostName = readClass(bytes, scratch, u2(bytes, data));
+                } else if (utf8Equals(bytes, scratch, nameIndex, NEST_MEMBERS)) {
+                    int count = u2(bytes, data);
+                    List<String> members = new ArrayList<>(count);
+                    for (int j = 0; j < count; j++) {
+                        members.add(readClass(bytes, scratch, u2(bytes, data + 2 + 2 * j)));
+                    }
+                    nestMemberNames = Collections.unmodifiableList(members);
+                }
+                p = data + length;
+            }
+            // 最后一个属性的内容只跳过不读取，截断或多余的字节在这里发现
+            if (p != bytes.length) {
+                throw new IllegalArgumentException("Malformed class file: expected " + p + " bytes but got "
+                        + bytes.length);
+            }
+
+            return new ClassMetadata(className, superClassName, nestHostName, nestMemberNames,
+                    u2(bytes, 6), u2(bytes, 4), Fingerprints.hash64(bytes), bytes.length);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed class file", e);
+        }
+    }
+
+    /**
+     * 记录常量池每一项的偏移量
+     *
+     * @return 常量池之后 access_flags 的位置
+     */
+    private static int scanConstantPool(byte[] bytes, Scratch scratch) {
+        if (bytes.length < 10 || u4(bytes, 0) != MAGIC) {
+            throw new IllegalArgumentException("Not a class file");
+        }
+
+        int count = u2(bytes, 8);
+        int[] offsets = scratch.offsets(count);
+        int p = 10;
+        for (int i = 1; i < count; i++) {
+            offsets[i] = p;
+            switch (bytes[p]) {
+                case CONSTANT_UTF8:
+                    p += 3 + u2(bytes, p + 1);
+                    break;
+                case CONSTANT_CLASS:
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    p += 3;
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    p += 4;
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    p += 5;
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    // long 和 double 占用两个常量池槽位
+                    p += 9;
+                    i++;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown constant pool tag " + bytes[p] + " at offset " + p);
+            }
+        }
+        scratch.count = count;
+        return p;
+    }
+
+    /**
+     * 跳过字段表或方法表
+     */
+    private static int skipMembers(byte[] bytes, int p) {
+        int count = u2(bytes, p);
+        p += 2;
+        for (int i = 0; i < count; i++) {
+            int attributeCount = u2(bytes, p + 6);
+            p += 8;
+            for (int j = 0; j < attributeCount; j++) {
+                p += 6 + u4(bytes, p + 2);
+            }
+        }
+        return p;
+    }
+
+    private static int entryOffset(Scratch scratch, int index) {
+        if (index <= 0 || index >= scratch.count) {
+            throw new IllegalArgumentException("Invalid constant pool index " + index);
+        }
+        return scratch.offsets[index];
+    }
+
+    private static boolean utf8Equals(byte[] bytes, Scratch scratch, int index, byte[] expected) {
+        int p = entryOffset(scratch, index);
+        if (bytes[p] != CONSTANT_UTF8 || u2(bytes, p + 1) != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (bytes[p + 3 + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 读取 CONSTANT_Class 项的类名，并把内部格式（com/example/MyClass）转换为标准格式
+     */
+    private static String readClass(byte[] bytes, Scratch scratch, int index) {
+        int p = entryOffset(scratch, index);
+        if (bytes[p] != CONSTANT_CLASS) {
+            throw new IllegalArgumentException("Constant pool entry " + index + " is not a class");
+        }
+        p = entryOffset(scratch, u2(bytes, p + 1));
+        if (bytes[p] != CONSTANT_UTF8) {
+            throw new IllegalArgumentException("Constant pool entry at offset " + p + " is not a utf8");
+        }
+
+        int length = u2(bytes, p + 1);
+        int start = p + 3;
+        byte[] chars = scratch.chars(length);
+        for (int i = 0; i < length; i++) {
+            byte b = bytes[start + i];
+            if (b < 0) {
+                // 非 ASCII 类名很少见，走 modified UTF-8 解码
+                return decodeModifiedUtf8(bytes, start, length).replace('/', '.');
+            }
+            chars[i] = b == '/' ? (byte) '.' : b;
+        }
+        return new String(chars, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private static String decodeModifiedUtf8(byte[] bytes, int start, int length) {
+        char[] chars = new char[length];
+        int count = 0;
+        int p = start;
+        int end = start + length;
+        while (p < end) {
+            int b = bytes[p++] & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if (b < 0xE0) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (bytes[p++] & 0x3F));
+            } else {
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((bytes[p++] & 0x3F) << 6) | (bytes[p++] & 0x3F));
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private static int u2(byte[] bytes, int p) {
+        return ((bytes[p] & 0xFF) << 8) | (bytes[p + 1] & 0xFF);
+    }
+
+    private static int u4(byte[] bytes, int p) {
+        return ((bytes[p] & 0xFF) << 24) | ((bytes[p + 1] & 0xFF) << 16) | ((bytes[p + 2] & 0xFF) << 8) | (bytes[p + 3] & 0xFF);
+    }
+
+    /**
+     * 按线程复用的扫描缓冲区
+     */
+    private static final class Scratch {
+
+        private int[] offsets = new int[256];
+
+        private byte[] chars = new byte[128];
+
+        private int count;
+
+        private int[] offsets(int count) {
+            if (offsets.length < count) {
+                offsets = new int[Math.max(count, offsets.length * 2)];
+            }
+            return offsets;
+        }
+
+        private byte[] chars(int length) {
+            if (chars.length < length) {
+                chars = new byte[Math.max(length, chars.length * 2)];
+            }
+            return chars;
+        }
+    }
+}
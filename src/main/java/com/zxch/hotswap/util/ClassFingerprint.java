@@ -0,0 +1,80 @@
+package com.zxch.hotswap.util;
+
+/**
+ * 已应用字节码的指纹，代表一个类当前的版本
+ *
+ * @author zhangxun
+ */
+public final class ClassFingerprint {
+
+    /**
+     * 没有记录 CRC-32
+     */
+    public static final long UNKNOWN_CRC32 = -1L;
+
+    private final String className;
+
+    private final long fingerprint;
+
+    private final int length;
+
+    private final long crc32;
+
+    private final long appliedAtMillis;
+
+    public ClassFingerprint(String className, long fingerprint, int length, long appliedAtMillis) {
+        this(className, fingerprint, length, UNKNOWN_CRC32, appliedAtMillis);
+    }
+
+    public ClassFingerprint(String className, long fingerprint, int length, long crc32, long appliedAtMillis) {
+        this.className = className;
+        this.fingerprint = fingerprint;
+        this.length = length;
+        this.crc32 = crc32;
+        this.appliedAtMillis = appliedAtMillis;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return 字节码的 64 位指纹，见 {@link Fingerprints#hash64(byte[])}
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return 字节码长度
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return 字节码的 CRC-32，见 {@link Fingerprints#crc32(byte[])}，没有记录时为 {@link #UNKNOWN_CRC32}
+     */
+    public long getCrc32() {
+        return crc32;
+    }
+
+    /**
+     * @return 应用时间
+     */
+    public long getAppliedAtMillis() {
+        return appliedAtMillis;
+    }
+
+    /**
+     * 判断是否与给定字节码相同
+     */
+    public boolean matches(long fingerprint, int length) {
+        return this.fingerprint == fingerprint && this.length == length;
+    }
+
+    @Override
+    public String toString() {
+        return className + "@" + Fingerprints.toHex(fingerprint) + "(" + length + " bytes)";
+    }
+}
@@ -0,0 +1,117 @@
+package com.zxch.hotswap.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 已应用字节码的指纹登记表
+ * <p>
+ * 每次热加载成功后记录该类最后一次应用的字节码指纹，再次收到相同字节码时（例如 ZK 重连后 TreeCache
+ * 重放所有节点的 NODE_ADDED）直接跳过，不会产生重定义停顿和 JIT 反优化。
+ * <p>
+ * 按定义类记录（只持有弱引用）：同名的类被另一个 ClassLoader 加载，或卸载后重新加载的新副本还运行着旧代码，
+ * 没有版本记录，相同的字节码仍会被热加载；类被卸载后对应的记录随之移除。
+ * <p>
+ * 读操作无锁，可以在健康检查中随时查询每个类当前的版本
+ *
+ * @author zhangxun
+ */
+public final class ClassFingerprintRegistry {
+
+    private static final ClassFingerprintRegistry INSTANCE = new ClassFingerprintRegistry();
+
+    private final ConcurrentHashMap<ClassKey, ClassFingerprint> fingerprints = new ConcurrentHashMap<>();
+
+    private final ReferenceQueue<Class<?>> unloaded = new ReferenceQueue<>();
+
+    private ClassFingerprintRegistry() {
+    }
+
+    public static ClassFingerprintRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 查询类当前的版本
+     *
+     * @param clazz 已加载的类
+     * @return 最后一次应用的字节码指纹，从未热加载过时返回null
+     */
+    public ClassFingerprint get(Class<?> clazz) {
+        return fingerprints.get(ClassKey.of(clazz));
+    }
+
+    /**
+     * 判断字节码是否与最后一次应用的版本相同
+     *
+     * @param clazz       已加载的类
+     * @param fingerprint 字节码指纹
+     * @param length      字节码长度
+     */
+    public boolean isApplied(Class<?> clazz, long fingerprint, int length) {
+        ClassFingerprint current = get(clazz);
+        return current != null && current.matches(fingerprint, length);
+    }
+
+    /**
+     * 记录一次成功的热加载
+     *
+     * @param clazz       被重定义的类
+     * @param fingerprint 字节码指纹
+     * @param length      字节码长度
+     * @return 新的版本
+     */
+    public ClassFingerprint record(Class<?> clazz, long fingerprint, int length) {
+        return record(clazz, fingerprint, length, ClassFingerprint.UNKNOWN_CRC32);
+    }
+
+    /**
+     * 记录一次成功的热加载，同时记录 CRC-32，用于与 jar 条目比对
+     *
+     * @param clazz       被重定义的类
+     * @param fingerprint 字节码指纹
+     * @param length      字节码长度
+     * @param crc32       字节码的 CRC-32
+     * @return 新的版本
+     */
+    public ClassFingerprint record(Class<?> clazz, long fingerprint, int length, long crc32) {
+        expungeUnloaded();
+        ClassFingerprint applied = new ClassFingerprint(clazz.getName(), fingerprint, length, crc32,
+                System.currentTimeMillis());
+        ClassKey key = ClassKey.of(clazz);
+        if (fingerprints.replace(key, applied) == null) {
+            fingerprints.put(new ClassKey(clazz, unloaded), applied);
+        }
+        return applied;
+    }
+
+    /**
+     * 移除类的版本记录，下次收到相同字节码时会重新热加载
+     */
+    public void remove(Class<?> clazz) {
+        fingerprints.remove(ClassKey.of(clazz));
+    }
+
+    /**
+     * @return 所有已加载类当前版本的快照，同名的类被多个 ClassLoader 加载时各有一条
+     */
+    public List<ClassFingerprint> snapshot() {
+        expungeUnloaded();
+        return new ArrayList<>(fingerprints.values());
+    }
+
+    public int size() {
+        expungeUnloaded();
+        return fingerprints.size();
+    }
+
+    private void expungeUnloaded() {
+        Reference<? extends Class<?>> key;
+        while ((key = unloaded.poll()) != null) {
+            fingerprints.remove(key);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.zxch.hotswap.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * 按定义类（即类名 + 定义它的 ClassLoader）区分的 key，只持有类的弱引用
+ * <p>
+ * 同名的类被另一个 ClassLoader 加载，或卸载后重新加载时，是不同的 key，
+ * 不会把旧副本的版本记录当作新副本的版本。类被回收后 key 进入引用队列，由持有者移除对应的记录。
+ * 类被回收后的 key 只与自身相等
+ *
+ * @author zhangxun
+ */
+final class ClassKey extends WeakReference<Class<?>> {
+
+    private final String className;
+
+    private final int hash;
+
+    ClassKey(Class<?> clazz, ReferenceQueue<? super Class<?>> queue) {
+        super(clazz, queue);
+        this.className = clazz.getName();
+        this.hash = System.identityHashCode(clazz);
+    }
+
+    /**
+     * 只用于查找的临时 key
+     */
+    static ClassKey of(Class<?> clazz) {
+        return new ClassKey(clazz, null);
+    }
+
+    String getClassName() {
+        return className;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ClassKey)) {
+            return false;
+        }
+        Class<?> clazz = get();
+        return clazz != null && clazz == ((ClassKey) o).get();
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        Class<?> clazz = get();
+        return clazz == null ? className + "(unloaded)" : className + "@" + clazz.getClassLoader();
+    }
+}
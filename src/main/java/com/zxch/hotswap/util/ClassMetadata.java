@@ -0,0 +1,117 @@
+package com.zxch.hotswap.util;
+
+import com.zxch.hotswap.metrics.HotSwapMetrics;
+import com.zxch.hotswap.metrics.HotSwapPhase;
+
+import java.util.List;
+
+/**
+ * class 文件元数据
+ * <p>
+ * 由 {@link #parse(byte[])} 一次扫描得到，在整个热加载流程中传递，同一份字节码不会被重复解析
+ *
+ * @author zhangxun
+ */
+public final class ClassMetadata {
+
+    private final String className;
+
+    private final String superClassName;
+
+    private final String nestHostName;
+
+    private final List<String> nestMemberNames;
+
+    private final int majorVersion;
+
+    private final int minorVersion;
+
+    private final long fingerprint;
+
+    private final int length;
+
+    ClassMetadata(String className, String superClassName, String nestHostName, List<String> nestMemberNames,
+                  int majorVersion, int minorVersion, long fingerprint, int length) {
+        this.className = className;
+        this.superClassName = superClassName;
+        this.nestHostName = nestHostName;
+        this.nestMemberNames = nestMemberNames;
+        this.majorVersion = majorVersion;
+        this.minorVersion = minorVersion;
+        this.fingerprint = fingerprint;
+        this.length = length;
+    }
+
+    /**
+     * 解析 class 文件元数据并计算指纹
+     *
+     * @param bytes class 文件字节码
+     * @return 类元数据
+     * @throws IllegalArgumentException 字节码不是合法的 class 文件
+     */
+    public static ClassMetadata parse(byte[] bytes) {
+        long start = System.nanoTime();
+        ClassMetadata metadata = ClassFileScanner.scan(bytes);
+        HotSwapMetrics.getInstance().recordPhase(HotSwapPhase.PARSE, System.nanoTime() - start);
+        return metadata;
+    }
+
+    /**
+     * @return 类名（com.example.MyClass 格式）
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return 父类名，java.lang.Object 和 module-info 返回null
+     */
+    public String getSuperClassName() {
+        return superClassName;
+    }
+
+    /**
+     * @return NestHost 属性中的宿主类名，没有时返回null（类自身就是 nest 宿主）
+     */
+    public String getNestHostName() {
+        return nestHostName;
+    }
+
+    /**
+     * @return NestMembers 属性中的成员类名，不可修改
+     */
+    public List<String> getNestMemberNames() {
+        return nestMemberNames;
+    }
+
+    /**
+     * @return class 文件主版本号，例如 Java 11 为 55
+     */
+    public int getMajorVersion() {
+        return majorVersion;
+    }
+
+    public int getMinorVersion() {
+        return minorVersion;
+    }
+
+    /**
+     * @return 字节码的 64 位指纹，见 {@link Fingerprints#hash64(byte[])}
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return 字节码长度
+     */
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return className + "@" + Fingerprints.toHex(fingerprint) + "(" + length + " bytes, version " + majorVersion
+                + "." + minorVersion + ")";
+    }
+}
@@ -0,0 +1,101 @@
+package com.zxch.hotswap.util;
+
+import java.nio.file.Path;
+
+/**
+ * 类的一个历史版本，见 {@link ClassVersionStore}
+ *
+ * @author zhangxun
+ */
+public final class ClassVersion {
+
+    /**
+     * 原始版本（第一次重定义之前的字节码）的批次号
+     */
+    public static final long ORIGINAL_BATCH_ID = 0L;
+
+    private final String className;
+
+    private final long fingerprint;
+
+    private final int length;
+
+    private final long batchId;
+
+    private final long appliedAtMillis;
+
+    /**
+     * 压缩后的字节码，溢出到磁盘或被丢弃后为null
+     */
+    volatile byte[] compressed;
+
+    /**
+     * 溢出到磁盘的文件，没有溢出时为null
+     */
+    volatile Path spillFile;
+
+    /**
+     * 压缩后的长度
+     */
+    final int storedLength;
+
+    ClassVersion(String className, long fingerprint, int length, long batchId, byte[] compressed) {
+        this.className = className;
+        this.fingerprint = fingerprint;
+        this.length = length;
+        this.batchId = batchId;
+        this.appliedAtMillis = System.currentTimeMillis();
+        this.compressed = compressed;
+        this.storedLength = compressed.length;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return 应用该版本的批次号，原始版本为 {@link #ORIGINAL_BATCH_ID}
+     */
+    public long getBatchId() {
+        return batchId;
+    }
+
+    /**
+     * @return 记录时间，原始版本为捕获时间
+     */
+    public long getAppliedAtMillis() {
+        return appliedAtMillis;
+    }
+
+    public boolean isOriginal() {
+        return batchId == ORIGINAL_BATCH_ID;
+    }
+
+    /**
+     * @return 字节码是否已经溢出到磁盘
+     */
+    public boolean isSpilled() {
+        return compressed == null && spillFile != null;
+    }
+
+    /**
+     * @return 字节码是否已经因为内存和磁盘上限被丢弃，被丢弃的版本无法回滚
+     */
+    public boolean isEvicted() {
+        return compressed == null && spillFile == null;
+    }
+
+    @Override
+    public String toString() {
+        return className + "@" + Fingerprints.toHex(fingerprint) + "(" + length + " bytes, "
+                + (isOriginal() ? "original" : "batch " + batchId) + ")";
+    }
+}
@@ -0,0 +1,794 @@
+package com.zxch.hotswap.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.ProtectionDomain;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 类的历史版本存储，用于回滚，见 {@link HotSwapUtils#rollback(String)} 和 {@link HotSwapUtils#rollback(long)}；
+ * 当前版本同时是还原增量（见 {@link ClassDelta}）的基础版本，每次重定义只压缩并保存一份字节码
+ * <ul>
+ * <li>类第一次被重定义之前，通过一个只读取不修改的 ClassFileTransformer 和一次 retransformClasses 捕获其原始字节码
+ * （即该类当前在 JVM 中的定义），原始版本不计入版本数上限</li>
+ * <li>每个类保留最近 {@link #getMaxVersions()} 个成功应用的版本，deflate 压缩后放在堆内</li>
+ * <li>堆内总量超过上限时，把最久没有使用的版本溢出到磁盘；磁盘也超过上限时丢弃最早溢出的版本，被丢弃的版本无法回滚</li>
+ * </ul>
+ * 锁内只做记账，溢出文件的写入、读取和删除都在锁外进行；溢出文件在版本被释放时删除，
+ * 进程退出时由一个关闭钩子删除剩余的溢出文件（以及自动创建的临时目录）。
+ * 版本按定义类记录（只持有弱引用），同名的类被多个 ClassLoader 加载时各自有独立的版本，类被卸载后其版本随之释放
+ *
+ * @author zhangxun
+ */
+public final class ClassVersionStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClassVersionStore.class);
+
+    public static final int DEFAULT_MAX_VERSIONS = 5;
+
+    /**
+     * 默认的堆内（压缩后）总量上限
+     */
+    public static final long DEFAULT_MAX_MEMORY_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * 默认的磁盘（压缩后）总量上限
+     */
+    public static final long DEFAULT_MAX_DISK_BYTES = 256L * 1024 * 1024;
+
+    private static final ClassVersionStore INSTANCE = new ClassVersionStore();
+
+    /**
+     * 每个类的版本，从旧到新，最后一个是当前版本
+     */
+    private final Map<ClassKey, ArrayDeque<ClassVersion>> histories = new HashMap<>();
+
+    private final ReferenceQueue<Class<?>> unloaded = new ReferenceQueue<>();
+
+    /**
+     * 字节码在堆内的版本，按访问顺序排列，最久没有使用的在最前面
+     */
+    private final LinkedHashMap<ClassVersion, Boolean> resident = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 字节码溢出到磁盘的版本，按溢出顺序排列
+     */
+    private final LinkedHashMap<ClassVersion, Boolean> spilled = new LinkedHashMap<>();
+
+    private long memoryBytes;
+
+    private long diskBytes;
+
+    private int maxVersions = DEFAULT_MAX_VERSIONS;
+
+    private long maxMemoryBytes = DEFAULT_MAX_MEMORY_BYTES;
+
+    private long maxDiskBytes = DEFAULT_MAX_DISK_BYTES;
+
+    /**
+     * 溢出目录，为null时第一次溢出时在临时目录下创建，进程退出时删除
+     */
+    private Path spillDirectory;
+
+    /**
+     * 自动创建的临时溢出目录，进程退出时整个删除
+     */
+    private Path createdSpillDirectory;
+
+    private boolean cleanupHookAdded;
+
+    private long spillSequence;
+
+    /**
+     * 锁内决定、等待在锁外写入磁盘的版本
+     */
+    private final List<ClassVersion> pendingWrites = new ArrayList<>();
+
+    /**
+     * 锁内释放、等待在锁外删除的溢出文件
+     */
+    private final List<Path> pendingDeletes = new ArrayList<>();
+
+    private volatile boolean captureOriginals = true;
+
+    private ClassVersionStore() {
+    }
+
+    public static ClassVersionStore getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return 类的所有版本，从新到旧，第一个是当前版本；没有记录时返回空列表
+     */
+    public synchronized List<ClassVersion> getVersions(Class<?> clazz) {
+        ArrayDeque<ClassVersion> history = histories.get(ClassKey.of(clazz));
+        if (history == null) {
+            return Collections.emptyList();
+        }
+        List<ClassVersion> versions = new ArrayList<>(history.size());
+        history.descendingIterator().forEachRemaining(versions::add);
+        return versions;
+    }
+
+    /**
+     * @return 类的当前版本，没有记录时返回null
+     */
+    public synchronized ClassVersion getCurrent(Class<?> clazz) {
+        ArrayDeque<ClassVersion> history = histories.get(ClassKey.of(clazz));
+        return history == null ? null : history.peekLast();
+    }
+
+    /**
+     * 读取一个版本的字节码
+     *
+     * @throws IllegalStateException 字节码已经被丢弃或无法从磁盘读取
+     */
+    public byte[] readBytes(ClassVersion version) {
+        byte[] compressed;
+        Path spillFile;
+        synchronized (this) {
+            compressed = version.compressed;
+            spillFile = version.spillFile;
+            if (compressed != null) {
+                resident.get(version);
+            } else if (spillFile == null) {
+                throw new IllegalStateException("Bytes of " + version + " were evicted");
+            }
+        }
+        if (compressed == null) {
+            try {
+                compressed = Files.readAllBytes(spillFile);
+            } catch (IOException e) {
+                // 读取期间可能被丢弃
+                throw new IllegalStateException("Failed to read spilled bytes of " + version
+                        + (version.isEvicted() ? ", they were evicted" : ""), e);
+            }
+        }
+        return inflate(compressed, version.getLength());
+    }
+
+    /**
+     * 当前版本正是给定版本且字节码没有被丢弃时，读取其字节码
+     *
+     * @param clazz       已加载的类
+     * @param fingerprint 需要的版本的指纹
+     * @param length      需要的版本的长度
+     * @return 字节码，当前版本不是该版本或字节码已经被丢弃时返回null
+     */
+    public byte[] readCurrent(Class<?> clazz, long fingerprint, int length) {
+        ClassVersion current = getCurrent(clazz);
+        if (!matches(current, fingerprint, length)) {
+            return null;
+        }
+        try {
+            return readBytes(current);
+        } catch (IllegalStateException e) {
+            logger.debug("Current version of class:[{}] is not available: {}", clazz.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return 当前版本是否为给定版本且字节码没有被丢弃，不读取字节码
+     */
+    public synchronized boolean isCurrent(Class<?> clazz, long fingerprint, int length) {
+        return matches(getCurrent(clazz), fingerprint, length);
+    }
+
+    private static boolean matches(ClassVersion version, long fingerprint, int length) {
+        return version != null && version.getFingerprint() == fingerprint && version.getLength() == length
+                && !version.isEvicted();
+    }
+
+    /**
+     * @return 是否需要在重定义之前捕获该类的原始字节码
+     */
+    boolean needsOriginal(Class<?> clazz) {
+        if (!captureOriginals) {
+            return false;
+        }
+        synchronized (this) {
+            return !histories.containsKey(ClassKey.of(clazz));
+        }
+    }
+
+    /**
+     * 通过 retransformClasses 捕获类当前的字节码作为原始版本
+     *
+     * @param instrumentation 需要支持 retransform
+     * @param classes         还没有版本记录的类
+     */
+    void captureOriginals(Instrumentation instrumentation, List<Class<?>> classes) throws Exception {
+        long start = System.nanoTime();
+        Map<Class<?>, byte[]> captured = capture(instrumentation, classes);
+        if (captured.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<Class<?>, byte[]> entry : captured.entrySet()) {
+            recordOriginal(entry.getKey(), entry.getValue());
+        }
+        logger.info("Captured original bytes of {} class(es) in {}ms", captured.size(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * 通过 retransformClasses 读取类当前的字节码，transformer 只读取不修改，不记录版本
+     *
+     * @param instrumentation 需要支持 retransform
+     * @param classes         要读取的类
+     * @return 读取到的字节码，不支持 retransform 或不可修改的类不在其中
+     */
+    Map<Class<?>, byte[]> capture(Instrumentation instrumentation, Collection<Class<?>> classes) throws Exception {
+        if (!instrumentation.isRetransformClassesSupported()) {
+            logger.warn("Retransform is not supported, current bytes of {} class(es) are not captured", classes.size());
+            return Collections.emptyMap();
+        }
+        Set<Class<?>> targets = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Class<?> clazz : classes) {
+            if (instrumentation.isModifiableClass(clazz)) {
+                targets.add(clazz);
+            }
+        }
+        if (targets.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<Class<?>, byte[]> captured = new ConcurrentHashMap<>();
+        ClassFileTransformer transformer = new ClassFileTransformer() {
+            @Override
+            public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                                    ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+                if (classBeingRedefined != null && targets.contains(classBeingRedefined)) {
+                    captured.put(classBeingRedefined, classfileBuffer.clone());
+                }
+                return null;
+            }
+        };
+        instrumentation.addTransformer(transformer, true);
+        try {
+            instrumentation.retransformClasses(targets.toArray(new Class<?>[0]));
+        } finally {
+            instrumentation.removeTransformer(transformer);
+        }
+        return captured;
+    }
+
+    /**
+     * 记录原始版本，已有版本记录的类忽略
+     */
+    void recordOriginal(Class<?> clazz, byte[] bytes) {
+        ClassVersion version = new ClassVersion(clazz.getName(), Fingerprints.hash64(bytes), bytes.length,
+                ClassVersion.ORIGINAL_BATCH_ID, deflate(bytes));
+        synchronized (this) {
+            expungeUnloaded();
+            if (histories.containsKey(ClassKey.of(clazz))) {
+                return;
+            }
+            ArrayDeque<ClassVersion> history = new ArrayDeque<>();
+            history.addLast(version);
+            histories.put(new ClassKey(clazz, unloaded), history);
+            admit(version);
+        }
+        flushDiskWork();
+    }
+
+    /**
+     * 记录一次成功应用的版本
+     */
+    void record(Class<?> clazz, long batchId, long fingerprint, byte[] bytes) {
+        // 压缩在锁外进行
+        ClassVersion version = new ClassVersion(clazz.getName(), fingerprint, bytes.length, batchId,
+                deflate(bytes));
+        synchronized (this) {
+            expungeUnloaded();
+            ArrayDeque<ClassVersion> history = histories.get(ClassKey.of(clazz));
+            if (history == null) {
+                history = new ArrayDeque<>();
+                histories.put(new ClassKey(clazz, unloaded), history);
+            }
+            history.addLast(version);
+            admit(version);
+            trim(history);
+        }
+        flushDiskWork();
+    }
+
+    /**
+     * 丢弃类的所有版本，例如类已经重定义但版本无法记录时，避免之后回滚到错误的版本
+     */
+    void forget(Class<?> clazz) {
+        synchronized (this) {
+            ArrayDeque<ClassVersion> history = histories.remove(ClassKey.of(clazz));
+            if (history != null) {
+                history.forEach(this::release);
+            }
+        }
+        flushDiskWork();
+    }
+
+    /**
+     * 类回滚的目标：当前版本的上一个版本
+     *
+     * @throws IllegalStateException 没有上一个版本或其字节码已经被丢弃
+     */
+    synchronized ClassVersion previous(Class<?> clazz) {
+        return previous(clazz.getName(), histories.get(ClassKey.of(clazz)));
+    }
+
+    private ClassVersion previous(String className, ArrayDeque<ClassVersion> history) {
+        if (history == null || history.size() < 2) {
+            throw new IllegalStateException("No previous version of class:[" + className + "] to roll back to");
+        }
+        Iterator<ClassVersion> newestFirst = history.descendingIterator();
+        newestFirst.next();
+        ClassVersion previous = newestFirst.next();
+        if (previous.isEvicted()) {
+            throw new IllegalStateException("Bytes of previous version " + previous + " were evicted");
+        }
+        return previous;
+    }
+
+    /**
+     * 批次回滚的目标：该批次应用的每个类的上一个版本
+     *
+     * @throws IllegalStateException 批次没有记录，或其中的类已经被之后的批次修改
+     */
+    synchronized Map<Class<?>, ClassVersion> previousOfBatch(long batchId) {
+        if (batchId == ClassVersion.ORIGINAL_BATCH_ID) {
+            throw new IllegalArgumentException("Invalid batch id: " + batchId);
+        }
+        expungeUnloaded();
+        Map<Class<?>, ClassVersion> targets = new LinkedHashMap<>();
+        List<String> superseded = new ArrayList<>();
+        for (Map.Entry<ClassKey, ArrayDeque<ClassVersion>> entry : histories.entrySet()) {
+            ArrayDeque<ClassVersion> history = entry.getValue();
+            Class<?> clazz = entry.getKey().get();
+            if (clazz == null || history.stream().noneMatch(version -> version.getBatchId() == batchId)) {
+                continue;
+            }
+            if (history.peekLast().getBatchId() != batchId) {
+                superseded.add(entry.getKey().toString());
+            } else {
+                targets.put(clazz, previous(clazz.getName(), history));
+            }
+        }
+        if (!superseded.isEmpty()) {
+            throw new IllegalStateException("Classes of batch " + batchId
+                    + " were changed by later batches, roll those back first: " + superseded);
+        }
+        if (targets.isEmpty()) {
+            throw new IllegalStateException("No class version recorded for batch " + batchId);
+        }
+        return targets;
+    }
+
+    /**
+     * 类已经回滚到给定版本，丢弃比它新的版本
+     */
+    void rolledBack(Class<?> clazz, ClassVersion restored) {
+        synchronized (this) {
+            ArrayDeque<ClassVersion> history = histories.get(ClassKey.of(clazz));
+            while (history != null && !history.isEmpty() && history.peekLast() != restored) {
+                release(history.pollLast());
+            }
+        }
+        flushDiskWork();
+    }
+
+    /**
+     * 清空所有版本，之后的回滚只能回到清空之后应用的版本
+     */
+    public void clear() {
+        synchronized (this) {
+            for (ArrayDeque<ClassVersion> history : histories.values()) {
+                history.forEach(this::release);
+            }
+            histories.clear();
+        }
+        flushDiskWork();
+    }
+
+    /**
+     * @return 有版本记录的类数量
+     */
+    public synchronized int size() {
+        expungeUnloaded();
+        return histories.size();
+    }
+
+    /**
+     * @return 堆内（压缩后）的总字节数
+     */
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * @return 磁盘上（压缩后）的总字节数
+     */
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    public synchronized int getMaxVersions() {
+        return maxVersions;
+    }
+
+    /**
+     * 设置每个类保留的版本数，不含原始版本
+     */
+    public ClassVersionStore setMaxVersions(int maxVersions) {
+        if (maxVersions <= 0) {
+            throw new IllegalArgumentException("maxVersions must be positive");
+        }
+        synchronized (this) {
+            this.maxVersions = maxVersions;
+            histories.values().forEach(this::trim);
+        }
+        flushDiskWork();
+        return this;
+    }
+
+    public synchronized long getMaxMemoryBytes() {
+        return maxMemoryBytes;
+    }
+
+    /**
+     * 设置堆内（压缩后）的总量上限，超出时把最久没有使用的版本溢出到磁盘
+     */
+    public ClassVersionStore setMaxMemoryBytes(long maxMemoryBytes) {
+        if (maxMemoryBytes < 0) {
+            throw new IllegalArgumentException("maxMemoryBytes cannot be negative");
+        }
+        synchronized (this) {
+            this.maxMemoryBytes = maxMemoryBytes;
+            balance();
+        }
+        flushDiskWork();
+        return this;
+    }
+
+    public synchronized long getMaxDiskBytes() {
+        return maxDiskBytes;
+    }
+
+    /**
+     * 设置磁盘（压缩后）的总量上限，为0时不溢出，超出堆内上限的版本直接丢弃
+     */
+    public ClassVersionStore setMaxDiskBytes(long maxDiskBytes) {
+        if (maxDiskBytes < 0) {
+            throw new IllegalArgumentException("maxDiskBytes cannot be negative");
+        }
+        synchronized (this) {
+            this.maxDiskBytes = maxDiskBytes;
+            while (diskBytes > maxDiskBytes && !spilled.isEmpty()) {
+                drop(spilled.keySet().iterator().next());
+            }
+        }
+        flushDiskWork();
+        return this;
+    }
+
+    /**
+     * 设置溢出目录，为null时在临时目录下创建
+     */
+    public synchronized ClassVersionStore setSpillDirectory(Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
+
+    public boolean isCaptureOriginals() {
+        return captureOriginals;
+    }
+
+    /**
+     * 设置是否在第一次重定义之前捕获原始字节码，捕获需要一次额外的 retransformClasses
+     */
+    public ClassVersionStore setCaptureOriginals(boolean captureOriginals) {
+        this.captureOriginals = captureOriginals;
+        return this;
+    }
+
+    /**
+     * 释放已卸载的类的所有版本
+     */
+    private void expungeUnloaded() {
+        Reference<? extends Class<?>> key;
+        while ((key = unloaded.poll()) != null) {
+            ArrayDeque<ClassVersion> history = histories.remove(key);
+            if (history != null) {
+                history.forEach(this::release);
+            }
+        }
+    }
+
+    private void admit(ClassVersion version) {
+        resident.put(version, Boolean.TRUE);
+        memoryBytes += version.storedLength;
+        balance();
+    }
+
+    /**
+     * 丢弃超出版本数上限的最旧版本，原始版本保留
+     */
+    private void trim(ArrayDeque<ClassVersion> history) {
+        int applied = history.peekFirst().isOriginal() ? history.size() - 1 : history.size();
+        Iterator<ClassVersion> oldestFirst = history.iterator();
+        while (applied > maxVersions && oldestFirst.hasNext()) {
+            ClassVersion version = oldestFirst.next();
+            if (!version.isOriginal()) {
+                oldestFirst.remove();
+                release(version);
+                applied--;
+            }
+        }
+    }
+
+    private void balance() {
+        while (memoryBytes > maxMemoryBytes && !resident.isEmpty()) {
+            ClassVersion eldest = resident.keySet().iterator().next();
+            resident.remove(eldest);
+            memoryBytes -= eldest.storedLength;
+            spill(eldest);
+        }
+    }
+
+    /**
+     * 为版本预留磁盘空间并安排在锁外写入，写入完成之前仍然从堆内读取
+     */
+    private void spill(ClassVersion version) {
+        if (version.storedLength > maxDiskBytes) {
+            version.compressed = null;
+            logger.warn("Evicted bytes of {}, it can no longer be rolled back to", version);
+            return;
+        }
+        while (diskBytes + version.storedLength > maxDiskBytes && !spilled.isEmpty()) {
+            drop(spilled.keySet().iterator().next());
+        }
+        spilled.put(version, Boolean.TRUE);
+        diskBytes += version.storedLength;
+        pendingWrites.add(version);
+    }
+
+    /**
+     * 在锁外执行锁内安排的磁盘写入和删除
+     */
+    private void flushDiskWork() {
+        List<ClassVersion> writes;
+        List<Path> deletes;
+        synchronized (this) {
+            if (pendingWrites.isEmpty() && pendingDeletes.isEmpty()) {
+                return;
+            }
+            writes = new ArrayList<>(pendingWrites);
+            deletes = new ArrayList<>(pendingDeletes);
+            pendingWrites.clear();
+            pendingDeletes.clear();
+        }
+
+        for (ClassVersion version : writes) {
+            write(version);
+        }
+        for (Path file : deletes) {
+            delete(file);
+        }
+    }
+
+    private void write(ClassVersion version) {
+        byte[] compressed;
+        Path directory;
+        String fileName;
+        synchronized (this) {
+            compressed = version.compressed;
+            if (compressed == null || !spilled.containsKey(version)) {
+                // 写入之前已经被释放或丢弃
+                return;
+            }
+            directory = spillDirectory;
+            fileName = version.getClassName() + "-" + (++spillSequence) + ".class.z";
+        }
+
+        Path file = null;
+        IOException failure = null;
+        try {
+            file = spillDirectory(directory).resolve(fileName);
+            Files.write(file, compressed);
+        } catch (IOException e) {
+            failure = e;
+        }
+
+        boolean written = false;
+        synchronized (this) {
+            if (spilled.containsKey(version)) {
+                if (failure == null) {
+                    version.spillFile = file;
+                    written = true;
+                } else {
+                    spilled.remove(version);
+                    diskBytes -= version.storedLength;
+                }
+                version.compressed = null;
+            }
+        }
+        if (failure != null) {
+            logger.warn("Failed to spill bytes of {}, it can no longer be rolled back to", version, failure);
+        }
+        if (!written && file != null) {
+            // 写入期间被释放或丢弃，或者写入失败
+            delete(file);
+        }
+    }
+
+    private void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Failed to delete spill file {}", file, e);
+        }
+    }
+
+    /**
+     * 磁盘超出上限时丢弃最早溢出的版本
+     */
+    private void drop(ClassVersion version) {
+        removeSpilled(version);
+        logger.warn("Evicted bytes of {}, it can no longer be rolled back to", version);
+    }
+
+    /**
+     * 版本不再需要，释放其堆内和磁盘空间
+     */
+    private void release(ClassVersion version) {
+        if (resident.remove(version) != null) {
+            memoryBytes -= version.storedLength;
+        }
+        version.compressed = null;
+        removeSpilled(version);
+    }
+
+    private void removeSpilled(ClassVersion version) {
+        if (spilled.remove(version) == null) {
+            return;
+        }
+        diskBytes -= version.storedLength;
+        // 还没有写入时由写入方删除
+        version.compressed = null;
+        if (version.spillFile != null) {
+            pendingDeletes.add(version.spillFile);
+            version.spillFile = null;
+        }
+    }
+
+    /**
+     * 在锁外准备溢出目录，没有设置时在临时目录下创建；第一次溢出时添加进程退出时的清理钩子
+     *
+     * @param directory 锁内读取的溢出目录，可为null
+     */
+    private Path spillDirectory(Path directory) throws IOException {
+        if (directory != null) {
+            Files.createDirectories(directory);
+        } else {
+            Path created = Files.createTempDirectory("hotswap-versions-");
+            synchronized (this) {
+                if (spillDirectory == null) {
+                    spillDirectory = created;
+                    createdSpillDirectory = created;
+                }
+                directory = spillDirectory;
+            }
+            if (directory != created) {
+                // 其他线程已经创建
+                delete(created);
+            }
+        }
+        synchronized (this) {
+            if (cleanupHookAdded) {
+                return directory;
+            }
+            cleanupHookAdded = true;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::deleteSpillFiles, "hotswap-versions-cleanup"));
+        return directory;
+    }
+
+    /**
+     * 进程退出时删除所有溢出文件，自动创建的临时目录整个删除
+     */
+    private void deleteSpillFiles() {
+        List<Path> files = new ArrayList<>();
+        Path directory;
+        synchronized (this) {
+            for (ClassVersion version : spilled.keySet()) {
+                if (version.spillFile != null) {
+                    files.add(version.spillFile);
+                }
+            }
+            files.addAll(pendingDeletes);
+            pendingDeletes.clear();
+            directory = createdSpillDirectory;
+        }
+        files.forEach(this::delete);
+        if (directory != null) {
+            try (Stream<Path> remaining = Files.list(directory)) {
+                remaining.forEach(this::delete);
+            } catch (IOException e) {
+                logger.warn("Failed to list spill directory {}", directory, e);
+            }
+            delete(directory);
+        }
+    }
+
+    /**
+     * raw deflate 压缩
+     */
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+            byte[] buffer = new byte[Math.min(8192, bytes.length + 64)];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * 解压 {@link #deflate(byte[])} 的结果
+     *
+     * @param length 压缩前的长度
+     */
+    private static byte[] inflate(byte[] compressed, int length) {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] bytes = new byte[length];
+            int n = 0;
+            while (n < bytes.length) {
+                int read = inflater.inflate(bytes, n, bytes.length - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != bytes.length) {
+                throw new IllegalStateException("Stored bytes are truncated");
+            }
+            return bytes;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Stored bytes are corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.zxch.hotswap.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+/**
+ * 字节码指纹计算
+ * <p>
+ * 使用 XXH64 算法计算 64 位指纹，速度接近内存带宽，用于判断两份字节码是否相同，不用于安全校验
+ *
+ * @author zhangxun
+ */
+public abstract class Fingerprints {
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * 计算字节码的 64 位指纹
+     *
+     * @param bytes 字节码
+     * @return 指纹
+     */
+    public static long hash64(byte[] bytes) {
+        return hash64(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 计算字节数组片段的 64 位指纹（XXH64，seed=0）
+     *
+     * @param bytes  字节数组
+     * @param offset 起始位置
+     * @param length 长度
+     * @return 指纹
+     */
+    public static long hash64(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        int p = offset;
+        long h;
+
+        if (length >= 32) {
+            long v1 = PRIME1 + PRIME2;
+            long v2 = PRIME2;
+            long v3 = 0;
+            long v4 = -PRIME1;
+            int limit = end - 32;
+            do {
+                v1 = round(v1, (long) LONG_LE.get(bytes, p));
+                v2 = round(v2, (long) LONG_LE.get(bytes, p + 8));
+                v3 = round(v3, (long) LONG_LE.get(bytes, p + 16));
+                v4 = round(v4, (long) LONG_LE.get(bytes, p + 24));
+                p += 32;
+            } while (p <= limit);
+
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = PRIME5;
+        }
+
+        h += length;
+
+        while (p + 8 <= end) {
+            h ^= round(0, (long) LONG_LE.get(bytes, p));
+            h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+            p += 8;
+        }
+        if (p + 4 <= end) {
+            h ^= ((int) INT_LE.get(bytes, p) & 0xFFFFFFFFL) * PRIME1;
+            h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+            p += 4;
+        }
+        while (p < end) {
+            h ^= (bytes[p] & 0xFFL) * PRIME5;
+            h = Long.rotateLeft(h, 11) * PRIME1;
+            p++;
+        }
+
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    /**
+     * 计算 CRC-32，与 zip/jar 条目中记录的 CRC 相同，用于不解压就判断 jar 中的类是否变化
+     *
+     * @param bytes 字节码
+     * @return CRC-32（无符号）
+     */
+    public static long crc32(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    /**
+     * 指纹的十六进制表示
+     */
+    public static String toHex(long fingerprint) {
+        String hex = Long.toHexString(fingerprint);
+        return hex.length() == 16 ? hex : "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME1;
+    }
+
+    private static long merge(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * PRIME1 + PRIME4;
+    }
+}
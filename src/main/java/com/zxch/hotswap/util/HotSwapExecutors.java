@@ -0,0 +1,45 @@
+package com.zxch.hotswap.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 热加载异步执行器
+ * <p>
+ * 获取字节码大多是 I/O（远程下载、读文件），默认执行器为每个任务提供一个守护线程，空闲线程 60 秒后回收。
+ * JDK 21 及以上版本由 multi-release jar 中的同名类替代，改用虚拟线程
+ *
+ * @author zhangxun
+ */
+public abstract class HotSwapExecutors {
+
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(new DaemonThreadFactory());
+
+    /**
+     * 获取默认执行器，所有调用共享同一个实例，不需要关闭
+     */
+    public static ExecutorService defaultExecutor() {
+        return DEFAULT_EXECUTOR;
+    }
+
+    /**
+     * @return 默认执行器是否使用虚拟线程
+     */
+    public static boolean isVirtual() {
+        return false;
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "hotswap-async-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
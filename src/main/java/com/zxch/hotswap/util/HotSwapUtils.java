@@ -1,14 +1,42 @@
 package com.zxch.hotswap.util;
 
 
+import com.zxch.hotswap.HotSwapPayload;
+import com.zxch.hotswap.HotSwapResult;
+import com.zxch.hotswap.IHotSwapBatchProvider;
+import com.zxch.hotswap.IDeltaHotSwapProvider;
 import com.zxch.hotswap.IHotSwapCallback;
 import com.zxch.hotswap.IHotSwapProvider;
+import com.zxch.hotswap.event.HotSwapCallbackAdapter;
+import com.zxch.hotswap.event.HotSwapEventBus;
+import com.zxch.hotswap.jfr.HotSwapBatchEvent;
+import com.zxch.hotswap.jfr.HotSwapEvents;
+import com.zxch.hotswap.jfr.HotSwapFetchEvent;
+import com.zxch.hotswap.jfr.HotSwapRedefineEvent;
+import com.zxch.hotswap.metrics.HotSwapMetrics;
+import com.zxch.hotswap.metrics.HotSwapPhase;
+import com.zxch.hotswap.provider.ByteArrayHotSwapProvider;
 import net.bytebuddy.agent.ByteBuddyAgent;
-import net.bytebuddy.jar.asm.ClassReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * Hotswap java class
@@ -19,38 +47,271 @@ public abstract class HotSwapUtils {
 
     private static final Logger logger = LoggerFactory.getLogger(HotSwapUtils.class);
 
-    private static void hotswapClassByJavassist(Class<?> clazz, byte[] bytes) {
-        hotswapClassByByteBuddy(clazz, bytes);
-    }
+    private static final RedefineCostModel COST_MODEL = new RedefineCostModel();
+
+    private static final ClassFingerprintRegistry FINGERPRINTS = ClassFingerprintRegistry.getInstance();
+
+
+    private static final ClassVersionStore VERSIONS = ClassVersionStore.getInstance();
+
+    /**
+     * 只串行化同一个类的“比对指纹 - 重定义 - 记录指纹”，字节码获取和解析不持有任何锁
+     */
+    private static final StripedLocks LOCKS = new StripedLocks(64);
 
-    public static synchronized void hotswapClass(byte[] bytes) {
+    private static final RedefinitionCompatibilityChecker CHECKER = RedefinitionCompatibilityChecker.getInstance();
+
+    private static volatile boolean preflightEnabled = true;
+
+    private static final HotSwapMetrics METRICS = HotSwapMetrics.getInstance();
+
+    private static final HotSwapEventBus EVENT_BUS = HotSwapEventBus.getInstance();
+
+    private static final AtomicLong BATCH_IDS = new AtomicLong();
+
+    /**
+     * 热加载单个类
+     * <p>
+     * 目标类由 {@link LoadedClassIndex#findPreferred(String)} 确定；类被多个 ClassLoader 加载且无法确定目标时失败，
+     * 失败原因中列出这些 ClassLoader，需要全部重定义时使用 {@link #hotswapClassInAllLoaders(byte[])}
+     *
+     * @param bytes 类字节码，也可以是相对最后一次应用版本的增量（见 {@link ClassDelta}）
+     * @return 热加载结果
+     */
+    public static HotSwapResult hotswapClass(byte[] bytes) {
         if (bytes == null || bytes.length == 0) {
-            return;
+            HotSwapResult result = HotSwapResult.builder(null).batchId(nextBatchId())
+                    .cause(new IllegalArgumentException("bytes cannot be empty")).build();
+            EVENT_BUS.publish(Collections.singletonList(result));
+            return result;
         }
 
-        String clazzName = readClassName(bytes);
+        if (ClassDelta.isDelta(bytes)) {
+            try {
+                bytes = applyDelta(bytes);
+            } catch (RuntimeException e) {
+                logger.error("Failed to apply class delta", e);
+                METRICS.recordFailure(e.getClass(), 1);
+                HotSwapResult result = HotSwapResult.builder(null).batchId(nextBatchId()).cause(e).build();
+                EVENT_BUS.publish(Collections.singletonList(result));
+                return result;
+            }
+        }
+        return hotswapClass(bytes, ClassMetadata.parse(bytes));
+    }
+
+    /**
+     * 使用已解析的元数据热加载，避免重复解析字节码
+     *
+     * @param bytes    类字节码
+     * @param metadata 由 {@link ClassMetadata#parse(byte[])} 从同一份字节码解析得到的元数据
+     * @return 热加载结果，失败时携带 JVM 拒绝重定义等真实原因
+     */
+    public static HotSwapResult hotswapClass(byte[] bytes, ClassMetadata metadata) {
+        HotSwapResult result = swapClass(FetchedBytes.of(bytes, metadata, 0L, 0L), nextBatchId());
+        EVENT_BUS.publish(Collections.singletonList(result));
+        return result;
+    }
 
-        Class<?> clazz = null;
+    private static HotSwapResult swapClass(FetchedBytes fetched, long batchId) {
+        String clazzName = fetched.metadata.getClassName();
+        Class<?> clazz;
         try {
-            clazz = Class.forName(clazzName);
-        } catch (ClassNotFoundException e) {
+            clazz = resolveClass(clazzName);
+        } catch (ClassNotFoundException | IllegalStateException e) {
+            METRICS.recordFailure(e.getClass(), 1);
+            return fetched.failure(batchId, e);
+        }
+
+        PreparedClass prepared = new PreparedClass(clazz, fetched);
+        return LOCKS.withLock(clazzName, () -> {
+            if (FINGERPRINTS.isApplied(clazz, fetched.metadata.getFingerprint(), fetched.metadata.getLength())) {
+                logger.info("The class:[{}] is unchanged since the last hot update and ignore this hot update", clazzName);
+                METRICS.recordSkipped(1);
+                prepared.unchanged = true;
+                return prepared.success(batchId, new PhaseTimes());
+            }
+
+            HotSwapResult result = hotswapClassByByteBuddy(prepared, batchId);
+            if (result.isSuccess()) {
+                recordApplied(clazz, fetched.metadata, fetched.bytes, batchId);
+            }
+            return result;
+        });
+    }
+
+    /**
+     * 通过已加载类索引查找目标类，不依赖调用方的 ClassLoader，也不会触发类的加载和初始化
+     *
+     * @throws ClassNotFoundException 类没有被加载
+     * @throws IllegalStateException  类被多个 ClassLoader 加载且无法确定目标，异常信息列出这些 ClassLoader
+     */
+    private static Class<?> resolveClass(String clazzName) throws ClassNotFoundException {
+        LoadedClassIndex index = LoadedClassIndex.getInstance();
+        Class<?> clazz = index.findPreferred(clazzName);
+        if (clazz != null) {
+            return clazz;
+        }
+
+        List<Class<?>> loaded = index.findAll(clazzName);
+        if (loaded.isEmpty()) {
             logger.error("The class:[{}] could not be found in the current project and ignore this hot update", clazzName);
-            return;
+            throw new ClassNotFoundException(clazzName);
+        }
+        List<ClassLoader> loaders = new ArrayList<>(loaded.size());
+        for (Class<?> candidate : loaded) {
+            loaders.add(candidate.getClassLoader());
         }
+        throw new IllegalStateException("The class:[" + clazzName + "] is loaded by " + loaders.size()
+                + " class loaders " + loaders + " and none of them is preferred, "
+                + "use hotswapClassInAllLoaders to redefine all of them");
+    }
+
 
-        hotswapClassByJavassist(clazz, bytes);
+    /**
+     * 重定义所有 ClassLoader 中同名的类
+     *
+     * @param bytes 类字节码
+     * @return 每个 ClassLoader 的热加载结果
+     * @see #hotswapClassInAllLoaders(byte[], Predicate)
+     */
+    public static List<HotSwapResult> hotswapClassInAllLoaders(byte[] bytes) {
+        return hotswapClassInAllLoaders(bytes, null);
     }
 
+    /**
+     * 重定义所有（符合条件的）ClassLoader 中同名的类
+     * <p>
+     * 多租户场景下同一个类会被多个相互隔离的 ClassLoader 各自加载，{@link #hotswapClass(byte[])} 只会重定义其中一个。
+     * 这里通过 {@link LoadedClassIndex} 找到所有同名的已加载类，并在一次 redefineClasses 调用中全部重定义，
+     * 只产生一次停顿，要么全部成功，要么全部失败。
+     *
+     * @param bytes        类字节码，也可以是相对最后一次应用版本的增量（见 {@link ClassDelta}）
+     * @param loaderFilter ClassLoader 过滤条件（可为null，表示全部；bootstrap ClassLoader 以null传入）
+     * @return 每个 ClassLoader 的热加载结果，没有找到目标类时返回空列表；
+     * 增量无法还原时每个 ClassLoader 得到一个携带原因的失败结果，增量数据损坏时只有一个失败结果
+     */
+    public static List<HotSwapResult> hotswapClassInAllLoaders(byte[] bytes, Predicate<ClassLoader> loaderFilter) {
+        if (bytes == null || bytes.length == 0) {
+            return Collections.emptyList();
+        }
+
+        if (ClassDelta.isDelta(bytes)) {
+            ClassDelta delta = null;
+            try {
+                delta = ClassDelta.parse(bytes);
+                bytes = applyDelta(delta, null);
+            } catch (RuntimeException e) {
+                logger.error("Failed to apply class delta", e);
+                long batchId = nextBatchId();
+                List<HotSwapResult> results = new ArrayList<>();
+                if (delta != null) {
+                    for (Class<?> clazz : findTargets(delta.getClassName(), loaderFilter)) {
+                        results.add(HotSwapResult.builder(clazz.getName()).classLoader(clazz.getClassLoader())
+                                .batchId(batchId).cause(e).build());
+                    }
+                }
+                if (results.isEmpty()) {
+                    results.add(HotSwapResult.builder(delta == null ? null : delta.getClassName()).batchId(batchId)
+                            .cause(e).build());
+                }
+                METRICS.recordFailure(e.getClass(), results.size());
+                EVENT_BUS.publish(results);
+                return results;
+            }
+        }
+        long parseStart = System.nanoTime();
+        ClassMetadata metadata = ClassMetadata.parse(bytes);
+        FetchedBytes fetched = FetchedBytes.of(bytes, metadata, 0L, System.nanoTime() - parseStart);
+        String clazzName = metadata.getClassName();
+        long fingerprint = metadata.getFingerprint();
+        long batchId = nextBatchId();
+        List<Class<?>> targets = findTargets(clazzName, loaderFilter);
+        if (targets.isEmpty()) {
+            logger.error("The class:[{}] could not be found in any class loader and ignore this hot update", clazzName);
+            METRICS.recordFailure(ClassNotFoundException.class, 1);
+            return Collections.emptyList();
+        }
+
+        List<PreparedClass> prepared = new ArrayList<>(targets.size());
+        for (Class<?> clazz : targets) {
+            prepared.add(new PreparedClass(clazz, fetched));
+        }
+        PhaseTimes times = new PhaseTimes();
+        List<HotSwapResult> results = LOCKS.withLock(clazzName, () -> {
+            // 每个副本各自比对，只重定义还没有应用这份字节码的副本
+            List<PreparedClass> changed = new ArrayList<>(prepared.size());
+            for (PreparedClass preparedClass : prepared) {
+                if (FINGERPRINTS.isApplied(preparedClass.clazz, fingerprint, fetched.bytes.length)) {
+                    preparedClass.unchanged = true;
+                } else {
+                    changed.add(preparedClass);
+                }
+            }
+            if (changed.size() < prepared.size()) {
+                logger.info("The class:[{}] is unchanged in {} of {} class loader(s) since the last hot update",
+                        clazzName, prepared.size() - changed.size(), prepared.size());
+                METRICS.recordSkipped(prepared.size() - changed.size());
+            }
 
-    private static void hotswapClassByByteBuddy(Class<?> clazz, byte[] bytes) {
+            try {
+                if (!changed.isEmpty()) {
+                    logger.info("ByteBuddy hot update class:[{}] in {} class loader(s) started", clazzName, changed.size());
+                    redefine(times, toDefinitions(changed));
+                    logger.info("ByteBuddy hot update class:[{}] in {} class loader(s) succeeded", clazzName, changed.size());
+                }
+            } catch (Throwable t) {
+                logger.error("ByteBuddy hot update class:[{}] in {} class loader(s) failed", clazzName, changed.size(), t);
+                METRICS.recordFailure(t.getClass(), changed.size());
+                List<HotSwapResult> failed = new ArrayList<>(prepared.size());
+                for (PreparedClass preparedClass : prepared) {
+                    failed.add(preparedClass.unchanged ? preparedClass.success(batchId, times)
+                            : preparedClass.failure(batchId, times, t));
+                }
+                return failed;
+            }
+
+            for (PreparedClass preparedClass : changed) {
+                recordApplied(preparedClass.clazz, metadata, fetched.bytes, batchId);
+            }
+            List<HotSwapResult> succeeded = new ArrayList<>(prepared.size());
+            for (PreparedClass preparedClass : prepared) {
+                succeeded.add(preparedClass.success(batchId, times));
+            }
+            return succeeded;
+        });
+        EVENT_BUS.publish(results);
+        return results;
+    }
+
+    /**
+     * 查找所有（符合条件的）ClassLoader 中同名的已加载类
+     */
+    private static List<Class<?>> findTargets(String clazzName, Predicate<ClassLoader> loaderFilter) {
+        List<Class<?>> targets = new ArrayList<>();
+        for (Class<?> clazz : LoadedClassIndex.getInstance().findAll(clazzName)) {
+            if (loaderFilter == null || loaderFilter.test(clazz.getClassLoader())) {
+                targets.add(clazz);
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * 重定义单个类，失败时结果中携带真实原因，不会被当作成功
+     */
+    private static HotSwapResult hotswapClassByByteBuddy(PreparedClass prepared, long batchId) {
+        PhaseTimes times = new PhaseTimes();
         try {
-            logger.info("ByteBuddy hot update class:[{}] started", clazz.getName());
+            logger.info("ByteBuddy hot update class:[{}] started", prepared.className);
             // Byte Buddy hot update
-            java.lang.instrument.Instrumentation instrumentation = ByteBuddyAgent.install();
-            instrumentation.redefineClasses(new ClassDefinition(clazz, bytes));
-            logger.info("ByteBuddy hot update class:[{}] succeeded", clazz.getName());
+            redefine(times, new ClassDefinition(prepared.clazz, prepared.bytes));
+            logger.info("ByteBuddy hot update class:[{}] succeeded", prepared.className);
+            return prepared.success(batchId, times);
         } catch (Throwable t) {
-            logger.error("ByteBuddy hot update class:[{}] failed", clazz.getName());
+            logger.error("ByteBuddy hot update class:[{}] failed: {}", prepared.className, t.toString());
+            METRICS.recordFailure(t.getClass(), 1);
+            return prepared.failure(batchId, times, t);
         }
     }
 
@@ -58,55 +319,42 @@ public abstract class HotSwapUtils {
      * 使用 Provider 热加载
      * 
      * @param provider 字节码提供者
+     * @return 热加载结果
      */
-    public static synchronized void hotswapClass(IHotSwapProvider provider) {
-        hotswapClass(provider, null);
+    public static HotSwapResult hotswapClass(IHotSwapProvider provider) {
+        return hotswapClass(provider, null);
     }
 
     /**
      * 使用 Provider 热加载，并提供回调
+     * <p>
+     * 回调在当前线程中同步执行，只有真正重定义成功（或与上次应用的版本相同）时才会调用 onSuccess
      * 
      * @param provider 字节码提供者
      * @param callback 热加载回调（可为null）
+     * @return 热加载结果
      */
-    public static synchronized void hotswapClass(IHotSwapProvider provider, IHotSwapCallback callback) {
+    public static HotSwapResult hotswapClass(IHotSwapProvider provider, IHotSwapCallback callback) {
+        long batchId = nextBatchId();
+        HotSwapResult result;
         if (provider == null) {
             logger.error("Provider cannot be null");
-            if (callback != null) {
-                callback.onFailure(null, new IllegalArgumentException("Provider cannot be null"));
-            }
-            return;
-        }
-        
-        String className = null;
-        try {
-            // 使用 provider 获取字节码
-            byte[] bytes = provider.getClassBytes();
-            if (bytes == null || bytes.length == 0) {
-                logger.error("Failed to get bytes from provider");
-                if (callback != null) {
-                    callback.onFailure(null, new RuntimeException("Failed to get bytes from provider"));
-                }
-                return;
-            }
-            
-            // 读取类名
-            className = readClassName(bytes);
-            
-            // 执行热加载
-            hotswapClass(bytes);
-            
-            // 成功回调
-            if (callback != null) {
-                callback.onSuccess(className);
-            }
-            
-        } catch (Exception e) {
-            logger.error("Hot swap failed", e);
-            if (callback != null) {
-                callback.onFailure(className, e);
+            result = HotSwapResult.builder(null).batchId(batchId)
+                    .cause(new IllegalArgumentException("Provider cannot be null")).build();
+        } else {
+            // 使用 provider 获取字节码，并解析类名和指纹，热加载过程中不再重复解析
+            FetchedBytes fetched = fetchQuietly(provider);
+            if (fetched.cause != null) {
+                logger.error("Hot swap failed", fetched.cause);
+                METRICS.recordFailure(fetched.cause.getClass(), 1);
+                result = fetched.failure(batchId, fetched.cause);
+            } else {
+                result = swapClass(fetched, batchId);
             }
         }
+
+        notifyCallback(callback, Collections.singletonList(result));
+        return result;
     }
 
     /**
@@ -114,7 +362,7 @@ public abstract class HotSwapUtils {
      * 
      * @param providers 字节码提供者列表
      */
-    public static synchronized void hotswapClasses(IHotSwapProvider... providers) {
+    public static void hotswapClasses(IHotSwapProvider... providers) {
         hotswapClasses(null, providers);
     }
 
@@ -124,7 +372,7 @@ public abstract class HotSwapUtils {
      * @param callback  热加载回调（可为null）
      * @param providers 字节码提供者列表
      */
-    public static synchronized void hotswapClasses(IHotSwapCallback callback, IHotSwapProvider... providers) {
+    public static void hotswapClasses(IHotSwapCallback callback, IHotSwapProvider... providers) {
         if (providers == null || providers.length == 0) {
             logger.warn("No providers to hot swap");
             return;
@@ -138,15 +386,1043 @@ public abstract class HotSwapUtils {
     }
 
     /**
-     * 使用ASM读取类名（ByteBuddy内部已包含ASM依赖）
-     * 相比自定义ClassFile解析，ASM更高效且无需手动管理流
+     * 批量原子热加载多个 Provider
+     *
+     * @param providers 字节码提供者列表
+     * @return 整批是否热加载成功
+     * @see #hotswapClassesAtomically(IHotSwapCallback, IHotSwapProvider...)
+     */
+    public static boolean hotswapClassesAtomically(IHotSwapProvider... providers) {
+        return hotswapClassesAtomically(null, providers);
+    }
+
+    /**
+     * 批量原子热加载多个 Provider，并提供回调
+     * <p>
+     * 与 {@link #hotswapClasses(IHotSwapCallback, IHotSwapProvider...)} 逐个重定义不同，这里先获取并解析全部字节码，
+     * 再通过一次 {@code redefineClasses(ClassDefinition[])} 完成整批重定义，整批只产生一次 VM operation（一次停顿）。
+     * <p>
+     * 整批要么全部生效，要么全部不生效：任意一个 Provider 获取失败、类名解析失败、目标类未加载或类名重复时，
+     * 不会重定义任何类；JVM 拒绝其中任意一个类时，整批也会一起回退。
+     * 每个类的结果都会通过回调单独通知。
+     *
+     * @param callback  热加载回调（可为null）
+     * @param providers 字节码提供者列表
+     * @return 整批是否热加载成功
+     */
+    public static boolean hotswapClassesAtomically(IHotSwapCallback callback, IHotSwapProvider... providers) {
+        List<HotSwapResult> results = swapAtomically(fetchAll(providers));
+        notifyCallback(callback, results);
+        return isAllSuccess(results);
+    }
+
+    /**
+     * 批量原子热加载一个批量提供者中的所有类，并提供回调
+     * <p>
+     * 逐个拉取字节码并立即解析，每个类只在堆中保留一份 {@code byte[]}（redefineClasses 需要整批字节码同时存在）：
+     * 提供者可能在下一次 next() 时复用缓冲区，所以每个缓冲区在拉取下一个类之前都会被复制一份（包括堆缓冲区）。
+     * 由 {@link com.zxch.hotswap.provider.HotSwapProviderBatchAdapter} 适配的 {@link IHotSwapProvider} 返回的字节码因此会再被复制一次，
+     * 需要避免这次复制时直接使用 {@link #hotswapClassesAtomically(IHotSwapCallback, IHotSwapProvider...)}。
+     * 之后与 {@link #hotswapClassesAtomically(IHotSwapCallback, IHotSwapProvider...)} 一样整批原子重定义
+     *
+     * @param callback 热加载回调（可为null）
+     * @param provider 批量字节码提供者
+     * @return 整批是否热加载成功
+     */
+    public static boolean hotswapClassesAtomically(IHotSwapCallback callback, IHotSwapBatchProvider provider) {
+        List<HotSwapResult> results = swapAtomically(fetchAll(provider));
+        notifyCallback(callback, results);
+        return isAllSuccess(results);
+    }
+
+    /**
+     * 异步批量原子热加载，使用默认执行器
+     *
+     * @param providers 字节码提供者列表
+     * @return 每个类的热加载结果
+     * @see #hotswapAsync(Executor, IHotSwapProvider...)
+     */
+    public static CompletableFuture<List<HotSwapResult>> hotswapAsync(IHotSwapProvider... providers) {
+        return hotswapAsync(HotSwapExecutors.defaultExecutor(), providers);
+    }
+
+    /**
+     * 异步批量原子热加载
+     * <p>
+     * 所有 Provider 在执行器中并行获取字节码，全部获取完成后再像
+     * {@link #hotswapClassesAtomically(IHotSwapCallback, IHotSwapProvider...)} 一样通过一次 redefineClasses 整批重定义。
+     * 多个远程 Provider 的总耗时由各自耗时之和变为其中最慢的一个。
+     *
+     * @param executor  获取字节码和重定义使用的执行器，见 {@link HotSwapExecutors#defaultExecutor()}
+     * @param providers 字节码提供者列表
+     * @return 每个类的热加载结果，任意一个类失败时整批都不会生效
+     */
+    public static CompletableFuture<List<HotSwapResult>> hotswapAsync(Executor executor, IHotSwapProvider... providers) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor cannot be null");
+        }
+        if (providers == null || providers.length == 0) {
+            logger.warn("No providers to hot swap");
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        List<CompletableFuture<FetchedBytes>> fetches = new ArrayList<>(providers.length);
+        for (IHotSwapProvider provider : providers) {
+            if (provider != null) {
+                fetches.add(CompletableFuture.supplyAsync(() -> fetchQuietly(provider), executor));
+            }
+        }
+
+        return CompletableFuture.allOf(fetches.toArray(new CompletableFuture<?>[0]))
+                .thenApplyAsync(ignored -> {
+                    List<FetchedBytes> fetched = new ArrayList<>(fetches.size());
+                    for (CompletableFuture<FetchedBytes> fetch : fetches) {
+                        fetched.add(fetch.join());
+                    }
+                    List<HotSwapResult> results = swapAtomically(fetched);
+                    EVENT_BUS.publish(results);
+                    return results;
+                }, executor);
+    }
+
+    /**
+     * 按停顿预算分块批量热加载多个 Provider，并提供回调
+     * <p>
+     * 与 {@link #hotswapClassesAtomically(IHotSwapCallback, IHotSwapProvider...)} 一样先获取并解析全部字节码，
+     * 然后由 {@link RedefinePlanner} 根据历史重定义耗时把整批拆成若干块，保证每一块的停顿不超过预算。
+     * 同一个 nest 中的类总是在同一块中重定义。
+     * <p>
+     * 每一块是原子的；某一块失败时，之前的块已经生效，之后的块不再执行。
+     *
+     * @param pauseBudgetMillis 单次停顿预算（毫秒）
+     * @param callback          热加载回调（可为null）
+     * @param providers         字节码提供者列表
+     * @return 所有块是否都热加载成功
+     */
+    public static boolean hotswapClassesChunked(long pauseBudgetMillis, IHotSwapCallback callback,
+                                                IHotSwapProvider... providers) {
+        return swapChunked(pauseBudgetMillis, callback, () -> fetchAll(providers));
+    }
+
+    /**
+     * 按停顿预算分块批量热加载一个批量提供者中的所有类，并提供回调
+     *
+     * @param pauseBudgetMillis 单次停顿预算（毫秒）
+     * @param callback          热加载回调（可为null）
+     * @param provider          批量字节码提供者
+     * @return 所有块是否都热加载成功
+     * @see #hotswapClassesChunked(long, IHotSwapCallback, IHotSwapProvider...)
+     * @see #hotswapClassesAtomically(IHotSwapCallback, IHotSwapBatchProvider)
+     */
+    public static boolean hotswapClassesChunked(long pauseBudgetMillis, IHotSwapCallback callback,
+                                                IHotSwapBatchProvider provider) {
+        return swapChunked(pauseBudgetMillis, callback, () -> fetchAll(provider));
+    }
+
+    private static boolean swapChunked(long pauseBudgetMillis, IHotSwapCallback callback,
+                                       Supplier<List<FetchedBytes>> fetcher) {
+        RedefinePlanner planner = new RedefinePlanner(pauseBudgetMillis, COST_MODEL);
+        long batchId = nextBatchId();
+        HotSwapBatchEvent event = HotSwapEvents.beginBatch();
+        List<FetchedBytes> fetched = fetcher.get();
+        List<HotSwapResult> reported = new ArrayList<>();
+        int chunkCount = 0;
+        try {
+            List<HotSwapResult> aborted = new ArrayList<>();
+            List<PreparedClass> prepared = prepareBatch(fetched, batchId, aborted);
+            if (prepared == null) {
+                report(callback, aborted, reported);
+                return false;
+            }
+
+            // 这里只是预先排除未变化的类，每一块重定义时会在锁内再次比对
+            markUnchanged(prepared);
+            List<HotSwapResult> unchanged = new ArrayList<>();
+            List<PreparedClass> changed = new ArrayList<>(prepared.size());
+            Map<Class<?>, PreparedClass> byClass = new HashMap<>();
+            for (PreparedClass preparedClass : prepared) {
+                if (preparedClass.unchanged) {
+                    unchanged.add(preparedClass.success(batchId, new PhaseTimes()));
+                } else {
+                    changed.add(preparedClass);
+                    byClass.put(preparedClass.clazz, preparedClass);
+                }
+            }
+            report(callback, unchanged, reported);
+
+            // 在第一块生效之前预检整批，避免不兼容的类导致只生效一部分
+            PhaseTimes preflightTimes = new PhaseTimes();
+            try {
+                preflight(preflightTimes, toDefinitions(changed));
+            } catch (UnsupportedOperationException e) {
+                METRICS.recordFailure(e.getClass(), changed.size());
+                List<HotSwapResult> rejected = new ArrayList<>(changed.size());
+                for (PreparedClass preparedClass : changed) {
+                    rejected.add(preparedClass.failure(batchId, preflightTimes, e));
+                }
+                report(callback, rejected, reported);
+                return false;
+            }
+
+            List<ClassDefinition[]> chunks = planner.plan(toDefinitions(changed));
+            chunkCount = chunks.size();
+            for (int i = 0; i < chunks.size(); i++) {
+                List<PreparedClass> chunk = new ArrayList<>();
+                for (ClassDefinition definition : chunks.get(i)) {
+                    chunk.add(byClass.get(definition.getDefinitionClass()));
+                }
+
+                logger.info("Redefining chunk [{}/{}]", i + 1, chunks.size());
+                List<HotSwapResult> results = redefineAtomically(chunk, batchId, true);
+                report(callback, results, reported);
+                if (!isAllSuccess(results)) {
+                    Throwable stopped = new IllegalStateException(
+                            "Chunked hot swap stopped because chunk [" + (i + 1) + "/" + chunks.size() + "] failed");
+                    List<HotSwapResult> skipped = new ArrayList<>();
+                    for (int j = i + 1; j < chunks.size(); j++) {
+                        for (ClassDefinition definition : chunks.get(j)) {
+                            skipped.add(byClass.get(definition.getDefinitionClass()).failure(batchId, new PhaseTimes(), stopped));
+                        }
+                    }
+                    METRICS.recordFailure(stopped.getClass(), skipped.size());
+                    report(callback, skipped, reported);
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            HotSwapEvents.commitBatch(event, reported, totalBytes(fetched), chunkCount);
+        }
+    }
+
+    /**
+     * 通知回调，并记录已通知的结果
+     */
+    private static void report(IHotSwapCallback callback, List<HotSwapResult> results, List<HotSwapResult> reported) {
+        notifyCallback(callback, results);
+        reported.addAll(results);
+    }
+
+    private static long totalBytes(List<FetchedBytes> fetched) {
+        long total = 0;
+        for (FetchedBytes fetchedBytes : fetched) {
+            if (fetchedBytes.bytes != null) {
+                total += fetchedBytes.bytes.length;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 按顺序获取所有 Provider 的字节码
+     */
+    private static List<FetchedBytes> fetchAll(IHotSwapProvider... providers) {
+        if (providers == null) {
+            return Collections.emptyList();
+        }
+
+        List<FetchedBytes> fetched = new ArrayList<>(providers.length);
+        for (IHotSwapProvider provider : providers) {
+            if (provider != null) {
+                fetched.add(fetchQuietly(provider));
+            }
+        }
+        return fetched;
+    }
+
+    /**
+     * 按顺序拉取批量提供者中的所有字节码
+     */
+    private static List<FetchedBytes> fetchAll(IHotSwapBatchProvider provider) {
+        if (provider == null) {
+            return Collections.emptyList();
+        }
+
+        List<FetchedBytes> fetched = new ArrayList<>();
+        Iterator<HotSwapPayload> payloads;
+        try {
+            payloads = provider.openPayloads();
+        } catch (Exception e) {
+            logger.error("Failed to open batch provider [{}]", provider.getClass().getName(), e);
+            fetched.add(FetchedBytes.failed(e));
+            return fetched;
+        }
+
+        try {
+            while (true) {
+                try {
+                    if (!payloads.hasNext()) {
+                        break;
+                    }
+                } catch (Exception e) {
+                    // 流本身已经无法继续读取
+                    logger.error("Batch provider [{}] failed after {} payload(s)", provider.getClass().getName(),
+                            fetched.size(), e);
+                    fetched.add(FetchedBytes.failed(e));
+                    break;
+                }
+                try {
+                    fetched.add(fetch(provider, payloads));
+                } catch (Exception e) {
+                    fetched.add(FetchedBytes.failed(e));
+                }
+            }
+        } finally {
+            if (payloads instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) payloads).close();
+                } catch (Exception e) {
+                    logger.warn("Failed to close payloads of batch provider [{}]", provider.getClass().getName(), e);
+                }
+            }
+        }
+        return fetched;
+    }
+
+    /**
+     * 拉取下一个类的字节码，取走缓冲区中的内容并解析元数据
+     */
+    private static FetchedBytes fetch(IHotSwapBatchProvider provider, Iterator<HotSwapPayload> payloads) {
+        HotSwapFetchEvent event = HotSwapEvents.beginFetch();
+        byte[] bytes = null;
+        ClassMetadata metadata = null;
+        long fetchNanos;
+        long parseNanos = 0L;
+        try {
+            long start = System.nanoTime();
+            HotSwapPayload payload = payloads.next();
+            bytes = toByteArray(payload.getContent());
+            if (bytes.length == 0) {
+                throw new RuntimeException("Empty payload from batch provider for class: " + payload.getClassName());
+            }
+            boolean delta = ClassDelta.isDelta(bytes);
+            if (delta) {
+                // 批量提供者没有完整字节码的回退，基础版本不匹配时只有这个类失败
+                bytes = applyDelta(bytes);
+            }
+            HotSwapEvents.endFetch(event);
+            fetchNanos = System.nanoTime() - start;
+            METRICS.recordPhase(HotSwapPhase.FETCH, fetchNanos);
+
+            metadata = delta ? null : payload.getMetadata();
+            if (metadata == null) {
+                long parseStart = System.nanoTime();
+                metadata = ClassMetadata.parse(bytes);
+                parseNanos = System.nanoTime() - parseStart;
+            }
+            if (payload.getClassName() != null && !payload.getClassName().equals(metadata.getClassName())) {
+                throw new IllegalArgumentException("Payload declared class " + payload.getClassName()
+                        + " but contains " + metadata.getClassName());
+            }
+        } catch (RuntimeException e) {
+            HotSwapEvents.commitFetch(event, provider, bytes, metadata, e);
+            throw e;
+        }
+        HotSwapEvents.commitFetch(event, provider, bytes, metadata, null);
+        return FetchedBytes.of(bytes, metadata, fetchNanos, parseNanos);
+    }
+
+    /**
+     * 复制缓冲区 position 到 limit 之间的内容，不修改缓冲区。
+     * 提供者可以在下一次 next() 时复用缓冲区（包括堆缓冲区的底层数组），所以总是复制
+     */
+    private static byte[] toByteArray(ByteBuffer content) {
+        byte[] bytes = new byte[content.remaining()];
+        content.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 获取字节码，失败时返回携带原因的结果而不是抛出异常
+     */
+    private static FetchedBytes fetchQuietly(IHotSwapProvider provider) {
+        try {
+            return fetch(provider);
+        } catch (Exception e) {
+            return FetchedBytes.failed(e);
+        }
+    }
+
+    /**
+     * 获取字节码并解析元数据，已携带元数据的 {@link ByteArrayHotSwapProvider} 不再重复解析
+     */
+    private static FetchedBytes fetch(IHotSwapProvider provider) {
+        HotSwapFetchEvent event = HotSwapEvents.beginFetch();
+        byte[] bytes = null;
+        ClassMetadata metadata = null;
+        long fetchNanos;
+        long parseNanos = 0L;
+        try {
+            long start = System.nanoTime();
+            bytes = provider.getClassBytes();
+            boolean delta = ClassDelta.isDelta(bytes);
+            if (delta) {
+                bytes = applyDelta(ClassDelta.parse(bytes), provider);
+            }
+            HotSwapEvents.endFetch(event);
+            fetchNanos = System.nanoTime() - start;
+            METRICS.recordPhase(HotSwapPhase.FETCH, fetchNanos);
+            if (bytes == null || bytes.length == 0) {
+                throw new RuntimeException("Failed to get bytes from provider");
+            }
+
+            if (!delta && provider instanceof ByteArrayHotSwapProvider) {
+                metadata = ((ByteArrayHotSwapProvider) provider).getMetadata();
+            }
+            if (metadata == null) {
+                long parseStart = System.nanoTime();
+                metadata = ClassMetadata.parse(bytes);
+                parseNanos = System.nanoTime() - parseStart;
+            }
+        } catch (RuntimeException e) {
+            HotSwapEvents.commitFetch(event, provider, bytes, metadata, e);
+            throw e;
+        }
+        HotSwapEvents.commitFetch(event, provider, bytes, metadata, null);
+        return FetchedBytes.of(bytes, metadata, fetchNanos, parseNanos);
+    }
+
+    /**
+     * 把类回滚到上一个版本（上一次热加载的版本，或第一次重定义之前的原始版本），可以连续回滚
+     *
+     * @param className 类名（com.example.MyClass）
+     * @return 回滚结果，没有可回滚的版本时失败
+     * @see ClassVersionStore
+     */
+    public static HotSwapResult rollback(String className) {
+        Class<?> clazz;
+        try {
+            clazz = resolveClass(className);
+        } catch (ClassNotFoundException | IllegalStateException e) {
+            METRICS.recordFailure(e.getClass(), 1);
+            HotSwapResult result = HotSwapResult.builder(className).batchId(nextBatchId()).cause(e).build();
+            EVENT_BUS.publish(Collections.singletonList(result));
+            return result;
+        }
+        return rollback(clazz);
+    }
+
+    /**
+     * 把指定 ClassLoader 中的类回滚到上一个版本，可以连续回滚
+     *
+     * @param clazz 已加载的类，同名的类被多个 ClassLoader 加载时各自回滚
+     * @return 回滚结果，没有可回滚的版本时失败
+     * @see ClassVersionStore
+     */
+    public static HotSwapResult rollback(Class<?> clazz) {
+        String className = clazz.getName();
+        long batchId = nextBatchId();
+        List<HotSwapResult> results;
+        try {
+            results = LOCKS.withLock(className, () -> rollbackLocked(
+                    Collections.singletonMap(clazz, VERSIONS.previous(clazz)), batchId));
+        } catch (RuntimeException e) {
+            logger.error("Rollback of class:[{}] failed", className, e);
+            METRICS.recordFailure(e.getClass(), 1);
+            results = Collections.singletonList(HotSwapResult.builder(className).batchId(batchId).cause(e).build());
+        }
+        EVENT_BUS.publish(results);
+        return results.get(0);
+    }
+
+    /**
+     * 回滚一个批次：该批次热加载的所有类回到各自的上一个版本，通过一次 redefineClasses 完成
+     * <p>
+     * 其中的类被之后的批次再次修改过时拒绝回滚，需要先回滚之后的批次
+     *
+     * @param batchId 批次号，见 {@link HotSwapResult#getBatchId()}
+     * @return 每个类的回滚结果，无法回滚时只有一个携带原因的失败结果
+     */
+    public static List<HotSwapResult> rollback(long batchId) {
+        long rollbackBatchId = nextBatchId();
+        List<HotSwapResult> results;
+        try {
+            Set<Class<?>> classes = new HashSet<>(VERSIONS.previousOfBatch(batchId).keySet());
+            List<String> classNames = new ArrayList<>(classes.size());
+            for (Class<?> clazz : classes) {
+                classNames.add(clazz.getName());
+            }
+            results = LOCKS.withLock(classNames, () -> {
+                // 加锁之后重新确认，期间可能有新的热加载
+                Map<Class<?>, ClassVersion> targets = VERSIONS.previousOfBatch(batchId);
+                if (!targets.keySet().equals(classes)) {
+                    throw new IllegalStateException("Batch " + batchId + " changed while rolling back, try again");
+                }
+                return rollbackLocked(targets, rollbackBatchId);
+            });
+        } catch (RuntimeException e) {
+            logger.error("Rollback of batch {} failed", batchId, e);
+            METRICS.recordFailure(e.getClass(), 1);
+            results = Collections.singletonList(HotSwapResult.builder(null).batchId(rollbackBatchId).cause(e).build());
+        }
+        EVENT_BUS.publish(results);
+        return results;
+    }
+
+    /**
+     * 一次 redefineClasses 把每个类恢复到给定版本
+     */
+    private static List<HotSwapResult> rollbackLocked(Map<Class<?>, ClassVersion> targets, long batchId) {
+        List<PreparedClass> prepared = new ArrayList<>(targets.size());
+        List<HotSwapResult> results = new ArrayList<>(targets.size());
+        try {
+            for (Map.Entry<Class<?>, ClassVersion> target : targets.entrySet()) {
+                byte[] bytes = VERSIONS.readBytes(target.getValue());
+                prepared.add(new PreparedClass(target.getKey(),
+                        FetchedBytes.of(bytes, ClassMetadata.parse(bytes), 0L, 0L)));
+            }
+        } catch (Throwable t) {
+            logger.error("Rollback of {} class(es) aborted, versions could not be prepared", targets.size(), t);
+            METRICS.recordFailure(t.getClass(), targets.size());
+            for (Class<?> clazz : targets.keySet()) {
+                results.add(HotSwapResult.builder(clazz.getName()).batchId(batchId).cause(t).build());
+            }
+            return results;
+        }
+
+        PhaseTimes times = new PhaseTimes();
+        try {
+            logger.info("Rollback of {} class(es) started: {}", prepared.size(), targets.values());
+            redefine(times, toDefinitions(prepared));
+            logger.info("Rollback of {} class(es) succeeded", prepared.size());
+        } catch (Throwable t) {
+            logger.error("Rollback of {} class(es) failed, no class was redefined", prepared.size(), t);
+            METRICS.recordFailure(t.getClass(), prepared.size());
+            for (PreparedClass preparedClass : prepared) {
+                results.add(preparedClass.failure(batchId, times, t));
+            }
+            return results;
+        }
+
+        for (PreparedClass preparedClass : prepared) {
+            recordCurrent(preparedClass.clazz, preparedClass.metadata, preparedClass.bytes);
+            VERSIONS.rolledBack(preparedClass.clazz, targets.get(preparedClass.clazz));
+            results.add(preparedClass.success(batchId, times));
+        }
+        return results;
+    }
+
+    /**
+     * 在最后一次应用的字节码上还原增量
+     *
+     * @param delta 增量数据，见 {@link ClassDelta}
+     * @return 还原后的完整字节码
+     * @throws IllegalStateException    最后一次应用的不是增量的基础版本，或已应用的字节码已不在存储中
+     * @throws IllegalArgumentException 增量数据损坏
+     */
+    public static byte[] applyDelta(byte[] delta) {
+        return applyDelta(ClassDelta.parse(delta), null);
+    }
+
+    /**
+     * 在最后一次应用的字节码上还原增量，基础版本不匹配时从 Provider 读取完整字节码
+     *
+     * @param delta    增量数据，见 {@link ClassDelta}
+     * @param provider 基础版本不匹配时读取完整字节码的 Provider（可为null，此时不匹配直接失败）
+     * @return 还原后的完整字节码，或 Provider 读取的完整字节码
+     * @throws IllegalStateException    基础版本不匹配且无法读取完整字节码
+     * @throws IllegalArgumentException 增量数据损坏
+     */
+    public static byte[] applyDelta(byte[] delta, IDeltaHotSwapProvider provider) {
+        return applyDelta(ClassDelta.parse(delta), provider);
+    }
+
+    /**
+     * 还原增量，基础版本不匹配时从 {@link IDeltaHotSwapProvider} 读取完整字节码
+     *
+     * @param provider 返回该增量的 Provider（可为null）
+     */
+    private static byte[] applyDelta(ClassDelta delta, IHotSwapProvider provider) {
+        // 基础版本按内容比对，任意一个 ClassLoader 中的副本应用过都可以作为基础
+        byte[] base = null;
+        List<ClassFingerprint> applied = new ArrayList<>();
+        for (Class<?> clazz : LoadedClassIndex.getInstance().findAll(delta.getClassName())) {
+            base = VERSIONS.readCurrent(clazz, delta.getBaseFingerprint(), delta.getBaseLength());
+            if (base != null) {
+                break;
+            }
+            ClassFingerprint current = FINGERPRINTS.get(clazz);
+            if (current != null) {
+                applied.add(current);
+            }
+        }
+        if (base == null) {
+            if (!(provider instanceof IDeltaHotSwapProvider)) {
+                throw new IllegalStateException("Base version of delta is not the last applied version: " + delta
+                        + ", applied: " + applied);
+            }
+            logger.info("Base version of delta is not applied, fetching full class bytes instead: {}", delta);
+            byte[] full = ((IDeltaHotSwapProvider) provider).getFullClassBytes();
+            if (full == null || full.length == 0) {
+                throw new IllegalStateException("Provider returned no full class bytes for delta: " + delta);
+            }
+            if (ClassDelta.isDelta(full)) {
+                throw new IllegalStateException("Provider returned a delta as full class bytes: " + delta);
+            }
+            return full;
+        }
+
+        byte[] bytes = delta.apply(base);
+        logger.info("Applied delta of class:[{}], {} bytes -> {} bytes", delta.getClassName(), delta.getLength(),
+                bytes.length);
+        return bytes;
+    }
+
+    /**
+     * 记录成功应用的版本，保存字节码用于还原之后的增量和回滚
+     * <p>
+     * 在重定义成功之后调用，记录失败不影响热加载结果
+     */
+    private static void recordApplied(Class<?> clazz, ClassMetadata metadata, byte[] bytes, long batchId) {
+        CHECKER.invalidate(clazz);
+        try {
+            recordFingerprint(clazz, metadata, bytes);
+            VERSIONS.record(clazz, batchId, metadata.getFingerprint(), bytes);
+        } catch (RuntimeException e) {
+            forgetApplied(clazz, e);
+        }
+    }
+
+    /**
+     * 记录类当前的字节码，回滚后调用；记录失败不影响回滚结果
+     */
+    private static void recordCurrent(Class<?> clazz, ClassMetadata metadata, byte[] bytes) {
+        CHECKER.invalidate(clazz);
+        try {
+            recordFingerprint(clazz, metadata, bytes);
+        } catch (RuntimeException e) {
+            forgetApplied(clazz, e);
+        }
+    }
+
+    private static void recordFingerprint(Class<?> clazz, ClassMetadata metadata, byte[] bytes) {
+        FINGERPRINTS.record(clazz, metadata.getFingerprint(), metadata.getLength(), Fingerprints.crc32(bytes));
+    }
+
+    /**
+     * 类已经重定义但无法记录，清除之前的记录，避免之后把旧版本当作已应用而跳过，或回滚到错误的版本
+     */
+    private static void forgetApplied(Class<?> clazz, RuntimeException cause) {
+        logger.warn("The class:[{}] was redefined but its version could not be recorded, "
+                + "its history is dropped", clazz.getName(), cause);
+        FINGERPRINTS.remove(clazz);
+        VERSIONS.forget(clazz);
+    }
+
+    /**
+     * 解析整批字节码并通过一次 redefineClasses 重定义
+     */
+    private static List<HotSwapResult> swapAtomically(List<FetchedBytes> fetched) {
+        long batchId = nextBatchId();
+        HotSwapBatchEvent event = HotSwapEvents.beginBatch();
+        List<HotSwapResult> aborted = new ArrayList<>();
+        List<PreparedClass> prepared = prepareBatch(fetched, batchId, aborted);
+        List<HotSwapResult> results = prepared == null ? aborted : redefineAtomically(prepared, batchId, false);
+        HotSwapEvents.commitBatch(event, results, totalBytes(fetched), 1);
+        return results;
+    }
+
+    /**
+     * 解析整批字节码并查找目标类
+     * <p>
+     * 任意一个失败时整批中止：出错的类得到各自的异常，其余类得到整批中止的异常
+     *
+     * @param fetched 已获取的字节码
+     * @param batchId 批次号
+     * @param aborted 整批中止时每个类的结果
+     * @return 准备好的类，整批中止或没有可热加载的类时返回null
+     */
+    private static List<PreparedClass> prepareBatch(List<FetchedBytes> fetched, long batchId,
+                                                    List<HotSwapResult> aborted) {
+        if (fetched.isEmpty()) {
+            logger.warn("No providers to hot swap");
+            return null;
+        }
+
+        List<PreparedClass> prepared = new ArrayList<>(fetched.size());
+        List<HotSwapResult> failures = new ArrayList<>();
+        Set<String> classNames = new HashSet<>();
+        for (FetchedBytes fetchedBytes : fetched) {
+            String className = null;
+            try {
+                if (fetchedBytes.cause != null) {
+                    throw fetchedBytes.cause;
+                }
+
+                className = fetchedBytes.metadata.getClassName();
+                if (!classNames.add(className)) {
+                    throw new IllegalArgumentException("Duplicate class in batch: " + className);
+                }
+
+                Class<?> clazz = resolveClass(className);
+                prepared.add(new PreparedClass(clazz, fetchedBytes));
+            } catch (Throwable t) {
+                logger.error("Batch hot swap aborted, class:[{}] could not be prepared", className, t);
+                METRICS.recordFailure(t.getClass(), 1);
+                failures.add(fetchedBytes.failure(batchId, t));
+            }
+        }
+
+        if (failures.isEmpty()) {
+            return prepared;
+        }
+
+        Throwable cause = failures.get(0).getCause();
+        Throwable abortedCause = new IllegalStateException("Batch hot swap aborted because " + failures.size()
+                + " class(es) could not be prepared", cause);
+        for (PreparedClass preparedClass : prepared) {
+            aborted.add(preparedClass.failure(batchId, new PhaseTimes(), abortedCause));
+        }
+        METRICS.recordFailure(abortedCause.getClass(), prepared.size());
+        aborted.addAll(failures);
+        return null;
+    }
+
+    private static ClassDefinition[] toDefinitions(List<PreparedClass> prepared) {
+        ClassDefinition[] definitions = new ClassDefinition[prepared.size()];
+        for (int i = 0; i < definitions.length; i++) {
+            PreparedClass preparedClass = prepared.get(i);
+            definitions[i] = new ClassDefinition(preparedClass.clazz, preparedClass.bytes);
+        }
+        return definitions;
+    }
+
+    /**
+     * 一次 redefineClasses 重定义整批类，与上次应用相同的类不参与重定义，随整批一起返回结果
+     *
+     * @param preflighted 调用方是否已经预检过这些类
+     */
+    private static List<HotSwapResult> redefineAtomically(List<PreparedClass> prepared, long batchId,
+                                                          boolean preflighted) {
+        List<String> classNames = new ArrayList<>(prepared.size());
+        for (PreparedClass preparedClass : prepared) {
+            classNames.add(preparedClass.className);
+        }
+
+        return LOCKS.withLock(classNames, () -> redefineAtomicallyLocked(prepared, batchId, preflighted));
+    }
+
+    private static List<HotSwapResult> redefineAtomicallyLocked(List<PreparedClass> prepared, long batchId,
+                                                                boolean preflighted) {
+        markUnchanged(prepared);
+        List<PreparedClass> changed = new ArrayList<>(prepared.size());
+        for (PreparedClass preparedClass : prepared) {
+            if (!preparedClass.unchanged) {
+                changed.add(preparedClass);
+            }
+        }
+        ClassDefinition[] definitions = toDefinitions(changed);
+
+        PhaseTimes times = new PhaseTimes();
+        List<HotSwapResult> results = new ArrayList<>(prepared.size());
+        try {
+            if (definitions.length > 0) {
+                logger.info("ByteBuddy batch hot update of {} class(es) started", definitions.length);
+                redefine(times, preflighted, definitions);
+                logger.info("ByteBuddy batch hot update of {} class(es) succeeded", definitions.length);
+            }
+        } catch (Throwable t) {
+            logger.error("ByteBuddy batch hot update of {} class(es) failed, no class was redefined", definitions.length, t);
+            METRICS.recordFailure(t.getClass(), definitions.length);
+            for (PreparedClass preparedClass : prepared) {
+                results.add(preparedClass.failure(batchId, times, t));
+            }
+            return results;
+        }
+
+        for (PreparedClass preparedClass : changed) {
+            recordApplied(preparedClass.clazz, preparedClass.metadata, preparedClass.bytes, batchId);
+        }
+        for (PreparedClass preparedClass : prepared) {
+            results.add(preparedClass.success(batchId, times));
+        }
+        return results;
+    }
+
+    /**
+     * 标记与上次应用的字节码相同、不需要重定义的类
+     */
+    private static void markUnchanged(List<PreparedClass> prepared) {
+        for (PreparedClass preparedClass : prepared) {
+            preparedClass.unchanged = FINGERPRINTS.isApplied(preparedClass.clazz,
+                    preparedClass.metadata.getFingerprint(), preparedClass.metadata.getLength());
+            if (preparedClass.unchanged) {
+                logger.info("The class:[{}] is unchanged since the last hot update and skip it in the batch",
+                        preparedClass.className);
+                METRICS.recordSkipped(1);
+            }
+        }
+    }
+
+    /**
+     * 第一次重定义之前捕获类的原始字节码，用于回滚；捕获失败不影响本次热加载
+     */
+    private static void captureOriginals(Instrumentation instrumentation, ClassDefinition... definitions) {
+        List<Class<?>> classes = new ArrayList<>();
+        for (ClassDefinition definition : definitions) {
+            Class<?> clazz = definition.getDefinitionClass();
+            if (VERSIONS.needsOriginal(clazz)) {
+                classes.add(clazz);
+            }
+        }
+        if (classes.isEmpty()) {
+            return;
+        }
+        try {
+            VERSIONS.captureOriginals(instrumentation, classes);
+        } catch (Throwable t) {
+            logger.warn("Failed to capture original bytes of {} class(es), they cannot be rolled back to the original version",
+                    classes.size(), t);
+        }
+    }
+
+    /**
+     * 重定义兼容性预检，不兼容时抛出 {@link UnsupportedOperationException}（与 JVM 拒绝重定义时的异常一致），
+     * 异常信息中包含每个不兼容的类及原因。
+     * <p>
+     * 先捕获还没有版本记录的类的原始字节码，预检直接用它与新字节码对比，重定义时不再重复捕获
+     */
+    private static void preflight(PhaseTimes times, ClassDefinition... definitions) {
+        if (!preflightEnabled || definitions.length == 0) {
+            return;
+        }
+
+        captureOriginals(ByteBuddyAgent.install(), definitions);
+        long start = System.nanoTime();
+        Map<Class<?>, String> incompatible = CHECKER.checkAll(definitions);
+        long elapsed = System.nanoTime() - start;
+        times.preflightNanos = elapsed;
+        METRICS.recordPhase(HotSwapPhase.PREFLIGHT, elapsed);
+        if (incompatible.isEmpty()) {
+            return;
+        }
+
+        StringBuilder message = new StringBuilder("Pre-flight check rejected ").append(incompatible.size()).append(" class(es):");
+        for (Map.Entry<Class<?>, String> entry : incompatible.entrySet()) {
+            logger.error("The class:[{}] cannot be redefined: {}", entry.getKey().getName(), entry.getValue());
+            message.append(" [").append(entry.getKey().getName()).append(": ").append(entry.getValue()).append(']');
+        }
+        throw new UnsupportedOperationException(message.toString());
+    }
+
+    /**
+     * 开启或关闭重定义兼容性预检（默认开启）
+     * <p>
+     * 使用 DCEVM / JetBrains Runtime 等支持结构变更的 JVM，或开启了
+     * {@code -XX:+AllowRedefinitionToAddDeleteMethods} 时可以关闭预检，交给 JVM 判断
+     */
+    public static void setPreflightEnabled(boolean enabled) {
+        preflightEnabled = enabled;
+    }
+
+    public static boolean isPreflightEnabled() {
+        return preflightEnabled;
+    }
+
+    /**
+     * 预检后执行重定义，并把实际耗时记录到停顿耗时模型中
+     */
+    private static void redefine(PhaseTimes times, ClassDefinition... definitions) throws Exception {
+        redefine(times, false, definitions);
+    }
+
+    /**
+     * 执行重定义，并把实际耗时记录到停顿耗时模型中
+     *
+     * @param preflighted 调用方是否已经预检过整批（分块热加载只在第一块之前预检一次）
+     */
+    private static void redefine(PhaseTimes times, boolean preflighted, ClassDefinition... definitions) throws Exception {
+        if (!preflighted) {
+            preflight(times, definitions);
+        }
+        Instrumentation instrumentation = ByteBuddyAgent.install();
+        captureOriginals(instrumentation, definitions);
+        long totalBytes = 0;
+        for (ClassDefinition definition : definitions) {
+            totalBytes += definition.getDefinitionClassFile().length;
+        }
+
+        HotSwapRedefineEvent event = HotSwapEvents.beginRedefine();
+        long start = System.nanoTime();
+        try {
+            instrumentation.redefineClasses(definitions);
+        } catch (Throwable t) {
+            HotSwapEvents.commitRedefine(event, definitions, t);
+            throw t;
+        }
+        long elapsed = System.nanoTime() - start;
+        HotSwapEvents.commitRedefine(event, definitions, null);
+        times.redefineNanos = elapsed;
+        COST_MODEL.record(definitions.length, totalBytes, elapsed);
+        METRICS.recordPhase(HotSwapPhase.REDEFINE, elapsed);
+        METRICS.recordRedefined(definitions.length, totalBytes);
+    }
+
+    /**
+     * 获取全局的重定义停顿耗时模型，所有重定义的实际耗时都会记录到这里
+     */
+    public static RedefineCostModel getRedefineCostModel() {
+        return COST_MODEL;
+    }
+
+    private static long nextBatchId() {
+        return BATCH_IDS.incrementAndGet();
+    }
+
+    /**
+     * 把结果发布到 {@link HotSwapEventBus}（异步），再逐个类同步通知回调
+     */
+    private static void notifyCallback(IHotSwapCallback callback, List<HotSwapResult> results) {
+        EVENT_BUS.publish(results);
+        if (callback == null) {
+            return;
+        }
+
+        HotSwapCallbackAdapter adapter = new HotSwapCallbackAdapter(callback);
+        for (HotSwapResult result : results) {
+            long start = System.nanoTime();
+            try {
+                adapter.onResult(result);
+            } catch (Exception e) {
+                logger.error("Hot swap callback failed on {}", result, e);
+            }
+            METRICS.recordPhase(HotSwapPhase.CALLBACK, System.nanoTime() - start);
+        }
+    }
+
+    private static boolean isAllSuccess(List<HotSwapResult> results) {
+        if (results.isEmpty()) {
+            return false;
+        }
+        for (HotSwapResult result : results) {
+            if (!result.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 已获取的字节码及其元数据，或获取失败的原因
+     */
+    private static final class FetchedBytes {
+
+        private final byte[] bytes;
+
+        private final ClassMetadata metadata;
+
+        private final Throwable cause;
+
+        private final long fetchNanos;
+
+        private final long parseNanos;
+
+        private FetchedBytes(byte[] bytes, ClassMetadata metadata, Throwable cause, long fetchNanos, long parseNanos) {
+            this.bytes = bytes;
+            this.metadata = metadata;
+            this.cause = cause;
+            this.fetchNanos = fetchNanos;
+            this.parseNanos = parseNanos;
+        }
+
+        private static FetchedBytes of(byte[] bytes, ClassMetadata metadata, long fetchNanos, long parseNanos) {
+            return new FetchedBytes(bytes, metadata, null, fetchNanos, parseNanos);
+        }
+
+        private static FetchedBytes failed(Throwable failure) {
+            // CompletableFuture 会把异常包装为 CompletionException
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+            return new FetchedBytes(null, null, cause, 0L, 0L);
+        }
+
+        /**
+         * 携带字节码信息和获取、解析耗时的结果
+         */
+        private HotSwapResult.Builder result(long batchId) {
+            HotSwapResult.Builder builder = HotSwapResult.builder(metadata == null ? null : metadata.getClassName())
+                    .batchId(batchId)
+                    .phaseNanos(HotSwapPhase.FETCH, fetchNanos)
+                    .phaseNanos(HotSwapPhase.PARSE, parseNanos);
+            if (metadata != null) {
+                builder.bytes(metadata.getLength()).fingerprint(metadata.getFingerprint());
+            }
+            return builder;
+        }
+
+        private HotSwapResult failure(long batchId, Throwable cause) {
+            return result(batchId).cause(cause).build();
+        }
+    }
+
+    /**
+     * 已获取字节码并解析出目标类，等待重定义的类
+     */
+    private static final class PreparedClass {
+
+        private final String className;
+
+        private final Class<?> clazz;
+
+        private final byte[] bytes;
+
+        private final ClassMetadata metadata;
+
+        private final FetchedBytes fetched;
+
+        /**
+         * 与上次应用的字节码相同，不需要重定义
+         */
+        private boolean unchanged;
+
+        private PreparedClass(Class<?> clazz, FetchedBytes fetched) {
+            this.className = fetched.metadata.getClassName();
+            this.clazz = clazz;
+            this.bytes = fetched.bytes;
+            this.metadata = fetched.metadata;
+            this.fetched = fetched;
+        }
+
+        /**
+         * @param times 所在批次的预检、重定义耗时，未变化的类不计入
+         */
+        private HotSwapResult success(long batchId, PhaseTimes times) {
+            return result(batchId, times).build();
+        }
+
+        private HotSwapResult failure(long batchId, PhaseTimes times, Throwable cause) {
+            return result(batchId, times).cause(cause).build();
+        }
+
+        private HotSwapResult.Builder result(long batchId, PhaseTimes times) {
+            HotSwapResult.Builder builder = fetched.result(batchId).classLoader(clazz.getClassLoader()).skipped(unchanged);
+            if (!unchanged) {
+                times.applyTo(builder);
+            }
+            return builder;
+        }
+    }
+
+    /**
+     * 一批类共享的预检和重定义耗时
+     */
+    private static final class PhaseTimes {
+
+        private long preflightNanos;
+
+        private long redefineNanos;
+
+        private void applyTo(HotSwapResult.Builder builder) {
+            builder.phaseNanos(HotSwapPhase.PREFLIGHT, preflightNanos).phaseNanos(HotSwapPhase.REDEFINE, redefineNanos);
+        }
+    }
+
+    /**
+     * 读取类名，直接扫描常量池，不构建 ASM ClassReader
+     * 需要同时获取指纹等其他信息时使用 {@link ClassMetadata#parse(byte[])}，避免重复解析
      */
     public static String readClassName(byte[] bytes) {
         try {
-            // 使用ASM的ClassReader解析字节码
-            ClassReader classReader = new ClassReader(bytes);
-            // getClassName返回的是内部格式（com/example/MyClass），需要转换为标准格式
-            return classReader.getClassName().replace('/', '.');
+            return ClassFileScanner.readClassName(bytes);
         } catch (Exception e) {
             throw new RuntimeException("Failed to read class name from bytes", e);
         }
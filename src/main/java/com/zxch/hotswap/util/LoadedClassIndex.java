@@ -0,0 +1,384 @@
+package com.zxch.hotswap.util;
+
+import net.bytebuddy.agent.ByteBuddyAgent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 已加载类索引，按类名 + ClassLoader 查找已加载的类
+ * <p>
+ * 替代 {@code Class.forName}：后者只能看到调用方的 ClassLoader，并且可能触发类的加载和初始化，
+ * 在 Spring Boot fat-jar、插件等自定义 ClassLoader 下找不到目标类。
+ * <p>
+ * 首次使用时通过 {@link Instrumentation#getAllLoadedClasses()} 扫描一次建立索引，
+ * 之后通过一个只记录类名和 ClassLoader 的 {@link ClassFileTransformer} 跟踪新加载的类，
+ * 查找为 O(1)，不会再次扫描全部已加载类，也不会调用任何 ClassLoader，不会触发类的加载和初始化。
+ * 索引只持有类和 ClassLoader 的弱引用，不会阻止类卸载，类卸载后对应的条目随之移除。
+ * 需要在类加载后再处理的调用方可以通过 {@link #addLoadListener(Consumer)} 得到类加载的通知。
+ *
+ * @author zhangxun
+ */
+public final class LoadedClassIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadedClassIndex.class);
+
+    /**
+     * 超过该时间仍无法解析的待解析记录视为定义失败，不再重试
+     */
+    private static final long PENDING_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * bootstrap ClassLoader 在待解析记录中的占位
+     */
+    private static final Object BOOTSTRAP = new Object();
+
+    private static volatile LoadedClassIndex instance;
+
+    private final Instrumentation instrumentation;
+
+    private final ConcurrentHashMap<String, ClassSlot> slots = new ConcurrentHashMap<>();
+
+    /**
+     * 被回收的类和 ClassLoader 的引用，用于移除空的条目
+     */
+    private final ReferenceQueue<Object> cleared = new ReferenceQueue<>();
+
+    private final CopyOnWriteArrayList<Consumer<String>> loadListeners = new CopyOnWriteArrayList<>();
+
+    private LoadedClassIndex(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * 获取全局索引，首次调用时安装 agent 并建立索引
+     */
+    public static LoadedClassIndex getInstance() {
+        LoadedClassIndex index = instance;
+        if (index == null) {
+            synchronized (LoadedClassIndex.class) {
+                index = instance;
+                if (index == null) {
+                    index = new LoadedClassIndex(ByteBuddyAgent.install());
+                    index.start();
+                    instance = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private void start() {
+        long start = System.nanoTime();
+        // 先注册 transformer 再扫描，保证扫描期间新加载的类不会遗漏
+        instrumentation.addTransformer(new IndexingTransformer(), false);
+        int count = 0;
+        for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
+            if (!clazz.isArray() && !clazz.isPrimitive()) {
+                String className = clazz.getName();
+                while (!slot(className).add(clazz)) {
+                    // 条目刚被移除，重新获取
+                }
+                count++;
+            }
+        }
+        logger.info("Loaded class index seeded with {} class(es) in {}ms", count, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private ClassSlot slot(String className) {
+        return slots.computeIfAbsent(className, ClassSlot::new);
+    }
+
+    /**
+     * 查找指定 ClassLoader 加载的类
+     *
+     * @param className 类名（com.example.MyClass）
+     * @param loader    定义该类的 ClassLoader，null 表示 bootstrap
+     * @return 已加载的类，未加载时返回null
+     */
+    public Class<?> find(String className, ClassLoader loader) {
+        for (Class<?> clazz : findAll(className)) {
+            if (clazz.getClassLoader() == loader) {
+                return clazz;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 查找所有 ClassLoader 中同名的已加载类
+     *
+     * @param className 类名（com.example.MyClass）
+     * @return 已加载的类，未加载时返回空列表
+     */
+    public List<Class<?>> findAll(String className) {
+        expungeCleared();
+        ClassSlot slot = slots.get(className);
+        if (slot == null) {
+            return Collections.emptyList();
+        }
+        // 在条目的锁外解析，解析时只读取 JVM 已经记录的类，不调用 ClassLoader
+        List<Object> pendingLoaders = slot.pendingLoaders();
+        if (!pendingLoaders.isEmpty()) {
+            for (Object loader : pendingLoaders) {
+                resolvePending(loader == BOOTSTRAP ? null : (ClassLoader) loader);
+            }
+            slot.expirePending();
+        }
+        return slot.classes();
+    }
+
+    /**
+     * 查找热加载的目标类
+     * <p>
+     * 只有一个 ClassLoader 加载了该类时直接返回；多个 ClassLoader 都加载了时，
+     * 依次优先选择当前线程上下文 ClassLoader、本工具所在 ClassLoader、系统 ClassLoader 加载的类，
+     * 仍无法确定时返回null，调用方可以通过 {@link #findAll(String)} 区分未加载和无法确定
+     *
+     * @param className 类名（com.example.MyClass）
+     * @return 目标类，未加载或无法确定时返回null
+     */
+    public Class<?> findPreferred(String className) {
+        List<Class<?>> candidates = findAll(className);
+        if (candidates.size() <= 1) {
+            return candidates.isEmpty() ? null : candidates.get(0);
+        }
+
+        ClassLoader[] preferred = {
+                Thread.currentThread().getContextClassLoader(),
+                LoadedClassIndex.class.getClassLoader(),
+                ClassLoader.getSystemClassLoader()
+        };
+        for (ClassLoader loader : preferred) {
+            for (Class<?> clazz : candidates) {
+                if (clazz.getClassLoader() == loader) {
+                    return clazz;
+                }
+            }
+        }
+
+        logger.warn("The class:[{}] is loaded by {} class loaders and none of them is preferred", className, candidates.size());
+        return null;
+    }
+
+    /**
+     * 添加类加载监听，每个新加载的类以类名（com.example.MyClass）通知一次
+     * <p>
+     * 通知在类定义完成之前、于加载线程中进行，此时可能持有 ClassLoader 的类加载锁：
+     * 监听只能记录类名并尽快返回，不能加载类或阻塞，也不能在通知中查找该类，
+     * 需要在其他线程中通过 {@link #findAll(String)} 等方法查找，刚通知时可能还查找不到
+     *
+     * @param listener 类加载监听
+     */
+    public void addLoadListener(Consumer<String> listener) {
+        loadListeners.add(listener);
+    }
+
+    /**
+     * 移除类加载监听
+     */
+    public void removeLoadListener(Consumer<String> listener) {
+        loadListeners.remove(listener);
+    }
+
+    /**
+     * @return 索引中的类名数量
+     */
+    public int size() {
+        expungeCleared();
+        return slots.size();
+    }
+
+    /**
+     * 通过 {@link Instrumentation#getInitiatedClasses(ClassLoader)} 解析该 ClassLoader 下所有待解析的类，
+     * 包括通过 {@code defineClass}、{@code Lookup.defineClass} 定义的类；一次扫描解析所有同一 ClassLoader 的记录
+     */
+    private void resolvePending(ClassLoader loader) {
+        for (Class<?> clazz : instrumentation.getInitiatedClasses(loader)) {
+            if (clazz.getClassLoader() == loader && !clazz.isArray()) {
+                ClassSlot slot = slots.get(clazz.getName());
+                if (slot != null) {
+                    slot.resolved(clazz);
+                }
+            }
+        }
+    }
+
+    private void expungeCleared() {
+        Reference<?> ref;
+        while ((ref = cleared.poll()) != null) {
+            ClassSlot slot = slots.get(((SlotRef<?>) ref).className);
+            if (slot != null) {
+                slot.expunge();
+            }
+        }
+    }
+
+    /**
+     * 记录所属条目类名的弱引用，被回收后用于定位条目
+     */
+    private static final class SlotRef<T> extends WeakReference<T> {
+
+        private final String className;
+
+        private final long createdNanos = System.nanoTime();
+
+        private SlotRef(T referent, String className, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.className = className;
+        }
+    }
+
+    /**
+     * 只记录类名和 ClassLoader，不修改字节码
+     */
+    private final class IndexingTransformer implements ClassFileTransformer {
+
+        @Override
+        public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                                ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+            if (className != null && classBeingRedefined == null) {
+                String name = className.replace('/', '.');
+                // 这里可能持有 ClassLoader 的类加载锁，只做记录，不解析
+                while (!slot(name).addPending(loader)) {
+                    // 条目刚被移除，重新获取
+                }
+                for (Consumer<String> listener : loadListeners) {
+                    try {
+                        listener.accept(name);
+                    } catch (Throwable t) {
+                        // 不影响类加载和其他监听
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 同一个类名下各个 ClassLoader 加载的类
+     * <p>
+     * transformer 回调时类还没有定义完成，只能先记录 ClassLoader，查找时再解析为 Class 对象。
+     * 锁内只操作列表，不调用 ClassLoader 和 Instrumentation；条目为空时从索引中移除，移除后不再接受新记录
+     */
+    private final class ClassSlot {
+
+        private final String className;
+
+        private final List<SlotRef<Class<?>>> classes = new ArrayList<>(1);
+
+        /**
+         * 待解析的 ClassLoader，bootstrap 以 {@link #BOOTSTRAP} 表示
+         */
+        private final List<SlotRef<Object>> pending = new ArrayList<>(0);
+
+        private boolean removed;
+
+        private ClassSlot(String className) {
+            this.className = className;
+        }
+
+        /**
+         * @return false 表示条目已被移除，需要重新获取
+         */
+        private synchronized boolean add(Class<?> clazz) {
+            if (removed) {
+                return false;
+            }
+            for (SlotRef<Class<?>> ref : classes) {
+                if (ref.get() == clazz) {
+                    return true;
+                }
+            }
+            classes.add(new SlotRef<>(clazz, className, cleared));
+            return true;
+        }
+
+        /**
+         * @return false 表示条目已被移除，需要重新获取
+         */
+        private synchronized boolean addPending(ClassLoader loader) {
+            if (removed) {
+                return false;
+            }
+            pending.add(new SlotRef<>(loader == null ? BOOTSTRAP : loader, className, cleared));
+            return true;
+        }
+
+        /**
+         * @return 待解析记录的 ClassLoader 快照
+         */
+        private synchronized List<Object> pendingLoaders() {
+            if (pending.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<Object> loaders = new ArrayList<>(pending.size());
+            for (SlotRef<Object> ref : pending) {
+                Object loader = ref.get();
+                if (loader != null && !loaders.contains(loader)) {
+                    loaders.add(loader);
+                }
+            }
+            return loaders;
+        }
+
+        /**
+         * 解析之后仍然存在且已超时的记录说明类定义失败（例如校验失败），丢弃
+         */
+        private synchronized void expirePending() {
+            long now = System.nanoTime();
+            pending.removeIf(ref -> ref.get() == null || now - ref.createdNanos > PENDING_TIMEOUT_NANOS);
+            retireIfEmpty();
+        }
+
+        /**
+         * 类已经定义完成，移除对应 ClassLoader 的待解析记录并记录类
+         */
+        private synchronized void resolved(Class<?> clazz) {
+            Object loader = clazz.getClassLoader() == null ? BOOTSTRAP : clazz.getClassLoader();
+            if (!removed && pending.removeIf(ref -> ref.get() == loader)) {
+                add(clazz);
+            }
+        }
+
+        private synchronized List<Class<?>> classes() {
+            List<Class<?>> result = new ArrayList<>(classes.size());
+            for (SlotRef<Class<?>> ref : classes) {
+                Class<?> clazz = ref.get();
+                if (clazz != null) {
+                    result.add(clazz);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 移除已被回收的引用
+         */
+        private synchronized void expunge() {
+            classes.removeIf(ref -> ref.get() == null);
+            pending.removeIf(ref -> ref.get() == null);
+            retireIfEmpty();
+        }
+
+        private void retireIfEmpty() {
+            if (!removed && classes.isEmpty() && pending.isEmpty()) {
+                removed = true;
+                slots.remove(className, this);
+            }
+        }
+    }
+}
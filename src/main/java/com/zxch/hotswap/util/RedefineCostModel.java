@@ -0,0 +1,138 @@
+package com.zxch.hotswap.util;
+
+/**
+ * redefineClasses 停顿耗时模型
+ * <p>
+ * 以 {@code 耗时 = 每类耗时 × 类数量 + 每KB耗时 × 字节码KB数} 估算一次重定义的停顿时间，
+ * 两个系数由实际测得的重定义耗时在线拟合（带衰减的最小二乘，并向先验值做岭回归收敛，
+ * 样本很少或样本线性相关时也能给出稳定的估计）。
+ * <p>
+ * 线程安全
+ *
+ * @author zhangxun
+ */
+public class RedefineCostModel {
+
+    /**
+     * 默认的每类耗时先验值（毫秒）
+     */
+    public static final double DEFAULT_MILLIS_PER_CLASS = 0.5D;
+
+    /**
+     * 默认的每KB字节码耗时先验值（毫秒）
+     */
+    public static final double DEFAULT_MILLIS_PER_KB = 0.05D;
+
+    /**
+     * 旧样本的衰减系数，越小越偏向最近的测量结果
+     */
+    private static final double DECAY = 0.95D;
+
+    /**
+     * 先验值的权重（等价于若干个伪样本）
+     */
+    private static final double PRIOR_WEIGHT = 1.0D;
+
+    private final double priorMillisPerClass;
+
+    private final double priorMillisPerKb;
+
+    private double sumClassClass;
+    private double sumClassKb;
+    private double sumKbKb;
+    private double sumClassMillis;
+    private double sumKbMillis;
+    private long samples;
+
+    private double millisPerClass;
+
+    private double millisPerKb;
+
+    public RedefineCostModel() {
+        this(DEFAULT_MILLIS_PER_CLASS, DEFAULT_MILLIS_PER_KB);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param priorMillisPerClass 每类耗时先验值（毫秒）
+     * @param priorMillisPerKb    每KB字节码耗时先验值（毫秒）
+     */
+    public RedefineCostModel(double priorMillisPerClass, double priorMillisPerKb) {
+        if (priorMillisPerClass < 0 || priorMillisPerKb < 0) {
+            throw new IllegalArgumentException("Cost priors cannot be negative");
+        }
+        this.priorMillisPerClass = priorMillisPerClass;
+        this.priorMillisPerKb = priorMillisPerKb;
+        this.millisPerClass = priorMillisPerClass;
+        this.millisPerKb = priorMillisPerKb;
+    }
+
+    /**
+     * 记录一次实际的重定义耗时
+     *
+     * @param classCount   本次重定义的类数量
+     * @param totalBytes   本次重定义的字节码总大小
+     * @param elapsedNanos 本次重定义的耗时（纳秒）
+     */
+    public synchronized void record(int classCount, long totalBytes, long elapsedNanos) {
+        if (classCount <= 0 || elapsedNanos < 0) {
+            return;
+        }
+
+        double kb = totalBytes / 1024.0D;
+        double millis = elapsedNanos / 1_000_000.0D;
+
+        sumClassClass = sumClassClass * DECAY + (double) classCount * classCount;
+        sumClassKb = sumClassKb * DECAY + classCount * kb;
+        sumKbKb = sumKbKb * DECAY + kb * kb;
+        sumClassMillis = sumClassMillis * DECAY + classCount * millis;
+        sumKbMillis = sumKbMillis * DECAY + kb * millis;
+        samples++;
+
+        // (XᵀX + λI)·β = Xᵀy + λ·β₀
+        double a = sumClassClass + PRIOR_WEIGHT;
+        double b = sumClassKb;
+        double d = sumKbKb + PRIOR_WEIGHT;
+        double e = sumClassMillis + PRIOR_WEIGHT * priorMillisPerClass;
+        double f = sumKbMillis + PRIOR_WEIGHT * priorMillisPerKb;
+        double det = a * d - b * b;
+        if (det <= 0) {
+            return;
+        }
+
+        millisPerClass = Math.max(0D, (e * d - b * f) / det);
+        millisPerKb = Math.max(0D, (a * f - b * e) / det);
+    }
+
+    /**
+     * 估算一次重定义的停顿耗时
+     *
+     * @param classCount 类数量
+     * @param totalBytes 字节码总大小
+     * @return 估算耗时（毫秒）
+     */
+    public synchronized double estimateMillis(int classCount, long totalBytes) {
+        return millisPerClass * classCount + millisPerKb * (totalBytes / 1024.0D);
+    }
+
+    public synchronized double getMillisPerClass() {
+        return millisPerClass;
+    }
+
+    public synchronized double getMillisPerKb() {
+        return millisPerKb;
+    }
+
+    /**
+     * @return 已记录的测量次数
+     */
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("RedefineCostModel[%.4fms/class, %.4fms/KB, samples=%d]", millisPerClass, millisPerKb, samples);
+    }
+}
@@ -0,0 +1,115 @@
+package com.zxch.hotswap.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.instrument.ClassDefinition;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按停顿预算拆分大批量重定义
+ * <p>
+ * 一次 redefineClasses 重定义几百个类会产生一次很长的安全点停顿，逐个类重定义又会产生过多停顿。
+ * 这里根据 {@link RedefineCostModel} 估算每一块的停顿耗时，把整批类贪心地装入若干块，
+ * 保证每一块的估算耗时不超过停顿预算。
+ * <p>
+ * 同一个 nest（嵌套类及其宿主类）中的类总是分在同一块，单个 nest 超过预算时独占一块。
+ *
+ * @author zhangxun
+ */
+public class RedefinePlanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedefinePlanner.class);
+
+    private final long pauseBudgetMillis;
+
+    private final RedefineCostModel costModel;
+
+    /**
+     * 构造函数
+     *
+     * @param pauseBudgetMillis 单次停顿预算（毫秒）
+     * @param costModel         停顿耗时模型
+     */
+    public RedefinePlanner(long pauseBudgetMillis, RedefineCostModel costModel) {
+        if (pauseBudgetMillis <= 0) {
+            throw new IllegalArgumentException("pauseBudgetMillis must be positive");
+        }
+        if (costModel == null) {
+            throw new IllegalArgumentException("costModel cannot be null");
+        }
+        this.pauseBudgetMillis = pauseBudgetMillis;
+        this.costModel = costModel;
+    }
+
+    /**
+     * 拆分整批重定义
+     *
+     * @param definitions 整批待重定义的类
+     * @return 按顺序执行的各块，每一块通过一次 redefineClasses 完成
+     */
+    public List<ClassDefinition[]> plan(ClassDefinition... definitions) {
+        if (definitions == null || definitions.length == 0) {
+            return Collections.emptyList();
+        }
+
+        List<ClassDefinition[]> chunks = new ArrayList<>();
+        List<ClassDefinition> current = new ArrayList<>();
+        long currentBytes = 0;
+        for (List<ClassDefinition> group : groupByNest(definitions)) {
+            long groupBytes = totalBytes(group);
+            double estimate = costModel.estimateMillis(current.size() + group.size(), currentBytes + groupBytes);
+            if (!current.isEmpty() && estimate > pauseBudgetMillis) {
+                chunks.add(current.toArray(new ClassDefinition[0]));
+                current = new ArrayList<>();
+                currentBytes = 0;
+            }
+
+            if (current.isEmpty() && costModel.estimateMillis(group.size(), groupBytes) > pauseBudgetMillis) {
+                logger.warn("Nest of {} class(es) [{}] exceeds the pause budget of {}ms and is redefined on its own",
+                        group.size(), group.get(0).getDefinitionClass().getName(), pauseBudgetMillis);
+            }
+            current.addAll(group);
+            currentBytes += groupBytes;
+        }
+        if (!current.isEmpty()) {
+            chunks.add(current.toArray(new ClassDefinition[0]));
+        }
+
+        logger.info("Planned {} class(es) into {} chunk(s) with a pause budget of {}ms using {}",
+                definitions.length, chunks.size(), pauseBudgetMillis, costModel);
+        return chunks;
+    }
+
+    /**
+     * 按 nest 宿主类分组，保持首次出现的顺序
+     */
+    private static List<List<ClassDefinition>> groupByNest(ClassDefinition[] definitions) {
+        Map<Class<?>, List<ClassDefinition>> groups = new LinkedHashMap<>();
+        for (ClassDefinition definition : definitions) {
+            Class<?> nestHost = definition.getDefinitionClass().getNestHost();
+            groups.computeIfAbsent(nestHost, k -> new ArrayList<>()).add(definition);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private static long totalBytes(List<ClassDefinition> definitions) {
+        long bytes = 0;
+        for (ClassDefinition definition : definitions) {
+            bytes += definition.getDefinitionClassFile().length;
+        }
+        return bytes;
+    }
+
+    public long getPauseBudgetMillis() {
+        return pauseBudgetMillis;
+    }
+
+    public RedefineCostModel getCostModel() {
+        return costModel;
+    }
+}
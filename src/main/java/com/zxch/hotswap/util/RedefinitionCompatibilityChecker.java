@@ -0,0 +1,403 @@
+package com.zxch.hotswap.util;
+
+import net.bytebuddy.agent.ByteBuddyAgent;
+import net.bytebuddy.jar.asm.ClassReader;
+import net.bytebuddy.jar.asm.ClassVisitor;
+import net.bytebuddy.jar.asm.FieldVisitor;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+import net.bytebuddy.jar.asm.RecordComponentVisitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.instrument.ClassDefinition;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * 重定义兼容性预检
+ * <p>
+ * JVM 只允许重定义方法体，增删字段或方法、修改签名、修饰符、父类、接口或 nest 关系都会被拒绝，
+ * 但拒绝发生在 VM operation 中，停顿已经付出。这里在重定义之前用 ASM 解析新旧两份字节码的结构并对比，
+ * 给出具体的不兼容原因。
+ * <ul>
+ * <li>已加载类的字节码优先取 {@link ClassVersionStore} 中的当前版本，没有记录的类通过 retransform 读取，
+ * 不使用反射，不会触发其他类的加载</li>
+ * <li>已加载类的结构按 Class 缓存（{@link ClassValue}），重定义成功或回滚后由 {@link #invalidate(Class)} 清除，
+ * 重复检查同一个类时不再读取和解析它当前的字节码</li>
+ * <li>除成员和修饰符外，还对比 {@code <clinit>}、字段顺序、NestHost / NestMembers、Record 和
+ * PermittedSubclasses 属性</li>
+ * <li>无法取得已加载类的字节码时跳过该类的检查，交给 JVM 决定</li>
+ * <li>整批检查在 ForkJoinPool 上并行执行</li>
+ * </ul>
+ *
+ * @author zhangxun
+ */
+public final class RedefinitionCompatibilityChecker {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedefinitionCompatibilityChecker.class);
+
+    private static final RedefinitionCompatibilityChecker INSTANCE = new RedefinitionCompatibilityChecker();
+
+    private static final ClassVersionStore VERSIONS = ClassVersionStore.getInstance();
+
+    /**
+     * 与 JVM 一致，对比类的全部可识别访问标志
+     */
+    private static final int CLASS_MODIFIERS = Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER
+            | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT | Opcodes.ACC_SYNTHETIC | Opcodes.ACC_ANNOTATION
+            | Opcodes.ACC_ENUM;
+
+    private static final int FIELD_MODIFIERS = Opcodes.ACC_PUBLIC | Opcodes.ACC_PRIVATE | Opcodes.ACC_PROTECTED
+            | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL | Opcodes.ACC_VOLATILE | Opcodes.ACC_TRANSIENT
+            | Opcodes.ACC_SYNTHETIC | Opcodes.ACC_ENUM;
+
+    /**
+     * JVM 允许改变 native 标志（native 方法前缀），其他标志都不能改变
+     */
+    private static final int METHOD_MODIFIERS = Opcodes.ACC_PUBLIC | Opcodes.ACC_PRIVATE | Opcodes.ACC_PROTECTED
+            | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL | Opcodes.ACC_SYNCHRONIZED | Opcodes.ACC_BRIDGE
+            | Opcodes.ACC_VARARGS | Opcodes.ACC_ABSTRACT | Opcodes.ACC_STRICT | Opcodes.ACC_SYNTHETIC;
+
+    /**
+     * JDK 13 之前允许增删 private static / private final 方法
+     */
+    private static final boolean ALLOW_PRIVATE_METHOD_CHANGES = Runtime.version().feature() < 13;
+
+    private final ForkJoinPool pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+
+    private final ClassValue<ShapeSlot> loadedShapes = new ClassValue<ShapeSlot>() {
+        @Override
+        protected ShapeSlot computeValue(Class<?> type) {
+            return new ShapeSlot();
+        }
+    };
+
+    private RedefinitionCompatibilityChecker() {
+    }
+
+    public static RedefinitionCompatibilityChecker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 检查单个类
+     *
+     * @param loaded 已加载的类
+     * @param bytes  新字节码
+     * @return 不兼容的原因，兼容（或无法判断）时返回null
+     */
+    public String check(Class<?> loaded, byte[] bytes) {
+        return checkAll(new ClassDefinition(loaded, bytes)).get(loaded);
+    }
+
+    /**
+     * 检查整批类，多个类时并行对比
+     *
+     * @param definitions 待重定义的类
+     * @return 不兼容的类及原因，全部兼容时返回空 Map
+     */
+    public Map<Class<?>, String> checkAll(ClassDefinition... definitions) {
+        ShapeSlot.Snapshot[] snapshots = new ShapeSlot.Snapshot[definitions.length];
+        List<Class<?>> uncached = new ArrayList<>();
+        for (int i = 0; i < definitions.length; i++) {
+            Class<?> clazz = definitions[i].getDefinitionClass();
+            snapshots[i] = loadedShapes.get(clazz).snapshot();
+            if (snapshots[i].shape == null) {
+                uncached.add(clazz);
+            }
+        }
+        Map<Class<?>, byte[]> loadedBytes = loadedBytes(uncached);
+
+        String[] reasons;
+        if (definitions.length == 1) {
+            reasons = new String[]{check(definitions[0], snapshots[0], loadedBytes)};
+        } else {
+            try {
+                reasons = pool.submit(() -> IntStream.range(0, definitions.length)
+                        .parallel()
+                        .mapToObj(i -> check(definitions[i], snapshots[i], loadedBytes))
+                        .toArray(String[]::new)).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Pre-flight check interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Pre-flight check failed", e.getCause());
+            }
+        }
+
+        Map<Class<?>, String> incompatible = new HashMap<>();
+        for (int i = 0; i < reasons.length; i++) {
+            if (reasons[i] != null) {
+                incompatible.put(definitions[i].getDefinitionClass(), reasons[i]);
+            }
+        }
+        return incompatible;
+    }
+
+    /**
+     * 清除已加载类的结构缓存，类被重定义或回滚后调用
+     *
+     * @param clazz 已加载的类
+     */
+    public void invalidate(Class<?> clazz) {
+        loadedShapes.get(clazz).invalidate();
+    }
+
+    private String check(ClassDefinition definition, ShapeSlot.Snapshot snapshot, Map<Class<?>, byte[]> loadedBytes) {
+        Class<?> clazz = definition.getDefinitionClass();
+        try {
+            ClassShape loaded = snapshot.shape;
+            if (loaded == null) {
+                byte[] bytes = loadedBytes.get(clazz);
+                if (bytes == null) {
+                    return null;
+                }
+                loaded = ClassShape.of(bytes);
+                loadedShapes.get(clazz).store(loaded, snapshot.generation);
+            }
+            return compare(loaded, ClassShape.of(definition.getDefinitionClassFile()));
+        } catch (RuntimeException e) {
+            // 无法解析时交给 JVM 决定
+            logger.warn("Pre-flight check of class:[{}] skipped", clazz.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 读取已加载类当前的字节码：优先使用版本记录中的当前版本，没有记录（或已被丢弃）的类一次 retransform 读取
+     *
+     * @return 按类区分的字节码，无法读取的类不在其中
+     */
+    private static Map<Class<?>, byte[]> loadedBytes(List<Class<?>> classes) {
+        Map<Class<?>, byte[]> loaded = new IdentityHashMap<>();
+        if (classes.isEmpty()) {
+            return loaded;
+        }
+        List<Class<?>> missing = new ArrayList<>();
+        for (Class<?> clazz : classes) {
+            ClassVersion current = VERSIONS.getCurrent(clazz);
+            byte[] bytes = null;
+            if (current != null) {
+                try {
+                    bytes = VERSIONS.readBytes(current);
+                } catch (IllegalStateException e) {
+                    logger.debug("Current version of class:[{}] is not available: {}", clazz.getName(), e.getMessage());
+                }
+            }
+            if (bytes != null) {
+                loaded.put(clazz, bytes);
+            } else {
+                missing.add(clazz);
+            }
+        }
+        if (missing.isEmpty()) {
+            return loaded;
+        }
+
+        try {
+            loaded.putAll(VERSIONS.capture(ByteBuddyAgent.install(), missing));
+        } catch (Exception e) {
+            logger.warn("Failed to capture current bytes of {} class(es) for pre-flight check", missing.size(), e);
+        }
+        for (Class<?> clazz : missing) {
+            if (!loaded.containsKey(clazz)) {
+                logger.warn("Pre-flight check of class:[{}] skipped, its current bytes are not available", clazz.getName());
+            }
+        }
+        return loaded;
+    }
+
+    private static String compare(ClassShape loaded, ClassShape incoming) {
+        if (!loaded.name.equals(incoming.name)) {
+            return "class name changed from " + loaded.name + " to " + incoming.name;
+        }
+        if (!loaded.superName.equals(incoming.superName)) {
+            return "superclass changed from " + loaded.superName + " to " + incoming.superName;
+        }
+        if (!loaded.interfaces.equals(incoming.interfaces)) {
+            return "interfaces changed from " + loaded.interfaces + " to " + incoming.interfaces;
+        }
+        if ((loaded.access & CLASS_MODIFIERS) != (incoming.access & CLASS_MODIFIERS)) {
+            return "class modifiers changed from 0x" + Integer.toHexString(loaded.access & CLASS_MODIFIERS)
+                    + " to 0x" + Integer.toHexString(incoming.access & CLASS_MODIFIERS);
+        }
+        if (!Objects.equals(loaded.nestHost, incoming.nestHost)) {
+            return "nest host changed from " + loaded.nestHost + " to " + incoming.nestHost;
+        }
+        if (!loaded.nestMembers.equals(incoming.nestMembers)) {
+            return "nest members changed from " + loaded.nestMembers + " to " + incoming.nestMembers;
+        }
+        if (!loaded.permittedSubclasses.equals(incoming.permittedSubclasses)) {
+            return "permitted subclasses changed from " + loaded.permittedSubclasses
+                    + " to " + incoming.permittedSubclasses;
+        }
+        if (!Objects.equals(loaded.recordComponents, incoming.recordComponents)) {
+            return "record components changed from " + loaded.recordComponents + " to " + incoming.recordComponents;
+        }
+
+        String fieldChange = diff("field", loaded.fields, incoming.fields, FIELD_MODIFIERS, false);
+        if (fieldChange != null) {
+            return fieldChange;
+        }
+        if (!new ArrayList<>(loaded.fields.keySet()).equals(new ArrayList<>(incoming.fields.keySet()))) {
+            return "fields reordered from " + loaded.fields.keySet() + " to " + incoming.fields.keySet();
+        }
+        return diff("method", loaded.methods, incoming.methods, METHOD_MODIFIERS, ALLOW_PRIVATE_METHOD_CHANGES);
+    }
+
+    /**
+     * 对比成员（key 为 name + descriptor，value 为访问标志）
+     */
+    private static String diff(String kind, Map<String, Integer> loaded, Map<String, Integer> incoming, int mask,
+                               boolean allowPrivateChanges) {
+        for (Map.Entry<String, Integer> entry : incoming.entrySet()) {
+            Integer old = loaded.get(entry.getKey());
+            if (old == null) {
+                if (allowPrivateChanges && isPrivateStaticOrFinal(entry.getValue())) {
+                    continue;
+                }
+                return kind + " added: " + entry.getKey();
+            }
+            if ((old & mask) != (entry.getValue() & mask)) {
+                return kind + " modifiers changed: " + entry.getKey() + " from 0x" + Integer.toHexString(old & mask)
+                        + " to 0x" + Integer.toHexString(entry.getValue() & mask);
+            }
+        }
+        for (Map.Entry<String, Integer> entry : loaded.entrySet()) {
+            if (!incoming.containsKey(entry.getKey())
+                    && !(allowPrivateChanges && isPrivateStaticOrFinal(entry.getValue()))) {
+                return kind + " removed: " + entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    private static boolean isPrivateStaticOrFinal(int access) {
+        return (access & Opcodes.ACC_PRIVATE) != 0 && (access & (Opcodes.ACC_STATIC | Opcodes.ACC_FINAL)) != 0;
+    }
+
+    /**
+     * 一个类的结构缓存，每次清除时递增代数，清除之前读取的字节码解析出的结构不会再被缓存
+     */
+    private static final class ShapeSlot {
+
+        private ClassShape shape;
+        private long generation;
+
+        synchronized Snapshot snapshot() {
+            return new Snapshot(shape, generation);
+        }
+
+        synchronized void store(ClassShape shape, long generation) {
+            if (this.generation == generation) {
+                this.shape = shape;
+            }
+        }
+
+        synchronized void invalidate() {
+            shape = null;
+            generation++;
+        }
+
+        private static final class Snapshot {
+
+            private final ClassShape shape;
+            private final long generation;
+
+            private Snapshot(ClassShape shape, long generation) {
+                this.shape = shape;
+                this.generation = generation;
+            }
+        }
+    }
+
+    /**
+     * 与重定义相关的类结构
+     */
+    private static final class ClassShape {
+
+        private String name;
+        private String superName;
+        private List<String> interfaces;
+        private int access;
+        private String nestHost;
+        /**
+         * JVM 只比较 NestMembers 和 PermittedSubclasses 的内容，不比较顺序
+         */
+        private final Set<String> nestMembers = new TreeSet<>();
+        private final Set<String> permittedSubclasses = new TreeSet<>();
+        /**
+         * 不是 record 时为null
+         */
+        private List<String> recordComponents;
+        private final Map<String, Integer> fields = new LinkedHashMap<>();
+        private final Map<String, Integer> methods = new HashMap<>();
+
+        /**
+         * 用 ASM 解析字节码的结构，跳过方法体
+         */
+        private static ClassShape of(byte[] bytes) {
+            ClassShape shape = new ClassShape();
+            new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+                @Override
+                public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                    shape.name = name;
+                    shape.superName = superName == null ? "" : superName;
+                    shape.interfaces = interfaces == null ? new ArrayList<>() : Arrays.asList(interfaces);
+                    shape.access = access;
+                    if ((access & Opcodes.ACC_RECORD) != 0) {
+                        shape.recordComponents = new ArrayList<>();
+                    }
+                }
+
+                @Override
+                public void visitNestHost(String nestHost) {
+                    shape.nestHost = nestHost;
+                }
+
+                @Override
+                public void visitNestMember(String nestMember) {
+                    shape.nestMembers.add(nestMember);
+                }
+
+                @Override
+                public void visitPermittedSubclass(String permittedSubclass) {
+                    shape.permittedSubclasses.add(permittedSubclass);
+                }
+
+                @Override
+                public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+                    shape.recordComponents.add(signature == null ? name + ":" + descriptor
+                            : name + ":" + descriptor + ":" + signature);
+                    return null;
+                }
+
+                @Override
+                public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                    shape.fields.put(name + ":" + descriptor, access);
+                    return null;
+                }
+
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                    // 包括 <clinit>，增删静态初始化方法同样会被拒绝
+                    shape.methods.put(name + descriptor, access);
+                    return null;
+                }
+            }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            return shape;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.zxch.hotswap.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * 按类名分段的锁
+ * <p>
+ * 只串行化同一个类（准确地说是同一段）的重定义，互不相关的热加载可以并发执行。
+ * 一次锁定多个类时按段号升序加锁，避免死锁
+ *
+ * @author zhangxun
+ */
+final class StripedLocks {
+
+    private final ReentrantLock[] locks;
+
+    private final int mask;
+
+    /**
+     * @param stripes 分段数量，必须是 2 的幂
+     */
+    StripedLocks(int stripes) {
+        if (stripes <= 0 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("stripes must be a power of two");
+        }
+        this.locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.mask = stripes - 1;
+    }
+
+    private int stripe(String className) {
+        int h = className.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * 持有一个类的锁执行操作
+     *
+     * @return 操作的返回值
+     */
+    <T> T withLock(String className, Supplier<T> action) {
+        return withStripes(new int[]{stripe(className)}, action);
+    }
+
+    /**
+     * 按段号升序锁定多个类后执行操作
+     *
+     * @return 操作的返回值
+     */
+    <T> T withLock(Collection<String> classNames, Supplier<T> action) {
+        int[] stripes = classNames.stream().mapToInt(this::stripe).distinct().toArray();
+        Arrays.sort(stripes);
+        return withStripes(stripes, action);
+    }
+
+    private <T> T withStripes(int[] stripes, Supplier<T> action) {
+        lockStripes(stripes);
+        try {
+            return action.get();
+        } finally {
+            unlock(stripes, stripes.length);
+        }
+    }
+
+    private void lockStripes(int[] stripes) {
+        int locked = 0;
+        try {
+            for (int stripe : stripes) {
+                locks[stripe].lock();
+                locked++;
+            }
+        } catch (RuntimeException | Error e) {
+            unlock(stripes, locked);
+            throw e;
+        }
+    }
+
+    private void unlock(int[] stripes, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+}
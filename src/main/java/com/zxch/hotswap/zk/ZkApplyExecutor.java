@@ -0,0 +1,186 @@
+package com.zxch.hotswap.zk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ZK 热加载执行器
+ * <p>
+ * 把 Provider 获取字节码、解析和重定义从 Curator 的事件线程中移出，避免慢 Provider 阻塞同一个客户端的
+ * 其他 ZK 事件（包括连接状态处理）。
+ * <ul>
+ * <li>每个优先级一个有界队列，单个工作线程按提交顺序执行，紧急任务总是先于普通任务执行，
+ * 所以不同优先级的任务之间不保证提交顺序，同一个类的先后顺序由 {@link ZkHotSwapListener} 按到达序号保证</li>
+ * <li>队列满时提交方最多等待 backpressure 超时时间，超时后拒绝任务（{@link RejectedExecutionException}）</li>
+ * <li>关闭时不再接受新任务，已提交的任务在超时时间内执行完</li>
+ * </ul>
+ *
+ * @author zhangxun
+ */
+final class ZkApplyExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZkApplyExecutor.class);
+
+    private final BlockingQueue<Runnable> urgentQueue;
+
+    private final BlockingQueue<Runnable> normalQueue;
+
+    /**
+     * 两个队列中的任务总数，工作线程据此等待
+     */
+    private final Semaphore available = new Semaphore(0);
+
+    private final long backpressureTimeoutMillis;
+
+    private final Thread worker;
+
+    private final LongAdder submitted = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder completed = new LongAdder();
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private volatile boolean shutdown;
+
+    ZkApplyExecutor(int queueCapacity, long backpressureTimeoutMillis) {
+        this.urgentQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.normalQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.backpressureTimeoutMillis = backpressureTimeoutMillis;
+        this.worker = new Thread(this::runLoop, "zk-hotswap-apply");
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * 提交任务，队列满时最多等待 backpressure 超时时间
+     *
+     * @throws RejectedExecutionException 执行器已关闭或队列持续已满
+     */
+    void submit(ZkHotSwapPriority priority, Runnable task) {
+        if (shutdown) {
+            rejected.increment();
+            throw new RejectedExecutionException("Apply executor is shut down");
+        }
+
+        BlockingQueue<Runnable> queue = priority == ZkHotSwapPriority.URGENT ? urgentQueue : normalQueue;
+        boolean accepted;
+        try {
+            accepted = queue.offer(task, backpressureTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+        if (!accepted) {
+            rejected.increment();
+            throw new RejectedExecutionException("Apply queue [" + priority + "] is full after waiting "
+                    + backpressureTimeoutMillis + "ms");
+        }
+
+        submitted.increment();
+        available.release();
+        // 第一次提交时才启动工作线程，创建后未使用的监听器不会占用线程
+        if (started.compareAndSet(false, true)) {
+            worker.start();
+        }
+    }
+
+    /**
+     * 提交任务，不等待，用于不能阻塞的线程（例如类加载回调）
+     *
+     * @return 执行器已关闭或队列已满时返回false
+     */
+    boolean trySubmit(ZkHotSwapPriority priority, Runnable task) {
+        BlockingQueue<Runnable> queue = priority == ZkHotSwapPriority.URGENT ? urgentQueue : normalQueue;
+        if (shutdown || !queue.offer(task)) {
+            rejected.increment();
+            return false;
+        }
+
+        submitted.increment();
+        available.release();
+        if (started.compareAndSet(false, true)) {
+            worker.start();
+        }
+        return true;
+    }
+
+    private void runLoop() {
+        while (true) {
+            try {
+                if (!available.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                    if (shutdown) {
+                        return;
+                    }
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            Runnable task = urgentQueue.poll();
+            if (task == null) {
+                task = normalQueue.poll();
+            }
+            if (task == null) {
+                continue;
+            }
+
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.error("Hot swap apply task failed", t);
+            } finally {
+                completed.increment();
+            }
+        }
+    }
+
+    /**
+     * 关闭执行器，不再接受新任务，等待已提交的任务执行完
+     *
+     * @param timeoutMillis 等待超时时间
+     * @return 是否在超时时间内执行完
+     */
+    boolean shutdown(long timeoutMillis) {
+        shutdown = true;
+        if (started.compareAndSet(false, true)) {
+            return true;
+        }
+        try {
+            worker.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        boolean terminated = !worker.isAlive();
+        if (!terminated) {
+            logger.warn("Apply executor did not finish {} pending task(s) within {}ms", getQueueSize(), timeoutMillis);
+        }
+        return terminated;
+    }
+
+    int getQueueSize() {
+        return urgentQueue.size() + normalQueue.size();
+    }
+
+    long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    long getCompletedCount() {
+        return completed.sum();
+    }
+}
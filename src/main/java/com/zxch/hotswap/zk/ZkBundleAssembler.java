@@ -0,0 +1,224 @@
+package com.zxch.hotswap.zk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * 组装分块下发的包，见 {@link ZkPayloadCodec}
+ * <p>
+ * 包节点和分块节点的事件可能以任意顺序到达，按包节点路径收集，包节点和全部分块都到齐后解码。
+ * 分块到达时立即校验 CRC；收到包节点后，序号不在 {@code [0, chunkCount)} 内的分块使整个包被丢弃。
+ * 未完成的包最多保留 {@value #MAX_PENDING_BUNDLES} 个，每个包最多 {@value #MAX_CHUNKS_PER_BUNDLE} 块，
+ * 所有未完成的包的分块总量默认不超过 {@link #MAX_PENDING_BYTES}，超出时丢弃最早的包。
+ * <p>
+ * 非线程安全，只在热加载执行器的线程中使用
+ *
+ * @author zhangxun
+ */
+final class ZkBundleAssembler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZkBundleAssembler.class);
+
+    static final int MAX_PENDING_BUNDLES = 16;
+
+    static final int MAX_CHUNKS_PER_BUNDLE = 65536;
+
+    /**
+     * 未完成的包的分块总量上限，编码后超过该大小的包无法组装
+     */
+    static final long MAX_PENDING_BYTES = 64L * 1024 * 1024;
+
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+    private final long maxPendingBytes;
+
+    private long pendingBytes;
+
+    ZkBundleAssembler() {
+        this(MAX_PENDING_BYTES);
+    }
+
+    /**
+     * @param maxPendingBytes 未完成的包的分块总量上限
+     */
+    ZkBundleAssembler(long maxPendingBytes) {
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * 收到包节点
+     *
+     * @param path 包节点路径
+     * @param data 包节点数据
+     * @return 包已完整时返回解码后的每个类的字节码，否则返回null
+     * @throws ZipException 数据损坏，该包被丢弃
+     */
+    List<byte[]> onBundle(String path, byte[] data) throws ZipException {
+        ZkPayloadCodec.Header header;
+        try {
+            header = ZkPayloadCodec.readHeader(data);
+            if (header.chunkCount > MAX_CHUNKS_PER_BUNDLE) {
+                throw new ZipException("Bundle [" + path + "] has too many chunks: " + header.chunkCount);
+            }
+        } catch (ZipException e) {
+            drop(path);
+            throw e;
+        }
+        if (header.chunkCount == 0) {
+            drop(path);
+            return ZkPayloadCodec.decode(data, new ArrayList<>(0));
+        }
+
+        Pending bundle = pendingOf(path);
+        for (Integer index : bundle.chunks.keySet()) {
+            if (index >= header.chunkCount) {
+                drop(path);
+                throw new ZipException("Bundle [" + path + "] has chunk " + index + " beyond its " + header.chunkCount
+                        + " chunk(s)");
+            }
+        }
+        bundle.header = header;
+        bundle.headerData = data;
+        return completeIfReady(path, bundle);
+    }
+
+    /**
+     * 收到分块节点
+     *
+     * @param path 分块节点路径，父节点为包节点
+     * @param data 分块节点数据
+     * @return 包已完整时返回解码后的每个类的字节码，否则返回null
+     * @throws ZipException 数据损坏，该包被丢弃
+     */
+    List<byte[]> onChunk(String path, byte[] data) throws ZipException {
+        int slash = path.lastIndexOf('/');
+        if (slash <= 0) {
+            throw new ZipException("Chunk node must be a child of a bundle node: " + path);
+        }
+        String bundlePath = path.substring(0, slash);
+
+        int index;
+        try {
+            index = ZkPayloadCodec.verifyChunk(data);
+            Pending existing = pending.get(bundlePath);
+            int limit = existing != null && existing.header != null ? existing.header.chunkCount : MAX_CHUNKS_PER_BUNDLE;
+            if (index < 0 || index >= limit) {
+                throw new ZipException("Chunk index " + index + " of bundle [" + bundlePath + "] is out of range [0, "
+                        + limit + ")");
+            }
+            if (data.length > maxPendingBytes) {
+                throw new ZipException("Chunk " + index + " of bundle [" + bundlePath + "] is too large: "
+                        + data.length + " bytes");
+            }
+        } catch (ZipException e) {
+            drop(bundlePath);
+            throw e;
+        }
+        Pending bundle = pendingOf(bundlePath);
+        byte[] previous = bundle.chunks.put(index, data);
+        bundle.bytes += data.length - (previous == null ? 0 : previous.length);
+        pendingBytes += data.length - (previous == null ? 0 : previous.length);
+        evictOverBudget(bundlePath);
+        if (!pending.containsKey(bundlePath)) {
+            throw new ZipException("Bundle [" + bundlePath + "] exceeds the pending limit of " + maxPendingBytes
+                    + " bytes");
+        }
+        return completeIfReady(bundlePath, bundle);
+    }
+
+    /**
+     * @return 还没有到齐的包数量
+     */
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return 还没有到齐的包已收到的分块总量
+     */
+    long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    private Pending pendingOf(String bundlePath) {
+        Pending bundle = pending.get(bundlePath);
+        if (bundle != null) {
+            return bundle;
+        }
+
+        if (pending.size() >= MAX_PENDING_BUNDLES) {
+            Map.Entry<String, Pending> eldest = pending.entrySet().iterator().next();
+            logger.warn("Too many incomplete bundles, dropped [{}] with {} chunk(s) received",
+                    eldest.getKey(), eldest.getValue().chunks.size());
+            drop(eldest.getKey());
+        }
+        bundle = new Pending();
+        pending.put(bundlePath, bundle);
+        return bundle;
+    }
+
+    /**
+     * 分块总量超出上限时从最早的包开始丢弃，最后才丢弃当前的包
+     */
+    private void evictOverBudget(String currentPath) {
+        Iterator<Map.Entry<String, Pending>> eldest = pending.entrySet().iterator();
+        while (pendingBytes > maxPendingBytes && eldest.hasNext()) {
+            Map.Entry<String, Pending> entry = eldest.next();
+            if (entry.getKey().equals(currentPath)) {
+                continue;
+            }
+            eldest.remove();
+            pendingBytes -= entry.getValue().bytes;
+            logger.warn("Incomplete bundles exceed {} bytes, dropped [{}] with {} chunk(s) received",
+                    maxPendingBytes, entry.getKey(), entry.getValue().chunks.size());
+        }
+        if (pendingBytes > maxPendingBytes) {
+            drop(currentPath);
+        }
+    }
+
+    private void drop(String bundlePath) {
+        Pending bundle = pending.remove(bundlePath);
+        if (bundle != null) {
+            pendingBytes -= bundle.bytes;
+        }
+    }
+
+    private List<byte[]> completeIfReady(String bundlePath, Pending bundle) throws ZipException {
+        if (bundle.header == null || bundle.chunks.size() < bundle.header.chunkCount) {
+            logger.debug("Bundle [{}] waiting for chunks: {} received", bundlePath, bundle.chunks.size());
+            return null;
+        }
+
+        drop(bundlePath);
+        List<byte[]> chunks = new ArrayList<>(bundle.header.chunkCount);
+        for (int i = 0; i < bundle.header.chunkCount; i++) {
+            chunks.add(bundle.chunks.get(i));
+        }
+        return ZkPayloadCodec.decode(bundle.headerData, chunks);
+    }
+
+    /**
+     * 一个还没有到齐的包
+     */
+    private static final class Pending {
+
+        private final Map<Integer, byte[]> chunks = new LinkedHashMap<>();
+
+        /**
+         * 已收到的分块总字节数
+         */
+        private long bytes;
+
+        private ZkPayloadCodec.Header header;
+
+        private byte[] headerData;
+    }
+}
@@ -0,0 +1,164 @@
+package com.zxch.hotswap.zk;
+
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * ZooKeeper 热加载监听器配置
+ * <p>
+ * 所有配置项都有默认值，默认配置与不带配置的构造函数行为一致
+ *
+ * @author zhangxun
+ */
+public class ZkHotSwapConfig {
+
+    /**
+     * 合并窗口（毫秒），0 表示不合并，每个事件立即热加载
+     */
+    private long debounceMillis = 0L;
+
+    /**
+     * 热加载执行器每个优先级队列的容量
+     */
+    private int applyQueueCapacity = 1024;
+
+    /**
+     * 队列满时 ZK 事件线程最多等待的时间（毫秒），超时后拒绝该次热加载
+     */
+    private long backpressureTimeoutMillis = 5000L;
+
+    /**
+     * 关闭时等待已提交任务执行完的时间（毫秒）
+     */
+    private long shutdownTimeoutMillis = 10000L;
+
+    /**
+     * 根据节点路径判断优先级
+     */
+    private Function<String, ZkHotSwapPriority> priorityClassifier = path -> ZkHotSwapPriority.NORMAL;
+
+    /**
+     * Provider 模式下并行获取字节码的执行器，null 表示依次执行各个 Provider
+     */
+    private Executor fetchExecutor;
+
+    public long getDebounceMillis() {
+        return debounceMillis;
+    }
+
+    /**
+     * 设置合并窗口
+     * <p>
+     * 窗口内收到的更新按类名合并（后写覆盖先写），窗口结束时把剩下的更新作为一批原子热加载
+     *
+     * @param debounceMillis 合并窗口（毫秒），0 表示不合并
+     * @return this
+     */
+    public ZkHotSwapConfig setDebounceMillis(long debounceMillis) {
+        if (debounceMillis < 0) {
+            throw new IllegalArgumentException("debounceMillis cannot be negative");
+        }
+        this.debounceMillis = debounceMillis;
+        return this;
+    }
+
+    public int getApplyQueueCapacity() {
+        return applyQueueCapacity;
+    }
+
+    /**
+     * 设置热加载执行器每个优先级队列的容量
+     *
+     * @param applyQueueCapacity 队列容量
+     * @return this
+     */
+    public ZkHotSwapConfig setApplyQueueCapacity(int applyQueueCapacity) {
+        if (applyQueueCapacity <= 0) {
+            throw new IllegalArgumentException("applyQueueCapacity must be positive");
+        }
+        this.applyQueueCapacity = applyQueueCapacity;
+        return this;
+    }
+
+    public long getBackpressureTimeoutMillis() {
+        return backpressureTimeoutMillis;
+    }
+
+    /**
+     * 设置队列满时 ZK 事件线程最多等待的时间，超时后该次热加载被拒绝并通过回调通知
+     *
+     * @param backpressureTimeoutMillis 等待时间（毫秒），0 表示队列满时立即拒绝
+     * @return this
+     */
+    public ZkHotSwapConfig setBackpressureTimeoutMillis(long backpressureTimeoutMillis) {
+        if (backpressureTimeoutMillis < 0) {
+            throw new IllegalArgumentException("backpressureTimeoutMillis cannot be negative");
+        }
+        this.backpressureTimeoutMillis = backpressureTimeoutMillis;
+        return this;
+    }
+
+    public long getShutdownTimeoutMillis() {
+        return shutdownTimeoutMillis;
+    }
+
+    /**
+     * 设置关闭时等待已提交任务执行完的时间
+     *
+     * @param shutdownTimeoutMillis 等待时间（毫秒）
+     * @return this
+     */
+    public ZkHotSwapConfig setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+        if (shutdownTimeoutMillis < 0) {
+            throw new IllegalArgumentException("shutdownTimeoutMillis cannot be negative");
+        }
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        return this;
+    }
+
+    public Function<String, ZkHotSwapPriority> getPriorityClassifier() {
+        return priorityClassifier;
+    }
+
+    /**
+     * 设置优先级判断规则，紧急任务会插到所有普通任务之前执行，并且不经过合并窗口
+     *
+     * @param priorityClassifier 根据节点路径返回优先级
+     * @return this
+     */
+    public ZkHotSwapConfig setPriorityClassifier(Function<String, ZkHotSwapPriority> priorityClassifier) {
+        if (priorityClassifier == null) {
+            throw new IllegalArgumentException("priorityClassifier cannot be null");
+        }
+        this.priorityClassifier = priorityClassifier;
+        return this;
+    }
+
+    /**
+     * 以指定前缀开头的节点视为紧急任务
+     *
+     * @param urgentPathPrefix 紧急节点路径前缀，例如 /hotswap/classes/urgent/
+     * @return this
+     */
+    public ZkHotSwapConfig setUrgentPathPrefix(String urgentPathPrefix) {
+        return setPriorityClassifier(path -> path != null && path.startsWith(urgentPathPrefix)
+                ? ZkHotSwapPriority.URGENT : ZkHotSwapPriority.NORMAL);
+    }
+
+    public Executor getFetchExecutor() {
+        return fetchExecutor;
+    }
+
+    /**
+     * 设置 Provider 模式下并行获取字节码的执行器
+     * <p>
+     * 设置后所有 Provider 并行获取字节码，再作为一批原子热加载；未设置时依次执行各个 Provider，互不影响
+     *
+     * @param fetchExecutor 执行器，例如 {@link com.zxch.hotswap.util.HotSwapExecutors#defaultExecutor()}
+     * @return this
+     */
+    public ZkHotSwapConfig setFetchExecutor(Executor fetchExecutor) {
+        this.fetchExecutor = fetchExecutor;
+        return this;
+    }
+}
@@ -0,0 +1,100 @@
+package com.zxch.hotswap.zk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ZK 监听句柄
+ * <p>
+ * 由 {@code startWatching} 系列方法返回，持有监听使用的缓存（TreeCache / CuratorCache）、监听器和 JVM 关闭钩子。
+ * <ul>
+ * <li>{@link #close()} 先停止缓存，再关闭监听器（等待已提交的热加载执行完），并移除关闭钩子，
+ * 之后 JVM 不再持有缓存和监听器</li>
+ * <li>没有主动关闭时，由关闭钩子在 JVM 退出时执行同样的清理</li>
+ * <li>重复关闭没有作用</li>
+ * </ul>
+ *
+ * @param <C> 缓存类型
+ * @param <L> 监听器类型
+ * @author zhangxun
+ */
+public final class ZkHotSwapHandle<C extends Closeable, L extends Closeable> implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZkHotSwapHandle.class);
+
+    private final String path;
+
+    private final C cache;
+
+    private final L listener;
+
+    private final Thread shutdownHook;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * 创建句柄并注册关闭钩子，缓存应该已经启动
+     *
+     * @param path     监听的 ZK 路径
+     * @param cache    已启动的缓存
+     * @param listener 监听器
+     * @param hookName 关闭钩子线程名称
+     */
+    ZkHotSwapHandle(String path, C cache, L listener, String hookName) {
+        this.path = path;
+        this.cache = cache;
+        this.listener = listener;
+        this.shutdownHook = new Thread(this::shutdown, hookName);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * 停止监听，移除关闭钩子
+     */
+    @Override
+    public void close() {
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // JVM 正在退出，钩子会执行或正在执行，这里的清理与之互斥
+        }
+        shutdown();
+    }
+
+    private void shutdown() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        logger.info("Shutting down {} watching path: {}", listener.getClass().getSimpleName(), path);
+        try {
+            cache.close();
+        } catch (Exception e) {
+            logger.error("Failed to close cache of path: {}", path, e);
+        }
+        try {
+            listener.close();
+        } catch (Exception e) {
+            logger.error("Failed to close listener of path: {}", path, e);
+        }
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public C getCache() {
+        return cache;
+    }
+
+    public L getListener() {
+        return listener;
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+}
@@ -1,33 +1,88 @@
 package com.zxch.hotswap.zk;
 
 
+import com.zxch.hotswap.ConditionalFetch;
+import com.zxch.hotswap.HotSwapResult;
+import com.zxch.hotswap.IConditionalHotSwapProvider;
 import com.zxch.hotswap.IHotSwapCallback;
 import com.zxch.hotswap.IHotSwapProvider;
+import com.zxch.hotswap.event.HotSwapCallbackAdapter;
+import com.zxch.hotswap.jfr.HotSwapEvents;
+import com.zxch.hotswap.jfr.ZkHotSwapTriggerEvent;
+import com.zxch.hotswap.provider.ByteArrayHotSwapProvider;
+import com.zxch.hotswap.util.ClassDelta;
+import com.zxch.hotswap.util.ClassMetadata;
 import com.zxch.hotswap.util.HotSwapUtils;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.CuratorCache;
+import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
+import org.apache.curator.framework.recipes.cache.CuratorCacheStorage;
 import org.apache.curator.framework.recipes.cache.TreeCache;
 import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
 import org.apache.curator.framework.recipes.cache.TreeCacheListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+import java.util.zip.ZipException;
 
 /**
  * ZooKeeper 热加载监听器
  * <p>
  * 监听 ZK 节点变化，自动触发热加载
  * 支持一个节点变更执行多个 Provider
+ * <p>
+ * 使用 ZK 节点数据时，除了单个 class 文件，还支持 {@link ZkPayloadCodec} 格式的多类字节码包（可压缩、可分块），
+ * 包节点和全部分块到齐并校验通过后，包中的所有类作为一批原子热加载，见 {@link ZkHotSwapPublisher}。
+ * 包节点是持久顺序节点，启动时缓存会以任意顺序重放所有历史包：初始同步（{@code INITIALIZED} 事件）之前组装完成的包
+ * 先暂存，初始同步结束后按包序号合并，每个类只取最新的包中的版本，作为一批热加载；
+ * 之后包中的类只有在没有被同一路径下序号更大的包热加载过时才生效，旧包不会把类还原成旧版本。
+ * 节点数据也可以是相对最后一次应用版本的增量（见 {@link ClassDelta}），增量按到达顺序逐个还原，不参与合并，
+ * 基础版本不是最后一次应用的版本时热加载失败。缓存总会读取变化节点的完整数据，增量只能减少节点的大小；
+ * 需要节省流量时使用清单方式（见 {@link ZkManifestListener}）。
+ * 完整字节码节点下的 {@code delta-<基础版本指纹>} 子节点属于清单方式，父节点的更新已经触发了热加载，这里忽略
+ * <p>
+ * 每个节点更新按到达顺序编号，同一个类的更新不会因为优先级或合并窗口而倒序生效：
+ * 紧急更新先于窗口内较早的普通更新执行时，较早的更新在执行时被丢弃，不会把类还原成旧版本
+ * <p>
+ * 实现了 {@link IConditionalHotSwapProvider} 的 Provider 只在来源变化时才读取和热加载，
+ * 监听器保存每个 Provider 上次成功热加载时的版本标识，热加载失败时不更新，下次触发会重试
+ * <p>
+ * {@code startWatching} 使用 TreeCache，会在内存中一直保留每个节点的数据；节点较多时可以使用
+ * {@link #startWatchingLean(CuratorFramework, String, ZkHotSwapListener)}，只保留节点路径和版本，
+ * 节点数据随事件读取，热加载完即可回收。两者都返回 {@link ZkHotSwapHandle}，关闭句柄即停止监听；
+ * 返回缓存本身的 {@code createAndStart} 系列方法只为兼容保留
  * 
  * @author zhangxun
  */
-public class ZkHotSwapListener implements TreeCacheListener {
+public class ZkHotSwapListener implements TreeCacheListener, Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(ZkHotSwapListener.class);
 
+    /**
+     * Provider 模式下所有事件共用的合并 key
+     */
+    private static final String PROVIDER_UPDATE_KEY = "<providers>";
+
+    private static final String COALESCED_SOURCE = "coalesced batch";
+
+    private static final String SHUTDOWN_HOOK_NAME = "zk-hotswap-shutdown";
+
     /**
      * 是否启用 ZK 字节码功能
      * true: 直接使用 ZK 节点的 data 作为字节码
@@ -41,11 +96,57 @@ public class ZkHotSwapListener implements TreeCacheListener {
      */
     private final List<IHotSwapProvider> customProviders;
 
+    /**
+     * 条件 Provider 上次成功热加载时的版本标识，与 customProviders 一一对应
+     */
+    private final AtomicReferenceArray<String> providerTokens;
+
     /**
      * 热加载回调
      */
     private final IHotSwapCallback callback;
 
+    /**
+     * 监听器配置
+     */
+    private final ZkHotSwapConfig config;
+
+    /**
+     * 更新合并队列（合并窗口为 0 时为null）
+     * useZkBytes=true 时按类名合并节点数据，否则窗口内的所有事件合并为一次 Provider 执行
+     */
+    private final ZkUpdateCoalescer<SequencedUpdate> coalescer;
+
+    /**
+     * 热加载执行器，字节码获取、解析和重定义都在这里执行，不占用 Curator 事件线程
+     */
+    private final ZkApplyExecutor applyExecutor;
+
+    /**
+     * 组装分块下发的字节码包，只在热加载执行器的线程中使用
+     */
+    private final ZkBundleAssembler assembler = new ZkBundleAssembler();
+
+    /**
+     * 节点更新的到达序号，在 Curator 事件线程中分配
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * 每个类最后一次执行的更新的到达序号，只在热加载执行器的线程中使用
+     */
+    private final Map<String, Long> appliedSequences = new HashMap<>();
+
+    /**
+     * 每个类最后一次热加载的包序号，key 为包的父路径 + 类名，只在热加载执行器的线程中使用
+     */
+    private final Map<String, Long> bundleSequences = new HashMap<>();
+
+    /**
+     * 初始同步结束前组装完成的包，只在热加载执行器的线程中使用，初始同步结束后为null
+     */
+    private List<CompletedBundle> replayedBundles = new ArrayList<>();
+
     /**
      * 构造函数 - 使用 ZK 节点数据作为字节码
      * 
@@ -83,23 +184,56 @@ public class ZkHotSwapListener implements TreeCacheListener {
      * @param callback        热加载回调（可为null）
      */
     public ZkHotSwapListener(boolean useZkBytes, List<IHotSwapProvider> customProviders, IHotSwapCallback callback) {
+        this(useZkBytes, customProviders, callback, new ZkHotSwapConfig());
+    }
+
+    /**
+     * 完整构造函数（带配置）
+     *
+     * @param useZkBytes      是否使用 ZK 节点数据作为字节码
+     * @param customProviders 自定义字节码提供者列表（当 useZkBytes=false 时必须提供）
+     * @param callback        热加载回调（可为null）
+     * @param config          监听器配置
+     */
+    public ZkHotSwapListener(boolean useZkBytes, List<IHotSwapProvider> customProviders, IHotSwapCallback callback,
+                             ZkHotSwapConfig config) {
         this.useZkBytes = useZkBytes;
         this.customProviders = new ArrayList<>(customProviders);
+        this.providerTokens = new AtomicReferenceArray<>(this.customProviders.size());
         this.callback = callback;
+        this.config = config;
 
         if (!useZkBytes && (customProviders == null || customProviders.isEmpty())) {
             throw new IllegalArgumentException("customProviders cannot be null or empty when useZkBytes is false");
         }
+        if (config == null) {
+            throw new IllegalArgumentException("config cannot be null");
+        }
+
+        this.applyExecutor = new ZkApplyExecutor(config.getApplyQueueCapacity(), config.getBackpressureTimeoutMillis());
+        this.coalescer = config.getDebounceMillis() > 0
+                ? new ZkUpdateCoalescer<>(config.getDebounceMillis(),
+                        updates -> {
+                            long received = System.nanoTime();
+                            submitApply(ZkHotSwapPriority.NORMAL, COALESCED_SOURCE, () -> applyCoalesced(updates, received));
+                        })
+                : null;
     }
 
     @Override
     public void childEvent(CuratorFramework client, TreeCacheEvent event) throws Exception {
+        TreeCacheEvent.Type type = event.getType();
+        if (type == TreeCacheEvent.Type.INITIALIZED && useZkBytes) {
+            // 排在初始同步的所有普通优先级任务之后执行
+            submitApply(ZkHotSwapPriority.NORMAL, "initial sync", this::applyReplayedBundles);
+            return;
+        }
+
         ChildData data = event.getData();
         if (data == null) {
             return;
         }
 
-        TreeCacheEvent.Type type = event.getType();
         String path = data.getPath();
 
         // 只处理节点更新事件
@@ -113,42 +247,123 @@ public class ZkHotSwapListener implements TreeCacheListener {
     }
 
     /**
-     * 处理节点更新
+     * 处理节点更新：在事件线程中只做分发，实际热加载交给热加载执行器
      */
     private void handleNodeUpdate(ChildData data) {
+        if (useZkBytes && isDeltaChild(data.getPath())) {
+            logger.debug("Ignored delta node [{}], its parent carries the full class bytes", data.getPath());
+            return;
+        }
+        ZkHotSwapPriority priority = config.getPriorityClassifier().apply(data.getPath());
+        long seq = sequence.incrementAndGet();
+        if (useZkBytes && (ZkPayloadCodec.isBundle(data.getData()) || ZkPayloadCodec.isChunk(data.getData()))) {
+            // 字节码包本身就是一个原子批次，不参与合并
+            long received = System.nanoTime();
+            submitApply(priority, data.getPath(), () -> applyBundlePart(data, priority, received, seq));
+            return;
+        }
+        if (coalescer != null && priority == ZkHotSwapPriority.NORMAL
+                && !(useZkBytes && ClassDelta.isDelta(data.getData()))) {
+            submitToCoalescer(data, seq);
+            return;
+        }
+
+        long received = System.nanoTime();
+        submitApply(priority, data.getPath(), () -> applyNodeUpdate(data, priority, received, seq));
+    }
+
+    /**
+     * 执行更新前检查同一个类是否已经执行过更晚到达的更新
+     *
+     * @return false 表示该更新已经过时，应当丢弃
+     */
+    private boolean claim(String className, long seq) {
+        Long applied = appliedSequences.get(className);
+        if (applied != null && applied > seq) {
+            logger.info("Dropped stale update of class:[{}], a newer update was already applied", className);
+            return false;
+        }
+        appliedSequences.put(className, seq);
+        return true;
+    }
+
+    /**
+     * 提交到热加载执行器，队列持续已满时拒绝并通过回调通知
+     */
+    private void submitApply(ZkHotSwapPriority priority, String source, Runnable task) {
+        try {
+            applyExecutor.submit(priority, task);
+        } catch (RejectedExecutionException e) {
+            logger.error("Hot swap of [{}] rejected", source, e);
+            if (callback != null) {
+                callback.onFailure(null, e);
+            }
+        }
+    }
+
+    /**
+     * 热加载节点数据或执行自定义 Provider
+     */
+    private void applyNodeUpdate(ChildData data, ZkHotSwapPriority priority, long received, long seq) {
+        ZkHotSwapTriggerEvent event = HotSwapEvents.beginZkTrigger();
+        long queuedNanos = System.nanoTime() - received;
+        List<ClassMetadata> swapped = Collections.emptyList();
         try {
             if (useZkBytes) {
                 // 直接使用 ZK 节点的数据作为字节码
                 byte[] bytes = data.getData();
                 if (bytes != null && bytes.length > 0) {
                     logger.info("Using ZK node data as class bytes, size: {} bytes", bytes.length);
-                    HotSwapUtils.hotswapClass(bytes);
+                    if (ClassDelta.isDelta(bytes)) {
+                        if (!claim(ClassDelta.parse(bytes).getClassName(), seq)) {
+                            return;
+                        }
+                        bytes = HotSwapUtils.applyDelta(bytes);
+                    }
+                    ClassMetadata metadata = ClassMetadata.parse(bytes);
+                    if (!claim(metadata.getClassName(), seq)) {
+                        return;
+                    }
+                    HotSwapResult result = HotSwapUtils.hotswapClass(bytes, metadata);
+                    swapped = Collections.singletonList(metadata);
                     
-                    // 成功回调
+                    // 按真实结果回调，重定义失败时不会通知成功
                     if (callback != null) {
-                        String className = HotSwapUtils.readClassName(bytes);
-                        callback.onSuccess(className);
+                        new HotSwapCallbackAdapter(callback).onResult(result);
                     }
                 } else {
                     logger.warn("ZK node data is empty");
                 }
             } else {
+                ProviderRound round = prepareRound();
+                if (round.isEmpty()) {
+                    return;
+                }
+                if (config.getFetchExecutor() != null) {
+                    applyProvidersInParallel(round);
+                    return;
+                }
+
                 // 使用自定义 Provider 获取字节码
                 // 支持多个 Provider，依次执行
-                logger.info("Using {} custom provider(s) to get class bytes", customProviders.size());
+                logger.info("Using {} custom provider(s) to get class bytes", round.providers.size());
                 
                 int successCount = 0;
                 int failureCount = 0;
                 
-                for (int i = 0; i < customProviders.size(); i++) {
-                    IHotSwapProvider provider = customProviders.get(i);
+                for (int i = 0; i < round.providers.size(); i++) {
+                    IHotSwapProvider provider = round.providers.get(i);
                     try {
-                        logger.info("Executing provider [{}/{}]", i + 1, customProviders.size());
-                        HotSwapUtils.hotswapClass(provider, callback);
-                        successCount++;
+                        logger.info("Executing provider [{}/{}]", i + 1, round.providers.size());
+                        if (HotSwapUtils.hotswapClass(provider, callback).isSuccess()) {
+                            successCount++;
+                            round.commit(i);
+                        } else {
+                            failureCount++;
+                        }
                     } catch (Exception e) {
                         failureCount++;
-                        logger.error("Failed to execute provider [{}/{}]", i + 1, customProviders.size(), e);
+                        logger.error("Failed to execute provider [{}/{}]", i + 1, round.providers.size(), e);
                         if (callback != null) {
                             callback.onFailure(null, e);
                         }
@@ -162,62 +377,638 @@ public class ZkHotSwapListener implements TreeCacheListener {
             if (callback != null) {
                 callback.onFailure(null, e);
             }
+        } finally {
+            HotSwapEvents.commitZkTrigger(event, data.getPath(), priority.name(), 1, queuedNanos, swapped);
         }
     }
 
     /**
-     * 创建并启动 ZK 监听器
-     * 
+     * 收到字节码包或其中一块，包已完整时把其中的所有类作为一批原子热加载
+     */
+    private void applyBundlePart(ChildData data, ZkHotSwapPriority priority, long received, long seq) {
+        byte[] bytes = data.getData();
+        boolean chunk = ZkPayloadCodec.isChunk(bytes);
+        String bundlePath = chunk ? parentOf(data.getPath()) : data.getPath();
+        List<byte[]> classes;
+        try {
+            classes = chunk ? assembler.onChunk(data.getPath(), bytes) : assembler.onBundle(data.getPath(), bytes);
+        } catch (ZipException e) {
+            logger.error("Dropped corrupt hot swap bundle at [{}]", data.getPath(), e);
+            if (callback != null) {
+                callback.onFailure(null, e);
+            }
+            return;
+        }
+        if (classes == null) {
+            return;
+        }
+
+        CompletedBundle bundle = new CompletedBundle(bundlePath, classes, seq);
+        if (replayedBundles != null) {
+            logger.debug("Hot swap bundle [{}] completed during initial sync, deferred", bundlePath);
+            replayedBundles.add(bundle);
+            return;
+        }
+        applyBundles(Collections.singletonList(bundle), priority, bundlePath, received);
+    }
+
+    /**
+     * 初始同步结束，按包序号合并暂存的包，作为一批热加载
+     */
+    private void applyReplayedBundles() {
+        List<CompletedBundle> bundles = replayedBundles;
+        replayedBundles = null;
+        if (bundles == null || bundles.isEmpty()) {
+            return;
+        }
+        bundles.sort(Comparator.comparingLong(bundle -> bundle.bundleSequence));
+        logger.info("Applying {} hot swap bundle(s) replayed during initial sync in sequence order", bundles.size());
+        applyBundles(bundles, ZkHotSwapPriority.NORMAL, "initial sync", System.nanoTime());
+    }
+
+    /**
+     * 按包序号从小到大合并，每个类取最新的包中的版本，跳过已经被更新的包热加载过的类，作为一批原子热加载
+     */
+    private void applyBundles(List<CompletedBundle> bundles, ZkHotSwapPriority priority, String source, long received) {
+        ZkHotSwapTriggerEvent event = HotSwapEvents.beginZkTrigger();
+        long queuedNanos = System.nanoTime() - received;
+        Map<String, ByteArrayHotSwapProvider> latest = new LinkedHashMap<>();
+        Map<String, CompletedBundle> origins = new HashMap<>();
+        List<ClassMetadata> swapped = new ArrayList<>();
+        try {
+            for (CompletedBundle bundle : bundles) {
+                for (byte[] classBytes : bundle.classes) {
+                    ClassMetadata metadata = ClassMetadata.parse(classBytes);
+                    String className = metadata.getClassName();
+                    Long applied = bundleSequences.get(bundle.parentPath + "/" + className);
+                    if (bundle.bundleSequence >= 0 && applied != null && applied >= bundle.bundleSequence) {
+                        logger.info("Dropped class:[{}] of stale hot swap bundle [{}], a newer bundle was already applied",
+                                className, bundle.path);
+                        continue;
+                    }
+                    latest.remove(className);
+                    latest.put(className, new ByteArrayHotSwapProvider(classBytes, metadata));
+                    origins.put(className, bundle);
+                }
+            }
+
+            List<IHotSwapProvider> providers = new ArrayList<>(latest.size());
+            for (ByteArrayHotSwapProvider provider : latest.values()) {
+                String className = provider.getMetadata().getClassName();
+                CompletedBundle bundle = origins.get(className);
+                if (claim(className, bundle.arrivalSequence)) {
+                    if (bundle.bundleSequence >= 0) {
+                        bundleSequences.put(bundle.parentPath + "/" + className, bundle.bundleSequence);
+                    }
+                    swapped.add(provider.getMetadata());
+                    providers.add(provider);
+                }
+            }
+            if (providers.isEmpty()) {
+                return;
+            }
+            logger.info("Applying hot swap bundle [{}] with {} class(es)", source, providers.size());
+            HotSwapUtils.hotswapClassesAtomically(callback, providers.toArray(new IHotSwapProvider[0]));
+        } catch (Exception e) {
+            logger.error("Failed to apply hot swap bundle at [{}]", source, e);
+            if (callback != null) {
+                callback.onFailure(null, e);
+            }
+        } finally {
+            HotSwapEvents.commitZkTrigger(event, source, priority.name(), swapped.size(), queuedNanos, swapped);
+        }
+    }
+
+    private static String parentOf(String path) {
+        return path.substring(0, Math.max(0, path.lastIndexOf('/')));
+    }
+
+    /**
+     * @return 是否为完整字节码节点下的增量子节点
+     */
+    private static boolean isDeltaChild(String path) {
+        return path.startsWith(ZkManifest.DELTA_NODE_PREFIX, path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * 把节点更新放入合并队列，等待合并窗口结束后批量热加载
+     */
+    private void submitToCoalescer(ChildData data, long seq) {
+        if (!useZkBytes) {
+            // Provider 模式下节点数据不参与热加载，窗口内的所有事件只触发一次 Provider 执行
+            submitCoalesced(data.getPath(), PROVIDER_UPDATE_KEY, null);
+            return;
+        }
+
+        byte[] bytes = data.getData();
+        if (bytes == null || bytes.length == 0) {
+            logger.warn("ZK node data is empty");
+            return;
+        }
+
+        ClassMetadata metadata;
+        try {
+            metadata = ClassMetadata.parse(bytes);
+        } catch (Exception e) {
+            logger.error("Failed to handle ZK node update: {}", data.getPath(), e);
+            if (callback != null) {
+                callback.onFailure(null, e);
+            }
+            return;
+        }
+        submitCoalesced(data.getPath(), metadata.getClassName(),
+                new SequencedUpdate(new ByteArrayHotSwapProvider(bytes, metadata), seq));
+    }
+
+    /**
+     * 提交到合并队列，监听器关闭后合并队列拒绝更新，与热加载执行器拒绝一样通过回调通知
+     */
+    private void submitCoalesced(String source, String key, SequencedUpdate update) {
+        try {
+            coalescer.submit(key, update);
+        } catch (IllegalStateException e) {
+            logger.error("Hot swap of [{}] rejected", source, e);
+            if (callback != null) {
+                callback.onFailure(null, e);
+            }
+        }
+    }
+
+    /**
+     * 合并窗口结束，把剩下的更新作为一批原子热加载
+     *
+     * @param received 合并窗口结束的时间，排队时间不包含合并窗口本身
+     */
+    private void applyCoalesced(List<SequencedUpdate> updates, long received) {
+        ZkHotSwapTriggerEvent event = HotSwapEvents.beginZkTrigger();
+        long queuedNanos = System.nanoTime() - received;
+        List<ClassMetadata> swapped = new ArrayList<>(updates.size());
+        try {
+            if (!useZkBytes) {
+                ProviderRound round = prepareRound();
+                if (round.isEmpty()) {
+                    return;
+                }
+                logger.info("Using {} custom provider(s) to get class bytes for {} coalesced ZK event(s)",
+                        round.providers.size(), updates.size());
+                if (config.getFetchExecutor() != null) {
+                    applyProvidersInParallel(round);
+                } else if (HotSwapUtils.hotswapClassesAtomically(callback,
+                        round.providers.toArray(new IHotSwapProvider[0]))) {
+                    round.commitAll();
+                }
+                return;
+            }
+
+            List<IHotSwapProvider> providers = new ArrayList<>(updates.size());
+            for (SequencedUpdate update : updates) {
+                if (claim(update.provider.getMetadata().getClassName(), update.sequence)) {
+                    swapped.add(update.provider.getMetadata());
+                    providers.add(update.provider);
+                }
+            }
+            if (!providers.isEmpty()) {
+                HotSwapUtils.hotswapClassesAtomically(callback, providers.toArray(new IHotSwapProvider[0]));
+            }
+        } finally {
+            HotSwapEvents.commitZkTrigger(event, COALESCED_SOURCE, ZkHotSwapPriority.NORMAL.name(), updates.size(),
+                    queuedNanos, swapped);
+        }
+    }
+
+    /**
+     * 并行获取所有 Provider 的字节码，再作为一批原子热加载
+     */
+    private void applyProvidersInParallel(ProviderRound round) {
+        logger.info("Fetching class bytes from {} custom provider(s) in parallel", round.providers.size());
+        List<HotSwapResult> results = HotSwapUtils.hotswapAsync(config.getFetchExecutor(),
+                round.providers.toArray(new IHotSwapProvider[0])).join();
+
+        int successCount = 0;
+        HotSwapCallbackAdapter adapter = callback == null ? null : new HotSwapCallbackAdapter(callback);
+        for (HotSwapResult result : results) {
+            if (result.isSuccess()) {
+                successCount++;
+            }
+            if (adapter != null) {
+                adapter.onResult(result);
+            }
+        }
+        logger.info("Provider execution completed: {} success, {} failure", successCount, results.size() - successCount);
+        if (!results.isEmpty() && successCount == results.size()) {
+            round.commitAll();
+        }
+    }
+
+    /**
+     * 对条件 Provider 做条件获取（设置了获取执行器时并行），排除来源未变化的 Provider
+     */
+    private ProviderRound prepareRound() {
+        Executor executor = config.getFetchExecutor() != null ? config.getFetchExecutor() : Runnable::run;
+        List<CompletableFuture<ConditionalFetch>> fetches = new ArrayList<>(customProviders.size());
+        for (int i = 0; i < customProviders.size(); i++) {
+            IHotSwapProvider provider = customProviders.get(i);
+            if (provider instanceof IConditionalHotSwapProvider) {
+                String lastToken = providerTokens.get(i);
+                Supplier<ConditionalFetch> fetch =
+                        () -> ((IConditionalHotSwapProvider) provider).getClassBytesIfChanged(lastToken);
+                fetches.add(CompletableFuture.supplyAsync(fetch, executor));
+            } else {
+                fetches.add(null);
+            }
+        }
+
+        ProviderRound round = new ProviderRound();
+        int unchanged = 0;
+        for (int i = 0; i < customProviders.size(); i++) {
+            CompletableFuture<ConditionalFetch> fetch = fetches.get(i);
+            if (fetch == null) {
+                round.add(customProviders.get(i), i, null);
+                continue;
+            }
+            try {
+                ConditionalFetch result = fetch.join();
+                if (!result.isChanged()) {
+                    unchanged++;
+                    continue;
+                }
+                round.add(new ByteArrayHotSwapProvider(result.getBytes()), i, result.getToken());
+            } catch (CompletionException e) {
+                // 交给热加载流程，按一个获取失败的类通知回调
+                RuntimeException cause = e.getCause() instanceof RuntimeException
+                        ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+                round.add(() -> {
+                    throw cause;
+                }, i, null);
+            }
+        }
+
+        if (unchanged > 0) {
+            logger.info("{} of {} custom provider source(s) unchanged since the last hot swap, skip them",
+                    unchanged, customProviders.size());
+        }
+        return round;
+    }
+
+    /**
+     * 停止监听器，合并窗口内尚未应用的更新会立即热加载，并等待已提交的热加载执行完
+     */
+    @Override
+    public void close() {
+        if (coalescer != null) {
+            coalescer.close();
+        }
+        applyExecutor.shutdown(config.getShutdownTimeoutMillis());
+    }
+
+    /**
+     * @return 等待热加载的任务数量
+     */
+    public int getPendingApplyCount() {
+        return applyExecutor.getQueueSize();
+    }
+
+    /**
+     * @return 因队列已满或已关闭被拒绝的热加载数量
+     */
+    public long getRejectedApplyCount() {
+        return applyExecutor.getRejectedCount();
+    }
+
+    /**
+     * @return 已执行完的热加载任务数量
+     */
+    public long getCompletedApplyCount() {
+        return applyExecutor.getCompletedCount();
+    }
+
+    /**
+     * @return 收到的节点更新数量（仅在开启合并窗口时统计）
+     */
+    public long getReceivedUpdateCount() {
+        return coalescer == null ? 0 : coalescer.getReceivedCount();
+    }
+
+    /**
+     * @return 在合并窗口内被后续更新覆盖、没有实际热加载的更新数量
+     */
+    public long getMergedUpdateCount() {
+        return coalescer == null ? 0 : coalescer.getMergedCount();
+    }
+
+    /**
+     * @return 合并后实际热加载的批次数量
+     */
+    public long getAppliedBatchCount() {
+        return coalescer == null ? 0 : coalescer.getFlushedCount();
+    }
+
+    public ZkHotSwapConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * 使用已创建好的监听器启动 ZK 监听
+     *
+     * @param client   Curator 客户端
+     * @param path     监听的 ZK 路径
+     * @param listener 热加载监听器
+     * @return 监听句柄，关闭时停止监听并移除 JVM 关闭钩子
+     */
+    public static ZkHotSwapHandle<TreeCache, ZkHotSwapListener> startWatching(CuratorFramework client, String path,
+                                                                              ZkHotSwapListener listener) throws Exception {
+        ZkHotSwapHandle<TreeCache, ZkHotSwapListener> handle = startTreeCache(client, path, listener);
+        logger.info("ZkHotSwapListener started with debounce window {}ms, watching path: {}",
+                listener.getConfig().getDebounceMillis(), path);
+        return handle;
+    }
+
+    /**
+     * 创建 ZK 监听器并启动监听
+     *
      * @param client   Curator 客户端
      * @param path     监听的 ZK 路径
      * @param callback 热加载回调
-     * @return TreeCache 实例
+     * @return 监听句柄，关闭时停止监听并移除 JVM 关闭钩子
      */
-    public static TreeCache createAndStart(CuratorFramework client, String path, IHotSwapCallback callback) throws Exception {
+    public static ZkHotSwapHandle<TreeCache, ZkHotSwapListener> startWatching(CuratorFramework client, String path,
+                                                                              IHotSwapCallback callback) throws Exception {
         ZkHotSwapListener listener = new ZkHotSwapListener(callback);
-        TreeCache cache = new TreeCache(client, path);
-        cache.getListenable().addListener(listener);
-        cache.start();
+        ZkHotSwapHandle<TreeCache, ZkHotSwapListener> handle = startTreeCache(client, path, listener);
         logger.info("ZkHotSwapListener started, watching path: {}", path);
-        return cache;
+        return handle;
     }
 
     /**
-     * 创建并启动 ZK 监听器（使用单个自定义 Provider）
-     * 
+     * 创建 ZK 监听器并启动监听（使用单个自定义 Provider）
+     *
      * @param client         Curator 客户端
      * @param path           监听的 ZK 路径
      * @param customProvider 自定义字节码提供者
      * @param callback       热加载回调
-     * @return TreeCache 实例
+     * @return 监听句柄，关闭时停止监听并移除 JVM 关闭钩子
      */
-    public static TreeCache createAndStart(CuratorFramework client, String path, 
-                                          IHotSwapProvider customProvider, IHotSwapCallback callback) throws Exception {
+    public static ZkHotSwapHandle<TreeCache, ZkHotSwapListener> startWatching(CuratorFramework client, String path,
+                                                                              IHotSwapProvider customProvider,
+                                                                              IHotSwapCallback callback) throws Exception {
         ZkHotSwapListener listener = new ZkHotSwapListener(customProvider, callback);
-        TreeCache cache = new TreeCache(client, path);
-        cache.getListenable().addListener(listener);
-        cache.start();
+        ZkHotSwapHandle<TreeCache, ZkHotSwapListener> handle = startTreeCache(client, path, listener);
         logger.info("ZkHotSwapListener started with custom provider, watching path: {}", path);
-        return cache;
+        return handle;
     }
 
     /**
-     * 创建并启动 ZK 监听器（使用多个自定义 Provider）
-     * 
+     * 创建 ZK 监听器并启动监听（使用多个自定义 Provider）
+     *
      * @param client          Curator 客户端
      * @param path            监听的 ZK 路径
      * @param customProviders 自定义字节码提供者列表
      * @param callback        热加载回调
-     * @return TreeCache 实例
+     * @return 监听句柄，关闭时停止监听并移除 JVM 关闭钩子
      */
-    public static TreeCache createAndStart(CuratorFramework client, String path, 
-                                          List<IHotSwapProvider> customProviders, IHotSwapCallback callback) throws Exception {
+    public static ZkHotSwapHandle<TreeCache, ZkHotSwapListener> startWatching(CuratorFramework client, String path,
+                                                                              List<IHotSwapProvider> customProviders,
+                                                                              IHotSwapCallback callback) throws Exception {
         ZkHotSwapListener listener = new ZkHotSwapListener(customProviders, callback);
+        ZkHotSwapHandle<TreeCache, ZkHotSwapListener> handle = startTreeCache(client, path, listener);
+        logger.info("ZkHotSwapListener started with {} custom provider(s), watching path: {}", customProviders.size(), path);
+        return handle;
+    }
+
+    /**
+     * 以不缓存节点数据的方式启动 ZK 监听
+     * <p>
+     * 基于 CuratorCache（ZooKeeper 持久递归 watch，服务端需要 3.6 及以上版本），缓存中只保留节点路径和 Stat：
+     * 节点数据只在节点新增或变化时读取一次，随事件交给监听器，热加载完成后不再被引用。
+     * 重连后按节点的修改版本（mzxid）比对，没有变化的节点不会再次触发热加载
+     *
+     * @param client   Curator 客户端
+     * @param path     监听的 ZK 路径
+     * @param listener 热加载监听器
+     * @return 监听句柄，关闭时停止监听并移除 JVM 关闭钩子
+     */
+    public static ZkHotSwapHandle<CuratorCache, ZkHotSwapListener> startWatchingLean(CuratorFramework client,
+                                                                                     String path,
+                                                                                     ZkHotSwapListener listener) {
+        CuratorCache cache = CuratorCache.builder(client, path)
+                .withStorage(CuratorCacheStorage.dataNotCached())
+                .withExceptionHandler(e -> logger.error("ZK watch error, path: {}", path, e))
+                .build();
+        cache.listenable().addListener(CuratorCacheListener.builder().forTreeCache(client, listener).build());
+        cache.start();
+        ZkHotSwapHandle<CuratorCache, ZkHotSwapListener> handle = new ZkHotSwapHandle<>(path, cache, listener,
+                SHUTDOWN_HOOK_NAME);
+        logger.info("ZkHotSwapListener started without node data cache, watching path: {}", path);
+        return handle;
+    }
+
+    /**
+     * 以不缓存节点数据的方式启动 ZK 监听，使用 ZK 节点数据作为字节码
+     *
+     * @param client   Curator 客户端
+     * @param path     监听的 ZK 路径
+     * @param callback 热加载回调
+     * @return 监听句柄，关闭时停止监听并移除 JVM 关闭钩子
+     * @see #startWatchingLean(CuratorFramework, String, ZkHotSwapListener)
+     */
+    public static ZkHotSwapHandle<CuratorCache, ZkHotSwapListener> startWatchingLean(CuratorFramework client,
+                                                                                     String path,
+                                                                                     IHotSwapCallback callback) {
+        return startWatchingLean(client, path, new ZkHotSwapListener(callback));
+    }
+
+    /**
+     * 使用已创建好的监听器创建并启动 ZK 监听
+     *
+     * @param client   Curator 客户端
+     * @param path     监听的 ZK 路径
+     * @param listener 热加载监听器
+     * @return 已启动的 TreeCache，JVM 关闭钩子在退出前一直持有它和监听器
+     * @deprecated 无法移除关闭钩子，使用返回句柄的 {@link #startWatching(CuratorFramework, String, ZkHotSwapListener)}
+     */
+    @Deprecated
+    public static TreeCache createAndStart(CuratorFramework client, String path, ZkHotSwapListener listener) throws Exception {
+        return startWatching(client, path, listener).getCache();
+    }
+
+    /**
+     * 创建并启动 ZK 监听器
+     *
+     * @param client   Curator 客户端
+     * @param path     监听的 ZK 路径
+     * @param callback 热加载回调
+     * @return 已启动的 TreeCache，JVM 关闭钩子在退出前一直持有它和监听器
+     * @deprecated 无法移除关闭钩子，也无法关闭监听器，使用返回句柄的
+     * {@link #startWatching(CuratorFramework, String, IHotSwapCallback)}
+     */
+    @Deprecated
+    public static TreeCache createAndStart(CuratorFramework client, String path, IHotSwapCallback callback) throws Exception {
+        return startWatching(client, path, callback).getCache();
+    }
+
+    /**
+     * 创建并启动 ZK 监听器（使用单个自定义 Provider）
+     *
+     * @param client         Curator 客户端
+     * @param path           监听的 ZK 路径
+     * @param customProvider 自定义字节码提供者
+     * @param callback       热加载回调
+     * @return 已启动的 TreeCache，JVM 关闭钩子在退出前一直持有它和监听器
+     * @deprecated 无法移除关闭钩子，也无法关闭监听器，使用返回句柄的
+     * {@link #startWatching(CuratorFramework, String, IHotSwapProvider, IHotSwapCallback)}
+     */
+    @Deprecated
+    public static TreeCache createAndStart(CuratorFramework client, String path,
+                                           IHotSwapProvider customProvider, IHotSwapCallback callback) throws Exception {
+        return startWatching(client, path, customProvider, callback).getCache();
+    }
+
+    /**
+     * 创建并启动 ZK 监听器（使用多个自定义 Provider）
+     *
+     * @param client          Curator 客户端
+     * @param path            监听的 ZK 路径
+     * @param customProviders 自定义字节码提供者列表
+     * @param callback        热加载回调
+     * @return 已启动的 TreeCache，JVM 关闭钩子在退出前一直持有它和监听器
+     * @deprecated 无法移除关闭钩子，也无法关闭监听器，使用返回句柄的
+     * {@link #startWatching(CuratorFramework, String, List, IHotSwapCallback)}
+     */
+    @Deprecated
+    public static TreeCache createAndStart(CuratorFramework client, String path,
+                                           List<IHotSwapProvider> customProviders,
+                                           IHotSwapCallback callback) throws Exception {
+        return startWatching(client, path, customProviders, callback).getCache();
+    }
+
+    /**
+     * 以不缓存节点数据的方式创建并启动 ZK 监听
+     *
+     * @return 已启动的 CuratorCache，JVM 关闭钩子在退出前一直持有它和监听器
+     * @deprecated 无法移除关闭钩子，使用返回句柄的 {@link #startWatchingLean(CuratorFramework, String, ZkHotSwapListener)}
+     */
+    @Deprecated
+    public static CuratorCache createAndStartLean(CuratorFramework client, String path, ZkHotSwapListener listener) {
+        return startWatchingLean(client, path, listener).getCache();
+    }
+
+    /**
+     * 以不缓存节点数据的方式创建并启动 ZK 监听器，使用 ZK 节点数据作为字节码
+     *
+     * @return 已启动的 CuratorCache，JVM 关闭钩子在退出前一直持有它和监听器
+     * @deprecated 无法移除关闭钩子，也无法关闭监听器，使用返回句柄的
+     * {@link #startWatchingLean(CuratorFramework, String, IHotSwapCallback)}
+     */
+    @Deprecated
+    public static CuratorCache createAndStartLean(CuratorFramework client, String path, IHotSwapCallback callback) {
+        return startWatchingLean(client, path, callback).getCache();
+    }
+
+    /**
+     * 创建并启动 TreeCache，返回的句柄注册了 JVM 关闭钩子：先停止监听，再等待已提交的热加载执行完
+     */
+    private static ZkHotSwapHandle<TreeCache, ZkHotSwapListener> startTreeCache(CuratorFramework client, String path,
+                                                                               ZkHotSwapListener listener) throws Exception {
         TreeCache cache = new TreeCache(client, path);
         cache.getListenable().addListener(listener);
         cache.start();
-        logger.info("ZkHotSwapListener started with {} custom provider(s), watching path: {}", customProviders.size(), path);
-        return cache;
+        return new ZkHotSwapHandle<>(path, cache, listener, SHUTDOWN_HOOK_NAME);
     }
-}
 
+    /**
+     * 一个已经组装完成并校验通过的字节码包
+     */
+    private static final class CompletedBundle {
+
+        private final String path;
+
+        private final String parentPath;
+
+        /**
+         * 顺序节点的序号，节点名称不是顺序节点格式时为 -1，不参与包之间的排序
+         */
+        private final long bundleSequence;
+
+        private final long arrivalSequence;
+
+        private final List<byte[]> classes;
+
+        private CompletedBundle(String path, List<byte[]> classes, long arrivalSequence) {
+            this.path = path;
+            this.parentPath = parentOf(path);
+            this.bundleSequence = sequenceOf(path);
+            this.arrivalSequence = arrivalSequence;
+            this.classes = classes;
+        }
+
+        /**
+         * 解析顺序节点名称末尾的序号，例如 {@code bundle-0000000012}
+         */
+        private static long sequenceOf(String path) {
+            int dash = path.lastIndexOf('-');
+            if (dash < 0 || dash < path.lastIndexOf('/') || dash == path.length() - 1) {
+                return -1;
+            }
+            try {
+                return Long.parseLong(path.substring(dash + 1));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * 合并窗口中的一个节点更新及其到达序号
+     */
+    private static final class SequencedUpdate {
+
+        private final ByteArrayHotSwapProvider provider;
+
+        private final long sequence;
+
+        private SequencedUpdate(ByteArrayHotSwapProvider provider, long sequence) {
+            this.provider = provider;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * 一次触发中需要执行的 Provider，条件 Provider 已经替换为读取到的字节码
+     */
+    private final class ProviderRound {
+
+        private final List<IHotSwapProvider> providers = new ArrayList<>();
+
+        /**
+         * 每个 Provider 在 customProviders 中的位置
+         */
+        private final List<Integer> indexes = new ArrayList<>();
+
+        /**
+         * 热加载成功后要保存的版本标识，不是条件 Provider 时为null
+         */
+        private final List<String> tokens = new ArrayList<>();
+
+        private void add(IHotSwapProvider provider, int index, String token) {
+            providers.add(provider);
+            indexes.add(index);
+            tokens.add(token);
+        }
+
+        private boolean isEmpty() {
+            return providers.isEmpty();
+        }
+
+        private void commit(int i) {
+            if (tokens.get(i) != null) {
+                providerTokens.set(indexes.get(i), tokens.get(i));
+            }
+        }
+
+        private void commitAll() {
+            for (int i = 0; i < providers.size(); i++) {
+                commit(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.zxch.hotswap.zk;
+
+/**
+ * ZK 热加载任务优先级
+ *
+ * @author zhangxun
+ */
+public enum ZkHotSwapPriority {
+
+    /**
+     * 紧急修复，优先于所有普通任务执行，并且不经过合并窗口
+     */
+    URGENT,
+
+    /**
+     * 普通任务（批量发布等）
+     */
+    NORMAL
+}
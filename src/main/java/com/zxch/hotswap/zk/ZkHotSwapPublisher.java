@@ -0,0 +1,184 @@
+package com.zxch.hotswap.zk;
+
+import com.zxch.hotswap.util.ClassDelta;
+import com.zxch.hotswap.util.ClassMetadata;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.CreateMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 向 {@link ZkHotSwapListener} 监听的路径下发多类字节码包，格式见 {@link ZkPayloadCodec}
+ * <p>
+ * 在监听路径下创建一个顺序包节点，需要分块时再在包节点下依次创建分块节点。
+ * ZooKeeper 的 multi 请求同样受单个请求大小的限制，所以分块不在一个事务中创建：
+ * 监听器会等包节点和全部分块都到齐、校验通过后才热加载，中途失败的包不会生效。
+ * 监听器启动时会按包序号重放路径下的所有包，同一个类以序号最大的包为准，
+ * 删除已经生效的包节点只影响之后启动的监听器。
+ * <p>
+ * 也可以按清单下发，见 {@link #publishManifest(CuratorFramework, String, String, List)}，
+ * 或者每个类一个节点下发，见 {@link #publishClass(CuratorFramework, String, byte[])}
+ * <p>
+ * 只有清单方式下发增量节点：{@link ZkManifestListener} 只监听清单节点，按需读取类节点，停留在上一个版本的监听端
+ * 只读取增量，可以节省流量；{@link ZkHotSwapListener} 的缓存在节点变化时总会读取节点的完整数据，
+ * 增量节省不了流量，所以每个类一个节点下发时不写入增量
+ *
+ * @author zhangxun
+ */
+public abstract class ZkHotSwapPublisher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZkHotSwapPublisher.class);
+
+    private static final String BUNDLE_PREFIX = "/bundle-";
+
+    private static final String CHUNK_PREFIX = "/chunk-";
+
+    /**
+     * 压缩并下发一批类，使用默认的单个节点最大数据量
+     *
+     * @see #publish(CuratorFramework, String, List, boolean, int)
+     */
+    public static String publish(CuratorFramework client, String path, List<byte[]> classes) throws Exception {
+        return publish(client, path, classes, true, ZkPayloadCodec.DEFAULT_MAX_NODE_BYTES);
+    }
+
+    /**
+     * 下发一批类，监听器收到后作为一批原子热加载
+     *
+     * @param client       Curator 客户端
+     * @param path         监听器监听的 ZK 路径
+     * @param classes      class 文件字节码
+     * @param compress     是否压缩
+     * @param maxNodeBytes 单个节点最大数据量，不能超过服务端的 jute.maxbuffer
+     * @return 包节点路径
+     */
+    public static String publish(CuratorFramework client, String path, List<byte[]> classes, boolean compress,
+                                 int maxNodeBytes) throws Exception {
+        ZkPayloadCodec.Encoded encoded = ZkPayloadCodec.encode(classes, compress, maxNodeBytes);
+        String bundlePath = client.create().creatingParentsIfNeeded().withMode(CreateMode.PERSISTENT_SEQUENTIAL)
+                .forPath(path + BUNDLE_PREFIX, encoded.getBundle());
+
+        List<byte[]> chunks = encoded.getChunks();
+        for (int i = 0; i < chunks.size(); i++) {
+            client.create().forPath(bundlePath + CHUNK_PREFIX + String.format(Locale.ROOT, "%05d", i), chunks.get(i));
+        }
+
+        logger.info("Published {} class(es) to [{}], {} bytes encoded in {} chunk(s)", encoded.getClassCount(),
+                bundlePath, encoded.getEncodedLength(), Math.max(1, chunks.size()));
+        return bundlePath;
+    }
+
+    /**
+     * 按清单下发一批类，见 {@link ZkManifestListener}
+     * <p>
+     * 先把每个类写入 {@code classesPath/类名} 节点（内容未变化的节点不重写），最后写入清单节点，
+     * 监听端只读取版本变化的类。类节点被更新时，在其下写入相对上一个版本的增量节点，
+     * 停留在上一个版本的监听端只需要读取增量
+     *
+     * @param client       Curator 客户端
+     * @param manifestPath 清单节点路径
+     * @param classesPath  存放字节码节点的父路径
+     * @param classes      清单中的全部类，未列出的类会从清单中移除（已经生效的版本不会回退）
+     * @return 写入的清单
+     */
+    public static ZkManifest publishManifest(CuratorFramework client, String manifestPath, String classesPath,
+                                             List<byte[]> classes) throws Exception {
+        List<ZkManifest.Entry> entries = new ArrayList<>(classes.size());
+        int written = 0;
+        for (byte[] bytes : classes) {
+            ClassMetadata metadata = ClassMetadata.parse(bytes);
+            String location = classesPath + "/" + metadata.getClassName();
+            ZkManifest.Entry entry = new ZkManifest.Entry(metadata.getClassName(), metadata.getFingerprint(),
+                    metadata.getLength(), location);
+            entries.add(entry);
+            if (writeClass(client, entry, bytes, true)) {
+                written++;
+            }
+        }
+
+        ZkManifest manifest = ZkManifest.of(entries);
+        if (client.checkExists().forPath(manifestPath) == null) {
+            client.create().creatingParentsIfNeeded().forPath(manifestPath, manifest.toBytes());
+        } else {
+            client.setData().forPath(manifestPath, manifest.toBytes());
+        }
+        logger.info("Published manifest [{}] with {} class(es), {} class node(s) written", manifestPath,
+                entries.size(), written);
+        return manifest;
+    }
+
+    /**
+     * 下发单个类到 {@link ZkHotSwapListener} 监听路径下的一个节点
+     * <p>
+     * 节点中始终是完整的 class 文件，监听端收到节点更新时直接热加载其中的字节码，不写入增量子节点
+     *
+     * @param client    Curator 客户端
+     * @param classPath 类节点路径，位于监听路径下
+     * @param bytes     class 文件字节码
+     * @return 节点内容是否有变化
+     */
+    public static boolean publishClass(CuratorFramework client, String classPath, byte[] bytes) throws Exception {
+        ZkManifest.Entry entry = ZkManifest.Entry.of(bytes, classPath);
+        boolean written = writeClass(client, entry, bytes, false);
+        logger.info("Published class:[{}] to [{}], {}", entry.getClassName(), classPath,
+                written ? "node written" : "unchanged");
+        return written;
+    }
+
+    /**
+     * 写入类节点，内容未变化时不重写
+     *
+     * @param withDelta 更新时是否同时写入增量子节点
+     * @return 节点内容是否有变化
+     */
+    private static boolean writeClass(CuratorFramework client, ZkManifest.Entry entry, byte[] bytes, boolean withDelta)
+            throws Exception {
+        String location = entry.getLocation();
+        if (client.checkExists().forPath(location) == null) {
+            client.create().creatingParentsIfNeeded().forPath(location, bytes);
+            return true;
+        }
+        byte[] previous = client.getData().forPath(location);
+        if (Arrays.equals(previous, bytes)) {
+            return false;
+        }
+        client.setData().forPath(location, bytes);
+        if (withDelta) {
+            publishDelta(client, entry, previous, bytes);
+        }
+        return true;
+    }
+
+    /**
+     * 替换类节点下的增量节点，只保留相对上一个版本的增量，增量不比完整字节码小时不写入
+     */
+    private static void publishDelta(CuratorFramework client, ZkManifest.Entry entry, byte[] previous, byte[] bytes)
+            throws Exception {
+        String location = entry.getLocation();
+        for (String child : client.getChildren().forPath(location)) {
+            if (child.startsWith(ZkManifest.DELTA_NODE_PREFIX)) {
+                client.delete().forPath(location + "/" + child);
+            }
+        }
+
+        ClassMetadata base;
+        try {
+            base = ClassMetadata.parse(previous);
+        } catch (RuntimeException e) {
+            logger.warn("Previous content of [{}] is not a class file, no delta written", location);
+            return;
+        }
+        byte[] delta = ClassDelta.diff(previous, bytes);
+        if (delta.length >= bytes.length) {
+            return;
+        }
+        client.create().forPath(entry.getDeltaLocation(base.getFingerprint()), delta);
+        logger.debug("Published delta of class:[{}], {} bytes instead of {} bytes", entry.getClassName(),
+                delta.length, bytes.length);
+    }
+}
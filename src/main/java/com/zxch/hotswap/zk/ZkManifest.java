@@ -0,0 +1,199 @@
+package com.zxch.hotswap.zk;
+
+import com.zxch.hotswap.util.ClassMetadata;
+import com.zxch.hotswap.util.Fingerprints;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 热加载清单
+ * <p>
+ * 一个很小的清单节点列出所有需要热加载的类及其版本，类的字节码放在别处（ZK 节点或自定义位置），
+ * 监听端只在清单中的版本与本地已应用的版本不同时才去读取字节码，见 {@link ZkManifestListener}。
+ * <p>
+ * 清单为 UTF-8 文本，每行一个类，空行和 {@code #} 开头的行被忽略：
+ * <pre>
+ * # 类名 指纹 长度 位置
+ * com.example.MyClass 3f2a9c0e11d4b7a8 1532 /hotswap/classes/com.example.MyClass
+ * </pre>
+ * 指纹为字节码的 {@link Fingerprints#hash64(byte[])}（16 位十六进制），读取到的字节码会按指纹和长度校验。
+ * 位置以 {@code /} 开头时为 ZK 节点路径，否则交给监听端配置的位置解析器，
+ * 所以本地文件需要写成带前缀的形式（例如 {@code file:/data/classes/MyClass.class}）或 URL。
+ * <p>
+ * ZK 位置的节点下可以有一个增量子节点 {@code delta-<基础版本指纹>}（见 {@link com.zxch.hotswap.util.ClassDelta}），
+ * 监听端最后一次应用的正是该基础版本时只读取增量，否则读取完整的字节码
+ *
+ * @author zhangxun
+ */
+public final class ZkManifest {
+
+    /**
+     * 增量子节点名称前缀，后面是基础版本的指纹
+     */
+    public static final String DELTA_NODE_PREFIX = "delta-";
+
+    private final List<Entry> entries;
+
+    private ZkManifest(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @param entries 清单条目，类名不能重复
+     */
+    public static ZkManifest of(List<Entry> entries) {
+        if (entries == null) {
+            throw new IllegalArgumentException("entries cannot be null");
+        }
+        Set<String> classNames = new HashSet<>();
+        for (Entry entry : entries) {
+            if (!classNames.add(entry.className)) {
+                throw new IllegalArgumentException("Duplicate class in manifest: " + entry.className);
+            }
+        }
+        return new ZkManifest(new ArrayList<>(entries));
+    }
+
+    /**
+     * 解析清单节点数据
+     *
+     * @throws IllegalArgumentException 格式错误
+     */
+    public static ZkManifest parse(byte[] data) {
+        List<Entry> entries = new ArrayList<>();
+        if (data == null) {
+            return of(entries);
+        }
+
+        String[] lines = new String(data, StandardCharsets.UTF_8).split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length != 4) {
+                throw new IllegalArgumentException("Malformed manifest line " + (i + 1) + ": " + line);
+            }
+            try {
+                entries.add(new Entry(fields[0], Long.parseUnsignedLong(fields[1], 16), Integer.parseInt(fields[2]),
+                        fields[3]));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed manifest line " + (i + 1) + ": " + line, e);
+            }
+        }
+        return of(entries);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return 清单节点数据
+     */
+    public byte[] toBytes() {
+        StringBuilder builder = new StringBuilder("# className fingerprint length location\n");
+        for (Entry entry : entries) {
+            builder.append(entry.className).append(' ').append(Fingerprints.toHex(entry.fingerprint)).append(' ')
+                    .append(entry.length).append(' ').append(entry.location).append('\n');
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 清单中的一个类
+     */
+    public static final class Entry {
+
+        private final String className;
+
+        private final long fingerprint;
+
+        private final int length;
+
+        private final String location;
+
+        /**
+         * @param className   类名（com.example.MyClass 格式）
+         * @param fingerprint 字节码指纹，见 {@link Fingerprints#hash64(byte[])}
+         * @param length      字节码长度
+         * @param location    字节码位置，{@code /} 开头为 ZK 节点路径
+         */
+        public Entry(String className, long fingerprint, int length, String location) {
+            if (className == null || className.isEmpty() || className.indexOf(' ') >= 0) {
+                throw new IllegalArgumentException("Invalid class name: " + className);
+            }
+            if (length <= 0) {
+                throw new IllegalArgumentException("length must be positive");
+            }
+            if (location == null || location.isEmpty() || location.chars().anyMatch(Character::isWhitespace)) {
+                throw new IllegalArgumentException("Invalid location: " + location);
+            }
+            this.className = className;
+            this.fingerprint = fingerprint;
+            this.length = length;
+            this.location = location;
+        }
+
+        /**
+         * 根据字节码创建条目
+         *
+         * @param classBytes class 文件字节码
+         * @param location   字节码位置
+         */
+        public static Entry of(byte[] classBytes, String location) {
+            ClassMetadata metadata = ClassMetadata.parse(classBytes);
+            return new Entry(metadata.getClassName(), metadata.getFingerprint(), metadata.getLength(), location);
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public long getFingerprint() {
+            return fingerprint;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        /**
+         * @return 位置是否为 ZK 节点路径
+         */
+        public boolean isZkLocation() {
+            return location.startsWith("/");
+        }
+
+        /**
+         * @param baseFingerprint 基础版本的指纹
+         * @return 相对该基础版本的增量节点路径，只适用于 ZK 位置
+         */
+        public String getDeltaLocation(long baseFingerprint) {
+            return location + "/" + DELTA_NODE_PREFIX + Fingerprints.toHex(baseFingerprint);
+        }
+
+        /**
+         * @return 字节码元数据是否与清单一致
+         */
+        public boolean matches(ClassMetadata metadata) {
+            return className.equals(metadata.getClassName()) && fingerprint == metadata.getFingerprint()
+                    && length == metadata.getLength();
+        }
+
+        @Override
+        public String toString() {
+            return className + "@" + Fingerprints.toHex(fingerprint) + "(" + length + " bytes) <- " + location;
+        }
+    }
+}
@@ -0,0 +1,547 @@
+package com.zxch.hotswap.zk;
+
+import com.zxch.hotswap.HotSwapPayload;
+import com.zxch.hotswap.IHotSwapBatchProvider;
+import com.zxch.hotswap.IHotSwapCallback;
+import com.zxch.hotswap.IHotSwapProvider;
+import com.zxch.hotswap.jfr.HotSwapEvents;
+import com.zxch.hotswap.jfr.ZkHotSwapTriggerEvent;
+import com.zxch.hotswap.util.ClassFingerprint;
+import com.zxch.hotswap.util.ClassFingerprintRegistry;
+import com.zxch.hotswap.util.ClassMetadata;
+import com.zxch.hotswap.util.ClassVersionStore;
+import com.zxch.hotswap.util.HotSwapUtils;
+import com.zxch.hotswap.util.LoadedClassIndex;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.curator.framework.recipes.cache.TreeCacheListener;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 基于清单的 ZooKeeper 增量热加载监听器
+ * <p>
+ * 只监听一个很小的清单节点（见 {@link ZkManifest}），而不是所有携带字节码的节点：
+ * <ul>
+ * <li>清单变化时与本地 {@link ClassFingerprintRegistry} 比对，只读取版本不同且已加载的类，作为一批原子热加载</li>
+ * <li>清单中还没有加载的类保留到下一个清单版本之前，类加载后（见 {@link LoadedClassIndex#addLoadListener}）再热加载</li>
+ * <li>重连或重启后只需要读取一次清单，已经是清单版本的类不会被读取</li>
+ * <li>读取到的字节码按清单中的指纹和长度校验，不一致时整批不生效</li>
+ * <li>类节点下有相对本地当前版本的增量节点时只读取增量，增量不存在或无法还原时读取完整的字节码</li>
+ * </ul>
+ * 热加载在单独的执行器线程中进行；积压的多个清单版本只处理最新的一个。
+ * 热加载失败的类在下一次清单变化时会重新比对并重试
+ *
+ * @author zhangxun
+ */
+public class ZkManifestListener implements TreeCacheListener, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZkManifestListener.class);
+
+    /**
+     * 类加载通知后超过该时间仍查找不到时放弃
+     */
+    private static final long ARRIVAL_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * 类加载通知后还查找不到时的重试间隔
+     */
+    private static final long ARRIVAL_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final IHotSwapCallback callback;
+
+    private final ZkHotSwapConfig config;
+
+    /**
+     * 把非 ZK 的位置解析为提供者，为null时只支持 ZK 节点位置
+     */
+    private final Function<String, IHotSwapProvider> locationResolver;
+
+    private final ZkApplyExecutor applyExecutor;
+
+    /**
+     * 最新收到、还没有处理的清单
+     */
+    private final AtomicReference<PendingManifest> latest = new AtomicReference<>();
+
+    /**
+     * 最新清单中还没有加载的类，只在热加载线程中替换
+     */
+    private volatile DeferredManifest deferred;
+
+    /**
+     * 已经开始加载、等待热加载的延迟条目的类名及通知时间
+     */
+    private final Map<String, Long> arrived = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean arrivalScheduled = new AtomicBoolean();
+
+    private final Consumer<String> loadListener = this::onClassLoaded;
+
+    private final AtomicBoolean loadListenerAdded = new AtomicBoolean();
+
+    /**
+     * 构造函数，只支持 ZK 节点位置
+     *
+     * @param callback 热加载回调（可为null）
+     */
+    public ZkManifestListener(IHotSwapCallback callback) {
+        this(callback, null, new ZkHotSwapConfig());
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param callback         热加载回调（可为null）
+     * @param locationResolver 把清单中非 ZK 的位置（例如文件路径、URL）解析为提供者（可为null）
+     * @param config           监听器配置，使用其中的热加载队列、获取执行器和优先级配置，合并窗口不适用
+     */
+    public ZkManifestListener(IHotSwapCallback callback, Function<String, IHotSwapProvider> locationResolver,
+                              ZkHotSwapConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("config cannot be null");
+        }
+        this.callback = callback;
+        this.locationResolver = locationResolver;
+        this.config = config;
+        this.applyExecutor = new ZkApplyExecutor(config.getApplyQueueCapacity(), config.getBackpressureTimeoutMillis());
+    }
+
+    @Override
+    public void childEvent(CuratorFramework client, TreeCacheEvent event) throws Exception {
+        ChildData data = event.getData();
+        TreeCacheEvent.Type type = event.getType();
+        if (data == null || (type != TreeCacheEvent.Type.NODE_ADDED && type != TreeCacheEvent.Type.NODE_UPDATED)) {
+            return;
+        }
+
+        logger.info("Hot swap manifest changed: {}", data.getPath());
+        PendingManifest manifest = new PendingManifest(client, data, System.nanoTime());
+        if (latest.getAndSet(manifest) != null) {
+            // 之前的清单还没有处理，被新的版本取代，不需要再提交
+            return;
+        }
+        try {
+            applyExecutor.submit(config.getPriorityClassifier().apply(data.getPath()), this::applyLatest);
+        } catch (RejectedExecutionException e) {
+            latest.compareAndSet(manifest, null);
+            logger.error("Hot swap of manifest [{}] rejected", data.getPath(), e);
+            if (callback != null) {
+                callback.onFailure(null, e);
+            }
+        }
+    }
+
+    /**
+     * 处理最新的清单
+     */
+    private void applyLatest() {
+        PendingManifest pending = latest.getAndSet(null);
+        if (pending == null) {
+            return;
+        }
+
+        String path = pending.data.getPath();
+        ZkHotSwapTriggerEvent event = HotSwapEvents.beginZkTrigger();
+        long queuedNanos = System.nanoTime() - pending.received;
+        ZkManifest manifest;
+        List<ZkManifest.Entry> changed;
+        try {
+            manifest = ZkManifest.parse(pending.data.getData());
+            Map<String, ZkManifest.Entry> notLoaded = new HashMap<>();
+            changed = diff(manifest, notLoaded);
+            defer(pending, notLoaded);
+        } catch (Exception e) {
+            logger.error("Failed to apply hot swap manifest [{}]", path, e);
+            if (callback != null) {
+                callback.onFailure(null, e);
+            }
+            HotSwapEvents.commitZkTrigger(event, path, config.getPriorityClassifier().apply(path).name(), 0,
+                    queuedNanos, Collections.emptyList());
+            return;
+        }
+
+        if (changed.isEmpty()) {
+            logger.info("All loaded class(es) of {} in manifest [{}] are up to date", manifest.getEntries().size(), path);
+            HotSwapEvents.commitZkTrigger(event, path, config.getPriorityClassifier().apply(path).name(), 0,
+                    queuedNanos, Collections.emptyList());
+            return;
+        }
+        logger.info("{} of {} class(es) in manifest [{}] changed, fetching them", changed.size(),
+                manifest.getEntries().size(), path);
+        swap(pending.client, path, changed, event, queuedNanos);
+    }
+
+    /**
+     * 找出清单中版本与本地已应用版本不同、且已加载的类
+     *
+     * @param notLoaded 收集还没有加载的类
+     */
+    private List<ZkManifest.Entry> diff(ZkManifest manifest, Map<String, ZkManifest.Entry> notLoaded) {
+        ClassFingerprintRegistry registry = ClassFingerprintRegistry.getInstance();
+        LoadedClassIndex index = LoadedClassIndex.getInstance();
+        List<ZkManifest.Entry> changed = new ArrayList<>();
+        for (ZkManifest.Entry entry : manifest.getEntries()) {
+            Class<?> clazz = index.findPreferred(entry.getClassName());
+            if (clazz == null && index.findAll(entry.getClassName()).isEmpty()) {
+                logger.debug("The class:[{}] in manifest is not loaded, apply it once it is loaded", entry.getClassName());
+                notLoaded.put(entry.getClassName(), entry);
+                continue;
+            }
+            // 被多个 ClassLoader 加载且无法确定目标的类也交给热加载，由热加载报告失败原因
+            if (clazz != null && registry.isApplied(clazz, entry.getFingerprint(), entry.getLength())) {
+                continue;
+            }
+            changed.add(entry);
+        }
+        return changed;
+    }
+
+    /**
+     * 保留最新清单中还没有加载的类，取代之前清单的延迟条目
+     */
+    private void defer(PendingManifest pending, Map<String, ZkManifest.Entry> notLoaded) {
+        deferred = notLoaded.isEmpty() ? null : new DeferredManifest(pending.client, pending.data.getPath(), notLoaded);
+        if (notLoaded.isEmpty()) {
+            arrived.clear();
+            return;
+        }
+        LoadedClassIndex index = LoadedClassIndex.getInstance();
+        if (loadListenerAdded.compareAndSet(false, true)) {
+            index.addLoadListener(loadListener);
+        }
+        // diff 之后、开始监听之前加载的类不会收到通知，重新检查一次
+        for (String className : notLoaded.keySet()) {
+            if (!index.findAll(className).isEmpty()) {
+                onClassLoaded(className);
+            }
+        }
+        logger.info("{} class(es) in manifest [{}] are not loaded yet and will be applied once loaded",
+                notLoaded.size(), pending.data.getPath());
+    }
+
+    /**
+     * 类加载通知，在加载线程中调用，只记录并提交，不能阻塞
+     */
+    private void onClassLoaded(String className) {
+        DeferredManifest current = deferred;
+        if (current == null || !current.entries.containsKey(className)) {
+            return;
+        }
+        arrived.putIfAbsent(className, System.nanoTime());
+        scheduleArrived(current.path);
+    }
+
+    private void scheduleArrived(String path) {
+        if (arrivalScheduled.compareAndSet(false, true)
+                && !applyExecutor.trySubmit(config.getPriorityClassifier().apply(path), this::applyArrived)) {
+            // 队列已满，下一个清单版本或下一次类加载时再提交
+            arrivalScheduled.set(false);
+        }
+    }
+
+    /**
+     * 热加载已经加载的延迟条目
+     * <p>
+     * 类加载通知时类还没有定义完成，查找不到的类稍后重试，超时仍查找不到（例如定义失败）时放弃，
+     * 条目仍然保留，该类下一次加载时再处理
+     */
+    private void applyArrived() {
+        arrivalScheduled.set(false);
+        DeferredManifest current = deferred;
+        if (current == null) {
+            arrived.clear();
+            return;
+        }
+
+        ZkHotSwapTriggerEvent event = HotSwapEvents.beginZkTrigger();
+        LoadedClassIndex index = LoadedClassIndex.getInstance();
+        ClassFingerprintRegistry registry = ClassFingerprintRegistry.getInstance();
+        List<ZkManifest.Entry> changed = new ArrayList<>();
+        boolean waiting = false;
+        long oldest = System.nanoTime();
+        for (Iterator<Map.Entry<String, Long>> it = arrived.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> arrival = it.next();
+            ZkManifest.Entry entry = current.entries.get(arrival.getKey());
+            if (entry == null) {
+                it.remove();
+                continue;
+            }
+            Class<?> clazz = index.findPreferred(entry.getClassName());
+            if (clazz == null && index.findAll(entry.getClassName()).isEmpty()) {
+                if (System.nanoTime() - arrival.getValue() > ARRIVAL_TIMEOUT_NANOS) {
+                    logger.warn("The class:[{}] in manifest [{}] could not be found after loading, skip it until it is "
+                            + "loaded again", entry.getClassName(), current.path);
+                    it.remove();
+                } else {
+                    waiting = true;
+                }
+                continue;
+            }
+            it.remove();
+            current.entries.remove(entry.getClassName(), entry);
+            oldest = Math.min(oldest, arrival.getValue());
+            if (clazz == null || !registry.isApplied(clazz, entry.getFingerprint(), entry.getLength())) {
+                changed.add(entry);
+            }
+        }
+
+        if (!changed.isEmpty()) {
+            logger.info("{} class(es) in manifest [{}] have been loaded, applying them", changed.size(), current.path);
+            swap(current.client, current.path, changed, event, System.nanoTime() - oldest);
+        }
+        if (waiting) {
+            LockSupport.parkNanos(ARRIVAL_RETRY_NANOS);
+            scheduleArrived(current.path);
+        }
+    }
+
+    /**
+     * 读取并原子热加载一批清单条目
+     */
+    private void swap(CuratorFramework client, String path, List<ZkManifest.Entry> changed,
+                      ZkHotSwapTriggerEvent event, long queuedNanos) {
+        List<ClassMetadata> swapped = Collections.emptyList();
+        try {
+            ManifestBatch batch = new ManifestBatch(client, changed);
+            HotSwapUtils.hotswapClassesAtomically(callback, batch);
+            swapped = batch.fetched;
+        } catch (Exception e) {
+            logger.error("Failed to apply hot swap manifest [{}]", path, e);
+            if (callback != null) {
+                callback.onFailure(null, e);
+            }
+        } finally {
+            HotSwapEvents.commitZkTrigger(event, path, config.getPriorityClassifier().apply(path).name(), changed.size(),
+                    queuedNanos, swapped);
+        }
+    }
+
+    /**
+     * 读取一个清单条目的字节码并按清单校验
+     */
+    private HotSwapPayload fetch(CuratorFramework client, ZkManifest.Entry entry) {
+        byte[] bytes;
+        if (entry.isZkLocation()) {
+            bytes = fetchDelta(client, entry);
+            try {
+                if (bytes == null) {
+                    bytes = client.getData().forPath(entry.getLocation());
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to read class bytes of " + entry.getClassName() + " from "
+                        + entry.getLocation(), e);
+            }
+        } else if (locationResolver != null) {
+            IHotSwapProvider provider = locationResolver.apply(entry.getLocation());
+            if (provider == null) {
+                throw new IllegalStateException("Unresolvable location for " + entry);
+            }
+            bytes = provider.getClassBytes();
+        } else {
+            throw new IllegalStateException("No location resolver for non-ZK location of " + entry);
+        }
+
+        if (bytes == null || bytes.length == 0) {
+            throw new IllegalStateException("Empty class bytes for " + entry);
+        }
+        ClassMetadata metadata = ClassMetadata.parse(bytes);
+        if (!entry.matches(metadata)) {
+            throw new IllegalStateException("Class bytes do not match the manifest, expected " + entry + " but got "
+                    + metadata);
+        }
+        return HotSwapPayload.of(bytes, metadata);
+    }
+
+    /**
+     * 最后一次应用的版本有对应的增量节点时读取增量并还原
+     *
+     * @return 还原后的字节码，没有可用的增量时返回null
+     */
+    private byte[] fetchDelta(CuratorFramework client, ZkManifest.Entry entry) {
+        Class<?> clazz = LoadedClassIndex.getInstance().findPreferred(entry.getClassName());
+        ClassFingerprint applied = clazz == null ? null : ClassFingerprintRegistry.getInstance().get(clazz);
+        if (applied == null || !ClassVersionStore.getInstance()
+                .isCurrent(clazz, applied.getFingerprint(), applied.getLength())) {
+            return null;
+        }
+
+        String deltaLocation = entry.getDeltaLocation(applied.getFingerprint());
+        try {
+            byte[] bytes = HotSwapUtils.applyDelta(client.getData().forPath(deltaLocation));
+            logger.debug("Fetched class:[{}] as delta from [{}]", entry.getClassName(), deltaLocation);
+            return bytes;
+        } catch (KeeperException.NoNodeException e) {
+            return null;
+        } catch (Exception e) {
+            logger.warn("Delta [{}] is not usable, fetching full class bytes instead", deltaLocation, e);
+            return null;
+        }
+    }
+
+    /**
+     * 停止监听器，等待已提交的热加载执行完
+     */
+    @Override
+    public void close() {
+        if (loadListenerAdded.compareAndSet(true, false)) {
+            LoadedClassIndex.getInstance().removeLoadListener(loadListener);
+        }
+        applyExecutor.shutdown(config.getShutdownTimeoutMillis());
+    }
+
+    public ZkHotSwapConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * 启动清单监听，只监听清单节点本身
+     *
+     * @param client       Curator 客户端
+     * @param manifestPath 清单节点路径
+     * @param listener     清单监听器
+     * @return 监听句柄，关闭时停止监听并移除 JVM 关闭钩子
+     */
+    public static ZkHotSwapHandle<TreeCache, ZkManifestListener> startWatching(CuratorFramework client,
+                                                                               String manifestPath,
+                                                                               ZkManifestListener listener)
+            throws Exception {
+        TreeCache cache = TreeCache.newBuilder(client, manifestPath).setMaxDepth(0).build();
+        cache.getListenable().addListener(listener);
+        cache.start();
+        ZkHotSwapHandle<TreeCache, ZkManifestListener> handle = new ZkHotSwapHandle<>(manifestPath, cache, listener,
+                "zk-hotswap-manifest-shutdown");
+        logger.info("ZkManifestListener started, watching manifest: {}", manifestPath);
+        return handle;
+    }
+
+    /**
+     * 创建并启动清单监听，只监听清单节点本身
+     *
+     * @return 已启动的 TreeCache，JVM 关闭钩子在退出前一直持有它和监听器
+     * @deprecated 无法移除关闭钩子，使用返回句柄的 {@link #startWatching(CuratorFramework, String, ZkManifestListener)}
+     */
+    @Deprecated
+    public static TreeCache createAndStart(CuratorFramework client, String manifestPath, ZkManifestListener listener)
+            throws Exception {
+        return startWatching(client, manifestPath, listener).getCache();
+    }
+
+    /**
+     * 收到的一个清单版本
+     */
+    private static final class PendingManifest {
+
+        private final CuratorFramework client;
+
+        private final ChildData data;
+
+        private final long received;
+
+        private PendingManifest(CuratorFramework client, ChildData data, long received) {
+            this.client = client;
+            this.data = data;
+            this.received = received;
+        }
+    }
+
+    /**
+     * 一个清单版本中还没有加载的类
+     */
+    private static final class DeferredManifest {
+
+        private final CuratorFramework client;
+
+        private final String path;
+
+        /**
+         * 类名到清单条目，类加载并热加载后移除
+         */
+        private final Map<String, ZkManifest.Entry> entries;
+
+        private DeferredManifest(CuratorFramework client, String path, Map<String, ZkManifest.Entry> entries) {
+            this.client = client;
+            this.path = path;
+            this.entries = new ConcurrentHashMap<>(entries);
+        }
+    }
+
+    /**
+     * 清单中变化的类，设置了获取执行器时并行读取
+     */
+    private final class ManifestBatch implements IHotSwapBatchProvider {
+
+        private final CuratorFramework client;
+
+        private final List<ZkManifest.Entry> entries;
+
+        /**
+         * 已读取并校验通过的类，只在热加载线程中访问
+         */
+        private final List<ClassMetadata> fetched = new ArrayList<>();
+
+        private ManifestBatch(CuratorFramework client, List<ZkManifest.Entry> entries) {
+            this.client = client;
+            this.entries = entries;
+        }
+
+        @Override
+        public Iterator<HotSwapPayload> openPayloads() {
+            Executor executor = config.getFetchExecutor();
+            List<CompletableFuture<HotSwapPayload>> futures = new ArrayList<>(entries.size());
+            for (ZkManifest.Entry entry : entries) {
+                futures.add(executor == null ? null : CompletableFuture.supplyAsync(() -> fetch(client, entry), executor));
+            }
+
+            return new Iterator<HotSwapPayload>() {
+
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < entries.size();
+                }
+
+                @Override
+                public HotSwapPayload next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    int i = next++;
+                    HotSwapPayload payload;
+                    try {
+                        payload = futures.get(i) == null ? fetch(client, entries.get(i)) : futures.get(i).join();
+                    } catch (CompletionException e) {
+                        throw e.getCause() instanceof RuntimeException
+                                ? (RuntimeException) e.getCause() : e;
+                    }
+                    fetched.add(payload.getMetadata());
+                    return payload;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.zxch.hotswap.zk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * 通过 ZooKeeper 下发的多类字节码包（bundle）格式
+ * <p>
+ * 一个包携带一批类，热加载时作为一批原子重定义。包体可选 deflate 压缩，
+ * 压缩后超过单个节点大小时拆分到包节点的子节点中（每个子节点一块），每一块各自带 CRC。
+ * <pre>
+ * 包节点数据（大端）：
+ *   u4 magic "HSWB" | u1 version | u1 flags(bit0 = deflate) | u4 classCount
+ *   | u4 rawLength | u4 rawCrc32 | u4 chunkCount | 包体（chunkCount 为 0 时内联在这里）
+ * 分块节点数据（包节点的子节点，名称不限）：
+ *   u4 magic "HSWC" | u1 version | u4 index | u4 crc32 | 本块数据
+ * 包体（压缩前）：
+ *   每个类 u4 length | class 文件字节码
+ * </pre>
+ * rawLength 和 rawCrc32 针对压缩前的包体，解码时一边解压一边校验，分块的 CRC 在组装时校验。
+ * 普通的 class 文件（0xCAFEBABE 开头）不受影响，仍然按单个类处理
+ *
+ * @author zhangxun
+ */
+public abstract class ZkPayloadCodec {
+
+    public static final int BUNDLE_MAGIC = 0x48535742;
+
+    public static final int CHUNK_MAGIC = 0x48535743;
+
+    public static final int VERSION = 1;
+
+    /**
+     * 默认的单个节点最大数据量，低于 ZooKeeper 默认的 jute.maxbuffer（约 1 MB）并留出余量
+     */
+    public static final int DEFAULT_MAX_NODE_BYTES = 512 * 1024;
+
+    /**
+     * 解码时允许的包体（压缩前）最大长度，防止损坏或恶意的数据耗尽内存
+     */
+    public static final int MAX_RAW_LENGTH = 256 * 1024 * 1024;
+
+    static final int FLAG_DEFLATE = 1;
+
+    static final int HEADER_SIZE = 22;
+
+    static final int CHUNK_HEADER_SIZE = 13;
+
+    private static final int CLASS_MAGIC = 0xCAFEBABE;
+
+    /**
+     * 编码一批类，使用默认的单个节点最大数据量
+     *
+     * @see #encode(List, boolean, int)
+     */
+    public static Encoded encode(List<byte[]> classes, boolean compress) {
+        return encode(classes, compress, DEFAULT_MAX_NODE_BYTES);
+    }
+
+    /**
+     * 编码一批类
+     * <p>
+     * 压缩使用最高压缩级别：包只编码一次，却要下发给所有监听者
+     *
+     * @param classes      class 文件字节码
+     * @param compress     是否 deflate 压缩
+     * @param maxNodeBytes 单个节点最大数据量，包体放不进包节点时拆分为多块
+     * @return 包节点数据和分块数据（不需要分块时为空）
+     */
+    public static Encoded encode(List<byte[]> classes, boolean compress, int maxNodeBytes) {
+        if (classes == null || classes.isEmpty()) {
+            throw new IllegalArgumentException("classes cannot be null or empty");
+        }
+        if (maxNodeBytes <= CHUNK_HEADER_SIZE + HEADER_SIZE) {
+            throw new IllegalArgumentException("maxNodeBytes is too small: " + maxNodeBytes);
+        }
+
+        long rawLength = 0;
+        for (byte[] bytes : classes) {
+            if (bytes == null || bytes.length == 0) {
+                throw new IllegalArgumentException("class bytes cannot be null or empty");
+            }
+            rawLength += 4 + bytes.length;
+        }
+        if (rawLength > MAX_RAW_LENGTH) {
+            throw new IllegalArgumentException("Bundle too large: " + rawLength + " bytes");
+        }
+
+        CRC32 rawCrc = new CRC32();
+        ByteArrayOutputStream body = new ByteArrayOutputStream((int) Math.min(rawLength, 1 << 20));
+        Deflater deflater = compress ? new Deflater(Deflater.BEST_COMPRESSION, true) : null;
+        try {
+            OutputStream out = compress ? new DeflaterOutputStream(body, deflater, 8192) : body;
+            DataOutputStream data = new DataOutputStream(new CheckedOutputStream(out, rawCrc));
+            for (byte[] bytes : classes) {
+                data.writeInt(bytes.length);
+                data.write(bytes);
+            }
+            data.close();
+        } catch (IOException e) {
+            // 只写入内存，不会发生
+            throw new IllegalStateException(e);
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+
+        byte[] encoded = body.toByteArray();
+        boolean inline = HEADER_SIZE + encoded.length <= maxNodeBytes;
+        int chunkSize = maxNodeBytes - CHUNK_HEADER_SIZE;
+        int chunkCount = inline ? 0 : (encoded.length + chunkSize - 1) / chunkSize;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + (inline ? encoded.length : 0));
+        header.putInt(BUNDLE_MAGIC).put((byte) VERSION).put((byte) (compress ? FLAG_DEFLATE : 0))
+                .putInt(classes.size()).putInt((int) rawLength).putInt((int) rawCrc.getValue()).putInt(chunkCount);
+        if (inline) {
+            header.put(encoded);
+            return new Encoded(header.array(), Collections.emptyList(), classes.size(), encoded.length);
+        }
+
+        List<byte[]> chunks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            int from = i * chunkSize;
+            int length = Math.min(chunkSize, encoded.length - from);
+            CRC32 crc = new CRC32();
+            crc.update(encoded, from, length);
+            chunks.add(ByteBuffer.allocate(CHUNK_HEADER_SIZE + length)
+                    .putInt(CHUNK_MAGIC).put((byte) VERSION).putInt(i).putInt((int) crc.getValue())
+                    .put(encoded, from, length).array());
+        }
+        return new Encoded(header.array(), chunks, classes.size(), encoded.length);
+    }
+
+    /**
+     * @return 节点数据是否为包节点
+     */
+    public static boolean isBundle(byte[] data) {
+        return hasMagic(data, BUNDLE_MAGIC);
+    }
+
+    /**
+     * @return 节点数据是否为分块节点
+     */
+    public static boolean isChunk(byte[] data) {
+        return hasMagic(data, CHUNK_MAGIC);
+    }
+
+    /**
+     * @return 节点数据是否为普通的 class 文件
+     */
+    public static boolean isClassFile(byte[] data) {
+        return hasMagic(data, CLASS_MAGIC);
+    }
+
+    private static boolean hasMagic(byte[] data, int magic) {
+        return data != null && data.length >= 4 && ByteBuffer.wrap(data).getInt(0) == magic;
+    }
+
+    /**
+     * 解析包节点数据
+     *
+     * @throws ZipException 不是包节点或版本不支持
+     */
+    static Header readHeader(byte[] data) throws ZipException {
+        if (!isBundle(data) || data.length < HEADER_SIZE) {
+            throw new ZipException("Not a hot swap bundle");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int version = buffer.get(4) & 0xFF;
+        if (version != VERSION) {
+            throw new ZipException("Unsupported bundle version: " + version);
+        }
+        Header header = new Header(buffer.get(5) & 0xFF, buffer.getInt(6), buffer.getInt(10),
+                buffer.getInt(14) & 0xFFFFFFFFL, buffer.getInt(18));
+        // 每个类至少占 5 字节（长度 + 字节码）
+        if (header.classCount <= 0 || header.rawLength < 0 || header.rawLength > MAX_RAW_LENGTH
+                || header.classCount > header.rawLength / 5 || header.chunkCount < 0) {
+            throw new ZipException("Corrupt bundle header: " + header);
+        }
+        if (header.chunkCount > 0 && data.length != HEADER_SIZE) {
+            throw new ZipException("Chunked bundle must not carry an inline body");
+        }
+        return header;
+    }
+
+    /**
+     * 解析并校验分块节点数据
+     *
+     * @return 分块序号
+     * @throws ZipException 不是分块节点、版本不支持或 CRC 不一致
+     */
+    static int verifyChunk(byte[] data) throws ZipException {
+        if (!isChunk(data) || data.length < CHUNK_HEADER_SIZE) {
+            throw new ZipException("Not a hot swap bundle chunk");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int version = buffer.get(4) & 0xFF;
+        if (version != VERSION) {
+            throw new ZipException("Unsupported chunk version: " + version);
+        }
+        int index = buffer.getInt(5);
+        CRC32 crc = new CRC32();
+        crc.update(data, CHUNK_HEADER_SIZE, data.length - CHUNK_HEADER_SIZE);
+        if ((int) crc.getValue() != buffer.getInt(9)) {
+            throw new ZipException("CRC mismatch in chunk " + index);
+        }
+        return index;
+    }
+
+    /**
+     * 解码包体，一边从分块中解压一边校验，不拼接分块
+     *
+     * @param headerData 包节点数据
+     * @param chunks     按序号排列、已校验的分块节点数据，包体内联时为空
+     * @return 每个类的字节码
+     * @throws ZipException 数据损坏、长度或 CRC 不一致
+     */
+    static List<byte[]> decode(byte[] headerData, List<byte[]> chunks) throws ZipException {
+        Header header = readHeader(headerData);
+        if (chunks.size() != header.chunkCount) {
+            throw new ZipException("Expected " + header.chunkCount + " chunk(s) but got " + chunks.size());
+        }
+
+        InputStream encoded;
+        if (header.chunkCount == 0) {
+            encoded = new ByteArrayInputStream(headerData, HEADER_SIZE, headerData.length - HEADER_SIZE);
+        } else {
+            List<InputStream> parts = new ArrayList<>(chunks.size());
+            for (byte[] chunk : chunks) {
+                parts.add(new ByteArrayInputStream(chunk, CHUNK_HEADER_SIZE, chunk.length - CHUNK_HEADER_SIZE));
+            }
+            encoded = new SequenceInputStream(Collections.enumeration(parts));
+        }
+
+        Inflater inflater = (header.flags & FLAG_DEFLATE) != 0 ? new Inflater(true) : null;
+        try {
+            CRC32 rawCrc = new CRC32();
+            InputStream raw = inflater == null ? encoded : new InflaterInputStream(encoded, inflater, 8192);
+            CheckedInputStream checked = new CheckedInputStream(raw, rawCrc);
+            DataInputStream data = new DataInputStream(checked);
+            List<byte[]> classes = new ArrayList<>(header.classCount);
+            long remaining = header.rawLength;
+            for (int i = 0; i < header.classCount; i++) {
+                int length = data.readInt();
+                remaining -= 4L + length;
+                if (length <= 0 || remaining < 0) {
+                    throw new ZipException("Corrupt class length " + length + " at class " + i);
+                }
+                byte[] bytes = new byte[length];
+                data.readFully(bytes);
+                classes.add(bytes);
+            }
+            if (remaining != 0 || checked.read() != -1) {
+                throw new ZipException("Bundle body length does not match the header");
+            }
+            if (rawCrc.getValue() != header.rawCrc32) {
+                throw new ZipException("CRC mismatch in bundle body");
+            }
+            return classes;
+        } catch (ZipException e) {
+            throw e;
+        } catch (EOFException e) {
+            throw new ZipException("Truncated bundle body");
+        } catch (IOException e) {
+            throw new ZipException("Corrupt bundle body: " + e.getMessage());
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * 编码结果
+     */
+    public static final class Encoded {
+
+        private final byte[] bundle;
+
+        private final List<byte[]> chunks;
+
+        private final int classCount;
+
+        private final int encodedLength;
+
+        private Encoded(byte[] bundle, List<byte[]> chunks, int classCount, int encodedLength) {
+            this.bundle = bundle;
+            this.chunks = Collections.unmodifiableList(chunks);
+            this.classCount = classCount;
+            this.encodedLength = encodedLength;
+        }
+
+        /**
+         * @return 包节点数据
+         */
+        public byte[] getBundle() {
+            return bundle;
+        }
+
+        /**
+         * @return 分块节点数据，按序号排列，包体内联时为空
+         */
+        public List<byte[]> getChunks() {
+            return chunks;
+        }
+
+        public int getClassCount() {
+            return classCount;
+        }
+
+        /**
+         * @return 包体编码（压缩）后的长度
+         */
+        public int getEncodedLength() {
+            return encodedLength;
+        }
+    }
+
+    /**
+     * 包节点头
+     */
+    static final class Header {
+
+        final int flags;
+
+        final int classCount;
+
+        final int rawLength;
+
+        final long rawCrc32;
+
+        final int chunkCount;
+
+        private Header(int flags, int classCount, int rawLength, long rawCrc32, int chunkCount) {
+            this.flags = flags;
+            this.classCount = classCount;
+            this.rawLength = rawLength;
+            this.rawCrc32 = rawCrc32;
+            this.chunkCount = chunkCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Header[flags=" + flags + ", classes=" + classCount + ", raw=" + rawLength + ", chunks="
+                    + chunkCount + "]";
+        }
+    }
+}
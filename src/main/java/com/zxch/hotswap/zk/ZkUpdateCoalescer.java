@@ -0,0 +1,137 @@
+package com.zxch.hotswap.zk;
+
+import com.zxch.hotswap.metrics.HotSwapMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * ZK 更新合并队列
+ * <p>
+ * 从窗口内的第一个更新开始计时，窗口内的更新按 key 合并（后写覆盖先写），
+ * 窗口结束时把剩下的更新一次性交给 flusher
+ *
+ * @param <T> 更新内容
+ * @author zhangxun
+ */
+final class ZkUpdateCoalescer<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZkUpdateCoalescer.class);
+
+    private final long windowMillis;
+
+    private final Consumer<List<T>> flusher;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder received = new LongAdder();
+
+    private final LongAdder merged = new LongAdder();
+
+    private final LongAdder flushed = new LongAdder();
+
+    private Map<String, T> pending = new LinkedHashMap<>();
+
+    private boolean scheduled;
+
+    private boolean closed;
+
+    ZkUpdateCoalescer(long windowMillis, Consumer<List<T>> flusher) {
+        this.windowMillis = windowMillis;
+        this.flusher = flusher;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "zk-hotswap-debounce");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 提交一个更新
+     *
+     * @param key    合并的 key（类名）
+     * @param update 更新内容
+     * @throws IllegalStateException 合并队列已关闭
+     */
+    synchronized void submit(String key, T update) {
+        if (closed) {
+            throw new IllegalStateException("Update coalescer is closed");
+        }
+
+        received.increment();
+        if (pending.containsKey(key)) {
+            merged.increment();
+            HotSwapMetrics.getInstance().recordMerged();
+            logger.debug("Update of [{}] superseded within the debounce window", key);
+        }
+        pending.put(key, update);
+        if (!scheduled) {
+            scheduled = true;
+            scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        List<T> updates;
+        synchronized (this) {
+            scheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            updates = new ArrayList<>(pending.values());
+            pending = new LinkedHashMap<>();
+        }
+
+        flushed.increment();
+        logger.info("Flushing {} coalesced update(s)", updates.size());
+        try {
+            flusher.accept(updates);
+        } catch (Exception e) {
+            logger.error("Failed to apply coalesced updates", e);
+        }
+    }
+
+    /**
+     * 立即应用窗口内剩余的更新并停止
+     */
+    void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        scheduler.shutdown();
+        flush();
+    }
+
+    /**
+     * @return 收到的更新数量
+     */
+    long getReceivedCount() {
+        return received.sum();
+    }
+
+    /**
+     * @return 被后续更新覆盖而合并掉的更新数量
+     */
+    long getMergedCount() {
+        return merged.sum();
+    }
+
+    /**
+     * @return 已应用的批次数量
+     */
+    long getFlushedCount() {
+        return flushed.sum();
+    }
+}
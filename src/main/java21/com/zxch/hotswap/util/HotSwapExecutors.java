@@ -0,0 +1,31 @@
+package com.zxch.hotswap.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 热加载异步执行器（JDK 21+）
+ * <p>
+ * 为每个任务创建一个虚拟线程，大量远程 Provider 并行获取字节码时不会占用平台线程
+ *
+ * @author zhangxun
+ */
+public abstract class HotSwapExecutors {
+
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("hotswap-async-", 1).factory());
+
+    /**
+     * 获取默认执行器，所有调用共享同一个实例，不需要关闭
+     */
+    public static ExecutorService defaultExecutor() {
+        return DEFAULT_EXECUTOR;
+    }
+
+    /**
+     * @return 默认执行器是否使用虚拟线程
+     */
+    public static boolean isVirtual() {
+        return true;
+    }
+}
@@ -0,0 +1,257 @@
+package com.zxch.hotswap.provider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link MappedJar} 测试，结果与 {@link ZipFile} 对照
+ *
+ * @author zhangxun
+ */
+public class MappedJarTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void entriesMatchZipFile() throws IOException {
+        Path jar = folder.getRoot().toPath().resolve("sample.jar");
+        Random random = new Random(1);
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            out.setComment("sample comment");
+            putDirectory(out, "com/");
+            putDirectory(out, "com/example/");
+            putDeflated(out, "com/example/Foo.class", repetitive(4096));
+            putStored(out, "com/example/Bar.class", randomBytes(random, 1000));
+            putDeflated(out, "com/example/Random.class", randomBytes(random, 3000));
+            putStored(out, "com/example/Empty.class", new byte[0]);
+            putDeflated(out, "com/example/中文.class", repetitive(100));
+        }
+
+        List<MappedJar.Entry> entries = assertMatchesZipFile(jar);
+        assertEquals(7, entries.size());
+        assertTrue(entries.get(0).isDirectory());
+        assertFalse(entries.get(2).isStored());
+        assertTrue(entries.get(3).isStored());
+    }
+
+    @Test
+    public void zip64EndOfCentralDirectory() throws IOException {
+        // 超过 65535 个条目时 ZipOutputStream 写入 zip64 中央目录结束记录
+        Path jar = folder.getRoot().toPath().resolve("many.jar");
+        int count = 0xFFFF + 10;
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            out.setLevel(0);
+            for (int i = 0; i < count; i++) {
+                putDeflated(out, "e/" + i, new byte[]{(byte) i});
+            }
+        }
+
+        List<MappedJar.Entry> entries = assertMatchesZipFile(jar);
+        assertEquals(count, entries.size());
+        assertEquals("e/" + (count - 1), entries.get(count - 1).name);
+    }
+
+    @Test
+    public void zip64ExtraFields() throws IOException {
+        Path jar = folder.getRoot().toPath().resolve("zip64.jar");
+        Files.write(jar, zip64Jar(Arrays.asList("com/example/Foo.class", "com/example/Bar.class"),
+                Arrays.asList(repetitive(300), randomBytes(new Random(2), 200))));
+
+        List<MappedJar.Entry> entries = assertMatchesZipFile(jar);
+        assertEquals(2, entries.size());
+        assertEquals(300, entries.get(0).size);
+        assertEquals(0, entries.get(0).localOffset);
+        assertTrue(entries.get(1).localOffset > 0);
+    }
+
+    @Test
+    public void readRejectsCorruptData() throws IOException {
+        Path jar = folder.getRoot().toPath().resolve("corrupt.jar");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            putStored(out, "a.class", repetitive(500));
+        }
+        byte[] bytes = Files.readAllBytes(jar);
+        // 本地头 30 字节 + 文件名 7 字节之后是内容
+        bytes[30 + 7 + 100] ^= 1;
+        Files.write(jar, bytes);
+
+        try (MappedJar mapped = MappedJar.open(jar)) {
+            MappedJar.Entry entry = mapped.entries().get(0);
+            Inflater inflater = new Inflater(true);
+            try {
+                mapped.read(entry, inflater);
+                fail("CRC mismatch must be detected");
+            } catch (ZipException e) {
+                // 预期
+            } finally {
+                inflater.end();
+            }
+            try {
+                mapped.slice(entry);
+                fail("CRC mismatch must be detected");
+            } catch (ZipException e) {
+                // 预期
+            }
+        }
+    }
+
+    @Test(expected = ZipException.class)
+    public void entriesRejectsNonZip() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("not.jar");
+        Files.write(file, repetitive(1000));
+        try (MappedJar mapped = MappedJar.open(file)) {
+            mapped.entries();
+        }
+    }
+
+    /**
+     * 逐个条目与 {@link ZipFile} 对照元数据、内容和视图
+     */
+    private static List<MappedJar.Entry> assertMatchesZipFile(Path jar) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try (MappedJar mapped = MappedJar.open(jar); ZipFile zip = new ZipFile(jar.toFile())) {
+            List<MappedJar.Entry> entries = mapped.entries();
+            assertEquals(zip.size(), entries.size());
+            for (MappedJar.Entry entry : entries) {
+                ZipEntry expected = zip.getEntry(entry.name);
+                assertNotNull(entry.name, expected);
+                assertEquals(entry.name, expected.isDirectory(), entry.isDirectory());
+                assertEquals(entry.name, expected.getMethod(), entry.method);
+                assertEquals(entry.name, expected.getCrc(), entry.crc);
+                assertEquals(entry.name, expected.getSize(), entry.size);
+                assertEquals(entry.name, expected.getCompressedSize(), entry.compressedSize);
+                if (entry.isDirectory()) {
+                    continue;
+                }
+
+                byte[] content;
+                try (InputStream in = zip.getInputStream(expected)) {
+                    content = in.readAllBytes();
+                }
+                inflater.reset();
+                assertArrayEquals(entry.name, content, mapped.read(entry, inflater));
+                if (entry.isStored()) {
+                    ByteBuffer slice = mapped.slice(entry);
+                    byte[] sliced = new byte[slice.remaining()];
+                    slice.get(sliced);
+                    assertArrayEquals(entry.name, content, sliced);
+                }
+            }
+            return entries;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 构造所有大小和偏移量都放在 zip64 扩展字段中、带 zip64 中央目录结束记录的 jar
+     */
+    private static byte[] zip64Jar(List<String> names, List<byte[]> contents) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream central = new ByteArrayOutputStream();
+        for (int i = 0; i < names.size(); i++) {
+            byte[] name = names.get(i).getBytes(StandardCharsets.UTF_8);
+            byte[] content = contents.get(i);
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            long localOffset = out.size();
+
+            write(out, ByteBuffer.allocate(30 + name.length).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(0x04034b50).putShort((short) 45).putShort((short) 0x0800).putShort((short) 0)
+                    .putInt(0).putInt((int) crc.getValue()).putInt(content.length).putInt(content.length)
+                    .putShort((short) name.length).putShort((short) 0).put(name));
+            out.write(content, 0, content.length);
+
+            write(central, ByteBuffer.allocate(46 + name.length + 28).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(0x02014b50).putShort((short) 45).putShort((short) 45).putShort((short) 0x0800)
+                    .putShort((short) 0).putInt(0).putInt((int) crc.getValue()).putInt(-1).putInt(-1)
+                    .putShort((short) name.length).putShort((short) 28).putShort((short) 0)
+                    .putShort((short) 0).putShort((short) 0).putInt(0).putInt(-1).put(name)
+                    .putShort((short) 1).putShort((short) 24)
+                    .putLong(content.length).putLong(content.length).putLong(localOffset));
+        }
+
+        long centralOffset = out.size();
+        byte[] centralBytes = central.toByteArray();
+        out.write(centralBytes, 0, centralBytes.length);
+        long zip64EocdOffset = out.size();
+        write(out, ByteBuffer.allocate(56).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(0x06064b50).putLong(44).putShort((short) 45).putShort((short) 45).putInt(0).putInt(0)
+                .putLong(names.size()).putLong(names.size()).putLong(centralBytes.length).putLong(centralOffset));
+        write(out, ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(0x07064b50).putInt(0).putLong(zip64EocdOffset).putInt(1));
+        write(out, ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(0x06054b50).putShort((short) 0).putShort((short) 0).putShort((short) -1)
+                .putShort((short) -1).putInt(-1).putInt(-1).putShort((short) 0));
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, ByteBuffer buffer) {
+        out.write(buffer.array(), 0, buffer.position());
+    }
+
+    private static void putDirectory(ZipOutputStream out, String name) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.closeEntry();
+    }
+
+    private static void putDeflated(ZipOutputStream out, String name, byte[] content) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content);
+        out.closeEntry();
+    }
+
+    private static void putStored(ZipOutputStream out, String name, byte[] content) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
+        out.write(content);
+        out.closeEntry();
+    }
+
+    private static byte[] repetitive(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) ('a' + i % 7);
+        }
+        return bytes;
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,186 @@
+package com.zxch.hotswap.util;
+
+import net.bytebuddy.jar.asm.ClassWriter;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link ClassDelta} 测试
+ *
+ * @author zhangxun
+ */
+public class ClassDeltaTest {
+
+    private static final String CLASS_NAME = "com.example.Greeter";
+
+    @Test
+    public void applyReproducesTarget() {
+        byte[] base = greeter("hello", 20);
+        byte[] target = greeter("hello, world", 20);
+
+        byte[] delta = ClassDelta.diff(base, target);
+        assertTrue(ClassDelta.isDelta(delta));
+        assertTrue(delta.length < target.length / 2);
+
+        ClassDelta parsed = ClassDelta.parse(delta);
+        assertEquals(CLASS_NAME, parsed.getClassName());
+        assertEquals(Fingerprints.hash64(base), parsed.getBaseFingerprint());
+        assertEquals(base.length, parsed.getBaseLength());
+        assertEquals(Fingerprints.hash64(target), parsed.getTargetFingerprint());
+        assertEquals(target.length, parsed.getTargetLength());
+        assertEquals(delta.length, parsed.getLength());
+        assertTrue(parsed.isBase(base));
+        assertArrayEquals(target, parsed.apply(base));
+    }
+
+    @Test
+    public void applyHandlesUnrelatedVersions() {
+        byte[] base = greeter("a", 1);
+        byte[] target = greeter("b", 40);
+
+        assertArrayEquals(target, ClassDelta.parse(ClassDelta.diff(base, target)).apply(base));
+        assertArrayEquals(base, ClassDelta.parse(ClassDelta.diff(target, base)).apply(target));
+        assertArrayEquals(base, ClassDelta.parse(ClassDelta.diff(base, base)).apply(base));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void diffRejectsDifferentClasses() {
+        ClassDelta.diff(greeter("a", 1), classBytes("com.example.Other", "a", 1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void applyRejectsWrongBase() {
+        byte[] base = greeter("hello", 10);
+        ClassDelta.parse(ClassDelta.diff(base, greeter("bye", 10))).apply(greeter("other", 10));
+    }
+
+    @Test
+    public void applyChecksTargetFingerprint() {
+        byte[] base = greeter("hello", 10);
+        byte[] target = greeter("bye", 10);
+        byte[] delta = ClassDelta.diff(base, target);
+        int targetFingerprintOffset = headerLength() - 12;
+        delta[targetFingerprintOffset] ^= 1;
+
+        try {
+            ClassDelta.parse(delta).apply(base);
+            fail("Corrupt target fingerprint must be detected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("did not reproduce"));
+        }
+    }
+
+    @Test
+    public void applyChecksTargetLength() {
+        byte[] base = greeter("hello", 10);
+        byte[] target = greeter("bye", 10);
+        byte[] delta = ClassDelta.diff(base, target);
+        ByteBuffer.wrap(delta).putInt(headerLength() - 4, target.length + 1);
+
+        assertApplyFails(delta, base);
+    }
+
+    @Test
+    public void parseRejectsMalformedHeader() {
+        byte[] delta = ClassDelta.diff(greeter("hello", 10), greeter("bye", 10));
+
+        assertFalse(ClassDelta.isDelta(greeter("hello", 10)));
+        assertParseFails(greeter("hello", 10));
+        assertParseFails(Arrays.copyOf(delta, headerLength() - 1));
+        byte[] version = delta.clone();
+        version[4] = 99;
+        assertParseFails(version);
+    }
+
+    @Test
+    public void applyRejectsVarintOutOfRange() {
+        byte[] base = greeter("hello", 10);
+        // 第 5 字节超过 3 位，值超出 int 范围
+        assertApplyFails(withOps(base, 0, 0x80, 0x80, 0x80, 0x80, 0x10, 1), base);
+        // 负数
+        assertApplyFails(withOps(base, 1, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F), base);
+        // 超过 5 字节
+        assertApplyFails(withOps(base, 1, 0x80, 0x80, 0x80, 0x80, 0x80, 0x00), base);
+        // 截断
+        assertApplyFails(withOps(base, 0, 0x80), base);
+    }
+
+    @Test
+    public void applyRejectsOpsOutOfRange() {
+        byte[] base = greeter("hello", 10);
+        // 复制超出基础版本，偏移量为 Integer.MAX_VALUE
+        assertApplyFails(withOps(base, 0, 0xFF, 0xFF, 0xFF, 0xFF, 0x07, 1), base);
+        // 插入超出增量数据
+        assertApplyFails(withOps(base, 1, 4, 'a', 'b'), base);
+        // 未知指令
+        assertApplyFails(withOps(base, 7), base);
+    }
+
+    /**
+     * 用给定指令替换增量中的指令，目标为基础版本本身
+     */
+    private static byte[] withOps(byte[] base, int... ops) {
+        byte[] delta = ClassDelta.diff(base, base);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(delta, 0, headerLength());
+        for (int op : ops) {
+            out.write(op);
+        }
+        return out.toByteArray();
+    }
+
+    private static int headerLength() {
+        return 4 + 1 + 2 + CLASS_NAME.getBytes(StandardCharsets.UTF_8).length + 8 + 4 + 8 + 4;
+    }
+
+    private static void assertParseFails(byte[] data) {
+        try {
+            ClassDelta.parse(data);
+            fail("Malformed delta must be rejected");
+        } catch (IllegalArgumentException e) {
+            // 预期
+        }
+    }
+
+    private static void assertApplyFails(byte[] delta, byte[] base) {
+        try {
+            ClassDelta.parse(delta).apply(base);
+            fail("Malformed delta must be rejected");
+        } catch (IllegalArgumentException e) {
+            // 预期
+        }
+    }
+
+    private static byte[] greeter(String greeting, int fields) {
+        return classBytes(CLASS_NAME, greeting, fields);
+    }
+
+    private static byte[] classBytes(String className, String greeting, int fields) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V11, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, className.replace('.', '/'), null,
+                "java/lang/Object", null);
+        for (int i = 0; i < fields; i++) {
+            writer.visitField(Opcodes.ACC_PRIVATE, "field" + i, "Ljava/lang/String;", null, null).visitEnd();
+        }
+        MethodVisitor greet = writer.visitMethod(Opcodes.ACC_PUBLIC, "greet", "()Ljava/lang/String;", null, null);
+        greet.visitCode();
+        greet.visitLdcInsn(greeting);
+        greet.visitInsn(Opcodes.ARETURN);
+        greet.visitMaxs(0, 0);
+        greet.visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+}
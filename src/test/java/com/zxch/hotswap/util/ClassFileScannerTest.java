@@ -0,0 +1,169 @@
+package com.zxch.hotswap.util;
+
+import net.bytebuddy.jar.asm.ClassReader;
+import net.bytebuddy.jar.asm.ClassVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link ClassFileScanner} 测试，结果与 ASM {@link ClassReader} 对照
+ *
+ * @author zhangxun
+ */
+public class ClassFileScannerTest {
+
+    private static final List<Class<?>> SAMPLES = Arrays.asList(
+            Object.class, String.class, Integer.class, Map.class, Map.Entry.class, Thread.State.class,
+            ConcurrentHashMap.class, Override.class, ClassFileScanner.class, ClassMetadata.class,
+            ClassFileScannerTest.class, Nested.class, Nested.Inner.class, Runnable.class);
+
+    @Test
+    public void scanMatchesClassReader() {
+        for (Class<?> clazz : SAMPLES) {
+            byte[] bytes = bytesOf(clazz);
+            Expected expected = Expected.read(bytes);
+            ClassMetadata metadata = ClassFileScanner.scan(bytes);
+
+            assertEquals(clazz.getName(), metadata.getClassName());
+            assertEquals(clazz.getName(), ClassFileScanner.readClassName(bytes));
+            assertEquals(clazz.getName(), expected.className, metadata.getClassName());
+            assertEquals(clazz.getName(), expected.superClassName, metadata.getSuperClassName());
+            assertEquals(clazz.getName(), expected.nestHostName, metadata.getNestHostName());
+            assertEquals(clazz.getName(), expected.nestMemberNames, metadata.getNestMemberNames());
+            assertEquals(clazz.getName(), expected.majorVersion, metadata.getMajorVersion());
+            assertEquals(clazz.getName(), expected.minorVersion, metadata.getMinorVersion());
+            assertEquals(clazz.getName(), Fingerprints.hash64(bytes), metadata.getFingerprint());
+            assertEquals(clazz.getName(), bytes.length, metadata.getLength());
+        }
+    }
+
+    @Test
+    public void scanReadsNestAttributes() {
+        ClassMetadata host = ClassFileScanner.scan(bytesOf(Nested.class));
+        assertEquals(ClassFileScannerTest.class.getName(), host.getNestHostName());
+
+        ClassMetadata root = ClassFileScanner.scan(bytesOf(ClassFileScannerTest.class));
+        assertNull(root.getNestHostName());
+        assertTrue(root.getNestMemberNames().containsAll(
+                Arrays.asList(Nested.class.getName(), Nested.Inner.class.getName(), Expected.class.getName())));
+
+        assertNull(ClassFileScanner.scan(bytesOf(Object.class)).getSuperClassName());
+    }
+
+    @Test
+    public void scanRejectsMalformedBytes() {
+        byte[] bytes = bytesOf(String.class);
+        assertRejected(new byte[0]);
+        assertRejected(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+        assertRejected(Arrays.copyOf(bytes, 9));
+        assertRejected(Arrays.copyOf(bytes, 100));
+
+        // 常量池完整时可以读取类名，完整扫描会发现截断或多余的字节
+        for (byte[] tail : Arrays.asList(Arrays.copyOf(bytes, bytes.length - 1), Arrays.copyOf(bytes, bytes.length + 1))) {
+            assertEquals(String.class.getName(), ClassFileScanner.readClassName(tail));
+            try {
+                ClassFileScanner.scan(tail);
+                fail("Class file with wrong length must be rejected");
+            } catch (IllegalArgumentException e) {
+                // 预期
+            }
+        }
+    }
+
+    private static void assertRejected(byte[] bytes) {
+        try {
+            ClassFileScanner.scan(bytes);
+            fail("Malformed class file must be rejected");
+        } catch (IllegalArgumentException e) {
+            // 预期
+        }
+        try {
+            ClassFileScanner.readClassName(bytes);
+            fail("Malformed class file must be rejected");
+        } catch (IllegalArgumentException e) {
+            // 预期
+        }
+    }
+
+    private static byte[] bytesOf(Class<?> clazz) {
+        String resource = clazz.getName().replace('.', '/') + ".class";
+        try (InputStream in = ClassLoader.getSystemResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Class file not found: " + resource);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String dotted(String internalName) {
+        return internalName == null ? null : internalName.replace('/', '.');
+    }
+
+    /**
+     * ASM 读取的结果
+     */
+    private static final class Expected extends ClassVisitor {
+
+        private String className;
+
+        private String superClassName;
+
+        private String nestHostName;
+
+        private final List<String> nestMemberNames = new ArrayList<>();
+
+        private int majorVersion;
+
+        private int minorVersion;
+
+        private Expected() {
+            super(Opcodes.ASM9);
+        }
+
+        static Expected read(byte[] bytes) {
+            Expected expected = new Expected();
+            new ClassReader(bytes).accept(expected, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            return expected;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            className = dotted(name);
+            superClassName = dotted(superName);
+            majorVersion = version & 0xFFFF;
+            minorVersion = version >>> 16;
+        }
+
+        @Override
+        public void visitNestHost(String nestHost) {
+            nestHostName = dotted(nestHost);
+        }
+
+        @Override
+        public void visitNestMember(String nestMember) {
+            nestMemberNames.add(dotted(nestMember));
+        }
+    }
+
+    static class Nested {
+
+        static class Inner {
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.zxch.hotswap.util;
+
+import org.junit.Test;
+
+import java.lang.instrument.ClassDefinition;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link RedefinePlanner} 测试
+ *
+ * @author zhangxun
+ */
+public class RedefinePlannerTest {
+
+    /**
+     * 每个类 1ms，与字节码大小无关
+     */
+    private static final RedefineCostModel PER_CLASS = new RedefineCostModel(1.0D, 0.0D);
+
+    @Test
+    public void planPacksWithinBudget() {
+        List<ClassDefinition[]> chunks = new RedefinePlanner(2, PER_CLASS)
+                .plan(definitions(Object.class, String.class, Integer.class, Long.class, Short.class));
+
+        assertEquals(Arrays.asList(
+                Arrays.asList(Object.class, String.class),
+                Arrays.asList(Integer.class, Long.class),
+                Arrays.asList(Short.class)), classesOf(chunks));
+    }
+
+    @Test
+    public void planKeepsEverythingInOneChunkWithinBudget() {
+        List<ClassDefinition[]> chunks = new RedefinePlanner(100, PER_CLASS)
+                .plan(definitions(Object.class, String.class, Integer.class));
+
+        assertEquals(Arrays.asList(Arrays.asList(Object.class, String.class, Integer.class)), classesOf(chunks));
+    }
+
+    @Test
+    public void planKeepsNestsTogether() {
+        assertEquals(Map.class, Map.Entry.class.getNestHost());
+        assertEquals(AbstractMap.class, AbstractMap.SimpleEntry.class.getNestHost());
+
+        List<ClassDefinition[]> chunks = new RedefinePlanner(2, PER_CLASS).plan(definitions(
+                Map.class, Object.class, AbstractMap.SimpleEntry.class, Map.Entry.class, AbstractMap.class));
+
+        // 同一 nest 的类按首次出现的位置排在一起，不会被拆到两块中
+        assertEquals(Arrays.asList(
+                Arrays.asList(Map.class, Map.Entry.class),
+                Arrays.asList(Object.class),
+                Arrays.asList(AbstractMap.SimpleEntry.class, AbstractMap.class)), classesOf(chunks));
+    }
+
+    @Test
+    public void planPutsOversizedNestOnItsOwn() {
+        List<ClassDefinition[]> chunks = new RedefinePlanner(1, PER_CLASS).plan(definitions(
+                Object.class, Map.class, Map.Entry.class, String.class));
+
+        assertEquals(Arrays.asList(
+                Arrays.asList(Object.class),
+                Arrays.asList(Map.class, Map.Entry.class),
+                Arrays.asList(String.class)), classesOf(chunks));
+    }
+
+    @Test
+    public void planAccountsForBytes() {
+        // 每 KB 1ms
+        RedefinePlanner planner = new RedefinePlanner(2, new RedefineCostModel(0.0D, 1.0D));
+        List<ClassDefinition[]> chunks = planner.plan(
+                new ClassDefinition(Object.class, new byte[1024]),
+                new ClassDefinition(String.class, new byte[512]),
+                new ClassDefinition(Integer.class, new byte[1024]),
+                new ClassDefinition(Long.class, new byte[4096]));
+
+        assertEquals(Arrays.asList(
+                Arrays.asList(Object.class, String.class),
+                Arrays.asList(Integer.class),
+                Arrays.asList(Long.class)), classesOf(chunks));
+    }
+
+    @Test
+    public void planReturnsEmptyForNoDefinitions() {
+        RedefinePlanner planner = new RedefinePlanner(2, PER_CLASS);
+        assertTrue(planner.plan().isEmpty());
+        assertTrue(planner.plan((ClassDefinition[]) null).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsNonPositiveBudget() {
+        new RedefinePlanner(0, PER_CLASS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsNullCostModel() {
+        new RedefinePlanner(2, null);
+    }
+
+    private static ClassDefinition[] definitions(Class<?>... classes) {
+        ClassDefinition[] definitions = new ClassDefinition[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            definitions[i] = new ClassDefinition(classes[i], new byte[]{1});
+        }
+        return definitions;
+    }
+
+    private static List<List<Class<?>>> classesOf(List<ClassDefinition[]> chunks) {
+        List<List<Class<?>>> classes = new ArrayList<>();
+        for (ClassDefinition[] chunk : chunks) {
+            List<Class<?>> chunkClasses = new ArrayList<>();
+            for (ClassDefinition definition : chunk) {
+                chunkClasses.add(definition.getDefinitionClass());
+            }
+            classes.add(chunkClasses);
+        }
+        return classes;
+    }
+}
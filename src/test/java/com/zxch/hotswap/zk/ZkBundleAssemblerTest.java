@@ -0,0 +1,194 @@
+package com.zxch.hotswap.zk;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+import static com.zxch.hotswap.zk.ZkPayloadCodecTest.assertClassesEqual;
+import static com.zxch.hotswap.zk.ZkPayloadCodecTest.classes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link ZkBundleAssembler} 测试
+ *
+ * @author zhangxun
+ */
+public class ZkBundleAssemblerTest {
+
+    private static final String BUNDLE = "/hotswap/bundle-1";
+
+    @Test
+    public void inlineBundleCompletesImmediately() throws ZipException {
+        List<byte[]> classes = classes(2, 100, 1);
+        ZkBundleAssembler assembler = new ZkBundleAssembler();
+
+        assertClassesEqual(classes, assembler.onBundle(BUNDLE, ZkPayloadCodec.encode(classes, true).getBundle()));
+        assertEquals(0, assembler.getPendingCount());
+    }
+
+    @Test
+    public void chunksBeforeBundle() throws ZipException {
+        List<byte[]> classes = classes(3, 500, 2);
+        ZkPayloadCodec.Encoded encoded = ZkPayloadCodec.encode(classes, false, 200);
+        List<byte[]> chunks = encoded.getChunks();
+        ZkBundleAssembler assembler = new ZkBundleAssembler();
+
+        long bytes = 0;
+        for (int i = chunks.size() - 1; i >= 0; i--) {
+            assertNull(assembler.onChunk(chunkPath(BUNDLE, i), chunks.get(i)));
+            bytes += chunks.get(i).length;
+        }
+        assertEquals(1, assembler.getPendingCount());
+        assertEquals(bytes, assembler.getPendingBytes());
+
+        assertClassesEqual(classes, assembler.onBundle(BUNDLE, encoded.getBundle()));
+        assertEquals(0, assembler.getPendingCount());
+        assertEquals(0, assembler.getPendingBytes());
+    }
+
+    @Test
+    public void chunksOutOfOrderAfterBundle() throws ZipException {
+        List<byte[]> classes = classes(3, 500, 3);
+        ZkPayloadCodec.Encoded encoded = ZkPayloadCodec.encode(classes, true, 200);
+        List<byte[]> chunks = encoded.getChunks();
+        assertTrue(chunks.size() >= 3);
+        ZkBundleAssembler assembler = new ZkBundleAssembler();
+
+        assertNull(assembler.onBundle(BUNDLE, encoded.getBundle()));
+        assertNull(assembler.onChunk(chunkPath(BUNDLE, 1), chunks.get(1)));
+        // 重复收到的分块只计一次
+        assertNull(assembler.onChunk(chunkPath(BUNDLE, 1), chunks.get(1)));
+        for (int i = chunks.size() - 1; i >= 2; i--) {
+            assertNull(assembler.onChunk(chunkPath(BUNDLE, i), chunks.get(i)));
+        }
+        assertClassesEqual(classes, assembler.onChunk(chunkPath(BUNDLE, 0), chunks.get(0)));
+        assertEquals(0, assembler.getPendingCount());
+        assertEquals(0, assembler.getPendingBytes());
+    }
+
+    @Test
+    public void badCrcDropsBundle() throws ZipException {
+        ZkPayloadCodec.Encoded encoded = ZkPayloadCodec.encode(classes(2, 500, 4), false, 200);
+        ZkBundleAssembler assembler = new ZkBundleAssembler();
+        assertNull(assembler.onBundle(BUNDLE, encoded.getBundle()));
+        assertNull(assembler.onChunk(chunkPath(BUNDLE, 0), encoded.getChunks().get(0)));
+
+        byte[] corrupt = encoded.getChunks().get(1).clone();
+        corrupt[ZkPayloadCodec.CHUNK_HEADER_SIZE] ^= 1;
+        try {
+            assembler.onChunk(chunkPath(BUNDLE, 1), corrupt);
+            fail("Corrupt chunk must be rejected");
+        } catch (ZipException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("CRC mismatch"));
+        }
+        assertEquals(0, assembler.getPendingCount());
+        assertEquals(0, assembler.getPendingBytes());
+    }
+
+    @Test
+    public void chunkIndexOutOfRangeAfterBundle() throws ZipException {
+        ZkPayloadCodec.Encoded encoded = ZkPayloadCodec.encode(classes(2, 500, 5), false, 200);
+        int chunkCount = encoded.getChunks().size();
+        ZkBundleAssembler assembler = new ZkBundleAssembler();
+        assertNull(assembler.onBundle(BUNDLE, encoded.getBundle()));
+
+        try {
+            assembler.onChunk(chunkPath(BUNDLE, chunkCount), chunk(chunkCount, new byte[]{1, 2, 3}));
+            fail("Chunk beyond the header's count must be rejected");
+        } catch (ZipException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("out of range"));
+        }
+        assertEquals(0, assembler.getPendingCount());
+
+        try {
+            assembler.onChunk(chunkPath(BUNDLE, 0), chunk(-1, new byte[]{1, 2, 3}));
+            fail("Negative chunk index must be rejected");
+        } catch (ZipException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("out of range"));
+        }
+    }
+
+    @Test
+    public void chunkIndexOutOfRangeBeforeBundle() throws ZipException {
+        ZkPayloadCodec.Encoded encoded = ZkPayloadCodec.encode(classes(2, 500, 6), false, 200);
+        int chunkCount = encoded.getChunks().size();
+        ZkBundleAssembler assembler = new ZkBundleAssembler();
+        assertNull(assembler.onChunk(chunkPath(BUNDLE, chunkCount), chunk(chunkCount, new byte[]{1, 2, 3})));
+
+        try {
+            assembler.onBundle(BUNDLE, encoded.getBundle());
+            fail("Chunk beyond the header's count must be rejected");
+        } catch (ZipException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("beyond its"));
+        }
+        assertEquals(0, assembler.getPendingCount());
+        assertEquals(0, assembler.getPendingBytes());
+    }
+
+    @Test
+    public void byteBudgetEvictsEldestBundle() throws ZipException {
+        ZkPayloadCodec.Encoded first = ZkPayloadCodec.encode(classes(2, 500, 7), false, 200);
+        ZkPayloadCodec.Encoded second = ZkPayloadCodec.encode(classes(2, 500, 8), false, 200);
+        String firstPath = "/hotswap/bundle-1";
+        String secondPath = "/hotswap/bundle-2";
+        byte[] firstChunk = first.getChunks().get(0);
+        byte[] secondChunk = second.getChunks().get(0);
+        // 能放下两个分块，放不下第三个
+        ZkBundleAssembler assembler = new ZkBundleAssembler(firstChunk.length + secondChunk.length + 10);
+
+        assertNull(assembler.onChunk(chunkPath(firstPath, 0), firstChunk));
+        assertNull(assembler.onChunk(chunkPath(secondPath, 0), secondChunk));
+        assertEquals(2, assembler.getPendingCount());
+
+        assertNull(assembler.onChunk(chunkPath(secondPath, 1), second.getChunks().get(1)));
+        assertEquals(1, assembler.getPendingCount());
+        assertEquals(secondChunk.length + second.getChunks().get(1).length, assembler.getPendingBytes());
+
+        // 最早的包已被丢弃，收到它的包节点时仍在等待分块
+        assertNull(assembler.onBundle(firstPath, first.getBundle()));
+        assertEquals(2, assembler.getPendingCount());
+    }
+
+    @Test
+    public void byteBudgetDropsCurrentBundleLast() {
+        ZkPayloadCodec.Encoded encoded = ZkPayloadCodec.encode(classes(2, 500, 9), false, 200);
+        byte[] firstChunk = encoded.getChunks().get(0);
+        ZkBundleAssembler assembler = new ZkBundleAssembler(firstChunk.length + 10);
+
+        try {
+            assertNull(assembler.onChunk(chunkPath(BUNDLE, 0), firstChunk));
+            assembler.onChunk(chunkPath(BUNDLE, 1), encoded.getChunks().get(1));
+            fail("Bundle over the byte budget must be rejected");
+        } catch (ZipException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("pending limit"));
+        }
+        assertEquals(0, assembler.getPendingCount());
+        assertEquals(0, assembler.getPendingBytes());
+    }
+
+    @Test(expected = ZipException.class)
+    public void chunkMustHaveBundleParent() throws ZipException {
+        new ZkBundleAssembler().onChunk("chunk-00000", chunk(0, new byte[]{1}));
+    }
+
+    private static String chunkPath(String bundlePath, int index) {
+        return bundlePath + "/chunk-" + String.format("%05d", index);
+    }
+
+    /**
+     * 构造任意序号的分块
+     */
+    private static byte[] chunk(int index, byte[] body) {
+        byte[] template = ZkPayloadCodec.encode(classes(1, 1000, 0), false, 128).getChunks().get(0);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return ByteBuffer.allocate(ZkPayloadCodec.CHUNK_HEADER_SIZE + body.length)
+                .put(template, 0, 5).putInt(index).putInt((int) crc.getValue()).put(body).array();
+    }
+}
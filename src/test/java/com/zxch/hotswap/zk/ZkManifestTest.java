@@ -0,0 +1,134 @@
+package com.zxch.hotswap.zk;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link ZkManifest} 测试
+ *
+ * @author zhangxun
+ */
+public class ZkManifestTest {
+
+    @Test
+    public void roundTrip() {
+        ZkManifest manifest = ZkManifest.of(Arrays.asList(
+                new ZkManifest.Entry("com.example.Foo", 0x0123456789ABCDEFL, 1024, "/hotswap/classes/com.example.Foo"),
+                new ZkManifest.Entry("com.example.Foo$Bar", 0xFFFFFFFFFFFFFFFFL, 1, "classpath:com/example/Foo$Bar.class"),
+                new ZkManifest.Entry("com.example.Baz", 0L, 7, "/hotswap/classes/com.example.Baz")));
+
+        byte[] data = manifest.toBytes();
+        assertTrue(new String(data, StandardCharsets.UTF_8).startsWith("#"));
+
+        List<ZkManifest.Entry> parsed = ZkManifest.parse(data).getEntries();
+        assertEquals(manifest.getEntries().size(), parsed.size());
+        for (int i = 0; i < parsed.size(); i++) {
+            ZkManifest.Entry expected = manifest.getEntries().get(i);
+            ZkManifest.Entry actual = parsed.get(i);
+            assertEquals(expected.getClassName(), actual.getClassName());
+            assertEquals(expected.getFingerprint(), actual.getFingerprint());
+            assertEquals(expected.getLength(), actual.getLength());
+            assertEquals(expected.getLocation(), actual.getLocation());
+        }
+        assertTrue(parsed.get(0).isZkLocation());
+        assertFalse(parsed.get(1).isZkLocation());
+    }
+
+    @Test
+    public void parseSkipsCommentsAndBlankLines() {
+        String text = "# header\n\n   \r\n  com.example.Foo   00000000000000ff\t12  /a/b  \r\n# trailing comment\n";
+        List<ZkManifest.Entry> entries = ZkManifest.parse(text.getBytes(StandardCharsets.UTF_8)).getEntries();
+
+        assertEquals(1, entries.size());
+        assertEquals("com.example.Foo", entries.get(0).getClassName());
+        assertEquals(0xFFL, entries.get(0).getFingerprint());
+        assertEquals(12, entries.get(0).getLength());
+        assertEquals("/a/b", entries.get(0).getLocation());
+    }
+
+    @Test
+    public void parseEmptyData() {
+        assertTrue(ZkManifest.parse(null).getEntries().isEmpty());
+        assertTrue(ZkManifest.parse(new byte[0]).getEntries().isEmpty());
+    }
+
+    @Test
+    public void parseRejectsMalformedLines() {
+        assertMalformed("com.example.Foo ff 12", 1);
+        assertMalformed("# header\ncom.example.Foo ff 12 /a extra", 2);
+        assertMalformed("com.example.Foo xyz 12 /a", 1);
+        assertMalformed("com.example.Foo 1ffffffffffffffff 12 /a", 1);
+        assertMalformed("\ncom.example.Foo ff twelve /a", 2);
+    }
+
+    @Test
+    public void parseRejectsInvalidEntries() {
+        assertRejected("com.example.Foo ff 0 /a");
+        assertRejected("com.example.Foo ff -1 /a");
+    }
+
+    @Test
+    public void rejectsDuplicateClasses() {
+        assertRejected("com.example.Foo ff 12 /a\ncom.example.Foo ee 13 /b");
+        try {
+            ZkManifest.of(Arrays.asList(
+                    new ZkManifest.Entry("com.example.Foo", 1L, 1, "/a"),
+                    new ZkManifest.Entry("com.example.Foo", 2L, 2, "/b")));
+            fail("Duplicate class must be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Duplicate"));
+        }
+    }
+
+    @Test
+    public void entryRejectsInvalidArguments() {
+        assertEntryRejected(null, 1, "/a");
+        assertEntryRejected("", 1, "/a");
+        assertEntryRejected("com.example.Foo Bar", 1, "/a");
+        assertEntryRejected("com.example.Foo", 0, "/a");
+        assertEntryRejected("com.example.Foo", 1, null);
+        assertEntryRejected("com.example.Foo", 1, "/a b");
+    }
+
+    @Test
+    public void deltaLocation() {
+        ZkManifest.Entry entry = new ZkManifest.Entry("com.example.Foo", 1L, 1, "/hotswap/classes/com.example.Foo");
+        assertEquals("/hotswap/classes/com.example.Foo/" + ZkManifest.DELTA_NODE_PREFIX + "00000000000000ff",
+                entry.getDeltaLocation(0xFFL));
+    }
+
+    private static void assertMalformed(String text, int line) {
+        try {
+            ZkManifest.parse(text.getBytes(StandardCharsets.UTF_8));
+            fail("Malformed manifest must be rejected: " + text);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed manifest line " + line + ":"));
+        }
+    }
+
+    private static void assertRejected(String text) {
+        try {
+            ZkManifest.parse(text.getBytes(StandardCharsets.UTF_8));
+            fail("Invalid manifest must be rejected: " + text);
+        } catch (IllegalArgumentException e) {
+            // 预期
+        }
+    }
+
+    private static void assertEntryRejected(String className, int length, String location) {
+        try {
+            new ZkManifest.Entry(className, 1L, length, location);
+            fail("Invalid entry must be rejected");
+        } catch (IllegalArgumentException e) {
+            // 预期
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.zxch.hotswap.zk;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link ZkPayloadCodec} 测试
+ *
+ * @author zhangxun
+ */
+public class ZkPayloadCodecTest {
+
+    @Test
+    public void inlineRoundTrip() throws ZipException {
+        for (boolean compress : new boolean[]{false, true}) {
+            List<byte[]> classes = classes(3, 200, 1);
+            ZkPayloadCodec.Encoded encoded = ZkPayloadCodec.encode(classes, compress);
+
+            assertTrue(ZkPayloadCodec.isBundle(encoded.getBundle()));
+            assertTrue(encoded.getChunks().isEmpty());
+            assertEquals(3, encoded.getClassCount());
+            assertEquals(encoded.getBundle().length - ZkPayloadCodec.HEADER_SIZE, encoded.getEncodedLength());
+            assertClassesEqual(classes, ZkPayloadCodec.decode(encoded.getBundle(), encoded.getChunks()));
+        }
+    }
+
+    @Test
+    public void compressionShrinksRepetitiveClasses() {
+        byte[] repetitive = new byte[4096];
+        Arrays.fill(repetitive, (byte) 'x');
+        List<byte[]> classes = Arrays.asList(repetitive, repetitive);
+
+        assertTrue(ZkPayloadCodec.encode(classes, true).getEncodedLength() < repetitive.length / 4);
+        assertEquals(2 * (4 + repetitive.length), ZkPayloadCodec.encode(classes, false).getEncodedLength());
+    }
+
+    @Test
+    public void chunkedRoundTrip() throws ZipException {
+        for (boolean compress : new boolean[]{false, true}) {
+            List<byte[]> classes = classes(5, 1000, 2);
+            int maxNodeBytes = 256;
+            ZkPayloadCodec.Encoded encoded = ZkPayloadCodec.encode(classes, compress, maxNodeBytes);
+
+            assertEquals(ZkPayloadCodec.HEADER_SIZE, encoded.getBundle().length);
+            assertTrue(encoded.getChunks().size() > 1);
+            int encodedLength = 0;
+            for (int i = 0; i < encoded.getChunks().size(); i++) {
+                byte[] chunk = encoded.getChunks().get(i);
+                assertTrue(ZkPayloadCodec.isChunk(chunk));
+                assertTrue(chunk.length <= maxNodeBytes);
+                assertEquals(i, ZkPayloadCodec.verifyChunk(chunk));
+                encodedLength += chunk.length - ZkPayloadCodec.CHUNK_HEADER_SIZE;
+            }
+            assertEquals(encoded.getEncodedLength(), encodedLength);
+            assertEquals(encoded.getChunks().size(), ZkPayloadCodec.readHeader(encoded.getBundle()).chunkCount);
+            assertClassesEqual(classes, ZkPayloadCodec.decode(encoded.getBundle(), encoded.getChunks()));
+        }
+    }
+
+    @Test
+    public void verifyChunkRejectsBadCrc() {
+        ZkPayloadCodec.Encoded encoded = ZkPayloadCodec.encode(classes(2, 1000, 3), false, 128);
+        byte[] chunk = encoded.getChunks().get(1).clone();
+        chunk[chunk.length - 1] ^= 1;
+
+        try {
+            ZkPayloadCodec.verifyChunk(chunk);
+            fail("Corrupt chunk must be rejected");
+        } catch (ZipException e) {
+            assertEquals("CRC mismatch in chunk 1", e.getMessage());
+        }
+    }
+
+    @Test
+    public void decodeRejectsCorruptData() {
+        ZkPayloadCodec.Encoded chunked = ZkPayloadCodec.encode(classes(2, 1000, 4), true, 128);
+        List<byte[]> missing = new ArrayList<>(chunked.getChunks());
+        missing.remove(missing.size() - 1);
+        assertDecodeFails(chunked.getBundle(), missing);
+
+        List<byte[]> swapped = new ArrayList<>(chunked.getChunks());
+        swapped.add(0, swapped.remove(1));
+        assertDecodeFails(chunked.getBundle(), swapped);
+
+        byte[] inline = ZkPayloadCodec.encode(classes(2, 100, 5), false).getBundle();
+        byte[] body = inline.clone();
+        body[body.length - 1] ^= 1;
+        assertDecodeFails(body, new ArrayList<>());
+        assertDecodeFails(Arrays.copyOf(inline, inline.length - 1), new ArrayList<>());
+
+        byte[] classCount = inline.clone();
+        ByteBuffer.wrap(classCount).putInt(6, 0);
+        assertDecodeFails(classCount, new ArrayList<>());
+
+        byte[] version = inline.clone();
+        version[4] = 99;
+        assertDecodeFails(version, new ArrayList<>());
+    }
+
+    @Test
+    public void encodeRejectsInvalidArguments() {
+        assertEncodeFails(null, 1024);
+        assertEncodeFails(new ArrayList<>(), 1024);
+        assertEncodeFails(Arrays.asList(new byte[1], new byte[0]), 1024);
+        assertEncodeFails(classes(1, 10, 6), ZkPayloadCodec.HEADER_SIZE + ZkPayloadCodec.CHUNK_HEADER_SIZE);
+    }
+
+    @Test
+    public void recognizesNodeKinds() {
+        ZkPayloadCodec.Encoded encoded = ZkPayloadCodec.encode(classes(1, 1000, 7), false, 128);
+        byte[] classFile = ByteBuffer.allocate(8).putInt(0xCAFEBABE).array();
+
+        assertTrue(ZkPayloadCodec.isClassFile(classFile));
+        assertFalse(ZkPayloadCodec.isBundle(classFile));
+        assertFalse(ZkPayloadCodec.isChunk(encoded.getBundle()));
+        assertFalse(ZkPayloadCodec.isBundle(encoded.getChunks().get(0)));
+        assertFalse(ZkPayloadCodec.isBundle(null));
+        assertFalse(ZkPayloadCodec.isChunk(new byte[2]));
+    }
+
+    /**
+     * 随机内容，基本不可压缩
+     */
+    static List<byte[]> classes(int count, int length, long seed) {
+        Random random = new Random(seed);
+        List<byte[]> classes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[length + i];
+            random.nextBytes(bytes);
+            classes.add(bytes);
+        }
+        return classes;
+    }
+
+    static void assertClassesEqual(List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i));
+        }
+    }
+
+    private static void assertDecodeFails(byte[] bundle, List<byte[]> chunks) {
+        try {
+            ZkPayloadCodec.decode(bundle, chunks);
+            fail("Corrupt bundle must be rejected");
+        } catch (ZipException e) {
+            // 预期
+        }
+    }
+
+    private static void assertEncodeFails(List<byte[]> classes, int maxNodeBytes) {
+        try {
+            ZkPayloadCodec.encode(classes, false, maxNodeBytes);
+            fail("Invalid arguments must be rejected");
+        } catch (IllegalArgumentException e) {
+            // 预期
+        }
+    }
+}